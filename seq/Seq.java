@@ -9,6 +9,14 @@ public class Seq
     {
     public static void main(String[] args) throws Exception
         {
-        seq.gui.SeqUI.main(args);
+        if (args.length > 0 && args[0].equals("-headless"))
+            {
+            // Play a file with no GUI.  We don't touch SeqUI so as not to load Swing and FlatLaf.
+            seq.engine.Player.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            }
+        else
+            {
+            seq.gui.SeqUI.main(args);
+            }
         }
     }
@@ -159,6 +159,12 @@ public abstract class Clip
     /** Sets the current position.  It'd be best if you only called this in reset() or in loop(). */
     public void setPosition(int val) { position = val; }
 
+    /** Returns a copy of whatever the Clip's MotifUI needs to draw where the Clip is playing, or null.  
+        The Seq stores this in its Snapshots, so the MotifUI can draw its playhead without acquiring the lock: 
+        see MotifUI.getDisplayPlayhead().  This is called with the lock held, so it must not return anything 
+        which the Clip will later change.  By default returns null. */
+    public Object getPlayhead() { return null; }
+
     /** Plays the clip for the sliver of time at its current position.  The clip has already
         been set as its motif's playing clip, and the parameters have already been loaded. 
         Returns TRUE if the Clip believes it is FINISHED at the conclusion of this processing 
@@ -550,13 +556,123 @@ public abstract class Clip
     
         
     ///// MIDI METHODS
-    
+
+    // Am I presently advancing a child with advanceBatched(...), so that the events it emits go into the Seq's EventBatch?
+    boolean collecting = false;
+
+    /** Advances the given child, collecting the events it emits into the Seq's EventBatch rather than
+        receiving them one at a time through noteOn(...), noteOff(...), etc.  When the child is done, the
+        events are transformed all at once by transformBatch(...), then passed up to my parent, unless
+        my parent is collecting them as well.  Returns whatever the child's advance() returned.  
+        If the Seq isn't batching, this just advances the child.  */
+    public boolean advanceBatched(Clip child)
+        {
+        if (!seq.batching) return child.advance();
         
+        EventBatch batch = seq.eventBatch;
+        int start = batch.size();
+        boolean wasCollecting = collecting;
+        boolean result;
+        collecting = true;
+        try
+            {
+            result = child.advance();
+            }
+        finally
+            {
+            collecting = wasCollecting;
+            }
+        int end = batch.size();
+        if (end > start)
+            {
+            transformBatch(batch, start, end);
+            if (!wasCollecting && (seq.root == this || !parent.collecting))
+                {
+                flushBatch(batch, start, end);
+                }
+            }
+        return result;
+        }
+
+    /** Transforms the events from START to END in the batch, which were emitted by a child advanced with
+        advanceBatched(...).  This must do to them exactly what noteOn(...), noteOff(...), etc. would have
+        done to them one at a time.  By default this does nothing. */
+    public void transformBatch(EventBatch batch, int start, int end) { }
+
+    // Sends the events from START to END in the batch on to my parent (or the Seq if I'm the root),
+    // bypassing my own noteOn(...), noteOff(...), etc. since transformBatch(...) has already been applied,
+    // then removes them from the batch.
+    void flushBatch(EventBatch batch, int start, int end)
+        {
+        boolean root = (seq.root == this);
+        for(int i = start; i < end; i++)
+            {
+            int out = batch.outs[i];
+            int d1 = batch.data1[i];
+            int d2 = batch.data2[i];
+            switch(batch.kinds[i])
+                {
+                case(EventBatch.NOTE_ON):
+                    if (root) seq.noteOn(out, d1, batch.velocities[i]);
+                    else parent.noteOn(out, d1, batch.velocities[i], batch.ids[i]);
+                    break;
+                case(EventBatch.NOTE_OFF):
+                    if (root) seq.noteOff(out, d1, batch.velocities[i]);
+                    else parent.noteOff(out, d1, batch.velocities[i], batch.ids[i]);
+                    break;
+                case(EventBatch.SCHEDULE_NOTE_ON):
+                    if (root) seq.scheduleNoteOn(out, d1, batch.velocities[i], batch.times[i]);
+                    else parent.scheduleNoteOn(out, d1, batch.velocities[i], batch.times[i], batch.ids[i]);
+                    break;
+                case(EventBatch.SCHEDULE_NOTE_OFF):
+                    if (root) seq.scheduleNoteOff(out, d1, batch.velocities[i], batch.times[i]);
+                    else parent.scheduleNoteOff(out, d1, batch.velocities[i], batch.times[i], batch.ids[i]);
+                    break;
+                case(EventBatch.BEND):
+                    if (root) seq.bend(out, d1);
+                    else parent.bend(out, d1);
+                    break;
+                case(EventBatch.CC):
+                    if (root) seq.cc(out, d1, d2);
+                    else parent.cc(out, d1, d2);
+                    break;
+                case(EventBatch.PC):
+                    if (root) seq.pc(out, d1);
+                    else parent.pc(out, d1);
+                    break;
+                case(EventBatch.AFTERTOUCH):
+                    if (root) seq.aftertouch(out, d1, d2);
+                    else parent.aftertouch(out, d1, d2);
+                    break;
+                case(EventBatch.NRPN):
+                    if (root) seq.nrpn(out, d1, d2);
+                    else parent.nrpn(out, d1, d2);
+                    break;
+                case(EventBatch.NRPN_COARSE):
+                    if (root) seq.nrpnCoarse(out, d1, d2);
+                    else parent.nrpnCoarse(out, d1, d2);
+                    break;
+                case(EventBatch.RPN):
+                    if (root) seq.rpn(out, d1, d2);
+                    else parent.rpn(out, d1, d2);
+                    break;
+                case(EventBatch.SYSEX):
+                    if (root) seq.sysex(out, batch.sysex[i]);
+                    else parent.sysex(out, batch.sysex[i]);
+                    break;
+                }
+            }
+        // An ancestor further up may be collecting and so have appended to the batch while we flushed,
+        // so remove only our own events
+        batch.remove(start, end);
+        }
+
     /** Sends a sysex message to the given out.  
         Returns true if the message was successfully sent.  */
     public void sysex(int out, byte[] sysex)
         {
         if (seq.root == this) seq.sysex(out, sysex);
+        else if (parent.collecting) seq.eventBatch.sysex[seq.eventBatch.add(EventBatch.SYSEX, out, 0, 0, 0, 0, 0)] = sysex;
         else parent.sysex(out, sysex); 
         }
 
@@ -577,6 +693,7 @@ public abstract class Clip
     public void noteOn(int out, int note, double vel, int id) 
         {
         if (seq.root == this) seq.noteOn(out, note, vel);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NOTE_ON, out, note, 0, vel, id, 0);
         else parent.noteOn(out, note, vel, id); 
         }
         
@@ -587,6 +704,7 @@ public abstract class Clip
     public void noteOff(int out, int note, double vel, int id) 
         {
         if (seq.root == this) seq.noteOff(out, note, vel);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NOTE_OFF, out, note, 0, vel, id, 0);
         else parent.noteOff(out, note, vel, id); 
         }
         
@@ -595,6 +713,7 @@ public abstract class Clip
     public void bend(int out, int val) 
         {
         if (seq.root == this) seq.bend(out, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.BEND, out, val, 0, 0, 0, 0);
         else parent.bend(out, val); 
         }
         
@@ -603,6 +722,7 @@ public abstract class Clip
     public void cc(int out, int cc, int val) 
         {
         if (seq.root == this) seq.cc(out, cc, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.CC, out, cc, val, 0, 0, 0);
         else parent.cc(out, cc, val); 
         }
         
@@ -611,6 +731,7 @@ public abstract class Clip
     public void pc(int out, int val) 
         {
         if (seq.root == this) seq.pc(out, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.PC, out, val, 0, 0, 0, 0);
         else parent.pc(out, val); 
         }
         
@@ -622,6 +743,7 @@ public abstract class Clip
     public void aftertouch(int out, int note, int val) 
         {
         if (seq.root == this) seq.aftertouch(out, note, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.AFTERTOUCH, out, note, val, 0, 0, 0);
         else parent.aftertouch(out, note, val); 
         }
 
@@ -630,6 +752,7 @@ public abstract class Clip
     public void nrpn(int out, int nrpn, int val) 
         {
         if (seq.root == this) seq.nrpn(out, nrpn, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NRPN, out, nrpn, val, 0, 0, 0);
         else parent.nrpn(out, nrpn, val); 
         }
         
@@ -639,6 +762,7 @@ public abstract class Clip
     public void nrpnCoarse(int out, int nrpn, int msb) 
         {
         if (seq.root == this) seq.nrpnCoarse(out, nrpn, msb);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NRPN_COARSE, out, nrpn, msb, 0, 0, 0);
         else parent.nrpnCoarse(out, nrpn, msb); 
         }
 
@@ -647,6 +771,7 @@ public abstract class Clip
     public void rpn(int out, int rpn, int val) 
         {
         if (seq.root == this) seq.rpn(out, rpn, val);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.RPN, out, rpn, val, 0, 0, 0);
         else parent.rpn(out, rpn, val); 
         }
         
@@ -670,6 +795,7 @@ public abstract class Clip
     public void scheduleNoteOn(int out, int note, double vel, int time, int id) 
         {
         if (seq.root == this) seq.scheduleNoteOn(out, note, vel, time);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.SCHEDULE_NOTE_ON, out, note, 0, vel, id, time);
         else parent.scheduleNoteOn(out, note, vel, time, id); 
         }
 
@@ -681,6 +807,7 @@ public abstract class Clip
     public void scheduleNoteOff(int out, int note, double vel, int time, int id) 
         {
         if (seq.root == this) seq.scheduleNoteOff(out, note, vel, time);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.SCHEDULE_NOTE_OFF, out, note, 0, vel, id, time);
         else parent.scheduleNoteOff(out, note, vel, time, id); 
         }
         
@@ -796,6 +923,7 @@ public abstract class Clip
     public void sendNoteOn(int out, int note, double vel, int id) 
         {
         if (seq.root == this) seq.noteOn(out, note, vel);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NOTE_ON, out, note, 0, vel, id, 0);
         else parent.noteOn(out, note, vel, id); 
         }
         
@@ -806,6 +934,7 @@ public abstract class Clip
     public void sendNoteOff(int out, int note, double vel, int id) 
         {
         if (seq.root == this) seq.noteOff(out, note, vel);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.NOTE_OFF, out, note, 0, vel, id, 0);
         else parent.noteOff(out, note, vel, id); 
         }
         
@@ -829,6 +958,7 @@ public abstract class Clip
     public void sendScheduleNoteOn(int out, int note, double vel, int time, int id) 
         {
         if (seq.root == this) seq.scheduleNoteOn(out, note, vel, time);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.SCHEDULE_NOTE_ON, out, note, 0, vel, id, time);
         else parent.scheduleNoteOn(out, note, vel, time, id); 
         }
 
@@ -840,6 +970,7 @@ public abstract class Clip
     public void sendScheduleNoteOff(int out, int note, double vel, int time, int id) 
         {
         if (seq.root == this) seq.scheduleNoteOff(out, note, vel, time);
+        else if (parent.collecting) seq.eventBatch.add(EventBatch.SCHEDULE_NOTE_OFF, out, note, 0, vel, id, time);
         else parent.scheduleNoteOff(out, note, vel, time, id); 
         }
         
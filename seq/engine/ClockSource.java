@@ -0,0 +1,205 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+/**
+   Abstract superclass of the drivers which pulse the sequencer once per PPQ tick.
+   A ClockSource is started with a Runnable (normally a call to Seq.step()) and
+   the interval, in nanoseconds, of a single tick.  Deadlines are computed from
+   System.nanoTime() as an absolute origin plus a whole number of intervals, so
+   error does not accumulate from tick to tick.
+
+   <p>Every time a tick is fired, the ClockSource records its <i>lateness</i>, that is,
+   how many nanoseconds after its ideal deadline the tick actually started.  These
+   statistics can be queried from any thread and are reset each time the ClockSource
+   is started.
+
+   <p>There are presently two ClockSources.  EXECUTOR is the original approach: a
+   ScheduledExecutorService wakes up once a millisecond and fires as many ticks as
+   are due, so ticks are emitted in bursts.  PRECISE is a dedicated thread which parks
+   until just before each deadline and then spin-waits the remainder, firing each tick
+   individually.  PRECISE is considerably more accurate but costs more CPU.
+**/
+
+public abstract class ClockSource
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int EXECUTOR = 0;
+    public static final int PRECISE = 1;
+    public static final String[] NAMES = { "Standard", "High Resolution" };
+    public static final int DEFAULT = EXECUTOR;
+
+    /** The name of the thread which runs the sequencer */
+    public static final String THREAD_NAME = "Seq Sequencer Thread";
+
+    /** If a tick is later than this many intervals, we give up catching up and
+        rebase the clock at the current time.  This happens when the machine sleeps,
+        or when there is an extraordinarily long GC pause.  */
+    public static final int MAX_CATCH_UP_TICKS = 48;
+
+    /** The width, in nanoseconds, of each bucket in the lateness histogram */
+    public static final long HISTOGRAM_BUCKET_NANOS = 100000L;                      // 0.1 ms
+    /** The number of buckets in the lateness histogram.  The final bucket holds everything later than the others. */
+    public static final int HISTOGRAM_BUCKETS = 51;
+
+    /** Builds a ClockSource of the given type, either EXECUTOR or PRECISE.  */
+    public static ClockSource build(int type)
+        {
+        if (type == PRECISE) return new PreciseClockSource();
+        else return new ExecutorClockSource();
+        }
+
+    /** Returns the type of the ClockSource, either EXECUTOR or PRECISE. */
+    public abstract int getType();
+
+    /** Starts pulsing the given tick Runnable once every nanosPerTick, stopping
+        any existing pulsing first. The first tick is fired immediately.
+        Statistics are reset.  */
+    public abstract void start(Runnable tick, long nanosPerTick);
+
+    /** Stops pulsing.  This method may be called from within the tick Runnable itself. */
+    public abstract void stop();
+
+    /** Returns true if the ClockSource is presently pulsing. */
+    public abstract boolean isRunning();
+
+    // The deadline, in System.nanoTime() nanoseconds, of the tick most recently fired
+    volatile long currentDeadline;
+
+    /** Returns the ideal time, in System.nanoTime() nanoseconds, of the tick most recently fired
+        (or presently being fired).  This is when the tick <i>should</i> have happened, not when
+        it actually did. */
+    public long getCurrentDeadline() { return currentDeadline; }
+
+    /** Changes the interval of a running ClockSource.  The clock is rebased at the
+        most recent deadline, so ticks already fired are not recomputed with the new interval. */
+    public abstract void setInterval(long nanosPerTick);
+
+
+
+    ///// STATISTICS
+
+    // Lock for the statistics
+    Object statsLock = new Object[0];
+    // Number of ticks fired
+    long ticks;
+    // Sum of lateness in nanos
+    double latenessSum;
+    // Sum of squared lateness in nanos
+    double latenessSquaredSum;
+    // Largest lateness in nanos
+    long maxLateness;
+    // Number of times we had to rebase the clock because we fell too far behind
+    long rebases;
+    // Lateness histogram
+    long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+    /** Clears the statistics */
+    public void resetStatistics()
+        {
+        synchronized(statsLock)
+            {
+            ticks = 0;
+            latenessSum = 0;
+            latenessSquaredSum = 0;
+            maxLateness = 0;
+            rebases = 0;
+            for(int i = 0; i < histogram.length; i++) histogram[i] = 0;
+            }
+        }
+
+    // Records the lateness of a single tick.  Early ticks are considered to have lateness 0.
+    void recordLateness(long nanos)
+        {
+        if (nanos < 0) nanos = 0;
+        int bucket = (int)Math.min(nanos / HISTOGRAM_BUCKET_NANOS, HISTOGRAM_BUCKETS - 1);
+        synchronized(statsLock)
+            {
+            ticks++;
+            latenessSum += nanos;
+            latenessSquaredSum += ((double)nanos) * nanos;
+            if (nanos > maxLateness) maxLateness = nanos;
+            histogram[bucket]++;
+            }
+        }
+
+    // Records that the clock fell too far behind and was rebased
+    void recordRebase()
+        {
+        synchronized(statsLock)
+            {
+            rebases++;
+            }
+        }
+
+    /** Returns the number of ticks fired since the ClockSource was last started. */
+    public long getTicks() { synchronized(statsLock) { return ticks; } }
+
+    /** Returns the number of times the ClockSource fell more than MAX_CATCH_UP_TICKS behind and had to be rebased. */
+    public long getRebases() { synchronized(statsLock) { return rebases; } }
+
+    /** Returns the mean lateness of ticks, in nanoseconds. */
+    public double getMeanLateness()
+        {
+        synchronized(statsLock)
+            {
+            return (ticks == 0 ? 0 : latenessSum / ticks);
+            }
+        }
+
+    /** Returns the standard deviation of the lateness of ticks, in nanoseconds. */
+    public double getLatenessStandardDeviation()
+        {
+        synchronized(statsLock)
+            {
+            if (ticks < 2) return 0;
+            double mean = latenessSum / ticks;
+            double var = (latenessSquaredSum - mean * latenessSum) / (ticks - 1);
+            return (var <= 0 ? 0 : Math.sqrt(var));
+            }
+        }
+
+    /** Returns the maximum lateness of ticks, in nanoseconds. */
+    public long getMaxLateness() { synchronized(statsLock) { return maxLateness; } }
+
+    /** Returns a copy of the lateness histogram.  Bucket <i>i</i> holds the number of ticks
+        whose lateness was at least i * HISTOGRAM_BUCKET_NANOS but less than (i+1) * HISTOGRAM_BUCKET_NANOS.
+        The final bucket holds all remaining later ticks. */
+    public long[] getHistogram()
+        {
+        synchronized(statsLock)
+            {
+            return histogram.clone();
+            }
+        }
+
+    /** Returns the fraction of ticks which were at least the given number of nanoseconds late,
+        to the resolution of the histogram. */
+    public double getFractionLaterThan(long nanos)
+        {
+        int bucket = (int)Math.min(nanos / HISTOGRAM_BUCKET_NANOS, HISTOGRAM_BUCKETS - 1);
+        synchronized(statsLock)
+            {
+            if (ticks == 0) return 0;
+            long count = 0;
+            for(int i = bucket; i < histogram.length; i++) count += histogram[i];
+            return count / (double)ticks;
+            }
+        }
+
+    /** Returns a human-readable summary of the statistics, with times in milliseconds. */
+    public String getStatistics()
+        {
+        return NAMES[getType()] + " Timer" +
+            "\nTicks: " + getTicks() +
+            "\nMean Lateness: " + String.format("%.3f", getMeanLateness() / 1000000.0) + " ms" +
+            "\nStd. Dev.: " + String.format("%.3f", getLatenessStandardDeviation() / 1000000.0) + " ms" +
+            "\nMax Lateness: " + String.format("%.3f", getMaxLateness() / 1000000.0) + " ms" +
+            "\nOver 1 ms Late: " + String.format("%.2f", getFractionLaterThan(1000000L) * 100.0) + "%" +
+            "\nRebases: " + getRebases();
+        }
+    }
@@ -0,0 +1,274 @@
+/*
+  Copyright 2025 by Sean Luke and George Mason University
+  Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import seq.motif.notes.*;
+import seq.motif.series.*;
+import seq.motif.select.*;
+import java.util.*;
+
+/**
+   A batch of MIDI events emitted by Clips during a step, stored as parallel primitive arrays
+   (a "struct of arrays").  Normally when a Clip emits an event, it is passed up the Clip tree one
+   event and one level at a time, each parent transforming it (transposing it, changing its Out, etc.)
+   in its noteOn(...), noteOff(...) etc. methods.  Instead a parent Clip may advance its child with
+   Clip.advanceBatched(...): the events its child emits are then appended here, and when the child is
+   done the parent transforms all of them at once in Clip.transformBatch(...), then passes them up.
+   If the grandparent is also batching, they stay here for it to transform in turn.
+
+   <p>There is one EventBatch per Seq.  It is only used from the sequencer thread.
+**/
+
+public class EventBatch
+    {
+    // EVENT KINDS
+    public static final byte NOTE_ON = 0;
+    public static final byte NOTE_OFF = 1;
+    public static final byte SCHEDULE_NOTE_ON = 2;
+    public static final byte SCHEDULE_NOTE_OFF = 3;
+    public static final byte BEND = 4;
+    public static final byte CC = 5;
+    public static final byte PC = 6;
+    public static final byte AFTERTOUCH = 7;
+    public static final byte NRPN = 8;
+    public static final byte NRPN_COARSE = 9;
+    public static final byte RPN = 10;
+    public static final byte SYSEX = 11;
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // The kind of each event
+    byte[] kinds;
+    // The out of each event
+    int[] outs;
+    // The note, CC, NRPN, or RPN of each event, or the value of a BEND or PC
+    int[] data1;
+    // The value of a CC, AFTERTOUCH, NRPN, NRPN_COARSE, or RPN
+    int[] data2;
+    // The velocity of each note
+    double[] velocities;
+    // The id of each note
+    int[] ids;
+    // The time of each scheduled note
+    int[] times;
+    // The data of each sysex
+    byte[][] sysex;
+    int size = 0;
+
+    public EventBatch() { this(DEFAULT_CAPACITY); }
+
+    public EventBatch(int capacity)
+        {
+        if (capacity < 1) capacity = 1;
+        kinds = new byte[capacity];
+        outs = new int[capacity];
+        data1 = new int[capacity];
+        data2 = new int[capacity];
+        velocities = new double[capacity];
+        ids = new int[capacity];
+        times = new int[capacity];
+        sysex = new byte[capacity][];
+        }
+
+    /** Returns the number of events in the batch. */
+    public int size() { return size; }
+
+    /** Removes all events from the batch. */
+    public void clear() { truncate(0); }
+
+    /** Removes all events from the given position onward. */
+    public void truncate(int start)
+        {
+        for(int i = start; i < size; i++) sysex[i] = null;             // let it GC
+        size = start;
+        }
+
+    /** Removes the events from START to END, moving any later events down to fill the gap. */
+    public void remove(int start, int end)
+        {
+        int len = size - end;
+        if (len > 0)
+            {
+            System.arraycopy(kinds, end, kinds, start, len);
+            System.arraycopy(outs, end, outs, start, len);
+            System.arraycopy(data1, end, data1, start, len);
+            System.arraycopy(data2, end, data2, start, len);
+            System.arraycopy(velocities, end, velocities, start, len);
+            System.arraycopy(ids, end, ids, start, len);
+            System.arraycopy(times, end, times, start, len);
+            System.arraycopy(sysex, end, sysex, start, len);
+            }
+        truncate(start + len);
+        }
+
+    /** Returns the kind of event i. */
+    public byte getKind(int i) { return kinds[i]; }
+    /** Returns the Out of event i. */
+    public int getOut(int i) { return outs[i]; }
+
+    // Appends an event and returns its index
+    int add(byte kind, int out, int d1, int d2, double vel, int id, int time)
+        {
+        if (size == kinds.length) resize(size * 2);
+        int i = size++;
+        kinds[i] = kind;
+        outs[i] = out;
+        data1[i] = d1;
+        data2[i] = d2;
+        velocities[i] = vel;
+        ids[i] = id;
+        times[i] = time;
+        return i;
+        }
+
+    void resize(int capacity)
+        {
+        kinds = Arrays.copyOf(kinds, capacity);
+        outs = Arrays.copyOf(outs, capacity);
+        data1 = Arrays.copyOf(data1, capacity);
+        data2 = Arrays.copyOf(data2, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        times = Arrays.copyOf(times, capacity);
+        sysex = Arrays.copyOf(sysex, capacity);
+        }
+
+    /** Changes the Out, transposes, and scales the velocity of all notes from START to END, as Series and Select do
+        for their children.  If OUT is negative, the Out is not changed.  Note pitches are bounded to 0...127, and
+        NOTE ON velocities are multiplied by GAIN and bounded to at most 127.  The times of scheduled NOTE OFFs
+        are divided by RATE.  Scheduled NOTE ONs are not changed.  */
+    public void transformNotes(int start, int end, int out, int transpose, double gain, double rate)
+        {
+        byte[] kinds = this.kinds;
+        int[] outs = this.outs;
+        int[] notes = this.data1;
+        double[] velocities = this.velocities;
+        int[] times = this.times;
+        for(int i = start; i < end; i++)
+            {
+            byte kind = kinds[i];
+            if (kind > SCHEDULE_NOTE_OFF || kind == SCHEDULE_NOTE_ON) continue;
+            if (out >= 0) outs[i] = out;
+            int note = notes[i] + transpose;
+            if (note > 127) note = 127;                 // FIXME: should we instead just not play the note?
+            if (note < 0) note = 0;                             // FIXME: should we instead just not play the note?
+            notes[i] = note;
+            if (kind == NOTE_ON)
+                {
+                double vel = velocities[i] * gain;
+                if (vel > 127) vel = 127;                   // FIXME: should we check for vel = 0?
+                velocities[i] = vel;
+                }
+            else if (kind == SCHEDULE_NOTE_OFF)
+                {
+                times[i] = (int)(times[i] / rate);
+                }
+            }
+        }
+
+
+    /** Benchmarks batching.  Builds a DAG of Series and Select nested DEPTH deep (default 8), each with its own 
+        transpose, gain, and out override, over a Notes of CHORDS 32-note chords (default 2000).  Renders it 
+        with batching on and off, checks that the two are the same event for event, and reports the best time 
+        per event of each.  Exits with status 1 if they differ.  Run it as:
+
+        <pre>
+        java seq.engine.EventBatch [DEPTH [CHORDS]]
+        </pre>
+    */
+    public static void main(String[] args) throws Exception
+        {
+        int depth = (args.length > 0 ? Integer.parseInt(args[0]) : 8);
+        int numChords = (args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+        Seq seq = new Seq();
+        seq.setupForMIDI();
+        
+        Notes notes = new Notes(seq);
+        ArrayList<Notes.Event> events = new ArrayList<>();
+        for(int i = 0; i < numChords; i++)
+            for(int j = 0; j < 32; j++)
+                events.add(new Notes.Note(32 + j * 2 + i % 5, 40 + j, i * (Seq.PPQ / 2), Seq.PPQ / 4, 64, 0));
+        notes.setEvents(events);
+        notes.sortEvents();
+        seq.addMotif(notes);
+        
+        // Alternate Series and Select up to the root
+        Motif motif = notes;
+        for(int level = 0; level < depth; level++)
+            {
+            int transpose = (level % 3) - 1;
+            double gain = (level % 2 == 0 ? 1.1 : 0.9);
+            int out = level % Seq.NUM_OUTS;
+            if (level % 2 == 0)
+                {
+                Series series = new Series(seq);
+                series.add(motif, 0, 0.0);
+                Series.Data data = (Series.Data)(series.getChildren().get(0).getData());
+                data.setTranspose(Series.Data.MAX_TRANSPOSE + transpose);
+                data.setGain(gain);
+                data.setOut(out);
+                motif = series;
+                }
+            else
+                {
+                Select select = new Select(seq);
+                select.replaceChild(motif, 0);
+                Select.Data data = (Select.Data)(select.getChildren().get(0).getData());
+                data.setTranspose(Select.Data.MAX_TRANSPOSE + transpose);
+                data.setGain(gain);
+                data.setOut(out);
+                motif = select;
+                }
+            seq.addMotif(motif);
+            }
+        seq.setData(motif);
+
+        Renderer renderer = new Renderer(seq);
+        renderer.setMulti(true);
+        renderer.setBars(numChords / 8 + 1);            // a chord every half beat, so eight in a four-beat bar
+        javax.sound.midi.Sequence[][] results = new javax.sound.midi.Sequence[2][];
+        long[] best = new long[2];
+        for(int b = 0; b < 2; b++)
+            {
+            seq.setBatching(b == 1);
+            seq.setData(motif);                 // fresh clips for each render, as a nested Select doesn't fully reset
+            renderer.render();                  // warm up
+            best[b] = Long.MAX_VALUE;
+            for(int rep = 0; rep < 5; rep++)
+                {
+                seq.setData(motif);
+                long time = System.nanoTime();
+                results[b] = renderer.render();
+                best[b] = Math.min(best[b], System.nanoTime() - time);
+                }
+            }
+        seq.setBatching(true);
+        
+        // Compare them
+        int size = 0;
+        boolean same = true;
+        for(int i = 0; i < results[0].length; i++)
+            {
+            if ((results[0][i] == null) != (results[1][i] == null)) { same = false; continue; }
+            if (results[0][i] == null) continue;
+            javax.sound.midi.Track a = results[0][i].getTracks()[0];
+            javax.sound.midi.Track b = results[1][i].getTracks()[0];
+            if (a.size() != b.size()) { same = false; continue; }
+            size += a.size();
+            for(int j = 0; j < a.size(); j++)
+                {
+                if (a.get(j).getTick() != b.get(j).getTick() ||
+                    !Arrays.equals(a.get(j).getMessage().getMessage(), b.get(j).getMessage().getMessage()))
+                    { same = false; break; }
+                }
+            }
+            
+        System.err.println("Depth " + depth + ", " + size + " events: per-event " + String.format("%.1f", best[0] / (double)size) + 
+            " ns/event, batched " + String.format("%.1f", best[1] / (double)size) + " ns/event, " + 
+            (same ? "output identical" : "OUTPUT DIFFERS"));
+        System.exit(same ? 0 : 1);
+        }
+    }
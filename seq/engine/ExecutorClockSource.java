@@ -0,0 +1,120 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.util.concurrent.*;
+
+/**
+   A ClockSource which wakes up once per millisecond on a ScheduledExecutorService
+   and fires every tick whose deadline has passed.  This is cheap on the CPU but
+   emits ticks in bursts of 0-2 per wakeup at typical tempos.
+**/
+
+public class ExecutorClockSource extends ClockSource
+    {
+    private static final long serialVersionUID = 1;
+
+    ScheduledExecutorService scheduler;
+    ScheduledFuture<?> handle;
+
+    // The following are only accessed while holding the lock on this object
+    // Time, in nanos, of tick 0
+    long origin;
+    // Number of ticks fired since origin
+    long fired;
+    // Interval in nanos
+    long interval;
+
+    public int getType() { return EXECUTOR; }
+
+    public synchronized boolean isRunning() { return handle != null; }
+
+    public void start(final Runnable tick, long nanosPerTick)
+        {
+        stop();
+        resetStatistics();
+        synchronized(this)
+            {
+            interval = nanosPerTick;
+            origin = System.nanoTime();
+            fired = 0;
+
+            Runnable task = new Runnable()
+                {
+                public void run()
+                    {
+                    if (!Thread.currentThread().getName().equals(THREAD_NAME))
+                        {
+                        Thread.currentThread().setName(THREAD_NAME);
+                        }
+                    pulse(tick);
+                    }
+                };
+
+            scheduler = Executors.newScheduledThreadPool(1);
+            handle = scheduler.scheduleAtFixedRate(task, 0, 1, TimeUnit.MILLISECONDS);
+            }
+        }
+
+    // Fires all ticks which are due
+    void pulse(Runnable tick)
+        {
+        while(true)
+            {
+            long now = System.nanoTime();
+            long deadline;
+            synchronized(this)
+                {
+                if (handle == null) return;             // we've been stopped
+                deadline = origin + fired * interval;
+                if (deadline > now) return;             // nothing more due
+                if (now - deadline > MAX_CATCH_UP_TICKS * interval)
+                    {
+                    // we've fallen hopelessly behind, rebase
+                    origin = now;
+                    fired = 0;
+                    deadline = now;
+                    recordRebase();
+                    }
+                fired++;
+                }
+            recordLateness(now - deadline);
+            currentDeadline = deadline;
+            try
+                {
+                tick.run();
+                }
+            catch (Exception ex)
+                {
+                System.err.println("Exception thrown during step: " + ex);
+                ex.printStackTrace();
+                }
+            }
+        }
+
+    public void stop()
+        {
+        ScheduledExecutorService s = null;
+        synchronized(this)
+            {
+            if (handle != null)
+                {
+                handle.cancel(false);
+                s = scheduler;
+                handle = null;
+                scheduler = null;               // let it (and the Seq instance!) GC
+                }
+            }
+        if (s != null) s.shutdown();
+        }
+
+    public synchronized void setInterval(long nanosPerTick)
+        {
+        origin = origin + fired * interval;
+        fired = 0;
+        interval = nanosPerTick;
+        }
+    }
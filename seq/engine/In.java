@@ -15,23 +15,59 @@ import javax.sound.midi.*;
    When incoming messages arrive they are stored in the in, and can
    then can be retrieved and cleared via the getMessages() method, which
    is threadsafe.
+   
+   <p>The mailbox is a lock-free single-producer, single-consumer ring buffer:
+   the producer is the MIDI device's callback thread, which calls send(...), and
+   the consumer is the sequencer thread, which drains the ring once per step into a
+   reusable view.  If the ring fills up (because the sequencer is not playing, or 
+   because of a flood of incoming MIDI), further messages are dropped and counted.
+   The view is read, without allocation, with getNumMessages(), getMessage(i),
+   getTimestamp(i), and getArrivalTime(i). 
 **/
 
 public class In implements Receiver
     {
     private static final long serialVersionUID = 1;
 
-    Seq seq;
+    volatile Seq seq;                   // read by the MIDI input thread, changed when the Seq is replaced
     int index;
     // Returned by default when there are no messages, rather than building new empty arrays each time.
     static final MidiMessage[] EMPTY = new MidiMessage[0];
-    // Message mailbox
-    ArrayList<MidiMessage> messages = new ArrayList<>();
+    // Size of the mailbox ring.  Must be a power of two.
+    public static final int RING_SIZE = 1024;
+    
+    // Message mailbox ring.  Slots [head, tail) are full, modulo RING_SIZE.
+    MidiMessage[] ring = new MidiMessage[RING_SIZE];
+    // The device timestamp, in microseconds, of each message in the ring, or -1 if the device doesn't provide one
+    long[] ringTimestamps = new long[RING_SIZE];
+    // The System.nanoTime() at which each message in the ring arrived, corrected by the device timestamp if there is one
+    long[] ringArrivalTimes = new long[RING_SIZE];
+    // Next slot to read.  Only written by the consumer.
+    volatile long head = 0;
+    // Next slot to write.  Only written by the producer.
+    volatile long tail = 0;
+    // Messages dropped because the ring was full.  Only written by the producer.
+    volatile long dropped = 0;
+    // The value of dropped when the sequencer last started playing.  Only touched by the consumer.
+    long droppedBase = 0;
+    
+    // The view of the messages pulled at the most recent step
+    MidiMessage[] view = new MidiMessage[RING_SIZE];
+    long[] viewTimestamps = new long[RING_SIZE];
+    long[] viewArrivalTimes = new long[RING_SIZE];
+    int numMessages = 0;
+    
+    // Latency compensation in ms: how long it takes a message to get from the musician's fingers to us
+    int latency = 0;
+    public static final int MAX_LATENCY = 100;
+    // If the device timestamp disagrees with our arrival time by more than this many microseconds, we ignore it
+    static final long MAX_TIMESTAMP_SKEW = 1000000L;
     // The tuple's device wrapper
     Midi.MidiDeviceWrapper wrapper;
     // The tuple's channel
     int channel;
-    MidiMessage[] latestMessages = EMPTY;
+    // The view as an array, built lazily by getMessages()
+    MidiMessage[] latestMessages = null;
     
     /** WARNING this will throw an exception if the tuple has not yet been set up */
     public In(Seq seq, int index)
@@ -40,9 +76,13 @@ public class In implements Receiver
         this.index = index;
         wrapper = seq.tuple.inWrap[index];
         channel = seq.tuple.inChannel[index];
+        latency = Prefs.getLastInt("seq.engine.In.latency" + index, 0);
         // if (wrapper != null) wrapper.addToTransmitter(this);
         }
 
+    /** Sets the Seq which this In reports clock messages to and routes MIDI through. */
+    public void setSeq(Seq val) { seq = val; }
+
     public Midi.MidiDeviceWrapper getWrapper() { return wrapper; }
     
     // Also removes the receiver from the wrapper just in case
@@ -55,6 +95,17 @@ public class In implements Receiver
         
     /** Returns the channel */
     public int getChannel() { return channel; }
+    
+    /** Returns the latency compensation in ms.  Recorded events are moved this much earlier. */
+    public int getLatency() { return latency; }
+    /** Sets the latency compensation in ms, and saves it as the default for this In. */
+    public void setLatency(int val) 
+        { 
+        if (val < 0) val = 0;
+        if (val > MAX_LATENCY) val = MAX_LATENCY;
+        latency = val; 
+        Prefs.setLastInt("seq.engine.In.latency" + index, val);
+        }
         
     public void setClock(boolean val) { seq.tuple.inClock = index; }
     public boolean getClock() { return seq.tuple.inClock == index; }
@@ -65,42 +116,114 @@ public class In implements Receiver
     /** Closes the In (required because In is a Receiver, but this method does nothing) */
     public void close() { }     // we don't care
         
-    /** Receives the given message and adds it to the mailbox. */
+    /** Receives the given message and adds it to the mailbox.  This must only be called from one thread at a time. */
     public void send(MidiMessage message, long timestamp)
         {
-        seq.routeMIDI(index, message, timestamp);
-        synchronized(this)
+        long received = System.nanoTime();
+        long arrival = received;
+        if (timestamp >= 0)
+            {
+            // The device says when the message really arrived, in terms of its own microsecond clock.
+            // Push our arrival time back by however long ago that was.
+            Midi.MidiDeviceWrapper w = wrapper;
+            long position = (w == null ? -1 : w.getDevice().getMicrosecondPosition());
+            if (position >= timestamp && position - timestamp < MAX_TIMESTAMP_SKEW)
+                arrival -= (position - timestamp) * 1000L;
+            }
+        Seq seq = this.seq;                             // it may be replaced out from under us
+        if (seq.clock == Seq.CLOCK_IN && isClockMessage(message) && getClock()) 
+            {
+            seq.receiveClock(message);
+            }
+        seq.routeMIDI(index, message, timestamp, received);
+        
+        long t = tail;
+        if (t - head >= RING_SIZE)
             {
-            messages.add(message);
+            dropped++;                                  // only we write it
+            }
+        else
+            {
+            int slot = (int)(t & (RING_SIZE - 1));
+            ring[slot] = message;
+            ringTimestamps[slot] = timestamp;
+            ringArrivalTimes[slot] = arrival;
+            tail = t + 1;                               // volatile write publishes the slot
             }
         if (!Clip.isNoteOff(message)) seq.fireMIDIIn();
         }
         
-    /** Returns all current messages in the mailbox.  The mailbox will be cleared and
-        updated each time the sequencer steps. */
+    // Returns true if the message is a MIDI clock, START, STOP, CONTINUE, or SONG POSITION POINTER
+    static boolean isClockMessage(MidiMessage message)
+        {
+        int status = message.getStatus();
+        return (status == ShortMessage.TIMING_CLOCK || status == ShortMessage.START || status == ShortMessage.STOP ||
+            status == ShortMessage.CONTINUE || status == ShortMessage.SONG_POSITION_POINTER);
+        }
+
+    /** Returns all current messages in the mailbox as a new array.  The mailbox will be cleared and
+        updated each time the sequencer steps.  This allocates an array each step it's called and there 
+        are messages: consider getNumMessages() and getMessage(i) instead. */
     public MidiMessage[] getMessages()
         {
+        if (latestMessages == null)
+            {
+            latestMessages = (numMessages == 0 ? EMPTY : Arrays.copyOf(view, numMessages));
+            }
         return latestMessages;
         }
     
-    // Pulls all current messages in the mailbox into latestMessages, then clears the mailbox.
+    /** Returns the number of messages pulled from the mailbox at the most recent step. */
+    public int getNumMessages() { return numMessages; }
+    
+    /** Returns message i of those pulled from the mailbox at the most recent step. */
+    public MidiMessage getMessage(int i) { return view[i]; }
+    
+    /** Returns the device timestamp, in microseconds, of message i of those pulled from the mailbox 
+        at the most recent step, or -1 if the device didn't provide one. */
+    public long getTimestamp(int i) { return viewTimestamps[i]; }
+    
+    /** Returns the System.nanoTime() at which message i of those pulled from the mailbox 
+        at the most recent step arrived, corrected by the device timestamp if there is one. */
+    public long getArrivalTime(int i) { return viewArrivalTimes[i]; }
+    
+    /** Returns the System.nanoTime() at which the musician played message i of those pulled from 
+        the mailbox at the most recent step, that is, its arrival time less the latency compensation. */
+    public long getEventTime(int i) { return viewArrivalTimes[i] - latency * 1000000L; }
+    
+    /** Returns the number of messages dropped because the mailbox was full since the sequencer last started playing. */
+    public long getDropped() { return dropped - droppedBase; }
+    
+    // Pulls all current messages in the mailbox into the view, then clears the mailbox.
+    // Only called by the sequencer thread (or while holding the Seq lock).
     void pullMessages()
         {
-        synchronized(this)
+        long h = head;
+        long t = tail;                                  // volatile read sees the slots the producer published
+        int n = (int)(t - h);
+        for(int i = 0; i < n; i++)
             {
-            if (messages.isEmpty()) 
-                {
-                latestMessages = EMPTY;
-                }
-            latestMessages = ((MidiMessage[])(messages.toArray(EMPTY)));
-/*
-  if (latestMessages.length > 0) 
-  {
-  seq.getOut(0).sendMIDI(latestMessages[0]);
-  }
-*/
-            messages.clear();
+            int slot = (int)((h + i) & (RING_SIZE - 1));
+            view[i] = ring[slot];
+            viewTimestamps[i] = ringTimestamps[slot];
+            viewArrivalTimes[i] = ringArrivalTimes[slot];
+            ring[slot] = null;                          // let it GC
+            }
+        for(int i = n; i < numMessages; i++)
+            {
+            view[i] = null;                             // let the old ones GC
             }
+        numMessages = n;
+        latestMessages = null;
+        head = t;                                       // volatile write frees the slots for the producer
+        }
+        
+    // Discards everything in the mailbox and resets the dropped count, when the sequencer starts playing.
+    void clearMessages()
+        {
+        pullMessages();
+        pullMessages();                 // clears the view too
+        droppedBase = dropped;
         }
     
     public String toString()
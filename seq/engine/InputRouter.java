@@ -0,0 +1,306 @@
+/*
+  Copyright 2025 by Sean Luke and George Mason University
+  Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.util.*;
+import javax.sound.midi.*;
+
+/**
+   Demultiplexes incoming MIDI messages to the Clips (and Seq) which want them.  Rather than each
+   Clip scanning every message in an In every step, a Clip holds a Subscription describing the
+   messages it is interested in (the In, the message types, the channel, and optionally the CC number),
+   and once per step, right after the Ins have pulled their messages, the InputRouter sorts each message
+   into the Subscriptions which match it.  A Subscription then holds only its own messages, in the order
+   in which they arrived.
+
+   <p>A Clip subscribes, or renews its Subscription, each step that it wants messages, by calling
+   subscribe(...) and passing in its previous Subscription (or null the first time):
+
+   <pre>
+   sub = seq.getInputRouter().subscribe(sub, in, InputRouter.CC, Midi.OMNI, 7);
+   for(int i = 0; i < sub.size(); i++)
+   {
+   MidiMessage message = sub.getMessage(i);
+   ...
+   }
+   </pre>
+
+   <p>Subscriptions which are not renewed during a step are dropped at the next step, so Clips which
+   stop listening, or which are thrown away, never need to unsubscribe.  A Subscription which is new,
+   or which had been dropped, is filled from the In's current messages when it is subscribed, so no
+   messages are lost.
+
+   <p>InputRouter is only used from the sequencer thread, or while holding the Seq lock.
+**/
+
+public class InputRouter
+    {
+    // MESSAGE TYPES.  These may be ORed together.
+    public static final int NOTE_ON = 1;                        // NOTE ON with non-zero velocity
+    public static final int NOTE_OFF = 2;                       // NOTE OFF, or NOTE ON with zero velocity
+    public static final int CC = 4;
+    public static final int PC = 8;
+    public static final int PITCH_BEND = 16;
+    public static final int CHANNEL_AFTERTOUCH = 32;
+    public static final int POLY_AFTERTOUCH = 64;
+    public static final int SYSEX = 128;
+    public static final int OTHER = 256;                        // Clock, Song Position, etc.
+    public static final int NUM_TYPES = 9;
+    public static final int NOTES = NOTE_ON | NOTE_OFF;
+    public static final int ALL = (1 << NUM_TYPES) - 1;
+
+    /** Pass this as the CC to subscribe to all CCs */
+    public static final int ANY_CC = -1;
+
+    /** A request for certain messages from a certain In, and the messages matching it at the most recent step. */
+    public static class Subscription
+        {
+        int in;
+        int types;
+        int channel;
+        int cc;
+        // Was I renewed since the last dispatch?
+        boolean renewed;
+        // Am I registered with the router?
+        boolean registered;
+        // The indices, in the In's messages, of the messages I received this step
+        int[] indices = new int[16];
+        int size = 0;
+        In input;
+
+        Subscription(int in, int types, int channel, int cc)
+            {
+            this.in = in;
+            this.types = types;
+            this.channel = channel;
+            this.cc = cc;
+            }
+
+        /** Returns the number of messages received this step. */
+        public int size() { return size; }
+        /** Returns message i of those received this step. */
+        public MidiMessage getMessage(int i) { return input.getMessage(indices[i]); }
+        /** Returns the index of message i among all of the In's messages this step, for use with In.getTimestamp(...), In.getEventTime(...) etc. */
+        public int getIndex(int i) { return indices[i]; }
+        /** Returns the In. */
+        public In getIn() { return input; }
+
+        boolean matches(int in, int types, int channel, int cc)
+            {
+            return this.in == in && this.types == types && this.channel == channel && this.cc == cc;
+            }
+
+        void add(int index)
+            {
+            if (size == indices.length) indices = Arrays.copyOf(indices, size * 2);
+            indices[size++] = index;
+            }
+        }
+
+    // A list of Subscriptions.  This exists so we can build arrays of them without unchecked generic arrays.
+    static final class SubscriptionList extends ArrayList<Subscription>
+        {
+        private static final long serialVersionUID = 1;
+        }
+
+    Seq seq;
+    // All registered subscriptions
+    ArrayList<Subscription> subscriptions = new ArrayList<>();
+    // Registered subscriptions by In and then by type bit.  CC subscriptions for a specific CC aren't here.
+    SubscriptionList[][] byType;
+    // Registered CC subscriptions for a specific CC, by In and then by CC
+    SubscriptionList[][] byCC;
+
+    public InputRouter(Seq seq)
+        {
+        this.seq = seq;
+        }
+
+    // Builds the tables lazily, since the Ins aren't known when Seq is constructed
+    void buildTables(int numIns)
+        {
+        byType = new SubscriptionList[numIns][NUM_TYPES];
+        byCC = new SubscriptionList[numIns][128];
+        for(Subscription sub : subscriptions) sub.registered = false;
+        subscriptions.clear();
+        }
+
+    /** Subscribes to messages from the given In (0-based) of the given TYPES (ORed together), on the given CHANNEL
+        (1...16, or Midi.OMNI for all channels), and if TYPES includes CC, of the given CC number (or ANY_CC).
+        Channel does not apply to SYSEX and OTHER.  If SUB already describes this request, it's renewed and returned,
+        else a new Subscription is built and returned.  Either way, it holds the matching messages for this step. */
+    public Subscription subscribe(Subscription sub, int in, int types, int channel, int cc)
+        {
+        In[] ins = seq.getIns();
+        if (ins == null || in < 0 || in >= ins.length)
+            {
+            // Nothing to subscribe to, but return something sane and empty
+            if (sub == null || !sub.matches(in, types, channel, cc)) sub = new Subscription(in, types, channel, cc);
+            sub.size = 0;
+            return sub;
+            }
+        if (byType == null || byType.length != ins.length) buildTables(ins.length);
+
+        if (sub != null && !sub.matches(in, types, channel, cc))
+            {
+            unregister(sub);
+            sub = null;
+            }
+        if (sub == null) sub = new Subscription(in, types, channel, cc);
+
+        sub.renewed = true;
+        if (!sub.registered)
+            {
+            register(sub);
+            // Catch up on this step's messages, which were dispatched before we registered
+            In input = ins[in];
+            sub.input = input;
+            sub.size = 0;
+            int numMessages = input.getNumMessages();
+            for(int i = 0; i < numMessages; i++)
+                {
+                MidiMessage message = input.getMessage(i);
+                int type = getType(message);
+                if ((sub.types & type) != 0 && matchesChannel(sub, message, type) &&
+                    (type != CC || sub.cc == ANY_CC || sub.cc == ((ShortMessage)message).getData1()))
+                    sub.add(i);
+                }
+            }
+        return sub;
+        }
+
+    /** Cancels a Subscription immediately.  You don't need to do this: a Subscription which isn't renewed
+        is dropped at the next step anyway. */
+    public void unsubscribe(Subscription sub)
+        {
+        if (sub != null) unregister(sub);
+        }
+
+    void register(Subscription sub)
+        {
+        subscriptions.add(sub);
+        for(int t = 0; t < NUM_TYPES; t++)
+            {
+            int type = 1 << t;
+            if ((sub.types & type) == 0) continue;
+            if (type == CC && sub.cc != ANY_CC)
+                {
+                if (sub.cc < 0 || sub.cc > 127) continue;
+                if (byCC[sub.in][sub.cc] == null) byCC[sub.in][sub.cc] = new SubscriptionList();
+                byCC[sub.in][sub.cc].add(sub);
+                }
+            else
+                {
+                if (byType[sub.in][t] == null) byType[sub.in][t] = new SubscriptionList();
+                byType[sub.in][t].add(sub);
+                }
+            }
+        sub.registered = true;
+        }
+
+    void unregister(Subscription sub)
+        {
+        if (!sub.registered) return;
+        subscriptions.remove(sub);
+        for(int t = 0; t < NUM_TYPES; t++)
+            {
+            int type = 1 << t;
+            if ((sub.types & type) == 0) continue;
+            if (type == CC && sub.cc != ANY_CC)
+                {
+                if (sub.cc >= 0 && sub.cc <= 127 && byCC[sub.in][sub.cc] != null) byCC[sub.in][sub.cc].remove(sub);
+                }
+            else if (byType[sub.in][t] != null) byType[sub.in][t].remove(sub);
+            }
+        sub.registered = false;
+        sub.size = 0;
+        }
+
+    /** Returns the type of the given message: one of NOTE_ON, NOTE_OFF, CC, PC, PITCH_BEND, CHANNEL_AFTERTOUCH, POLY_AFTERTOUCH, SYSEX, or OTHER */
+    public static int getType(MidiMessage message)
+        {
+        if (message instanceof ShortMessage)
+            {
+            ShortMessage shortmessage = (ShortMessage) message;
+            if (shortmessage.getStatus() >= Clip.SYSTEM_EXCLUSIVE_STATUS) return OTHER;
+            switch(shortmessage.getCommand())
+                {
+                case(ShortMessage.NOTE_ON):
+                    return (shortmessage.getData2() > 0 ? NOTE_ON : NOTE_OFF);
+                case(ShortMessage.NOTE_OFF):
+                    return NOTE_OFF;
+                case(ShortMessage.CONTROL_CHANGE):
+                    return CC;
+                case(ShortMessage.PROGRAM_CHANGE):
+                    return PC;
+                case(ShortMessage.PITCH_BEND):
+                    return PITCH_BEND;
+                case(ShortMessage.CHANNEL_PRESSURE):
+                    return CHANNEL_AFTERTOUCH;
+                case(ShortMessage.POLY_PRESSURE):
+                    return POLY_AFTERTOUCH;
+                default:
+                    return OTHER;
+                }
+            }
+        else if (message instanceof SysexMessage) return SYSEX;
+        else return OTHER;
+        }
+
+    static boolean matchesChannel(Subscription sub, MidiMessage message, int type)
+        {
+        if (sub.channel == Midi.OMNI || type == SYSEX || type == OTHER) return true;
+        return sub.channel == ((ShortMessage)message).getChannel() + 1;
+        }
+
+    // Adds the message to each matching subscription in the list
+    static void dispatch(ArrayList<Subscription> subs, MidiMessage message, int type, int index)
+        {
+        if (subs == null) return;
+        int len = subs.size();
+        for(int i = 0; i < len; i++)
+            {
+            Subscription sub = subs.get(i);
+            if (matchesChannel(sub, message, type)) sub.add(index);
+            }
+        }
+
+    /** Drops the Subscriptions which weren't renewed during the last step, then sorts the Ins' current
+        messages into the remaining Subscriptions.  Called by Seq each step, just after the Ins pull their messages. */
+    void dispatch()
+        {
+        if (subscriptions.isEmpty()) return;
+        In[] ins = seq.getIns();
+        if (ins == null || byType == null || byType.length != ins.length) return;
+
+        for(int i = subscriptions.size() - 1; i >= 0; i--)
+            {
+            Subscription sub = subscriptions.get(i);
+            if (!sub.renewed) unregister(sub);
+            else
+                {
+                sub.renewed = false;
+                sub.size = 0;
+                sub.input = ins[sub.in];
+                }
+            }
+
+        for(int in = 0; in < ins.length; in++)
+            {
+            SubscriptionList[] types = byType[in];
+            SubscriptionList[] ccs = byCC[in];
+            In input = ins[in];
+            int numMessages = input.getNumMessages();
+            for(int i = 0; i < numMessages; i++)
+                {
+                MidiMessage message = input.getMessage(i);
+                int type = getType(message);
+                dispatch(types[Integer.numberOfTrailingZeros(type)], message, type, i);
+                if (type == CC) dispatch(ccs[((ShortMessage)message).getData1()], message, type, i);
+                }
+            }
+        }
+    }
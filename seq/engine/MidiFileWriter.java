@@ -0,0 +1,181 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.io.*;
+import java.nio.*;
+import javax.sound.midi.*;
+
+/**
+   Writes a single-track (format 0) Standard MIDI File one event at a time, rather than building a
+   javax.sound.midi.Sequence and writing it all at the end.  Nothing is held in memory but a write buffer,
+   so a MidiFileWriter can write files of any length.  The track's length isn't known until we're done,
+   so close() goes back and fills it in: you must call close() or the file will be invalid.
+
+   <p>Events must be written in order of time.  An event earlier than the previous one is written at the
+   previous one's time.  System Common and System Real-Time messages, such as MIDI Clock, are not
+   permitted in MIDI files and are skipped.
+**/
+
+public class MidiFileWriter implements Closeable
+    {
+    // Where the MTrk chunk's length is in the file
+    static final int TRACK_LENGTH_POSITION = 18;
+
+    FileOutputStream file;
+    OutputStream out;
+    long length = 0;                    // bytes of track data written so far
+    long lastTick = 0;
+    int runningStatus = 0;
+
+    /** Creates the file and writes its header.  Resolution is in ticks per quarter note. */
+    public MidiFileWriter(File file, int resolution) throws IOException
+        {
+        this.file = new FileOutputStream(file);
+        out = new BufferedOutputStream(this.file, 65536);
+        writeInt(0x4D546864);                   // "MThd"
+        writeInt(6);
+        writeHalf(0);                           // format 0
+        writeHalf(1);                           // one track
+        writeHalf(resolution);
+        writeInt(0x4D54726B);                   // "MTrk"
+        writeInt(0);                            // filled in by close()
+        length = 0;
+        }
+
+    void writeInt(int val) throws IOException
+        {
+        out.write(val >>> 24);
+        out.write(val >>> 16);
+        out.write(val >>> 8);
+        out.write(val);
+        }
+
+    void writeHalf(int val) throws IOException
+        {
+        out.write(val >>> 8);
+        out.write(val);
+        }
+
+    void writeVarLen(long val) throws IOException
+        {
+        if (val > 0x0FFFFFFF) val = 0x0FFFFFFF;         // the largest a MIDI file can hold
+        if (val >= (1 << 21)) { out.write((int)(0x80 | (val >>> 21))); length++; }
+        if (val >= (1 << 14)) { out.write((int)(0x80 | ((val >>> 14) & 0x7F))); length++; }
+        if (val >= (1 << 7)) { out.write((int)(0x80 | ((val >>> 7) & 0x7F))); length++; }
+        out.write((int)(val & 0x7F));
+        length++;
+        }
+
+    void writeDelta(long tick) throws IOException
+        {
+        if (tick < lastTick) tick = lastTick;
+        long delta = tick - lastTick;
+        // A delta too big for a variable-length quantity is broken up with empty Text meta events
+        while(delta > 0x0FFFFFFF)
+            {
+            writeVarLen(0x0FFFFFFF);
+            out.write(0xFF);
+            out.write(0x01);
+            out.write(0x00);
+            length += 3;
+            delta -= 0x0FFFFFFF;
+            runningStatus = 0;
+            }
+        writeVarLen(delta);
+        lastTick = tick;
+        }
+
+    /** Writes a short message, packed as in ReusableShortMessage, at the given tick. */
+    public void writeShort(long tick, int packed) throws IOException
+        {
+        int status = ReusableShortMessage.getStatus(packed);
+        if (status < 0x80 || status >= 0xF0) return;           // not a voice message
+        writeDelta(tick);
+        if (status != runningStatus)
+            {
+            out.write(status);
+            length++;
+            runningStatus = status;
+            }
+        out.write(ReusableShortMessage.getData1(packed) & 0x7F);
+        length++;
+        if (ReusableShortMessage.getLength(status) == 3)
+            {
+            out.write(ReusableShortMessage.getData2(packed) & 0x7F);
+            length++;
+            }
+        }
+
+    /** Writes a Sysex message, including its 0xF0 and 0xF7, at the given tick. */
+    public void writeSysex(long tick, byte[] data) throws IOException
+        {
+        if (data.length == 0) return;
+        writeDelta(tick);
+        out.write(data[0] & 0xFF);              // 0xF0, or 0xF7 for a continuation
+        length++;
+        writeVarLen(data.length - 1);
+        out.write(data, 1, data.length - 1);
+        length += data.length - 1;
+        runningStatus = 0;
+        }
+
+    /** Writes a Meta message with the given type and data at the given tick. */
+    public void writeMeta(long tick, int type, byte[] data) throws IOException
+        {
+        writeDelta(tick);
+        out.write(0xFF);
+        out.write(type & 0x7F);
+        length += 2;
+        writeVarLen(data.length);
+        out.write(data);
+        length += data.length;
+        runningStatus = 0;
+        }
+
+    /** Writes the message at the given tick. */
+    public void write(long tick, MidiMessage message) throws IOException
+        {
+        if (message instanceof ShortMessage)
+            {
+            ShortMessage s = (ShortMessage)message;
+            writeShort(tick, ReusableShortMessage.pack(s.getStatus(), s.getData1(), s.getData2()));
+            }
+        else if (message instanceof MetaMessage)
+            {
+            MetaMessage m = (MetaMessage)message;
+            if (m.getType() != 0x2F) writeMeta(tick, m.getType(), m.getData());            // we write our own End of Track
+            }
+        else
+            {
+            writeSysex(tick, message.getMessage());
+            }
+        }
+
+    /** Returns the tick of the last event written. */
+    public long getLastTick() { return lastTick; }
+
+    /** Writes the End of Track, fills in the track's length, and closes the file. */
+    public void close() throws IOException
+        {
+        if (file == null) return;
+        try
+            {
+            writeMeta(lastTick, 0x2F, new byte[0]);
+            out.flush();
+            if (length > 0xFFFFFFFFL) throw new IOException("MIDI track too long");
+            ByteBuffer buf = ByteBuffer.allocate(4);
+            buf.putInt((int)length);
+            buf.flip();
+            file.getChannel().write(buf, TRACK_LENGTH_POSITION);
+            }
+        finally
+            {
+            file.close();
+            file = null;
+            }
+        }
+    }
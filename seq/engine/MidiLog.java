@@ -0,0 +1,226 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.io.*;
+import java.util.*;
+import javax.sound.midi.*;
+
+/**
+   Logs the MIDI sent by the Outs to Standard MIDI Files as it happens.  The Outs hand each message to
+   the MidiLog, which puts it in a fixed-size queue; a background thread takes messages off the queue
+   and writes them out with a MidiFileWriter.  Thus the log uses the same small amount of memory however
+   long it runs.  The Outs may be logging from the sequencer thread while it holds the Seq lock, so they
+   never wait: if the queue fills up because the disk can't keep up, further messages are dropped until
+   there is room again, and counted.  See getDropped().
+
+   <p>A MidiLog either writes everything to a single file, or writes each Out to its own file, named
+   FILE.1.mid, FILE.2.mid, etc.  In the latter case, a file is only created for an Out once it sends something.
+
+   <p>Messages are logged at the Seq's current time, which is read while holding the MidiLog's monitor, so
+   messages from the sequencer thread and from MIDI Thru are always logged in order.  When the Seq's time goes
+   back to 0, because it has looped or been restarted, it calls loop(...), and the log continues on from the 
+   start of the next bar, so the loop is written out as many times as it is played.
+**/
+
+public class MidiLog
+    {
+    /** How many messages the queue holds */
+    public static final int QUEUE_SIZE = 16384;
+
+    File file;
+    boolean multi;
+    MidiFileWriter[] writers;
+
+    // The queue.  Each message is one entry in packed: the time in the high 32 bits, the out in the next
+    // 8 bits, and the packed short message (see ReusableShortMessage) in the low 24 bits.  If it's not a
+    // short message, its bytes are in data, and the packed short message is 0.
+    long[] packed = new long[QUEUE_SIZE];
+    byte[][] data = new byte[QUEUE_SIZE][];
+    int head = 0;                       // the next message to write
+    int size = 0;                       // the number of messages in the queue
+    boolean closed = false;
+    IOException error = null;
+    int dropped = 0;                    // the number of messages dropped because the queue was full
+    Thread thread;
+
+    // For making the time monotonic across loops: the time logged is the Seq's time plus timeOffset
+    long lastTime = 0;
+    long timeOffset = 0;
+
+    /** Starts a log.  If multi is true, each Out is written to its own file, else all are written to the given file. */
+    public MidiLog(File file, boolean multi) throws IOException
+        {
+        this.file = file;
+        this.multi = multi;
+        writers = new MidiFileWriter[multi ? Seq.NUM_OUTS : 1];
+        if (!multi) writers[0] = new MidiFileWriter(file, Seq.PPQ);
+
+        thread = new Thread(new Runnable()
+            {
+            public void run() { write(); }
+            });
+        thread.setName("Seq MIDI Log");
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    /** Returns the file that the given Out is logged to, whether or not it exists.  */
+    public File getFile(int out)
+        {
+        if (multi) return new File(file.getPath() + "." + (out + 1) + ".mid");
+        else return file;
+        }
+
+    /** Returns the files which have been written so far, indexed by Out.  Outs which haven't been
+        written have null files.  If not multi, there is only one file.  */
+    public synchronized File[] getFiles()
+        {
+        File[] files = new File[writers.length];
+        for(int i = 0; i < writers.length; i++)
+            if (writers[i] != null) files[i] = getFile(i);
+        return files;
+        }
+
+    /** Logs a short message, packed as in ReusableShortMessage, sent by the given Out at the Seq's current time. */
+    public void addShort(int out, Seq seq, int message)
+        {
+        add(out, seq, message & 0xFFFFFF, null);
+        }
+
+    /** Logs a message sent by the given Out at the Seq's current time. */
+    public void add(int out, Seq seq, MidiMessage message)
+        {
+        if (message instanceof ShortMessage)
+            {
+            ShortMessage s = (ShortMessage)message;
+            add(out, seq, ReusableShortMessage.pack(s.getStatus(), s.getData1(), s.getData2()), null);
+            }
+        else if (message instanceof MetaMessage)
+            {
+            // We store Meta messages as 0xFF, the type, then the data
+            MetaMessage m = (MetaMessage)message;
+            byte[] d = m.getData();
+            byte[] bytes = new byte[d.length + 2];
+            bytes[0] = (byte)0xFF;
+            bytes[1] = (byte)m.getType();
+            System.arraycopy(d, 0, bytes, 2, d.length);
+            add(out, seq, 0, bytes);
+            }
+        else
+            {
+            add(out, seq, 0, message.getMessage());            // getMessage() makes a copy
+            }
+        }
+
+    synchronized void add(int out, Seq seq, int message, byte[] bytes)
+        {
+        if (closed) return;
+        // We read the time here, rather than have it passed in, so that a message from MIDI Thru can't read
+        // the time, then be logged after a later message from the sequencer thread.  
+        long t = Math.max(seq.time + timeOffset, lastTime);          // but never go backwards regardless
+        lastTime = t;
+
+        if (size == QUEUE_SIZE)         // the writer can't keep up, and we mustn't block the Outs
+            {
+            dropped++;
+            return;
+            }
+
+        int tail = (head + size) % QUEUE_SIZE;
+        packed[tail] = (t << 32) | ((long)(out & 0xFF) << 24) | (message & 0xFFFFFF);
+        data[tail] = bytes;
+        size++;
+        if (size == 1) notifyAll();
+        }
+
+    /** Called by the Seq, with its lock held, when its time is about to go back to 0 from TIME, because it 
+        has looped or been restarted.  The log continues on from the start of the next bar of BEATS beats.  */
+    public synchronized void loop(int time, int beats)
+        {
+        if (time <= 0) return;                  // we're not going anywhere
+        long bar = Seq.PPQ * (long)Math.max(1, beats);
+        timeOffset = (Math.max(time + timeOffset, lastTime) / bar + 1) * bar;
+        }
+
+    // The writer thread's loop
+    void write()
+        {
+        while(true)
+            {
+            long p;
+            byte[] bytes;
+            synchronized(this)
+                {
+                while(size == 0 && !closed)
+                    {
+                    try { wait(); }
+                    catch (InterruptedException ex) { }
+                    }
+                if (size == 0) return;                  // closed and drained
+                p = packed[head];
+                bytes = data[head];
+                data[head] = null;
+                head = (head + 1) % QUEUE_SIZE;
+                size--;
+                if (error != null) continue;            // throw it away
+                }
+
+            long time = p >>> 32;
+            int out = (int)((p >>> 24) & 0xFF);
+            int message = (int)(p & 0xFFFFFF);
+            try
+                {
+                MidiFileWriter writer = getWriter(out);
+                if (bytes == null) writer.writeShort(time, message);
+                else if ((bytes[0] & 0xFF) == 0xFF) writer.writeMeta(time, bytes[1] & 0xFF, Arrays.copyOfRange(bytes, 2, bytes.length));
+                else writer.writeSysex(time, bytes);
+                }
+            catch (IOException ex)
+                {
+                synchronized(this) { error = ex; }
+                }
+            }
+        }
+
+    /** Returns the number of messages which were not logged because the queue was full. */
+    public synchronized int getDropped() { return dropped; }
+
+    // Returns the writer for the given out, creating it if need be
+    MidiFileWriter getWriter(int out) throws IOException
+        {
+        if (!multi) return writers[0];
+        synchronized(this)
+            {
+            if (writers[out] == null) writers[out] = new MidiFileWriter(getFile(out), Seq.PPQ);
+            return writers[out];
+            }
+        }
+
+    /** Stops logging, waits for the queue to be written, and closes the files.  Returns the files written,
+        as getFiles().  Throws an IOException if anything went wrong writing.  */
+    public File[] close() throws IOException
+        {
+        synchronized(this)
+            {
+            if (closed) return getFiles();
+            closed = true;
+            notifyAll();
+            }
+        try { thread.join(); }
+        catch (InterruptedException ex) { }
+
+        IOException e = error;
+        for(int i = 0; i < writers.length; i++)
+            {
+            if (writers[i] == null) continue;
+            try { writers[i].close(); }
+            catch (IOException ex) { if (e == null) e = ex; }
+            }
+        if (e != null) throw e;
+        return getFiles();
+        }
+    }
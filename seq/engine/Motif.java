@@ -239,8 +239,12 @@ public abstract class Motif implements Cloneable
     int id;
     // The current Motif version, so clips can stay in sync when playing or recording
     int version;
+    // Incremented on changes which the undo history must notice.  See incrementEdits()
+    int edits;
     // how many clips are playing right now?
     int playCount;
+    // Where this Motif is in the arrays of the most recent Seq.Snapshot.  Older Snapshots must check it.
+    int snapshotIndex = -1;
     // What order am in the Motif list?  This is only used when saving and loading, and may be incorrect
     // while the Motif is in use.
     int order;
@@ -268,9 +272,21 @@ public abstract class Motif implements Cloneable
         Note you don't have to do this for EVERY change you make for Motif,
         only those which will affect a clip's ability to play, such as
         changing the number of children or the number of step sequence tracks. */
-    public void incrementVersion() { version++; }
+    public void incrementVersion() { version++; edits++; }
     /** Returns the current Motif version so clips can stay in sync. */
     public int getVersion() { return version; }
+    /** Notes that the Motif has changed, so the next undo snapshot must copy it rather than share
+        the copy in the previous snapshot.  You don't need to call this for changes made from the
+        Motif's own window after calling SeqUI.push(), but you do for changes made elsewhere, such as
+        by recording.  Unlike incrementVersion(), this doesn't make playing clips rebuild.  */
+    public void incrementEdits() { edits++; }
+    /** Returns the number of times incrementEdits() or incrementVersion() have been called. */
+    public int getEdits() { return edits; }
+    
+    /** Returns a rough estimate, in bytes, of the memory taken by a copy of this Motif, not counting its 
+        children, so the undo history can stay within its memory budget.  Override this if your
+        Motif holds a lot of data.  */
+    public long getApproximateSize() { return 256 + children.size() * 64; }
     
     
     ///// NAME
@@ -279,7 +295,7 @@ public abstract class Motif implements Cloneable
     /** Returns the Motif's displayed name, which in rare cases is the name plus some embellishment. */
     public String getDisplayedName() { return getName(); }
     /** Sets the Motif's name */
-    public void setName(String val) {if (val == null) val = ""; name = val; }  
+    public void setName(String val) {if (val == null) val = ""; name = val; edits++; }  
           
     /** This is used to return a counter to augment getBaseName() to create a moderately unique
         name from a UI perspective.  Counters are static and per-class.  You should implement 
@@ -308,14 +324,14 @@ public abstract class Motif implements Cloneable
     public static final int NUM_PARAMETERS = 8;
     String[] parameterNames = new String[NUM_PARAMETERS];
     public String getParameterName(int param) { return parameterNames[param]; }
-    public void setParameterName(int param, String val) { parameterNames[param] = val; }
+    public void setParameterName(int param, String val) { parameterNames[param] = val; edits++; }
 
 
 
     ///// TEXTUAL NOTES
     String text = null;
     public String getText() { return text; }
-    public void setText(String val) { text = val; }
+    public void setText(String val) { text = val; edits++; }
     
     public int getOrder() { return order; }
     public void setOrder(int val) { order = val; }
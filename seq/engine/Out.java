@@ -32,6 +32,8 @@ public class Out
     double gain = 1.0;
     // Aftertouch is polyphonic
     boolean polyphonicAftertouch = false;
+    // Reused for every short message we send, so we don't allocate
+    ReusableShortMessage message = new ReusableShortMessage();
         
     // Indicates that an aftertouch message is a Channel Aftertouch message, rather than a Polyphonic Aftertouch message
     public static final int CHANNEL_AFTERTOUCH = -1;
@@ -118,31 +120,120 @@ public class Out
         }
         
     public boolean sendMIDI(MidiMessage message, long timestamp)
+        {
+        return sendMIDI(message, timestamp, true);
+        }
+        
+    /** Sends a MIDI message.  If lookahead is turned on and canQueue is true, 
+        the message is added to the device's OutQueue to be sent at its ideal time. 
+        Otherwise it is sent immediately with the given timestamp.  Messages routed
+        directly from an In (MIDI Thru) should not be queued, so they go out as soon
+        as possible. */
+    boolean sendMIDI(MidiMessage message, long timestamp, boolean canQueue)
         {
         //System.err.println(seq.getTime() + " -> " + Midi.format(message));
-        Receiver receiver = null;
-        //Receiver receiver = seq.emitter;
+        Receiver receiver = seq.emitter;
         Midi.Tuple tuple = seq.tuple;
+        Midi.MidiDeviceWrapper wrapper = null;
         if (receiver == null)
             {
             if (tuple == null) return false;
-            Midi.MidiDeviceWrapper wrapper = getWrapper();
+            wrapper = getWrapper();
             if (wrapper == null) return false;
             receiver = wrapper.getReceiver();
+            if (receiver == null) return false;
             }
             
-        try
+        if (canQueue && seq.lookahead > 0 && wrapper != null)
             {
-            receiver.send(message, timestamp); 
+            // Lookahead: the OutQueue will send it at its ideal time
+            seq.getOutQueue(wrapper).add(receiver, message, seq.getEmissionTime());
             }
-        catch (IllegalStateException e)
+        else
             {
-            // This happens when the device has closed itself and we're still trying to send to it.
-            // For example if the user rips the USB cord for his device out of the laptop. 
+            try
+                {
+                receiver.send(message, timestamp); 
+                }
+            catch (IllegalStateException e)
+                {
+                // This happens when the device has closed itself and we're still trying to send to it.
+                // For example if the user rips the USB cord for his device out of the laptop. 
+                        
+                // Do nothing
+                }
+            }
                         
-            // Do nothing
+        log(message);
+        return true;
+        }
+        
+    // Sends a short message packed as an int (see ReusableShortMessage) without allocating anything.
+    // The packed int is only turned into a MidiMessage when it's finally handed to the Receiver.
+    boolean sendShort(int packed)
+        {
+        Receiver receiver = seq.emitter;
+        Midi.Tuple tuple = seq.tuple;
+        Midi.MidiDeviceWrapper wrapper = null;
+        if (receiver == null)
+            {
+            if (tuple == null) return false;
+            wrapper = getWrapper();
+            if (wrapper == null) return false;
+            receiver = wrapper.getReceiver();
+            if (receiver == null) return false;
+            }
+            
+        if (seq.lookahead > 0 && wrapper != null)
+            {
+            // Lookahead: the OutQueue will send it at its ideal time
+            seq.getOutQueue(wrapper).add(receiver, packed, seq.getEmissionTime());
             }
+        else
+            {
+            synchronized(message)         // we might be called from the GUI and the sequencer at the same time
+                {
+                message.set(packed);
+                try
+                    {
+                    receiver.send(message, -1L); 
+                    }
+                catch (IllegalStateException e)
+                    {
+                    // This happens when the device has closed itself and we're still trying to send to it.
+                    // For example if the user rips the USB cord for his device out of the laptop. 
                         
+                    // Do nothing
+                    }
+                }
+            }
+
+        MidiLog midiLog = seq.log;
+        if (midiLog != null)
+            {
+            midiLog.addShort(index, seq, packed);
+            }
+        if (seq.getTracks() != null)
+            {
+            logToTracks(new ReusableShortMessage(packed));           // the track will hang onto it, so it has to be fresh
+            }
+        return true;
+        }
+        
+    // Adds the message to the MidiLog, if any, and to the Renderer's tracks, if any
+    void log(MidiMessage message)
+        {
+        MidiLog midiLog = seq.log;
+        if (midiLog != null)
+            {
+            midiLog.add(index, seq, message);                        // we may be MIDI Thru, so the log reads the time itself
+            }
+        logToTracks(message);
+        }
+
+    // Adds the message to the Renderer's tracks, if any
+    void logToTracks(MidiMessage message)
+        {
         javax.sound.midi.Track[] tracks = seq.getTracks();
         if (tracks != null)
             {
@@ -156,85 +247,26 @@ public class Out
                 tracks[0].add(new javax.sound.midi.MidiEvent(message, seq.getTime()));
                 }
             }
-        return true;
         }
         
     // Send a one-byte message
     boolean send(int command)
         {
-        try 
-            { 
-            return sendMIDI(new ShortMessage(command));
-            }
-        catch (InvalidMidiDataException ex) { return false; }
-
-/*
-  Receiver receiver = seq.emitter;
-  Midi.Tuple tuple = seq.tuple;
-  if (receiver == null)
-  {
-  if (tuple == null) return false;
-  Midi.MidiDeviceWrapper wrapper = getWrapper();
-  if (wrapper == null) return false;
-  receiver = wrapper.getReceiver();
-  }
-  try { receiver.send(new ShortMessage(command), -1L); }
-  catch (InvalidMidiDataException ex) { return false; }
-  return true;
-*/
+        return sendShort(ReusableShortMessage.pack(command, 0, 0));
         }
 
     // Send a two-byte voiced message
     boolean sendToChannel(int command, int data, int channel)
         {
-        return sendToChannel(command, data, 0, channel);                // the 0 is presumably ignored
-        /*
-          try 
-          { 
-          return sendMIDI(new ShortMessage(command, channel - 1, data));
-          }
-          catch (InvalidMidiDataException ex) { return false; }
-        */
-
-/*
-  Receiver receiver = seq.emitter;
-  Midi.Tuple tuple = seq.tuple;
-  if (receiver == null)
-  {
-  if (tuple == null) return false;
-  Midi.MidiDeviceWrapper wrapper = getWrapper();
-  if (wrapper == null) return false;
-  receiver = wrapper.getReceiver();
-  }
-  try { receiver.send(new ShortMessage(command, channel - 1, data), -1L); } 
-  catch (InvalidMidiDataException ex) { return false; }
-  return true;
-*/
+        return sendToChannel(command, data, 0, channel);                // the 0 is ignored
         }
 
     // Send a three-byte voiced message
     boolean sendToChannel(int command, int data1, int data2, int channel)
         {
-        try 
-            { 
-            return sendMIDI(new ShortMessage(command, channel - 1, data1, data2));
-            }
-        catch (InvalidMidiDataException ex) { return false; }
-
-/*
-  Receiver receiver = seq.emitter;
-  Midi.Tuple tuple = seq.tuple;
-  if (receiver == null)
-  {
-  if (tuple == null) return false;
-  Midi.MidiDeviceWrapper wrapper = getWrapper();
-  if (wrapper == null) return false;
-  receiver = wrapper.getReceiver();
-  }
-  try { receiver.send(new ShortMessage(command, channel - 1, data1, data2), -1L); }
-  catch (InvalidMidiDataException ex) { return false; }
-  return true;
-*/
+        // This is the same validation that ShortMessage does
+        if (channel < 1 || channel > 16 || data1 < 0 || data1 > 127 || data2 < 0 || data2 > 127) return false;
+        return sendShort(ReusableShortMessage.pack(command | (channel - 1), data1, data2));
         }
 
     public int getChannel()
@@ -265,21 +297,6 @@ public class Out
             return sendMIDI(new SysexMessage(sysex, sysex.length));
             }
         catch (InvalidMidiDataException ex) { return false; }
-
-        /*
-          Receiver receiver = seq.emitter;
-          Midi.Tuple tuple = seq.tuple;
-          if (receiver == null)
-          {
-          if (tuple == null) return false;
-          Midi.MidiDeviceWrapper wrapper = getWrapper();
-          if (wrapper == null) return false;
-          receiver = wrapper.getReceiver();
-          }
-          try { receiver.send(new SysexMessage(sysex, sysex.length), -1L); }
-          catch (InvalidMidiDataException ex) { return false; }
-          return true;
-        */
         }
     
     public boolean clockPulse() { return send(ShortMessage.TIMING_CLOCK); }
@@ -0,0 +1,234 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import javax.sound.midi.*;
+
+/**
+   An ordered output queue for a single MIDI output device, used when Seq is running
+   with lookahead.  Out adds each message along with the ideal time, in System.nanoTime()
+   nanoseconds, at which it should be emitted.  A dedicated thread drains the queue,
+   sending each message to the device's Receiver at its ideal time and stamping
+   it with the corresponding position of the device's microsecond clock (if the device
+   has one).  This decouples the timing of MIDI emission from how long Seq.step() happens
+   to take.
+
+   <p>Messages are always emitted in the order in which they were added.  If a message
+   is added with a time earlier than a message already in the queue (for example, a
+   Panic sent from the GUI) its time is bumped up to that of the previous message.
+**/
+
+public class OutQueue
+    {
+    private static final long serialVersionUID = 1;
+
+    // A queued message.  Short messages are stored as packed ints (see ReusableShortMessage), and message is null.
+    static class Entry
+        {
+        MidiMessage message;
+        int packed;
+        Receiver receiver;
+        long when;
+        }
+
+    Midi.MidiDeviceWrapper wrapper;
+    ArrayDeque<Entry> queue = new ArrayDeque<>();
+    // Reusable Entries so we don't allocate in the steady state
+    ArrayDeque<Entry> pool = new ArrayDeque<>();
+    // The latest time added so far
+    long lastWhen = Long.MIN_VALUE;
+    Thread thread;
+    boolean pleaseStop = false;
+    ReentrantLock lock = new ReentrantLock();
+    Condition available = lock.newCondition();
+    // Reused for sending short messages.  Only touched by the queue thread.
+    ReusableShortMessage shortMessage = new ReusableShortMessage();
+    // Number of messages emitted after their ideal time because the queue thread woke up late
+    long lateMessages;
+
+    public OutQueue(Midi.MidiDeviceWrapper wrapper)
+        {
+        this.wrapper = wrapper;
+        thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                drain();
+                }
+            });
+        thread.setName("Seq Out Queue " + wrapper);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+        }
+
+    /** Returns the device wrapper the queue sends to. */
+    public Midi.MidiDeviceWrapper getWrapper() { return wrapper; }
+
+    /** Adds a message to be sent to the given receiver at the given time, in System.nanoTime() nanoseconds. */
+    public void add(Receiver receiver, MidiMessage message, long when)
+        {
+        add(receiver, message, 0, when);
+        }
+
+    /** Adds a short message, packed as an int (see ReusableShortMessage), to be sent to the given receiver 
+        at the given time, in System.nanoTime() nanoseconds. */
+    public void add(Receiver receiver, int packed, long when)
+        {
+        add(receiver, null, packed, when);
+        }
+
+    void add(Receiver receiver, MidiMessage message, int packed, long when)
+        {
+        lock.lock();
+        try
+            {
+            if (when < lastWhen) when = lastWhen;
+            lastWhen = when;
+            Entry entry = pool.poll();
+            if (entry == null) entry = new Entry();
+            entry.receiver = receiver;
+            entry.message = message;
+            entry.packed = packed;
+            entry.when = when;
+            queue.add(entry);
+            if (queue.size() == 1) available.signal();
+            }
+        finally
+            {
+            lock.unlock();
+            }
+        }
+
+    /** Returns the number of messages presently waiting to be sent. */
+    public int size()
+        {
+        lock.lock();
+        try { return queue.size(); }
+        finally { lock.unlock(); }
+        }
+
+    /** Returns the number of messages which were sent more than 1 ms after their ideal time. */
+    public long getLateMessages()
+        {
+        lock.lock();
+        try { return lateMessages; }
+        finally { lock.unlock(); }
+        }
+
+    /** Asks the queue thread to send all messages in the queue immediately, regardless of their ideal times. */
+    public void flush()
+        {
+        lock.lock();
+        try
+            {
+            long now = System.nanoTime();
+            for(Entry entry : queue)
+                entry.when = now;
+            lastWhen = now;
+            available.signal();
+            }
+        finally { lock.unlock(); }
+        }
+
+    /** Sends all remaining messages immediately, then stops the queue thread. */
+    public void shutdown()
+        {
+        lock.lock();
+        try
+            {
+            flush();
+            pleaseStop = true;
+            available.signal();
+            }
+        finally { lock.unlock(); }
+        }
+
+    // Must be called while holding the lock
+    void recycle(Entry entry)
+        {
+        entry.message = null;
+        entry.receiver = null;
+        pool.add(entry);
+        }
+
+    void send(Entry entry, long timestamp)
+        {
+        try
+            {
+            if (entry.message == null)
+                {
+                shortMessage.set(entry.packed);
+                entry.receiver.send(shortMessage, timestamp);
+                }
+            else
+                {
+                entry.receiver.send(entry.message, timestamp);
+                }
+            }
+        catch (IllegalStateException e)
+            {
+            // This happens when the device has closed itself and we're still trying to send to it.
+            // Do nothing
+            }
+        }
+
+    // Returns the device's microsecond timestamp corresponding to the given ideal time, or -1 if the device has no clock
+    long toTimestamp(long when, long now)
+        {
+        long position = wrapper.getDevice().getMicrosecondPosition();
+        if (position < 0) return -1L;
+        return position + (when - now) / 1000L;
+        }
+
+    // The queue thread's loop.  We don't hold the lock while actually sending, so Out is never blocked by a slow device.
+    void drain()
+        {
+        while(true)
+            {
+            Entry entry = null;
+            long now = 0;
+            lock.lock();
+            try
+                {
+                while(true)
+                    {
+                    entry = queue.peek();
+                    if (entry == null)
+                        {
+                        if (pleaseStop) return;
+                        available.awaitUninterruptibly();
+                        continue;
+                        }
+                    now = System.nanoTime();
+                    long remaining = entry.when - now;
+                    if (remaining > 0)
+                        {
+                        // If something new arrives it'll be no earlier than this one, so we needn't be woken up
+                        available.awaitNanos(remaining);
+                        continue;
+                        }
+                    queue.poll();
+                    if (remaining < -1000000L) lateMessages++;
+                    break;
+                    }
+                }
+            catch (InterruptedException ex) { return; }
+            finally
+                {
+                lock.unlock();
+                }
+
+            send(entry, toTimestamp(entry.when, now));
+
+            lock.lock();
+            try { recycle(entry); }
+            finally { lock.unlock(); }
+            }
+        }
+    }
@@ -5,6 +5,8 @@
 
 package seq.engine;
 
+import java.util.*;
+
 public class Pad
     {
     /// NOTE: the three pads supported here handle buttons differently:
@@ -346,67 +348,242 @@ public class Pad
         PAD_STATE_WAITING, or PAD_STATE_STOPPING. 
         
         The PAD_STATE_OFF and PAD_STATE_ON states have variations 0...3
+        
+        Nothing is sent if the pad was already last set to the same color: see the Shadow
+        Frame Buffers below.
     */
     public static void setPad(Seq seq, int out, int device, int index, int state, int variation)
         {
+        int color;
+        switch(state)
+            {
+            case PAD_STATE_UNUSED:
+                color = PAD_STATES_UNUSED[device]; 
+                break;
+            case PAD_STATE_OFF:
+                color = PAD_STATES_OFF[device][variation]; 
+                break;
+            case PAD_STATE_ON:
+                color = PAD_STATES_ON[device][variation]; 
+                break;
+            case PAD_STATE_WAITING:
+                color = PAD_STATES_WAITING[device]; 
+                break;
+            case PAD_STATE_STOPPING:
+                color = PAD_STATES_STOPPING[device]; 
+                break;
+            default:
+                color = PAD_STATES_UNUSED[device];                      // FIXME is this wise?          
+                break;
+            }
+
         if (index < 0 && index >= PAD_INDEX_D && device != DEVICE_AKAI_APC)
             {
-            int cc = COMMANDS[(0 - index) - 1][device];
-                        
-            switch(state)
+            send(seq, out, device, index, true, COMMANDS[(0 - index) - 1][device], color, 1);
+            }
+        else
+            {
+            int channel = (device == DEVICE_AKAI_APC ? 7 : 1);
+            send(seq, out, device, index, false, getNoteForIndex(device, index), color, channel);
+            }
+        }
+    
+    
+    //// SHADOW FRAME BUFFERS
+    ////
+    //// For each Out we keep a shadow of the color we last sent to each pad.  setPad() only sends
+    //// to pads whose color has changed, so redrawing the whole grid (as SelectClip.updatePads() does)
+    //// costs nothing for pads which haven't changed.  Otherwise a grid's worth of MIDI would be
+    //// sent each time, which on USB controllers delays notes sharing the same port.
+    ////
+    //// Additionally, between beginFrame() and endFrame(), changed pads on the Launchpad MK 3
+    //// are gathered and sent as a single LED Lighting sysex message (see "Launchpad Mini --
+    //// Programmers Reference Manual"), rather than one note or CC per pad.
+    ////
+    //// If something other than setPad() changes a pad's lights (the APC lights pads when you press 
+    //// them, and Pad.initialize() resets the device), call invalidate() so it'll be sent next time.
+    
+    // Grid pads are shadowed at 0...63, and command pads (PAD_INDEX_UP ... PAD_INDEX_8) at 64...79 
+    static final int NUM_SHADOW_PADS = 80;
+    // Shadow value for a pad whose color we don't know
+    static final int UNKNOWN = -1;
+    // Maximum number of pads in a frame: we can't light more than this
+    static final int MAX_FRAME_SIZE = NUM_SHADOW_PADS;
+    
+    // The last color sent to each pad, per out, or null if none has been sent
+    static final int[][] shadows = new int[Seq.NUM_OUTS][];
+    // The device each shadow was built for
+    static final int[] shadowDevices = new int[Seq.NUM_OUTS];
+    // The nesting depth of beginFrame() per out, or 0 if we're not in a frame
+    static final int[] frameDepths = new int[Seq.NUM_OUTS];
+    // The pending LED indexes and colors of the current frame per out, interleaved
+    static final int[][] frames = new int[Seq.NUM_OUTS][MAX_FRAME_SIZE * 2];
+    // The number of pending pads in the current frame per out
+    static final int[] frameSizes = new int[Seq.NUM_OUTS];
+    
+    // The number of pad messages sent
+    static long messagesSent;
+    // The number of pad messages not sent because the pad hadn't changed, or because they were batched into a frame
+    static long messagesSaved;
+    
+    /** Returns the number of pad MIDI messages sent so far. */
+    public static synchronized long getMessagesSent() { return messagesSent; }
+    
+    /** Returns the number of pad MIDI messages which didn't need to be sent so far, either because 
+        the pads were already showing the right color, or because they were batched into a single sysex message. */
+    public static synchronized long getMessagesSaved() { return messagesSaved; }
+
+    // Returns the shadow slot for a given index
+    static int getShadowSlot(int index)
+        {
+        if (index >= 0 && index < 64) return index;
+        else if (index < 0 && index >= PAD_INDEX_8) return 63 - index;
+        else return UNKNOWN;
+        }
+    
+    // Returns the shadow for the given out and device, creating or clearing it as needed
+    static int[] getShadow(int out, int device)
+        {
+        int[] shadow = shadows[out];
+        if (shadow == null || shadowDevices[out] != device)
+            {
+            if (shadow == null) shadow = shadows[out] = new int[NUM_SHADOW_PADS];
+            Arrays.fill(shadow, UNKNOWN);
+            shadowDevices[out] = device;
+            }
+        return shadow;
+        }
+    
+    // Sends the given color as a CC or note, unless the shadow says the pad is already showing it.
+    static synchronized void send(Seq seq, int out, int device, int index, boolean cc, int number, int color, int channel)
+        {
+        if (number == INVALID_NOTE) return;
+        int slot = getShadowSlot(index);
+        
+        // While rendering the devices are silenced, so we don't want to pretend that the pads have changed
+        if (slot == UNKNOWN || number < 0 || number > 127 || seq.isRendering())
+            {
+            if (cc) seq.forceCC(out, number, color, channel);
+            else seq.forceNoteOn(out, number, color, channel);
+            messagesSent++;
+            return;
+            }
+            
+        int[] shadow = getShadow(out, device);
+        if (shadow[slot] == color) 
+            {
+            messagesSaved++;
+            return;
+            }
+        
+        if (frameDepths[out] > 0 && device == DEVICE_LAUNCHPAD_MKIII)
+            {
+            // In programmer mode the LED index is the same as the note or CC number
+            int[] frame = frames[out];
+            int size = frameSizes[out];
+            for(int i = 0; i < size; i += 2)
                 {
-                case PAD_STATE_UNUSED:
-                    seq.forceCC(out, cc, PAD_STATES_UNUSED[device], 1); 
-                    break;
-                case PAD_STATE_OFF:
-                    seq.forceCC(out, cc, PAD_STATES_OFF[device][variation], 1); 
-                    break;
-                case PAD_STATE_ON:
-                    seq.forceCC(out, cc, PAD_STATES_ON[device][variation], 1); 
-                    break;
-                case PAD_STATE_WAITING:
-                    seq.forceCC(out, cc, PAD_STATES_WAITING[device], 1); 
-                    break;
-                case PAD_STATE_STOPPING:
-                    seq.forceCC(out, cc, PAD_STATES_STOPPING[device], 1); 
-                    break;
-                default:
-                    seq.forceCC(out, cc, PAD_STATES_UNUSED[device], 1);                     // FIXME is this wise?          
-                    break;
+                if (frame[i] == number)                         // replace it
+                    {
+                    frame[i + 1] = color;
+                    shadow[slot] = color;
+                    messagesSaved++;
+                    return;
+                    }
                 }
+            frame[size] = number;
+            frame[size + 1] = color;
+            frameSizes[out] = size + 2;
+            shadow[slot] = color;
             }
         else
             {
-            int note = getNoteForIndex(device, index);
-            int channel = (device == DEVICE_AKAI_APC ? 7 : 1);
-            switch(state)
+            boolean sent = (cc ? seq.forceCC(out, number, color, channel) : seq.forceNoteOn(out, number, color, channel));
+            if (sent) 
                 {
-                case PAD_STATE_UNUSED:
-                    seq.forceNoteOn(out, note, PAD_STATES_UNUSED[device], channel); 
-                    break;
-                case PAD_STATE_OFF:
-                    seq.forceNoteOn(out, note, PAD_STATES_OFF[device][variation], channel); 
-                    break;
-                case PAD_STATE_ON:
-                    seq.forceNoteOn(out, note, PAD_STATES_ON[device][variation], channel); 
-                    break;
-                case PAD_STATE_WAITING:
-                    seq.forceNoteOn(out, note, PAD_STATES_WAITING[device], channel); 
-                    break;
-                case PAD_STATE_STOPPING:
-                    seq.forceNoteOn(out, note, PAD_STATES_STOPPING[device], channel); 
-                    break;
-                default:
-                    seq.forceNoteOn(out, note, PAD_STATES_UNUSED[device], channel);                       // FIXME is this wise?          
-                    break;
+                shadow[slot] = color;
+                messagesSent++;
                 }
             }
         }
     
+    /** Begins a frame on the given out.  Until the matching endFrame(), changed pads may be gathered 
+        up and sent all at once in endFrame().  Frames may be nested: only the outermost endFrame() sends. */
+    public static synchronized void beginFrame(Seq seq, int out)
+        {
+        frameDepths[out]++;
+        }
+        
+    /** Ends a frame on the given out, sending any pads gathered since the outermost beginFrame(). */
+    public static synchronized void endFrame(Seq seq, int out)
+        {
+        if (frameDepths[out] == 0) return;                      // unbalanced
+        if (--frameDepths[out] > 0) return;
+        
+        int size = frameSizes[out];
+        frameSizes[out] = 0;
+        if (size == 0) return;
+        int[] frame = frames[out];
+        
+        boolean sent;
+        if (size == 2)
+            {
+            // Just one pad, send it the usual way.  Launchpad MK 3 CCs are the top row, 91 and up
+            if (frame[0] >= 0x5B) sent = seq.forceCC(out, frame[0], frame[1], 1);
+            else sent = seq.forceNoteOn(out, frame[0], frame[1], 1);
+            }
+        else
+            {
+            // F0h 00h 20h 29h 02h 0Dh 03h <colourspec> [<colourspec> [...]] F7h
+            // where each colourspec is 0 (static color), LED index, palette color 
+            byte[] sysex = new byte[7 + (size / 2) * 3 + 1];
+            sysex[0] = (byte)0xF0;
+            sysex[1] = 0x00;
+            sysex[2] = 0x20;
+            sysex[3] = 0x29;
+            sysex[4] = 0x02;
+            sysex[5] = 0x0D;
+            sysex[6] = 0x03;
+            int pos = 7;
+            for(int i = 0; i < size; i += 2)
+                {
+                sysex[pos++] = 0x00;
+                sysex[pos++] = (byte)frame[i];
+                sysex[pos++] = (byte)frame[i + 1];
+                }
+            sysex[pos] = (byte)0xF7;
+            sent = seq.forceSysex(out, sysex);
+            }
+            
+        if (sent)
+            {
+            messagesSent++;
+            messagesSaved += (size / 2) - 1;
+            }
+        else invalidate(out);                   // we don't know what the pads are showing now
+        }
+        
+    /** Forgets what the pads on the given out are showing, so they will all be sent next time they're set. */
+    public static synchronized void invalidate(int out)
+        {
+        if (out < 0 || out >= Seq.NUM_OUTS) return;
+        if (shadows[out] != null) Arrays.fill(shadows[out], UNKNOWN);
+        }
+
+    /** Forgets what the given pad on the given out is showing, so it will be sent next time it's set. */
+    public static synchronized void invalidate(int out, int index)
+        {
+        if (out < 0 || out >= Seq.NUM_OUTS) return;
+        int slot = getShadowSlot(index);
+        if (shadows[out] != null && slot != UNKNOWN) shadows[out][slot] = UNKNOWN;
+        }
     
     /** Initializes the device.  Call this in reset() perhaps */
     public static void initialize(Seq seq, int out)
         {
+        if (out < 0 || out >= Seq.NUM_OUTS) return;             // no pad device
+        // The device will be reset, so we must send everything again
+        invalidate(out);
         // This magic string puts the Launchpad MK3 into "Programmer Mode" Layout, see "Selecting Layouts",
         // Page 7 of "Launchpad Mini -- Programmers Reference Manual"
         seq.sysex(out, new byte[] { (byte)0xF0, 0x00, 0x20, 0x29, 0x02, 0x0d, 0x00, 0x7F, (byte)0xF7 });        
@@ -418,18 +595,22 @@ public class Pad
     /** Clear all command buttons */
     public static void clearCommands(Seq seq, int out, int device)
         {
+        beginFrame(seq, out);
         for(int i = 0; i < PAD_INDICES.length; i++)
             {
             setPad(seq, out, device, PAD_INDICES[i], PAD_STATE_UNUSED);
             }
+        endFrame(seq, out);
         }
 
     /** Clear all pads in the device's grid */
     public static void clearPads(Seq seq, int out, int device)
         {
+        beginFrame(seq, out);
         for(int i = 0; i < 64; i++)
             {
             setPad(seq, out, device, i, PAD_STATE_UNUSED);
             }
+        endFrame(seq, out);
         }
     }
@@ -0,0 +1,261 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+
+/**
+   Plays a Seq without SeqUI, for machines with no display.  Player loads a .seq file, sets up its
+   Outs and Ins from the MIDI devices saved with it (matched by device name, as SeqUI does when loading),
+   and plays it.  Nothing in Swing or AWT is started: with no SeqUI and no SeqListeners, the Seq does
+   not post GUI updates.
+
+   <p>Player is controlled by text commands, one per line, read from standard input and, if a port
+   is given, from connections to that port on the local machine (127.0.0.1 only).  Each command
+   is answered with a single line starting with "ok" or "error".  The commands are:
+
+   <pre>
+   play                 Start playing, or resume if paused
+   stop                 Stop and rewind
+   pause                Pause
+   bpm N                Set the tempo to N beats per minute
+   loop on|off          Turn looping on or off
+   status               Report whether we're playing, paused, or stopped, the time, tempo, and looping
+   stats                Report the CPU used per tick since the last stats, and the clock's timing statistics
+   quit                 Stop and exit
+   </pre>
+
+   <p>Player can be run from the command line:
+
+   <pre>
+   java seq.engine.Player song.seq [-play] [-loop] [-bpm N] [-port N]
+   </pre>
+
+   <p>... or equivalently as java seq.Seq -headless song.seq ...  With -play, the sequence starts playing
+   immediately.  If standard input is closed and there is no port, Player exits when the sequence stops.
+**/
+
+public class Player
+    {
+    Seq seq;
+    // Process CPU time and clock ticks as of the last stats
+    long lastCPU;
+    long lastTicks;
+
+    public Player(Seq seq)
+        {
+        this.seq = seq;
+        seq.countInMode = Seq.COUNT_IN_NONE;           // not setCountInMode(...), which would change the Prefs
+        seq.metronome = Seq.METRONOME_NONE;
+        lastCPU = getProcessCPUTime();
+        }
+
+    public Seq getSeq() { return seq; }
+
+    // Returns the CPU time used by the whole process so far in nanoseconds, or -1 if not available
+    static long getProcessCPUTime()
+        {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean)bean).getProcessCpuTime();
+        else return -1;
+        }
+
+    /** Performs a command and returns the response. */
+    public String command(String line)
+        {
+        String[] words = line.trim().split("\\s+");
+        String command = words[0].toLowerCase();
+        try
+            {
+            if (command.equals("play"))
+                {
+                seq.play();
+                return "ok";
+                }
+            else if (command.equals("stop"))
+                {
+                seq.stop();
+                return "ok";
+                }
+            else if (command.equals("pause"))
+                {
+                seq.pause();
+                return "ok";
+                }
+            else if (command.equals("bpm"))
+                {
+                int bpm = Integer.parseInt(words[1]);
+                if (bpm < 1 || bpm > Seq.MAX_BPM) return "error bpm must be 1 ... " + Seq.MAX_BPM;
+                seq.setBPM(bpm);
+                return "ok";
+                }
+            else if (command.equals("loop"))
+                {
+                if (words[1].equalsIgnoreCase("on")) seq.setLooping(true);
+                else if (words[1].equalsIgnoreCase("off")) seq.setLooping(false);
+                else return "error loop must be on or off";
+                return "ok";
+                }
+            else if (command.equals("status"))
+                {
+                return "ok " + (seq.isPlaying() ? "playing" : (seq.isStopped() ? "stopped" : "paused")) +
+                    " time " + seq.getTime() + " bpm " + seq.getBPM() + " loop " + (seq.isLooping() ? "on" : "off");
+                }
+            else if (command.equals("stats"))
+                {
+                return "ok " + getStatistics().replace('\n', ' ').replaceAll("\\s+", " ");
+                }
+            else if (command.equals("quit"))
+                {
+                seq.stop();
+                seq.shutdown();
+                System.exit(0);
+                return "ok";            // never happens
+                }
+            else return "error unknown command " + command;
+            }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException ex)
+            {
+            return "error bad argument to " + command;
+            }
+        }
+
+    /** Returns the CPU used per tick since the last call, and the clock's timing statistics. */
+    public synchronized String getStatistics()
+        {
+        long cpu = getProcessCPUTime();
+        long ticks = seq.getClockSource().getTicks();
+        String result = "";
+        if (cpu >= 0 && ticks > lastTicks)
+            {
+            result = "CPU per tick " + String.format("%.1f", (cpu - lastCPU) / 1000.0 / (ticks - lastTicks)) + " us over " + (ticks - lastTicks) + " ticks\n";
+            }
+        lastCPU = cpu;
+        lastTicks = ticks;
+        return result + seq.getClockSource().getStatistics();
+        }
+
+    /** Reads commands from the given Reader until it closes, writing each response to the given Writer. */
+    public void serve(BufferedReader reader, PrintWriter writer) throws IOException
+        {
+        String line;
+        while((line = reader.readLine()) != null)
+            {
+            if (line.trim().length() == 0) continue;
+            writer.println(command(line));
+            writer.flush();
+            }
+        }
+
+    /** Starts a daemon thread which accepts connections on the given port on the local machine, and serves commands on each. */
+    public void serve(int port) throws IOException
+        {
+        final ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                while(true)
+                    {
+                    try
+                        {
+                        final Socket socket = server.accept();
+                        Thread connection = new Thread(new Runnable()
+                            {
+                            public void run()
+                                {
+                                try
+                                    {
+                                    serve(new BufferedReader(new InputStreamReader(socket.getInputStream())), new PrintWriter(socket.getOutputStream()));
+                                    }
+                                catch (IOException ex) { }
+                                finally
+                                    {
+                                    try { socket.close(); } catch (IOException ex) { }
+                                    }
+                                }
+                            });
+                        connection.setName("Seq Player Connection");
+                        connection.setDaemon(true);
+                        connection.start();
+                        }
+                    catch (IOException ex)
+                        {
+                        ex.printStackTrace();
+                        return;
+                        }
+                    }
+                }
+            });
+        thread.setName("Seq Player Server");
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    static void usage()
+        {
+        System.err.println("Usage: java seq.engine.Player INPUT.seq [-play] [-loop] [-bpm N] [-port N]");
+        System.err.println("    -play       Start playing immediately");
+        System.err.println("    -loop       Loop the sequence");
+        System.err.println("    -bpm N      Play at N beats per minute rather than the tempo saved with the sequence");
+        System.err.println("    -port N     Also accept commands on port N of the local machine");
+        System.exit(1);
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1) usage();
+
+        boolean play = false;
+        boolean loop = false;
+        int bpm = 0;
+        int port = -1;
+        try
+            {
+            for(int i = 1; i < args.length; i++)
+                {
+                if (args[i].equals("-play")) play = true;
+                else if (args[i].equals("-loop")) loop = true;
+                else if (args[i].equals("-bpm")) bpm = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-port")) port = Integer.parseInt(args[++i]);
+                else usage();
+                }
+            }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) { usage(); }
+        if (bpm < 0 || bpm > Seq.MAX_BPM) usage();
+
+        Seq old = new Seq();
+        old.setupForMIDI();
+        Seq seq = SeqFile.load(old, new File(args[0]), null);
+        old.shutdown();
+        seq.bindInsAndOuts();                   // else the Outs and Ins would still work through old
+        Player player = new Player(seq);
+        if (loop) seq.setLooping(true);
+        if (bpm > 0) seq.setBPM(bpm);
+        if (port >= 0) player.serve(port);
+        if (play) seq.play();
+        System.err.println("Ready in " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms" + (port >= 0 ? ", listening on port " + port : ""));
+
+        player.serve(new BufferedReader(new InputStreamReader(System.in)), new PrintWriter(System.out));
+
+        // Standard input is closed
+        if (port < 0)
+            {
+            seq.waitUntilStopped();
+            seq.shutdown();
+            System.exit(0);             // Seq's shutdown hooks and devices may otherwise keep us alive
+            }
+        else
+            {
+            while(true) Thread.sleep(Long.MAX_VALUE);
+            }
+        }
+    }
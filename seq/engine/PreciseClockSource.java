@@ -0,0 +1,156 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.util.concurrent.locks.*;
+
+/**
+   A ClockSource which runs on its own dedicated thread and fires each tick
+   individually at its deadline.  The thread parks until SPIN_NANOS before
+   the deadline, then spin-waits the rest of the way.  This is a hybrid of the
+   approaches in HighResolutionTimer: parking alone is not accurate enough on
+   most operating systems, and spinning alone burns an entire core.
+
+   <p>If a tick is late, following ticks are fired immediately until the clock
+   has caught up, so the average tempo stays exact.  If the clock falls more than
+   MAX_CATCH_UP_TICKS behind, it is rebased at the current time instead.
+**/
+
+public class PreciseClockSource extends ClockSource
+    {
+    private static final long serialVersionUID = 1;
+
+    /** How long before a deadline we stop parking and start spinning */
+    public static final long SPIN_NANOS = 250000L;              // 0.25 ms
+
+    // The thread, or null if we're not running
+    Thread thread;
+
+    // The following are only accessed while holding the lock on this object
+    // Time, in nanos, of tick 0
+    long origin;
+    // Number of ticks fired since origin
+    long fired;
+    // Interval in nanos
+    long interval;
+
+    public int getType() { return PRECISE; }
+
+    public synchronized boolean isRunning() { return thread != null; }
+
+    public void start(final Runnable tick, long nanosPerTick)
+        {
+        stop();
+        resetStatistics();
+        synchronized(this)
+            {
+            interval = nanosPerTick;
+            origin = System.nanoTime();
+            fired = 0;
+            final Thread[] me = new Thread[1];
+            thread = me[0] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    loop(tick, me[0]);
+                    }
+                });
+            thread.setName(THREAD_NAME);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+            }
+        }
+
+    // The main loop of the timer thread
+    void loop(Runnable tick, Thread me)
+        {
+        while(true)
+            {
+            long deadline;
+            synchronized(this)
+                {
+                if (thread != me) return;
+                deadline = origin + fired * interval;
+                }
+
+            // Wait for the deadline
+            long now = System.nanoTime();
+            while(now < deadline)
+                {
+                long remaining = deadline - now;
+                if (remaining > SPIN_NANOS)
+                    {
+                    LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+                    synchronized(this)
+                        {
+                        if (thread != me) return;
+                        deadline = origin + fired * interval;           // the interval may have changed
+                        }
+                    }
+                else
+                    {
+                    Thread.onSpinWait();
+                    }
+                now = System.nanoTime();
+                }
+
+            synchronized(this)
+                {
+                if (thread != me) return;
+                // the interval may have been changed while we were waiting
+                long d = origin + fired * interval;
+                if (d > now) continue;
+                deadline = d;
+                if (now - deadline > MAX_CATCH_UP_TICKS * interval)
+                    {
+                    // we've fallen hopelessly behind, rebase
+                    origin = now;
+                    fired = 0;
+                    deadline = now;
+                    recordRebase();
+                    }
+                fired++;
+                }
+
+            recordLateness(now - deadline);
+            currentDeadline = deadline;
+            try
+                {
+                tick.run();
+                }
+            catch (Exception ex)
+                {
+                System.err.println("Exception thrown during step: " + ex);
+                ex.printStackTrace();
+                }
+            }
+        }
+
+    public void stop()
+        {
+        Thread t = null;
+        synchronized(this)
+            {
+            t = thread;
+            thread = null;
+            }
+        if (t != null) LockSupport.unpark(t);
+        }
+
+    public void setInterval(long nanosPerTick)
+        {
+        Thread t = null;
+        synchronized(this)
+            {
+            origin = origin + fired * interval;
+            fired = 0;
+            interval = nanosPerTick;
+            t = thread;
+            }
+        if (t != null) LockSupport.unpark(t);           // recompute the deadline
+        }
+    }
@@ -0,0 +1,316 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import seq.util.*;
+import seq.motif.stepsequence.*;
+import java.io.*;
+import java.util.*;
+import javax.sound.midi.*;
+
+/**
+   Renders a Seq offline, faster than real time, into javax.sound.midi Sequences, which can
+   then be written out as MIDI files.  Rather than letting the ClockSource pulse step(),
+   Renderer calls step() itself as fast as it can from the start of the root Clip until it
+   stops (or for a given number of bars), capturing every message the Outs would have sent
+   the same way Log MIDI does, but with the devices silenced.  Clock messages are not rendered,
+   nor is the count-in, nor does the Seq loop.
+
+   <p>The render is deterministic: Seq.getRandom() and the deterministic random are both seeded
+   with the given seed, so rendering the same Seq with the same seed produces the same Sequence.
+
+   <p>Renderer can be run from the command line without SeqUI:
+
+   <pre>
+   java seq.engine.Renderer song.seq song.mid [-multi] [-bars N] [-seed N]
+   </pre>
+
+   <p>With -multi, each Out is rendered to its own file, song.mid.1.mid, song.mid.2.mid, etc.,
+   as Log MIDI does.
+
+   <p>Renderer can also check itself:
+
+   <pre>
+   java seq.engine.Renderer -test
+   </pre>
+
+   <p>This saves a small Seq to a file, loads it with load(...), renders it, and exits with status 1
+   if no notes were rendered, as happens if the loaded Outs are still bound to the Seq they were 
+   loaded with rather than the one being rendered.
+**/
+
+public class Renderer
+    {
+    Seq seq;
+    // Do we render each Out to its own Sequence?
+    boolean multi = false;
+    // The number of bars to render, or 0 to render until the root Clip is done
+    int bars = 0;
+    // The random seed
+    int seed;
+    // Do we build Sequences of what we render, or just drive the Seq?
+    boolean buildSequences = true;
+
+    // Swallows everything the Outs send, so nothing goes to the devices while we're rendering
+    static final Receiver SILENT = new Receiver()
+        {
+        public void send(MidiMessage message, long timestamp) { }
+        public void close() { }
+        };
+
+    public Renderer(Seq seq)
+        {
+        this.seq = seq;
+        seed = seq.getDeterministicRandomSeed();
+        }
+
+    /** Returns whether each Out is rendered to its own Sequence. */
+    public boolean isMulti() { return multi; }
+    /** Sets whether each Out is rendered to its own Sequence. */
+    public void setMulti(boolean val) { multi = val; }
+    /** Returns the number of bars to render, or 0 if we render until the root Clip is done. */
+    public int getBars() { return bars; }
+    /** Sets the number of bars to render, or 0 to render until the root Clip is done. */
+    public void setBars(int val) { if (val < 0) val = 0; bars = val; }
+    /** Returns the random seed.  By default this is the Seq's deterministic random seed. */
+    public int getSeed() { return seed; }
+    /** Sets the random seed. */
+    public void setSeed(int val) { seed = val; }
+    /** Returns whether render() builds Sequences of what it renders. */
+    public boolean getBuildSequences() { return buildSequences; }
+    /** Sets whether render() builds Sequences of what it renders.  If not, render() just drives the Seq, 
+        and returns null.  This is useful for measuring the Clips without the cost of the Sequences.  */
+    public void setBuildSequences(boolean val) { buildSequences = val; }
+
+    /** Renders the Seq from the beginning, and returns the resulting Sequences.  If multi is false,
+        this is a single Sequence.  If multi is true, there is one Sequence per Out, with null
+        for any Out which emitted nothing.  If we're not building Sequences, returns null.  
+        The Seq is stopped before and after rendering. */
+    public Sequence[] render() throws InvalidMidiDataException
+        {
+        Sequence[] sequences = (buildSequences ? new Sequence[multi ? Seq.NUM_OUTS : 1] : null);
+        Track[] tracks = (buildSequences ? new Track[Seq.NUM_OUTS] : null);
+        for(int i = 0; buildSequences && i < sequences.length; i++)
+            {
+            sequences[i] = new Sequence(Sequence.PPQ, Seq.PPQ);
+            tracks[i] = sequences[i].createTrack();
+            tracks[i].add(new MidiEvent(new MetaMessage(0x51, tempo(seq.getBPM()), 3), 0));          // set tempo
+            }
+
+        seq.stop();
+
+        // Save everything we're going to change
+        Receiver oldEmitter = seq.emitter;
+        Track[] oldTracks = seq.tracks;
+        boolean[] oldValidTracks = seq.validTracks;
+        int oldClock = seq.clock;
+        int oldCountInMode = seq.countInMode;
+        int oldMetronome = seq.metronome;
+        boolean oldLooping = seq.looping;
+        int oldSeed = seq.getDeterministicRandomSeed();
+
+        seq.getLock().lock();
+        try
+            {
+            seq.rendering = true;
+            seq.emitter = SILENT;
+            seq.setTracks(tracks);
+            seq.clock = Seq.CLOCK_IGNORE;
+            seq.countInMode = Seq.COUNT_IN_NONE;
+            seq.metronome = Seq.METRONOME_NONE;
+            seq.looping = false;
+            seq.seedDeterministicRandom(seed);
+            seq.renderRandom = new Random(seed);
+            }
+        finally
+            {
+            seq.getLock().unlock();
+            }
+
+        try
+            {
+            int end = bars * seq.getBar() * Seq.PPQ;
+            seq.play();
+            while(!seq.isStopped() && (bars == 0 || seq.getTime() < end))
+                {
+                seq.step();
+                }
+            seq.stop();             // if we ran out of bars, this sends the final NOTE OFFs
+            }
+        finally
+            {
+            seq.getLock().lock();
+            try
+                {
+                if (multi && buildSequences)
+                    {
+                    for(int i = 0; i < sequences.length; i++)
+                        {
+                        if (!seq.isValidTrack(i)) sequences[i] = null;
+                        }
+                    }
+                seq.emitter = oldEmitter;
+                seq.tracks = oldTracks;
+                seq.validTracks = oldValidTracks;
+                seq.clock = oldClock;
+                seq.countInMode = oldCountInMode;
+                seq.metronome = oldMetronome;
+                seq.looping = oldLooping;
+                seq.seedDeterministicRandom(oldSeed);
+                seq.renderRandom = null;
+                seq.rendering = false;
+                }
+            finally
+                {
+                seq.getLock().unlock();
+                }
+            seq.updateGUI(false);
+            }
+        return sequences;
+        }
+
+    // Builds the three data bytes of a tempo meta message, in microseconds per quarter note
+    static byte[] tempo(int bpm)
+        {
+        int micros = 60000000 / bpm;
+        return new byte[] { (byte)(micros >>> 16), (byte)(micros >>> 8), (byte)micros };
+        }
+
+    /** Writes out Sequences produced by render().  A single Sequence is written to the given file.
+        Multiple Sequences are written to files named FILE.1.mid, FILE.2.mid, etc., one per non-null
+        Sequence, just like Log MIDI.  */
+    public static void write(Sequence[] sequences, File file) throws IOException
+        {
+        if (sequences.length == 1)
+            {
+            MidiSystem.write(sequences[0], 0, file);
+            }
+        else
+            {
+            for(int i = 0; i < sequences.length; i++)
+                {
+                if (sequences[i] != null)
+                    {
+                    MidiSystem.write(sequences[i], 0, new File(file.getCanonicalPath() + "." + (i + 1) + ".mid"));
+                    }
+                }
+            }
+        }
+
+    /** Loads a Seq from a file saved by SeqUI.  The Seq's Outs and Ins are set up
+        from the last-used MIDI devices, but when rendering nothing is sent to them.  */
+    public static Seq load(File file) throws Exception
+        {
+        Seq old = new Seq();
+        old.setupForMIDI();
+        Seq seq = SeqFile.load(old, file, null);
+        old.shutdown();
+        seq.bindInsAndOuts();                   // else the Outs would still emit through old, and we'd render nothing
+        return seq;
+        }
+
+    static void usage()
+        {
+        System.err.println("Usage: java seq.engine.Renderer INPUT.seq OUTPUT.mid [-multi] [-bars N] [-seed N]");
+        System.err.println("       java seq.engine.Renderer -test");
+        System.err.println("    -multi      Render each Out to its own file, OUTPUT.mid.1.mid, OUTPUT.mid.2.mid, etc.");
+        System.err.println("    -bars N     Render only the first N bars");
+        System.err.println("    -seed N     Use N as the random seed rather than the one saved with the sequence");
+        System.exit(1);
+        }
+
+    /** Saves a step sequence which plays every step to a file, loads it with load(...), renders two bars
+        of it, and returns whether any notes were rendered.  Prints the number of notes rendered. */
+    public static boolean test() throws Exception
+        {
+        final int NUM_TRACKS = 4;
+        final int NUM_STEPS = 16;
+        final int BARS = 2;
+        
+        Seq seq = new Seq();
+        seq.setupForMIDI();
+        StepSequence ss = new StepSequence(seq, NUM_TRACKS, NUM_STEPS);
+        for(int track = 0; track < NUM_TRACKS; track++)
+            {
+            ss.setTrackNote(track, 36 + track);
+            for(int step = 0; step < NUM_STEPS; step++)
+                ss.setVelocity(track, step, 100, true);
+            }
+        seq.addMotif(ss);
+        seq.setData(ss);
+
+        File file = File.createTempFile("Renderer", ".seq");
+        file.deleteOnExit();
+        SeqFile.save(seq, true, file, null);
+        seq.shutdown();
+
+        Renderer renderer = new Renderer(load(file));
+        renderer.setBars(BARS);
+        Sequence[] sequences = renderer.render();
+
+        int notes = 0;
+        for(Sequence sequence : sequences)
+            {
+            if (sequence == null) continue;
+            for(Track track : sequence.getTracks())
+                for(int i = 0; i < track.size(); i++)
+                    {
+                    MidiMessage message = track.get(i).getMessage();
+                    if (message instanceof ShortMessage && ((ShortMessage)message).getCommand() == ShortMessage.NOTE_ON &&
+                        ((ShortMessage)message).getData2() > 0)
+                        notes++;
+                    }
+            }
+
+        boolean passed = (notes > 0);
+        System.err.println("Rendered " + notes + " notes: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+        }
+
+    public static void main(String[] args) throws Exception
+        {
+        if (args.length == 1 && args[0].equals("-test")) 
+            System.exit(test() ? 0 : 1);
+        if (args.length < 2) usage();
+
+        boolean multi = false;
+        int bars = 0;
+        Integer seed = null;
+        try
+            {
+            for(int i = 2; i < args.length; i++)
+                {
+                if (args[i].equals("-multi")) multi = true;
+                else if (args[i].equals("-bars")) bars = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-seed")) seed = Integer.parseInt(args[++i]);
+                else usage();
+                }
+            }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) { usage(); }
+
+        Seq seq = load(new File(args[0]));
+        Renderer renderer = new Renderer(seq);
+        renderer.setMulti(multi);
+        renderer.setBars(bars);
+        if (seed != null) renderer.setSeed(seed);
+
+        long millis = System.currentTimeMillis();
+        Sequence[] sequences = renderer.render();
+        millis = System.currentTimeMillis() - millis;
+        write(sequences, new File(args[1]));
+
+        int events = 0;
+        long ticks = 0;
+        for(Sequence sequence : sequences)
+            {
+            if (sequence == null) continue;
+            for(Track track : sequence.getTracks()) events += track.size();
+            ticks = Math.max(ticks, sequence.getTickLength());
+            }
+        System.err.println("Rendered " + events + " events, " + ticks + " ticks, in " + millis + " ms");
+        System.exit(0);             // Seq's shutdown hooks and devices may otherwise keep us alive
+        }
+    }
@@ -0,0 +1,83 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import javax.sound.midi.*;
+
+/**
+   A ShortMessage which can be overwritten in place, so that MIDI can be emitted
+   without allocating a new ShortMessage per event.  Short messages are passed around
+   inside Seq as <i>packed ints</i>: the status byte in bits 0-7, data 1 in bits 8-15,
+   and data 2 in bits 16-23.  A ReusableShortMessage is only loaded with a packed int
+   at the moment it is handed to a Receiver.
+
+   <p>Because the message is overwritten, it may only be handed to Receivers which do
+   not hold onto it after send(...) returns.  Device Receivers and Midi.Thru are fine.
+   If you need to keep the message, clone() it: this produces an ordinary ShortMessage.
+**/
+
+public class ReusableShortMessage extends ShortMessage
+    {
+    private static final long serialVersionUID = 1;
+
+    public ReusableShortMessage()
+        {
+        super(new byte[] { (byte)ShortMessage.NOTE_ON, 0, 0 });
+        }
+
+    public ReusableShortMessage(int packed)
+        {
+        this();
+        set(packed);
+        }
+
+    /** Overwrites the message with the given packed int.  No validation is done. */
+    public void set(int packed)
+        {
+        int status = packed & 0xFF;
+        data[0] = (byte)status;
+        data[1] = (byte)((packed >>> 8) & 0xFF);
+        data[2] = (byte)((packed >>> 16) & 0xFF);
+        length = getLength(status);
+        }
+
+    /** Packs a status byte and two data bytes into an int.  */
+    public static int pack(int status, int data1, int data2)
+        {
+        return (status & 0xFF) | ((data1 & 0xFF) << 8) | ((data2 & 0xFF) << 16);
+        }
+
+    /** Returns the status byte of a packed int. */
+    public static int getStatus(int packed) { return packed & 0xFF; }
+
+    /** Returns the first data byte of a packed int. */
+    public static int getData1(int packed) { return (packed >>> 8) & 0xFF; }
+
+    /** Returns the second data byte of a packed int. */
+    public static int getData2(int packed) { return (packed >>> 16) & 0xFF; }
+
+    /** Returns the total length in bytes, including the status byte, of a short message with the given status. */
+    public static int getLength(int status)
+        {
+        switch(status & 0xF0)
+            {
+            case 0x80: case 0x90: case 0xA0: case 0xB0: case 0xE0:
+                return 3;
+            case 0xC0: case 0xD0:
+                return 2;
+            default:            // 0xF0
+                switch(status)
+                    {
+                    case 0xF1: case 0xF3:
+                        return 2;
+                    case 0xF2:
+                        return 3;
+                    default:
+                        return 1;
+                    }
+            }
+        }
+    }
@@ -12,6 +12,7 @@ import java.util.*;
 import javax.sound.midi.*;
 import java.util.concurrent.locks.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.json.*;
 
 /**
@@ -53,13 +54,12 @@ public class Seq
     public static final int MIN_MAX_TIME = PPQ * 1 * NUM_BARS_PER_PART * NUM_PARTS;
     /** How many times should we call step() before we update the GUI? step() is notionally called once per ms. */
     public static final int UPDATE_GUI_RATE = 16;               // 60 FPS
-    // Current BPM
-    int bpm = DEFAULT_BPM;
+    // Current BPM.  It's volatile because when following an external clock it's updated by the clockSource's
+    // thread without the lock, and read by the GUI.
+    volatile int bpm = DEFAULT_BPM;
     // The timer, pulses at the approporiate amount to do 192 PPQ at the current BPM
-    //HighResolutionTimer timer;                        // park uses too much CPU  :-(
-    java.util.Timer timer;
-    ScheduledExecutorService scheduler;
-    // The timer lock.  This lock must be acquired in order to manipulate the data stored in clip or clip.motif
+    ClockSource clockSource;
+    // The lock.  This lock must be acquired in order to manipulate the data stored in clip or clip.motif
         
     Track[] tracks = null;
     boolean[] validTracks = null;
@@ -68,6 +68,11 @@ public class Seq
     public boolean isValidTrack(int track) { return validTracks[track]; }
     public void setValidTrack(int track, boolean val) { validTracks[track] = val; }
     
+    // Log MIDI writes to this as we go, if it's not null
+    volatile MidiLog log = null;
+    public MidiLog getLog() { return log; }
+    public void setLog(MidiLog val) { log = val; }
+    
     Out[] uniqueOuts = new Out[0];
     
     ReentrantLock lock = new ReentrantLock(true);
@@ -78,6 +83,8 @@ public class Seq
     boolean playing;    
     // Is the sequencer set up to do recording while playing?  [To record, playing must also be true]
     boolean recording;
+    // Is the sequencer currently being rendered offline by a Renderer?  If so, no timer, and no GUI updates
+    boolean rendering;
     // Is the sequencer currently fast-forwarding?
     boolean fastForwarding;
     // If, when playing, will the sequencer do an infinite loop as opposed to play once and then terminate?
@@ -91,10 +98,130 @@ public class Seq
     // The lock for the stopped parameter above.  BTW, it's an Object[0] because arrays are automatically serializable, so that's a useful trick.
     Object stoppedLock = new Object[0];
     int notificationTime = -1;
-    // The current absolute playing time, in PPQ.  Note that individual modules have a "position" parameter, which is the relative time for them, where 0 is the start of the module
-    int time = 0;
+    // The current absolute playing time, in PPQ.  Note that individual modules have a "position" parameter, which is the relative time for them, where 0 is the start of the module.
+    // It's only changed under the lock, but it's volatile so that Outs can log MIDI Thru at the current time without acquiring the lock.
+    volatile int time = 0;
     // Which clips are playing RIGHT NOW?
 //    ArrayList<Clip> playingClips = new ArrayList<>();
+
+    /** An immutable snapshot of the transport: the time, the play state, and which motifs are playing,
+        and where.  The Seq publishes a new Snapshot whenever it is about to update the GUI, so the GUI can 
+        read the transport with getSnapshot() without acquiring the lock, and so without holding up step().  
+        A Snapshot may be out of date by as much as one GUI update.  */
+    public static final class Snapshot
+        {
+        final int time;
+        final int bar;
+        final boolean playing;
+        final boolean stopped;
+        final boolean recording;
+        final boolean releasing;
+        // The motifs in the Seq.  Each motif's information is at its Motif.snapshotIndex in the arrays 
+        // below, if motifs[snapshotIndex] is that motif: else the index is from a newer Snapshot.
+        final Motif[] motifs;
+        final int[] playCounts;
+        final Object[] playheads;
+        final String[] names;
+        final boolean[] armed;
+                
+        // Must be called with the lock held
+        Snapshot(Seq seq)
+            {
+            time = seq.time;
+            bar = seq.bar;
+            playing = seq.playing;
+            stopped = seq.stopped;
+            recording = seq.recording;
+            releasing = seq.releasing;
+            
+            ArrayList<Motif> m = seq.motifs;
+            int len = (m == null ? 0 : m.size());
+            motifs = new Motif[len];
+            playCounts = new int[len];
+            playheads = new Object[len];
+            names = new String[len];
+            armed = new boolean[len];
+            for(int i = 0; i < len; i++)
+                {
+                Motif motif = m.get(i);
+                motif.snapshotIndex = i;
+                motifs[i] = motif;
+                playCounts[i] = motif.getPlayCount();
+                Clip clip = motif.getPlayingClip();
+                playheads[i] = (clip == null ? null : clip.getPlayhead());
+                names[i] = motif.getDisplayedName();
+                armed[i] = motif.isArmed();
+                }
+            }
+            
+        // Returns the index of the given motif in the arrays, or -1 if it's not in this Snapshot
+        int indexOf(Motif motif)
+            {
+            int i = motif.snapshotIndex;
+            if (i >= 0 && i < motifs.length && motifs[i] == motif) return i;
+            for(i = 0; i < motifs.length; i++)          // the index is from another Snapshot, so search
+                {
+                if (motifs[i] == motif) return i;
+                }
+            return -1;
+            }
+                
+        /** Returns the current absolute time. */
+        public int getTime() { return time; }
+        /** Returns the number of beats per measure. */
+        public int getBar() { return bar; }
+        /** Returns whether the sequencer is playing. */
+        public boolean isPlaying() { return playing; }
+        /** Returns whether the sequencer is stopped. */
+        public boolean isStopped() { return stopped; }
+        /** Returns whether the sequencer is paused, that is, NOT playing but NOT stopped. */
+        public boolean isPaused() { return !stopped && !playing; }
+        /** Returns whether the sequencer is recording. */
+        public boolean isRecording() { return recording; }
+        /** Returns whether the sequencer is trying to stop. */
+        public boolean isReleasing() { return releasing; }
+        /** Returns the play count of the given motif, or 0 if it's not in the Seq. */
+        public int getPlayCount(Motif motif) { int i = indexOf(motif); return (i < 0 ? 0 : playCounts[i]); }
+        /** Returns whether the given motif is playing. */
+        public boolean isPlaying(Motif motif) { return getPlayCount(motif) > 0; }
+        /** Returns the playhead (see Clip.getPlayhead()) of the given motif's playing clip, or null if it
+            has no playing clip, the clip has no playhead, or the motif is not in the Seq. */
+        public Object getPlayhead(Motif motif) { int i = indexOf(motif); return (i < 0 ? null : playheads[i]); }
+        /** Returns the displayed name of the given motif, or null if the motif is not in the Seq. */
+        public String getDisplayedName(Motif motif) { int i = indexOf(motif); return (i < 0 ? null : names[i]); }
+        /** Returns whether the given motif is armed, or false if it's not in the Seq. */
+        public boolean isArmed(Motif motif) { int i = indexOf(motif); return (i < 0 ? false : armed[i]); }
+        }
+        
+    // The most recent Snapshot, or null if none has been published yet
+    volatile Snapshot snapshot = null;
+        
+    /** Returns the most recently published Snapshot of the transport.  This does not acquire the lock,
+        unless no Snapshot has been published yet.  */
+    public Snapshot getSnapshot()
+        {
+        Snapshot s = snapshot;
+        if (s == null) 
+            {
+            publishSnapshot();
+            s = snapshot;
+            }
+        return s;
+        }
+        
+    // Publishes a new Snapshot
+    void publishSnapshot()
+        {
+        lock.lock();
+        try
+            {
+            snapshot = new Snapshot(this);
+            }
+        finally
+            {
+            lock.unlock();
+            }
+        }
     
 
     ///// MIDI ROUTING
@@ -103,8 +230,8 @@ public class Seq
     Midi.Tuple tuple;
     // Midi facility for sending/receiving MIDI 
     Midi midi;
-    // Optional facility for sending MIDI to the internal synthesizer (not set up yet)
-    //MidiEmitter emitter;
+    // Optional Receiver which, if non-null, gets all MIDI sent to any Out instead of the Out's device
+    Receiver emitter;
     // Optional internal synthesizer (not set up yet)
     //SeqSynth synth;
     // The Out objects for each output device in the tuple
@@ -119,44 +246,133 @@ public class Seq
     int routeIn;
     int routeOut;
     
+    // An immutable snapshot of the MIDI Thru routing.  This is read by the MIDI input threads 
+    // without acquiring the lock, so it must be replaced, never modified.
+    static final class Route
+        {
+        // The In we route from
+        final int in;
+        // The Out we route to
+        final Out out;
+        Route(int in, Out out) { this.in = in; this.out = out; }
+        }
+        
+    // The current MIDI Thru routing, or null if there is none
+    volatile Route route;
+    
+    // Rebuilds the MIDI Thru routing snapshot.  Call this whenever routeIn, routeOut, or outs changes.
+    void publishRoute()
+        {
+        Out[] o = outs;
+        if (routeIn >= 0 && routeOut >= 0 && o != null && routeOut < o.length && o[routeOut] != null)
+            route = new Route(routeIn, o[routeOut]);
+        else
+            route = null;
+        }
+    
+    /** The width, in nanoseconds, of each bucket in the MIDI Thru latency histogram */
+    public static final long THRU_HISTOGRAM_BUCKET_NANOS = 10000L;                  // 0.01 ms
+    /** The number of buckets in the MIDI Thru latency histogram.  The final bucket holds everything later than the others. */
+    public static final int THRU_HISTOGRAM_BUCKETS = 101;
+    
+    // MIDI Thru latency statistics.  These are updated by the MIDI input threads, so they're atomic rather than locked.
+    final AtomicLongArray thruHistogram = new AtomicLongArray(THRU_HISTOGRAM_BUCKETS);
+    final AtomicLong thruCount = new AtomicLong();
+    final AtomicLong thruLatencySum = new AtomicLong();
+    final AtomicLong thruMaxLatency = new AtomicLong();
+
+    /** Routes an incoming MIDI message from the given In to the MIDI Thru Out, if any. */
     public void routeMIDI(int in, MidiMessage message, long timestamp)
+        {
+        routeMIDI(in, message, timestamp, System.nanoTime());
+        }
+        
+    /** Routes an incoming MIDI message from the given In to the MIDI Thru Out, if any.  RECEIVED is the System.nanoTime() 
+        at which the message was received, and is used to compute MIDI Thru latency.  This is called from the MIDI input
+        threads and does not acquire the lock, so the message goes out no matter what the sequencer is doing. */
+    public void routeMIDI(int in, MidiMessage message, long timestamp, long received)
         {
         // It is critical to create a NEW MESSAGE -- we can't reuse the
         // existing message and submit it, it causes Java MIDI to create 
         // a long latency delay
         
-        ReentrantLock lock = getLock();
-        lock.lock();
+        Route r = route;
+        if (r == null || in != r.in) return;
+        
         try     
             {
-            if (in == routeIn && routeIn >= 0 && routeOut >= 0)
+            boolean sent;
+            if (Clip.isVoiceMessage(message))
                 {
-                if (Clip.isVoiceMessage(message))
-                    {
-                    // we need to modify the channel
-                    ShortMessage original = (ShortMessage)message;
-                    ShortMessage sm = new ShortMessage(original.getCommand(), 
-                        tuple.outChannel[routeOut], 
-                        original.getData1(), 
-                        original.getData2());
-                    outs[routeOut].sendMIDI(sm, timestamp);
-                    }
-                else
-                    {
-                    outs[routeOut].sendMIDI((MidiMessage)(message.clone()), timestamp);
-                    }     
+                // we need to modify the channel
+                int channel = r.out.getChannel() - 1;           // Out channels are 1...16
+                if (channel < 0) channel = 0;
+                ShortMessage original = (ShortMessage)message;
+                ShortMessage sm = new ShortMessage(original.getCommand(), 
+                    channel, 
+                    original.getData1(), 
+                    original.getData2());
+                sent = r.out.sendMIDI(sm, timestamp, false);
                 }
+            else
+                {
+                sent = r.out.sendMIDI((MidiMessage)(message.clone()), timestamp, false);
+                }     
+            if (sent) recordThruLatency(System.nanoTime() - received);
             }
         catch (InvalidMidiDataException ex) { ex.printStackTrace(); }
-        finally
-            {
-            lock.unlock();
-            }
         }
     
+    // Records the in->out latency of a single MIDI Thru message
+    void recordThruLatency(long nanos)
+        {
+        if (nanos < 0) nanos = 0;
+        int bucket = (int)Math.min(nanos / THRU_HISTOGRAM_BUCKET_NANOS, THRU_HISTOGRAM_BUCKETS - 1);
+        thruHistogram.incrementAndGet(bucket);
+        thruCount.incrementAndGet();
+        thruLatencySum.addAndGet(nanos);
+        long max = thruMaxLatency.get();
+        while(nanos > max && !thruMaxLatency.compareAndSet(max, nanos)) max = thruMaxLatency.get();
+        }
+        
+    /** Clears the MIDI Thru latency statistics. */
+    public void resetThruStatistics()
+        {
+        for(int i = 0; i < THRU_HISTOGRAM_BUCKETS; i++) thruHistogram.set(i, 0);
+        thruCount.set(0);
+        thruLatencySum.set(0);
+        thruMaxLatency.set(0);
+        }
+        
+    /** Returns the number of messages sent via MIDI Thru since the statistics were last reset. */
+    public long getThruCount() { return thruCount.get(); }
+    
+    /** Returns the mean MIDI Thru latency, from receipt by the In to sending by the Out, in nanoseconds. */
+    public double getMeanThruLatency()
+        {
+        long count = thruCount.get();
+        return (count == 0 ? 0 : thruLatencySum.get() / (double)count);
+        }
+        
+    /** Returns the maximum MIDI Thru latency, in nanoseconds. */
+    public long getMaxThruLatency() { return thruMaxLatency.get(); }
+    
+    /** Returns a copy of the MIDI Thru latency histogram.  Bucket <i>i</i> holds the number of messages
+        whose latency was at least i * THRU_HISTOGRAM_BUCKET_NANOS but less than (i+1) * THRU_HISTOGRAM_BUCKET_NANOS.
+        The final bucket holds all remaining later messages. */
+    public long[] getThruHistogram()
+        {
+        long[] histogram = new long[THRU_HISTOGRAM_BUCKETS];
+        for(int i = 0; i < THRU_HISTOGRAM_BUCKETS; i++) histogram[i] = thruHistogram.get(i);
+        return histogram;
+        }
     
     
-    class UndoStuff
+    
+    // A snapshot of the Motifs for the undo history.  The copies in a snapshot are never modified, so 
+    // successive snapshots share the copies of the Motifs which didn't change in between, and only the
+    // changed Motifs, and the ancestors which must point to their new copies, are copied.
+    class UndoStuff implements Undo.Entry
         {
         Motif display;
         Motif data;
@@ -168,7 +384,7 @@ public class Seq
             HashMap<Motif, Motif> existing = new HashMap<>(); 
             for(Motif motif : motifs)
                 {
-                motif.copyDAG(existing);
+                snapshot(motif, existing);
                 }
                                 
             // Dump them into the new ArrayList
@@ -181,10 +397,154 @@ public class Seq
             // Add Data and Display
             this.data = existing.get(data);
             this.display = existing.get(display);
+            
+            // The next snapshot will share these copies
+            snapshots = existing;
+            snapshotEdits.clear();
+            for(Motif motif : existing.keySet())
+                {
+                snapshotEdits.put(motif, motif.getEdits());
+                }
+            touched.clear();
+            if (display != null) touched.add(display);      // it's still displayed, so it may yet be changed
+            }
+            
+        public void added()
+            {
+            for(Motif motif : motifs)
+                {
+                Integer count = undoReferences.get(motif);
+                if (count == null)
+                    {
+                    undoReferences.put(motif, 1);
+                    undoSize += motif.getApproximateSize();
+                    }
+                else undoReferences.put(motif, count + 1);
+                }
+            }
+            
+        public void removed()
+            {
+            for(Motif motif : motifs)
+                {
+                Integer count = undoReferences.get(motif);
+                if (count == null) continue;            // shouldn't happen
+                if (count == 1)
+                    {
+                    undoReferences.remove(motif);
+                    undoSize -= motif.getApproximateSize();
+                    }
+                else undoReferences.put(motif, count - 1);
+                }
+            }
+        
+        // Copies the snapshot to make new live Motifs, installs them, and returns the new display Motif.
+        // The snapshot can't become live itself, since other snapshots may share its copies.
+        Motif restore()
+            {
+            HashMap<Motif, Motif> existing = new HashMap<>(); 
+            ArrayList<Motif> live = new ArrayList<>();
+            for(Motif motif : motifs)
+                {
+                live.add(motif.copyDAG(existing));
+                }
+            Seq.this.motifs = live;
+            Seq.this.data = existing.get(data);
+            
+            // The new live Motifs are identical to the snapshot, so the next snapshot can share its copies
+            snapshots = new HashMap<>();
+            snapshotEdits.clear();
+            for(Motif motif : existing.keySet())
+                {
+                Motif copy = existing.get(motif);
+                snapshots.put(copy, motif);
+                snapshotEdits.put(copy, copy.getEdits());
+                }
+            touched.clear();
+            return existing.get(display);
+            }
+        }
+        
+    // Returns the snapshot copy of the given live Motif, making it if need be.  EXISTING maps live 
+    // Motifs to their copies in the snapshot being made.
+    Motif snapshot(Motif motif, HashMap<Motif, Motif> existing)
+        {
+        Motif e = existing.get(motif);
+        if (e != null) return e;                // all done
+        
+        ArrayList<Motif.Child> children = motif.getChildren();
+        Motif[] copies = new Motif[children.size()];
+        for(int i = 0; i < copies.length; i++)
+            {
+            copies[i] = snapshot(children.get(i).getMotif(), existing);
+            }
+        
+        // Can we share the copy in the previous snapshot?
+        e = snapshots.get(motif);
+        Integer edits = snapshotEdits.get(motif);
+        if (e != null && !touched.contains(motif) && edits != null && edits.intValue() == motif.getEdits() && 
+            e.getChildren().size() == copies.length)
+            {
+            ArrayList<Motif.Child> oldChildren = e.getChildren();
+            for(int i = 0; i < copies.length; i++)
+                {
+                if (oldChildren.get(i).getMotif() != copies[i]) { e = null; break; }            // a child was copied anew, so we must be too
+                }
+            }
+        else e = null;
+        
+        if (e == null)
+            {
+            // we have light-copied the children in copy(), but we need to modify them to hold onto the new copies.
+            // We don't bother adding parents: restore() rebuilds them with copyDAG().
+            e = motif.copy();
+            ArrayList<Motif.Child> newChildren = e.getChildren();
+            for(int i = 0; i < copies.length; i++)
+                {
+                newChildren.get(i).setMotif(copies[i]);
+                }
             }
+        existing.put(motif, e);
+        return e;
         }
     
     Undo<UndoStuff> undo;
+    // The copies made by the most recent snapshot, by live Motif
+    HashMap<Motif, Motif> snapshots = new HashMap<>();
+    // The edit count of each live Motif when the most recent snapshot was made
+    HashMap<Motif, Integer> snapshotEdits = new HashMap<>();
+    // Motifs which may have been changed, without incrementing their edits, since the most recent snapshot:
+    // the Motifs which have been displayed at any time since then.
+    HashSet<Motif> touched = new HashSet<>();
+    // How many snapshots in the undo and redo stacks refer to each snapshot copy
+    HashMap<Motif, Integer> undoReferences = new HashMap<>();
+    // The approximate size, in bytes, of all the snapshot copies in the undo and redo stacks
+    long undoSize = 0;
+    public static final int DEFAULT_UNDO_MEMORY = 256;
+    // The maximum approximate size of the undo history in MB, or 0 for no limit
+    int undoMemory = DEFAULT_UNDO_MEMORY;
+    
+    /** Returns the approximate memory, in MB, that the undo history may use before its oldest entries
+        are discarded, or 0 if there is no limit. */
+    public int getUndoMemory() { return undoMemory; }
+    /** Sets the approximate memory, in MB, that the undo history may use before its oldest entries
+        are discarded, or 0 if there is no limit.  At least one undo is always kept. */
+    public void setUndoMemory(int val) 
+        { 
+        if (val < 0) val = 0;
+        undoMemory = val; 
+        Prefs.setLastInt("seq.Seq.undomemory", val);
+        trimUndo();
+        }
+    /** Returns the approximate memory, in bytes, presently used by the undo history. */
+    public long getUndoSize() { return undoSize; }
+    
+    // Discards the oldest undos until we're within our memory budget
+    void trimUndo()
+        {
+        if (undoMemory == 0) return;
+        while(undoSize > undoMemory * 1024L * 1024L && undo.removeOldest()) { }
+        }
     
     /** Pushes the current state of the sequencer on the undo stack, using the currently displayed motif,
         for purposes of going back to when we undo/redo. Don't call this method, call SeqUI.push() */
@@ -201,14 +561,27 @@ public class Seq
     public void push(Motif displayMotif) 
         {
         undo.push(new UndoStuff(data, displayMotif, motifs));
-        sequi.updateUndoMenus();
+        touched.add(displayMotif);                      // it's about to be changed
+        trimUndo();
+        if (sequi != null) sequi.updateUndoMenus();
+        }
+
+    /** Notes that the given Motif may be changed without its edits being incremented, typically because
+        it is now being displayed and edited, so the next undo snapshot must copy it anew rather than 
+        share its previous copy.  Call this with the lock held. */
+    public void touch(Motif motif)
+        {
+        if (motif != null) touched.add(motif);
         }
 
     /** Clears the undo/redo stacks. */
     public void clearUndo() 
         {
         undo.clear();
-        sequi.updateUndoMenus();
+        snapshots.clear();
+        snapshotEdits.clear();
+        touched.clear();
+        if (sequi != null) sequi.updateUndoMenus();
         }
         
     public boolean canUndo() { return undo.canUndo(); }
@@ -218,10 +591,9 @@ public class Seq
         if (undo.canUndo())
             {
             UndoStuff stuff = (UndoStuff)undo.undo(new UndoStuff(data, displayMotif, motifs));
-            motifs = stuff.motifs;
-            data = stuff.data;
-            sequi.updateUndoMenus();
-            return stuff.display;
+            Motif display = stuff.restore();
+            if (sequi != null) sequi.updateUndoMenus();
+            return display;
             }
         else return null;
         }
@@ -231,10 +603,9 @@ public class Seq
         if (undo.canRedo())
             {
             UndoStuff stuff = (UndoStuff)undo.redo(new UndoStuff(data, displayMotif, motifs));
-            motifs = stuff.motifs;
-            data = stuff.data;
-            sequi.updateUndoMenus();
-            return stuff.display;
+            Motif display = stuff.restore();
+            if (sequi != null) sequi.updateUndoMenus();
+            return display;
             }
         else return null;
         }
@@ -253,10 +624,19 @@ public class Seq
     ///// CLOCK
     public static final int CLOCK_IGNORE = 0;
     public static final int CLOCK_OUT = 1;
-    public static final int CLOCK_IN = 2;                   // FIXME Not implemented
+    public static final int CLOCK_IN = 2;
     
-    // What is the clock mode?
-    int clock = CLOCK_IGNORE;
+    // What is the clock mode?  It's volatile because it's read by the clock In's thread and the clockSource's thread.
+    volatile int clock = CLOCK_IGNORE;
+    // Follows the external clock when we're in CLOCK_IN mode.  Its methods are synchronized, so any thread may use it.
+    final Sync sync = new Sync(DEFAULT_BPM, PPQ);
+    // The number of ticks we've stepped since the external clock last started or continued
+    // This is reset by the clock In's thread and advanced by the clockSource's thread, hence atomic.
+    final AtomicLong syncTicks = new AtomicLong();
+    // When following an external clock, how often we poll Sync to see if it's time to step, in nanos
+    public static final long CLOCK_IN_POLL_NANOS = 250000L;
+    // When following an external clock, the most ticks we'll step in one poll to catch up
+    public static final int MAX_CLOCK_IN_CATCH_UP = PPQ / 4;
 
 
     ///// DETERMINISTIC RANDOMNESS
@@ -267,6 +647,13 @@ public class Seq
     public void resetDeterministicRandom() { seedDeterministicRandom(deterministicRandomSeed); }
     public int getDeterministicRandomSeed() { return deterministicRandomSeed; }
     public Random getDeterministicRandom() { return deterministicRandom; }
+    
+    // The Random used by Clips for playback decisions while rendering, else null.  See getRandom().
+    Random renderRandom = null;
+    /** Returns the Random which Clips should use for playback decisions (probabilities, shuffles, 
+        random walks, etc.).  Ordinarily this is just ThreadLocalRandom.current(), but while
+        the Seq is being rendered by a Renderer it is a Random seeded so the render is reproducible. */
+    public Random getRandom() { return (renderRandom == null ? ThreadLocalRandom.current() : renderRandom); }
 
     ///// PLAYING
     public static final int COUNT_IN_NONE = 0;
@@ -300,6 +687,21 @@ public class Seq
 
     // Our beep, which creates its own thread.
     Beep beep = new Beep();
+    // Sorts incoming MIDI messages out to the Clips which want them
+    InputRouter inputRouter = new InputRouter(this);
+    /** Returns the InputRouter */
+    public InputRouter getInputRouter() { return inputRouter; }
+    // Holds the events emitted by Clips being advanced with Clip.advanceBatched(...)
+    EventBatch eventBatch = new EventBatch();
+    /** Returns the EventBatch */
+    public EventBatch getEventBatch() { return eventBatch; }
+    // Do Clips advanced with Clip.advanceBatched(...) batch their events, or pass them up one at a time?
+    boolean batching = true;
+    /** Returns whether Clips advanced with Clip.advanceBatched(...) batch their events, rather than pass them up one at a time. */
+    public boolean isBatching() { return batching; }
+    /** Sets whether Clips advanced with Clip.advanceBatched(...) batch their events, rather than pass them up one at 
+        a time.  This is on by default, and is only turned off to compare the two.  Don't change it while playing. */
+    public void setBatching(boolean val) { batching = val; }
     // Beep volume, 0...1.0 as a fraction of maximum volume
     double beepVolume = 1.0;
     // Beep pitch, -12...12, with 0 centered at A 440
@@ -317,15 +719,22 @@ public class Seq
     ///// GUI
     public seq.gui.SeqUI sequi;                 // This is only public to allow various main() test methods to set up the sequi manually
     
-    static final int TIMER_WARM_UP = 1000;          // we need some time before the timer is stable
-    TimerTask timertask;
-    Runnable scheduleTask;
-    ScheduledFuture<?> scheduleHandle;
-    
-    int ppqtick = 0;
-    long tick = 0;
+    // Called by the clockSource once per PPQ tick, or every CLOCK_IN_POLL_NANOS when following an external clock
+    Runnable stepTask = new Runnable()
+        {
+        public void run()
+            {
+            if (clock == CLOCK_IN) stepExternal();
+            else step();
+            }
+        };
     
     public Midi getMIDI() { return midi; }
+    /** Returns the Receiver, if any, which receives all MIDI sent to any Out instead of the Outs' devices. */
+    public Receiver getEmitter() { return emitter; }
+    /** Sets a Receiver, or null, which receives all MIDI sent to any Out instead of the Outs' devices.
+        Short messages handed to the emitter are reused, so if it wants to hang onto them it must clone() them. */
+    public void setEmitter(Receiver val) { emitter = val; }
     public Midi.Tuple getMIDITuple() { return tuple; }
     public void setMIDITuple(Midi.Tuple tuple) { this.tuple = tuple; }
     
@@ -404,6 +813,7 @@ public class Seq
     public void beepOff()
         {
         beep.setAmplitude(0);
+        beep.cancelClicks();
         }
     
     
@@ -411,142 +821,124 @@ public class Seq
     public void shutdown()
         {
         killTimerTask();
+        shutdownOutQueues();
         }
-        
-    // Destroys the timer task if any (but NOT the timer)
-    /*
-      void killTimerTask()
-      {
-      if (timertask != null)
-      {
-      timertask.cancel();
-      timer.purge();
-      timer.cancel();
-      }
-      timertask = null;               // let it (and the Seq instance!) GC
-      }
-    */
 
     void killTimerTask()
         {
-        if (scheduleHandle != null)
-            {
-            scheduleHandle.cancel(true);
-            scheduler.shutdownNow();
-            scheduleHandle = null;               // let it (and the Seq instance!) GC
-            }
+        clockSource.stop();
         }
         
-    /*
-    // Creates the timer task using the existing tick value and bpm, and with the given warmup time
-    void startTimerTask(int warmup)
-    {
-    guiUpdated = true;      // just in case
-                
-    killTimerTask();  // just in case
+    // Returns the length of a single PPQ tick at the current bpm, in nanoseconds
+    long getNanosPerTick()
+        {
+        // 60 sec/min * 1000000000 nanos/sec / 120 beat/min / 192 PPQ/beat = 2604167 nanos/PPQ
+        return (60L * 1000000000L) / ((long)bpm * PPQ);
+        }
+
+    // Starts the clockSource pulsing step() at the current bpm, or polling the external clock
+    void startTimerTask()
+        {
+        guiUpdated = true;      // just in case
+        if (rendering) return;  // the Renderer calls step() itself
+        clockSource.start(stepTask, clock == CLOCK_IN ? CLOCK_IN_POLL_NANOS : getNanosPerTick());
+        }
+
+    /** Returns the type of the ClockSource which drives the sequencer, either ClockSource.EXECUTOR or ClockSource.PRECISE */
+    public int getClockSourceType() { return clockSource.getType(); }
         
-    timertask = new java.util.TimerTask()
-    {
-    public void run()
-    {
-    testJitter();
-    // how many ppqticks have transpired?
-    while(tick * PPQ * bpm / 1000 / 60 >= ppqtick)
-    {
-    try
-    {
-    step();
-    }
-    catch (Exception ex)
-    {
-    System.err.println("Exception thrown during step: " + ex);
-    ex.printStackTrace();
-    }
-    ppqtick++;
-    }
-    tick++;
-    }
-    };
+    /** Sets the type of the ClockSource which drives the sequencer, either ClockSource.EXECUTOR or ClockSource.PRECISE,
+        and saves it as the default for future Seqs.  If the sequencer is presently playing, the
+        new ClockSource takes over immediately. */
+    public void setClockSourceType(int type)
+        {
+        Prefs.setLastInt("seq.Seq.clocksource", type);
+        if (type == clockSource.getType()) return;
+        boolean running = clockSource.isRunning();
+        clockSource.stop();
+        clockSource = ClockSource.build(type);
+        if (running) startTimerTask();
+        }
         
-    // Pushes the ppqtick of the timer to just in front of current timer tick.
-    // We need to do this when changing the bpm so that the ppqtick is computed
-    // properly with respect to the new bpm
+    /** Returns the ClockSource which drives the sequencer, mostly so you can query its lateness statistics. */
+    public ClockSource getClockSource() { return clockSource; }
 
-    ppqtick = (int) Math.ceil(tick * PPQ * bpm / 1000 / 60.0);
+    ///// LOOKAHEAD
+    
+    // How far ahead of wall-clock time, in ms, MIDI is rendered.  If 0, MIDI is sent immediately.
+    int lookahead = 0;
+    // The output queues for each device when we're doing lookahead
+    HashMap<Midi.MidiDeviceWrapper, OutQueue> outQueues = new HashMap<>();
+    // The thread presently inside step(), else null
+    volatile Thread stepThread = null;
+    public static final int MAX_LOOKAHEAD = 100;
+    
+    /** Returns the lookahead in ms.  If 0, lookahead is turned off. */
+    public int getLookahead() { return lookahead; }
+    
+    /** Sets the lookahead in ms.  If 0, lookahead is turned off.  When lookahead is on, 
+        every MIDI message emitted during a step is sent that many ms after the ideal time of the step, 
+        via an OutQueue per device.  Messages emitted at other times are queued behind them. */
+    public void setLookahead(int val)
+        {
+        if (val < 0) val = 0;
+        if (val > MAX_LOOKAHEAD) val = MAX_LOOKAHEAD;
+        lookahead = val;
+        Prefs.setLastInt("seq.Seq.lookahead", val);
+        if (val == 0) shutdownOutQueues();
+        }
         
+    /** Returns the time, in System.nanoTime() nanoseconds, at which a MIDI message sent right now should be
+        emitted.  During a step this is the ideal time of the step plus the lookahead, otherwise it's now. */
+    public long getEmissionTime()
+        {
+        if (Thread.currentThread() == stepThread)
+            return clockSource.getCurrentDeadline() + lookahead * 1000000L;
+        else return System.nanoTime();
+        }
         
-    // If we have an exception for some reason, or for some other weird internal Java thing,
-    // the timertask will CANCEL the timer, but we
-    // cannot determine if the timer has been cancelled.  That is frustrating.  So here we
-    // catch an exception and rebuild the timer if need be.
-
-    try
-    {
-    timer.scheduleAtFixedRate(timertask, warmup, 1);                       // as fast as we can go
-    }
-    catch (IllegalStateException ex)
-    {
-    timer.cancel();
-    timer.purge();
-    timer = new java.util.Timer("Seq Sequencer Thread", true);                          // run as daemon
-    timer.scheduleAtFixedRate(timertask, warmup, 1);                       // as fast as we can go
-    }
-    }
-    */
-
-
-    // Creates the timer task using the existing tick value and bpm, and with the given warmup time
-    void startTimerTask(int warmup)
+    /** Returns the ideal time, in System.nanoTime() nanoseconds, of the current step.  If we're not
+        presently in a step driven by the clockSource, this is just now. */
+    public long getStepTime()
         {
-        guiUpdated = true;      // just in case
-                
-        killTimerTask();  // just in case
+        if (Thread.currentThread() == stepThread && clockSource.isRunning())
+            return clockSource.getCurrentDeadline();
+        else return System.nanoTime();
+        }
         
-        scheduleTask = new Runnable()
+    /** Returns how many ticks (possibly fractional, possibly negative) before the ideal time of 
+        the current step the given System.nanoTime() time was, at the current tempo. */
+    public double getTicksBefore(long nanos)
+        {
+        double nanosPerTick = (clock == CLOCK_IN ? sync.getNanosPerTick() : getNanosPerTick());
+        return (getStepTime() - nanos) / nanosPerTick;
+        }
+        
+    /** Returns the OutQueue for the given device, creating it if need be. */
+    public OutQueue getOutQueue(Midi.MidiDeviceWrapper wrapper)
+        {
+        synchronized(outQueues)
             {
-            public void run()
+            OutQueue queue = outQueues.get(wrapper);
+            if (queue == null)
                 {
-                if (!Thread.currentThread().getName().equals("Seq Sequencer Thread"))
-                    {
-                    Thread.currentThread().setName("Seq Sequencer Thread");
-                    //System.err.println("Setting Name");
-                    }
-                
-                //testJitter();
-                // how many ppqticks have transpired?
-                while(tick * PPQ * bpm / 1000 / 60 >= ppqtick)
-                    {
-                    try
-                        {
-                        step();
-                        }
-                    catch (Exception ex)
-                        {
-                        System.err.println("Exception thrown during step: " + ex);
-                        ex.printStackTrace();
-                        }
-                    ppqtick++;
-                    }
-                tick++;
+                queue = new OutQueue(wrapper);
+                outQueues.put(wrapper, queue);
                 }
-            };
-        
-        // Pushes the ppqtick of the timer to just in front of current timer tick.
-        // We need to do this when changing the bpm so that the ppqtick is computed
-        // properly with respect to the new bpm
-
-        ppqtick = (int) Math.ceil(tick * PPQ * bpm / 1000 / 60.0);
+            return queue;
+            }
+        }
         
-        // If we have an exception for some reason, or for some other weird internal Java thing,
-        // the timertask will CANCEL the timer, but we
-        // cannot determine if the timer has been cancelled.  That is frustrating.  So here we
-        // catch an exception and rebuild the timer if need be.
-
-        scheduler = Executors.newScheduledThreadPool(1);
-        scheduleHandle = scheduler.scheduleAtFixedRate(scheduleTask, 1, 1, TimeUnit.MILLISECONDS);
+    void shutdownOutQueues()
+        {
+        synchronized(outQueues)
+            {
+            for(OutQueue queue : outQueues.values())
+                queue.shutdown();
+            outQueues.clear();
+            }
         }
-
-     
+        
     public int nextMacroChildCounter() { return macroChildCounter++; }
         
         
@@ -571,33 +963,22 @@ public class Seq
         shutdownHook.setName("Seq Shutdown Hook");
 
         seedDeterministicRandom();
-                
-        // 60 sec/min * 1000000000 nanos/sec / 120 beat/min / 192 PPQ/beat = 2604167 nanos/PPQ
-        // timer = new HighResolutionTimer(true, 2604167L, true);
-        /*
-          timer.start(new Runnable()
-          {
-          public void run()
-          {
-          ;
-          }
-          });
-        */
-
-        // Start up the timer with a 1 second warmup time
-        timer = new java.util.Timer("Seq Sequencer Thread", true);
-        //startTimerTask(TIMER_WARM_UP);
+        clockSource = ClockSource.build(Prefs.getLastInt("seq.Seq.clocksource", ClockSource.DEFAULT));
         undo = new Undo<UndoStuff>();
+        undoMemory = Prefs.getLastInt("seq.Seq.undomemory", DEFAULT_UNDO_MEMORY);
         parameterCCIn = Prefs.getLastControlDevice(0, "seq.Seq.parameterccin", 0); 
         for(int i = 0; i < Motif.NUM_PARAMETERS; i++)
             {
             parameterCCs[i] = Prefs.getLastInt("seq.Seq.parametercc" + i, CC_NONE); 
             }
+        rebuildParameterCCTable();
 
         countInMode = Prefs.getLastInt("seq.Seq.countin", COUNT_IN_RECORDING_ONLY);
         metronome = Prefs.getLastInt("seq.Seq.metronome", METRONOME_RECORDING_ONLY);
         beepVolume = Prefs.getLastDouble("seq.Seq.beepvolume", 1.0);
         beepPitch = Prefs.getLastInt("seq.Seq.beeppitch", 0);
+        lookahead = Prefs.getLastInt("seq.Seq.lookahead", 0);
+        beep.setLatency(Math.max(0, Math.min(MAX_BEEP_LATENCY, Prefs.getLastInt("seq.Seq.beeplatency", 0))));
         }
         
     // doesn't kill the old timer task, you'll need to do that manually
@@ -620,10 +1001,28 @@ public class Seq
         listeners.addAll(old.listeners);
         this.tuple = old.tuple;
         this.midi = old.midi;
+        publishRoute();
 //        this.emitter = old.emitter;
 //        this.synth = old.synth;
         }
     
+    /** Points the Outs and Ins at this Seq.  A Seq built from another Seq, such as by SeqFile.load(...), shares
+        its Outs and Ins, which still send and receive on behalf of the old Seq until this is called.  Call it
+        once the new Seq is the one which will be played.  */
+    public void bindInsAndOuts()
+        {
+        if (outs != null)
+            {
+            for(int i = 0; i < outs.length; i++)
+                if (outs[i] != null) outs[i].setSeq(this);
+            }
+        if (ins != null)
+            {
+            for(int i = 0; i < ins.length; i++)
+                if (ins[i] != null) ins[i].setSeq(this);
+            }
+        }
+    
     ///// GETTERS/SETTERS
     
     // LOCK
@@ -631,7 +1030,19 @@ public class Seq
 
     // CLOCK
     public int getClock() { return clock; }
-    public void setClock(int val) { clock = val; }
+    /** Sets the clock mode, one of CLOCK_IGNORE, CLOCK_OUT, or CLOCK_IN.  When switching to CLOCK_IN, 
+        the sequencer will not advance until the external clock sends a START or CONTINUE.  */
+    public void setClock(int val) 
+        { 
+        if (val == clock) return;
+        clock = val; 
+        sync.reset(bpm);
+        syncTicks.set(0);
+        if (clockSource.isRunning()) startTimerTask();          // switch between polling and ticking
+        }
+    
+    /** Returns the Sync which follows the external clock in CLOCK_IN mode, mostly so you can query its statistics. */
+    public Sync getSync() { return sync; }
 
     /** Converts time into an array of steps (ticks), beats, bars, and parts */
     public static int[] convertTime(int time, int beatsPerBar)
@@ -708,9 +1119,9 @@ public class Seq
     public static final int ROUTE_IN_NONE = -1;
     public static final int ROUTE_OUT_NONE = -1;
     public int getRouteIn() { return routeIn; }
-    public void setRouteIn(int val) { routeIn = val; }
+    public void setRouteIn(int val) { routeIn = val; publishRoute(); }
     public int getRouteOut() { return routeOut; }
-    public void setRouteOut(int val) { routeOut = val; }
+    public void setRouteOut(int val) { routeOut = val; publishRoute(); }
         
 
     // PLAYING
@@ -724,12 +1135,18 @@ public class Seq
     public boolean isEndOfLoop() { return endOfLoop; }
     /** Returns whether the sequencer is currently fast-forwarding. */
     public boolean isFastForwarding() { return fastForwarding; }
+    /** Returns whether the sequencer is currently being rendered offline by a Renderer. */
+    public boolean isRendering() { return rendering; }
     /** Returns whether the sequencer is currently paused.  The sequencer is paused when it is NOT playing but NOT stopped. */
     public boolean isPaused() { return !stopped && !playing; }
     /** Returns whether the sequencer is resuming from a pause. */
     public boolean isResuming() { return resuming; }
     /** Sets the number of beats per measure for purposes count-in and for looping quantization. */
-    public void setBar(int val) { bar = Math.min(Math.max(1, val), MAX_BEATS_PER_BAR); }
+    public void setBar(int val) 
+        { 
+        bar = Math.min(Math.max(1, val), MAX_BEATS_PER_BAR); 
+        if (hasGUI()) publishSnapshot();                    // the Transport reads the bar from the Snapshot
+        }
     /** Returns the number of beats per measure for purposes count-in and for looping quantization. */
     public int getBar() { return bar; }
     /** Returns the metronome mode. */
@@ -765,8 +1182,9 @@ public class Seq
     public boolean isLooping() { return looping; }
 
     // RECORDING    
-    /** Sets recording and also throws away any existing input MIDI Messages */
-    public void setRecording(boolean val) { for(int i = 0; i < ins.length; i++) ins[i].getMessages(); recording = val; updateGUI(false); }
+    /** Sets whether we are recording.  Input MIDI messages already received are not thrown away: they are
+        pulled at the next step like any others, and recorded if we are recording then. */
+    public void setRecording(boolean val) { recording = val; updateGUI(false); }
     /** Returns recording. */
     public boolean isRecording() { return recording; }
 
@@ -826,6 +1244,22 @@ public class Seq
         }
         
     // BEEP
+    // The most metronome latency compensation, in ms, that may be set: the largest choice in SeqUI's menu
+    public static final int MAX_BEEP_LATENCY = 100;
+    
+    /** Returns the metronome's output latency compensation in ms. */
+    public int getBeepLatency() { return beep.getLatency(); }
+    
+    /** Sets the metronome's output latency compensation in ms: clicks are started this much earlier, to make
+        up for latency in the audio hardware.  The value is bounded to 0 ... MAX_BEEP_LATENCY.  */
+    public void setBeepLatency(int val)
+        {
+        if (val < 0) val = 0;
+        if (val > MAX_BEEP_LATENCY) val = MAX_BEEP_LATENCY;
+        beep.setLatency(val);
+        Prefs.setLastInt("seq.Seq.beeplatency", val);
+        }
+        
     public double getBeepVolume() { return beepVolume; }
     public void setBeepVolume(double val) 
         { 
@@ -837,20 +1271,18 @@ public class Seq
     /** Sets the BPM and modifies the timer appropriately.  */
     public void setBPM(int val) 
         {
-        // To set the BPM, we have to reset the timer task so its timerticks are caught up to the
-        // the appropriate ticks for the new bpm value.
-    
-        killTimerTask();
+        // The clockSource rebases itself at its next tick so we don't jump forward or backward in time
+        if (val != bpm) beep.cancelClicks();          // they were scheduled at the old tempo
         bpm = val;
-        startTimerTask(0);
-        //timer.setInterval(((60 * 1000000000L) / val) / PPQ);    // hope this works
+        if (clockSource.isRunning() && clock != CLOCK_IN)
+            clockSource.setInterval(getNanosPerTick());
         }
         
     public int getBPM() { return bpm; } 
     
     void setCountIn(final int val)
         {
-        Seq.this.sequi.setCountIn(val, recording);
+        if (sequi != null) sequi.setCountIn(val, recording);
         }
 
     public void issueRunnable(Runnable runnable)
@@ -860,8 +1292,16 @@ public class Seq
                 
     public seq.gui.SeqUI getSeqUI() { return sequi; }
 
+    // Returns whether there is a GUI or listener to update
+    boolean hasGUI()
+        {
+        return !rendering && (sequi != null || !listeners.isEmpty());          // not, for example, when running headless in Player
+        }
+        
     void updateGUI(boolean inResponseToStep) 
         {
+        if (!hasGUI()) return;
+        if (!inResponseToStep) publishSnapshot();                   // step() has already published it
         SwingUtilities.invokeLater(new Runnable()
             {
             public void run()
@@ -878,11 +1318,13 @@ public class Seq
 
     void informStopped() 
         {
+        if (rendering) return;
+        if (sequi == null) return;
         SwingUtilities.invokeLater(new Runnable()
             {
             public void run()
                 {
-                sequi.stopped();
+                if (sequi != null) sequi.stopped();
                 }
             });
         }
@@ -953,7 +1395,7 @@ public class Seq
         firstMetronomeBeep = true;
         firstCountInBeep = true;
                 
-        startTimerTask(0);
+        startTimerTask();
         lock.lock();
         try
             {
@@ -968,7 +1410,7 @@ public class Seq
             if (stopped) 
                 { 
                 root.reset();
-                currentCountIn = (countInMode != COUNT_IN_NONE ? 1 : 0) * bar * PPQ;                // reset, we're counting in
+                currentCountIn = (countInMode != COUNT_IN_NONE && clock != CLOCK_IN ? 1 : 0) * bar * PPQ;                // reset, we're counting in
                 resuming = false;
                 }
             else 
@@ -976,20 +1418,21 @@ public class Seq
                 resuming = true;
                 if (currentCountIn > 0)        // we're currently counting in, the behavior at present should be to reset the count
                     {
-                    currentCountIn = (countInMode != COUNT_IN_NONE ? 1 : 0) * bar * PPQ;                // reset, we're counting in
+                    currentCountIn = (countInMode != COUNT_IN_NONE && clock != CLOCK_IN ? 1 : 0) * bar * PPQ;                // reset, we're counting in
                     }
                 }
             beep.setAmplitude(0);
-            beep.setRunning(true);
+            beep.cancelClicks();
+            beep.setRunning(!rendering);         // no metronome when rendering offline
             
             stopped = false;
 
-            // Grab latest incoming MIDI messages and clear 
+            // Discard stale incoming MIDI messages
             if (ins != null)            // they may not be set up yet?
                 {
                 for(int i = 0; i < ins.length; i++)
                     {
-                    ins[i].pullMessages();
+                    ins[i].clearMessages();
                     }
                 }
             }
@@ -1112,6 +1555,7 @@ public class Seq
         try
             {
             beep.setAmplitude(0);
+            beep.cancelClicks();
             if (root != null)
                 {
                 root.cut();
@@ -1150,13 +1594,17 @@ public class Seq
             }
         }
                 
-    /** Sets the current absolute time to 0 and resets beep. */
+    /** Sets the current absolute time to 0 and resets beep, canceling any clicks scheduled ahead,
+        since they were predicted from the time before it was reset. */
     public void resetTime()
         {
         lock.lock();
         try
             {
             beep.setAmplitude(0);
+            beep.cancelClicks();
+            MidiLog log = this.log;
+            if (log != null) log.loop(time, bar);
             time = 0;
             }
         finally
@@ -1165,22 +1613,35 @@ public class Seq
             }
         }
 
-    void doBeep(int time, double beepFrequency, double beepBarFrequency)
+    // Clicks the metronome for the given time, which must be before END.  No click is predicted at or after END.
+    void doBeep(int time, int end, double beepFrequency, double beepBarFrequency)
         {
+        // The Beep's audio is buffered, so to start a click exactly on the beat we schedule it half a beat 
+        // ahead.  We schedule it again on the beat in case we didn't see it coming, because we just started;
+        // the Beep treats the two as the same click.
         if (time % PPQ == 0)
             {
-            if (((time / bar) % PPQ) == 0)  // measure beep
-                {
-                beep.setFrequencyAndAmplitude(beepBarFrequency, beepVolume);
-                }
-            else
-                {
-                beep.setFrequencyAndAmplitude(beepFrequency, beepVolume);
-                }
+            scheduleBeep(time, 0, beepFrequency, beepBarFrequency);
             }
-        else if (Math.abs(time % PPQ) == PPQ / 8) // always, just in case
+        else if (time % PPQ == PPQ / 2 && time + PPQ / 2 < end)
             {
-            beep.setAmplitude(0);
+            scheduleBeep(time + PPQ / 2, PPQ / 2, beepFrequency, beepBarFrequency);
+            }
+        }
+    
+    // Schedules a metronome click for the beat at the given time, which is the given number of ticks after the current step.
+    // It is heard when MIDI emitted at that time would be.
+    void scheduleBeep(int time, int ticksAhead, double beepFrequency, double beepBarFrequency)
+        {
+        double nanosPerTick = (clock == CLOCK_IN ? sync.getNanosPerTick() : getNanosPerTick());
+        long nanos = getEmissionTime() + (long)(ticksAhead * nanosPerTick);
+        if (((time / bar) % PPQ) == 0)  // measure beep
+            {
+            beep.click(nanos, beepBarFrequency, beepVolume);
+            }
+        else
+            {
+            beep.click(nanos, beepFrequency, beepVolume);
             }
         }
     
@@ -1196,23 +1657,23 @@ public class Seq
         return (Out[])(unique.values().toArray(new Out[0]));
         }
         
-    void checkParameterCCs()            // Ugh, O(n)
+    void checkParameterCCs()
         {
         if (parameterCCIn > 0)  // not NONE
             {
-            MidiMessage[] messages = getIn(parameterCCIn - 1).getMessages();
-            for(int i = 0; i < messages.length; i++)
+            parameterCCSubscription = inputRouter.subscribe(parameterCCSubscription, parameterCCIn - 1, InputRouter.CC, Midi.OMNI, InputRouter.ANY_CC);
+            int numMessages = parameterCCSubscription.size();
+            for(int i = 0; i < numMessages; i++)
                 {
-                if (Clip.isCC(messages[i]))
+                ShortMessage message = (ShortMessage)parameterCCSubscription.getMessage(i);
+                int params = parameterCCTable[message.getData1()];
+                if (params == 0) continue;
+                double val = message.getData2() / 127.0;
+                for(int j = 0; j < Motif.NUM_PARAMETERS; j++)
                     {
-                    int cc = ((ShortMessage)messages[i]).getData1();
-                    int val = ((ShortMessage)messages[i]).getData2();
-                    for(int j = 0; j < Motif.NUM_PARAMETERS; j++)
+                    if ((params & (1 << j)) != 0)
                         {
-                        if (parameterCCs[j] == cc)              // If parameterCCs[j] is 128, it's None
-                            {
-                            setParameterValue(j, val / 127.0);
-                            }
+                        setParameterValue(j, val);
                         }
                     }
                 }
@@ -1245,19 +1706,6 @@ public class Seq
         updateGUI(false);
         }
     
-    static final int MAX_JITTER = 8; 
-    static final int MIN_JITTER = 1; 
-    long lastTime = -1;
-    void testJitter()
-        {
-        long time = System.currentTimeMillis();
-        if (time - lastTime > MAX_JITTER)
-            {
-            System.err.println("Jitter over " + (time - lastTime));
-            }
-        lastTime = time;
-        }
-    
     int ccount = 0;
     long lastCCTime = 0;
     
@@ -1267,13 +1715,92 @@ public class Seq
     boolean firstCountInBeep = true;
     boolean firstMetronomeBeep = true;
     
-    // Called by the timer to advance the sequencer one step.  
-    // Returns TRUE if advance() believes that it is now finished after processing 
-    // this step, that is, its NEXT step would exceed its length
-    void step()
+    // Called by the clockSource when following an external clock.  Steps as many times as Sync says we should have by now.
+    void stepExternal()
+        {
+        long target = sync.getTicks(System.nanoTime());
+        if (target - syncTicks.get() > MAX_CLOCK_IN_CATCH_UP)
+            {
+            // We've fallen hopelessly behind, perhaps the machine slept.  Drop the missing ticks.
+            syncTicks.set(target - MAX_CLOCK_IN_CATCH_UP);
+            }
+        while(syncTicks.get() < target)
+            {
+            step();
+            syncTicks.incrementAndGet();
+            }
+        int b = (int)Math.round(sync.getBPM());         // keep the displayed tempo up to date
+        if (b >= 1 && b <= MAX_BPM) bpm = b;
+        }
+    
+    /** Called by an In, on its own thread, when it receives a MIDI clock, START, STOP, CONTINUE, or SONG POSITION POINTER
+        message and it is the clock In.  If we are following an external clock, this drives the transport.  Transport
+        changes are made holding the lock, so they can't interleave with step() or with the GUI's own transport changes. */
+    public void receiveClock(MidiMessage message)
+        {
+        if (clock != CLOCK_IN) return;
+        long now = System.nanoTime();
+        int status = message.getStatus();
+        if (status == ShortMessage.TIMING_CLOCK)
+            {
+            sync.clock(now);            // Sync is synchronized, so we don't need the lock to hold up step()
+            return;
+            }
+            
+        lock.lock();
+        try
+            {
+            if (clock != CLOCK_IN) return;              // it might have changed since we checked
+            switch(status)
+                {
+                case ShortMessage.START:
+                    sync.start();
+                    if (!stopped) stop();
+                    syncTicks.set(0);
+                    play();
+                    break;
+                case ShortMessage.CONTINUE:
+                    // Resume the Sync even if we're already playing, else it stays stopped.  Its ticks
+                    // start again from the current pulse, so ours must too.
+                    sync.resume();
+                    syncTicks.set(0);
+                    if (!playing) play();
+                    break;
+                case ShortMessage.STOP:
+                    sync.stop();
+                    if (playing) pause();
+                    break;
+                case ShortMessage.SONG_POSITION_POINTER:
+                    {
+                    // Clips can't seek, so all we can do is go back to the beginning
+                    byte[] data = message.getMessage();
+                    int position = (data[1] & 127) | ((data[2] & 127) << 7);
+                    if (position == 0 && !playing) 
+                        {
+                        sync.setSongPosition(0);
+                        if (!stopped) stop();
+                        }
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        finally
+            {
+            lock.unlock();
+            }
+        }
+    
+    /** Advances the sequencer one step.  This is normally called by the ClockSource,
+        but may also be called directly (with the ClockSource stopped) to drive the
+        sequencer faster than real time, for example when benchmarking.  */
+    public void step()
         {
 //        long stepTime = System.currentTimeMillis();
+        boolean updateGUINow = false;
         lock.lock();
+        stepThread = Thread.currentThread();
         try
             {
             if (playing)
@@ -1285,7 +1812,8 @@ public class Seq
                     if (firstCountInBeep) { firstCountInBeep = false; beep.setRunning(true); }
                     
                     // we're in the count-in phase
-                    doBeep(Math.abs(bar) * PPQ - currentCountIn, getBeepBarFrequency(), getBeepBarFrequency() * 4);
+                    // The count-in ends at the song's first downbeat, which is the ordinary metronome's to click (or not)
+                    doBeep(Math.abs(bar) * PPQ - currentCountIn, Math.abs(bar) * PPQ, getBeepBarFrequency(), getBeepBarFrequency() * 4);
                     if ((currentCountIn % PPQ) == 0)
                         setCountIn(currentCountIn / PPQ);
                     currentCountIn--;
@@ -1357,13 +1885,15 @@ public class Seq
                             {
                             ins[i].pullMessages();
                             }
+                        inputRouter.dispatch();
                         }
+                    eventBatch.clear();             // in case a Clip threw an exception while collecting last step
 
                     // Handle beep
                     if (metronome == METRONOME_RECORDING_AND_PLAYING ||
                         (metronome == METRONOME_RECORDING_ONLY && recording))
                         {
-                        doBeep(time, getBeepBarFrequency(), getBeepBarFrequency() * 2);
+                        doBeep(time, Integer.MAX_VALUE, getBeepBarFrequency(), getBeepBarFrequency() * 2);
                         }
                         
                     checkParameterCCs();
@@ -1430,17 +1960,24 @@ public class Seq
                         }
                     }
                 }
+                
+            // Update the GUI?  If so, publish a Snapshot for it now, while we hold the lock anyway
+            long currentTime = System.currentTimeMillis();
+            if (guiUpdated && currentTime - lastGUIUpdateTime >= UPDATE_GUI_RATE && hasGUI())
+                {
+                lastGUIUpdateTime = currentTime;
+                snapshot = new Snapshot(this);
+                updateGUINow = true;
+                }
             }
         finally
             {
+            stepThread = null;
             lock.unlock();
             }
 
-        // Update the GUI?
-        long currentTime = System.currentTimeMillis();
-        if (guiUpdated && currentTime - lastGUIUpdateTime >= UPDATE_GUI_RATE)
+        if (updateGUINow)
             {
-            lastGUIUpdateTime = currentTime;
             updateGUI(true);
             }
 
@@ -1649,26 +2186,8 @@ public class Seq
         }
         
 
-    static class NoteOn
-        {
-        int out;
-        int note;
-        double velocity;
-        public NoteOn(int out, int note, double velocity) { this.out = out; this.note = note; this.velocity = velocity; }
-        public String toString() { return "NoteOn[" + note + "," + velocity + "," + out + "]"; }
-        }
-    
-    static class NoteOff
-        {
-        int out;
-        int note;
-        double velocity;
-        public NoteOff(int out, int note, double velocity) { this.out = out; this.note = note; this.velocity = velocity; }
-        public String toString() { return "NoteOff[" + note + "," + velocity + "," + out + "]"; }
-        }
-    
-    int noteQueueCounter = 0;
-    Heap noteQueue = new Heap();
+    // Scheduled note ons and note offs
+    NoteQueue noteQueue = new NoteQueue();
 
     /** Schedules a note on, with the given note pitch value and velocity, to be sent to the given Out at TIME ticks in the future.
         Note that velocity is expressed as a double.
@@ -1678,9 +2197,8 @@ public class Seq
         to delay notes even beyond the end of the clip. */
     public void scheduleNoteOn(int out, int note, double velocity, int time)
         {
-        // Our key is the time, shifted by 31, plus our counter, so notes are in the queue
-        // in order by time, then in order by how they arrived.
-        noteQueue.add(new NoteOn(out, note, velocity), Long.valueOf((time + getTime()) * ((long)Integer.MAX_VALUE) + (noteQueueCounter++)));
+        // The queue orders notes by time, then in order by how they arrived.
+        noteQueue.add(time + getTime(), true, out, note, velocity, 0);
         }
         
     /** Schedules a note off, with the given note pitch value and velocity, to be sent to the given Out at TIME ticks in the future.
@@ -1690,43 +2208,29 @@ public class Seq
         to an int. */
     public void scheduleNoteOff(int out, int note, double velocity, int time)
         {
-        // Our key is the time, shifted by 31, plus our counter, so notes are in the queue
-        // in order by time, then in order by how they arrived.
-        noteQueue.add(new NoteOff(out, note, velocity), Long.valueOf((time + getTime()) * (long)(Integer.MAX_VALUE) + (noteQueueCounter++)));
+        // The queue orders notes by time, then in order by how they arrived.
+        noteQueue.add(time + getTime(), false, out, note, velocity, 0);
         }
         
     void processNoteOffs(boolean all, boolean noteOffOnly)
         {
-        while(true)
+        long due = (all ? Long.MAX_VALUE : time);
+        while(noteQueue.isDue(due))
             {
-            Long i = (Long)(noteQueue.getMinKey());
-            if (i == null) return;
-            if (all || time >= (i.longValue() / Integer.MAX_VALUE))
+            noteQueue.extractMin();
+            Out out = outs[noteQueue.getOut()];
+            if (out == null) continue;
+            if (noteQueue.isOn())
                 {
-                Object obj = noteQueue.extractMin();
-                if (obj instanceof NoteOn)
+                if (!noteOffOnly)
                     {
-                    if (!noteOffOnly)
-                        {
-                        NoteOn note = (NoteOn) obj;
-                        Out out = outs[note.out];
-                        if (out != null)
-                            {
-                            out.noteOn(note.note, note.velocity);
-                            }
-                        }
-                    }
-                else 
-                    {
-                    NoteOff note = (NoteOff) obj;
-                    Out out = outs[note.out];
-                    if (out != null)
-                        {
-                        out.noteOff(note.note, note.velocity);
-                        }
+                    out.noteOn(noteQueue.getNote(), noteQueue.getVelocity());
                     }
                 }
-            else break;
+            else 
+                {
+                out.noteOff(noteQueue.getNote(), noteQueue.getVelocity());
+                }
             }       
         }
         
@@ -1736,7 +2240,10 @@ public class Seq
     double[] parameterValues = new double[Motif.NUM_PARAMETERS];
     double[] originalParameterValues = new double[Motif.NUM_PARAMETERS];
     int[] parameterCCs = new int[Motif.NUM_PARAMETERS];
+    // For each CC, a bitmask of the parameters bound to it
+    int[] parameterCCTable = new int[128];
     int parameterCCIn;
+    InputRouter.Subscription parameterCCSubscription;
     public static final int CC_NONE = 128;
     double randomMin = 0.0;
     double randomMax = 1.0;
@@ -1753,7 +2260,19 @@ public class Seq
     public void setParameterCCIn(int val) { parameterCCIn = val; Prefs.setLastControlDevice(0, val, "seq.Seq.parameterccin"); }
     public int[] getParameterCCs() { return parameterCCs; }
     public int getParameterCC(int index) { return parameterCCs[index]; }
-    public void setParameterCC(int index, int val) { parameterCCs[index] = val; Prefs.setLastInt("seq.Seq.parametercc" + index, val); }
+    public void setParameterCC(int index, int val) { parameterCCs[index] = val; rebuildParameterCCTable(); Prefs.setLastInt("seq.Seq.parametercc" + index, val); }
+    
+    // Rebuilds the table from CCs to the parameters bound to them
+    void rebuildParameterCCTable()
+        {
+        int[] table = new int[128];
+        for(int i = 0; i < Motif.NUM_PARAMETERS; i++)
+            {
+            if (parameterCCs[i] >= 0 && parameterCCs[i] < 128)          // 128 is CC_NONE
+                table[parameterCCs[i]] |= (1 << i);
+            }
+        parameterCCTable = table;
+        }
 
     /////// JSON SERIALIZATION
     
@@ -1940,6 +2459,7 @@ public class Seq
 
     public void fireMIDIIn()
         {
+        if (sequi == null) return;
         SwingUtilities.invokeLater(new Runnable()
             {
             public void run()
@@ -2169,6 +2689,7 @@ public class Seq
  
 
             tuple = Midi.loadTupleFromPreferences(this, ins);
+            publishRoute();
             }
         finally
             {
@@ -2283,6 +2804,7 @@ public class Seq
                 showDevices(mainClass, numMIDIOutput, numMIDIInput, midi, null, null, false, false);
                 System.exit(1);
                 }
+            publishRoute();
             }
         finally
             {
@@ -0,0 +1,416 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.engine;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+import org.json.*;
+
+/**
+   Saves and loads .seq files by streaming them, rather than by building (or parsing) the whole
+   file as a single JSONObject tree.  The files are exactly the same JSON as Seq.save(...) produces,
+   gzipped, and either kind may be read by the other.
+
+   <p>When saving, each Motif is still saved to a small JSONObject with Motif.save(...), but this is
+   written out as soon as it's built.  Large arrays in a Motif, such as the events in Notes, are not
+   saved into a JSONArray at all: instead the Motif stores a StreamedArray in its JSONObject, which is
+   written out one element at a time.  When loading, the file is read a token at a time, and each
+   Motif's JSONObject is built as it is read, except that the elements of any StreamedArray registered
+   for that Motif's type are handed one by one to a fresh StreamedArray, which converts them as they arrive.
+   This requires the Motif's "type" to appear before the array, which is always the case in files saved
+   by SeqFile.  In older files it may not be, and then the array is just read as a JSONArray.
+
+   <p>Saving and loading report their progress to a Progress, and may be canceled through it, so they
+   can be done in a background thread.  SeqFile does not take the Seq lock: to save a Seq which may be
+   playing or recording, build its JSONObject with Seq.save(...) while holding the lock, then write
+   the JSONObject out with SeqFile.save(JSONObject, ...) in the background.  Motifs must not store
+   anything in their JSONObjects, StreamedArrays included, which the sequencer might later change.
+**/
+
+public class SeqFile
+    {
+    /** How many elements of a StreamedArray are written or read between calls to Progress.update(...) */
+    public static final int PROGRESS_INTERVAL = 1024;
+
+    /** Reports the progress of a save or load. */
+    public interface Progress
+        {
+        /** Called from time to time with the fraction (0.0 ... 1.0) of the work done so far.
+            Return false to cancel the save or load, which then throws an InterruptedIOException. */
+        public boolean update(double fraction);
+        }
+
+    /** A large array of values which a Motif stores in the JSONObject it saves to, rather than a JSONArray.
+        SeqFile writes and reads it one element at a time.  As a JSONString, it is also written out
+        correctly as part of an ordinary JSONObject.  A StreamedArray must have a public no-argument
+        constructor, which builds it empty for loading.  */
+    public interface StreamedArray extends JSONString
+        {
+        /** Returns the number of elements. */
+        public int length();
+        /** Returns element INDEX as a JSON value (a JSONObject, JSONArray, String, Number, etc.) */
+        public Object get(int index) throws JSONException;
+        /** Adds an element, read in as a JSON value, to the end of the array. */
+        public void load(Object element) throws JSONException;
+        }
+
+    // Motif type -> key -> StreamedArray class
+    static HashMap<String, HashMap<String, Class<? extends StreamedArray>>> streamedArrays = new HashMap<>();
+
+    /** Registers that Motifs of the given class store a StreamedArray of the given class under the given key.
+        Call this in a static initializer of the Motif class. */
+    public static synchronized void registerStreamedArray(Class<? extends Motif> motifClass, String key, Class<? extends StreamedArray> arrayClass)
+        {
+        String type = motifClass.getCanonicalName();
+        HashMap<String, Class<? extends StreamedArray>> keys = streamedArrays.get(type);
+        if (keys == null)
+            {
+            keys = new HashMap<>();
+            streamedArrays.put(type, keys);
+            }
+        keys.put(key, arrayClass);
+        }
+
+    // Builds an empty StreamedArray for the given motif type and key, or returns null if none is registered
+    static synchronized StreamedArray buildStreamedArray(String type, String key) throws JSONException
+        {
+        HashMap<String, Class<? extends StreamedArray>> keys = streamedArrays.get(type);
+        if (keys == null) return null;
+        Class<? extends StreamedArray> arrayClass = keys.get(key);
+        if (arrayClass == null) return null;
+        try
+            {
+            return arrayClass.getConstructor().newInstance();
+            }
+        catch (Exception ex)
+            {
+            throw new JSONException("Could not build " + arrayClass + " for " + type, ex);
+            }
+        }
+
+    // Loads the given motif type's class, so that its static initializer can register its StreamedArrays
+    static void initialize(String type)
+        {
+        try
+            {
+            Class.forName(type);
+            }
+        catch (ClassNotFoundException | LinkageError ex) { }            // Motif.load(...) will deal with it
+        }
+
+
+    ///// SAVING
+
+
+    /** Saves the Seq to the given file, gzipped, as Seq.save(saveAll) would.  The file is first written to
+        a temporary file alongside it, which then replaces it, so if the save fails or is canceled, the
+        original file is left alone.  PROGRESS may be null. */
+    public static void save(Seq seq, boolean saveAll, File file, Progress progress) throws IOException, JSONException
+        {
+        save(seq.save(saveAll), file, progress);
+        }
+
+    /** Saves the given JSONObject, as built by Seq.save(...), to the given file, gzipped.  The file is first
+        written to a temporary file alongside it, which then replaces it, so if the save fails or is canceled, 
+        the original file is left alone.  PROGRESS may be null. */
+    public static void save(JSONObject obj, File file, Progress progress) throws IOException, JSONException
+        {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try
+            {
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp))));
+            save(obj, writer, progress);
+            writer.close();
+            writer = null;
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        finally
+            {
+            if (writer != null)
+                {
+                try { writer.close(); } catch (IOException ex) { }
+                temp.delete();
+                }
+            }
+        }
+
+    /** Saves the Seq to the given Writer as Seq.save(saveAll) would.  The Writer is not closed.  PROGRESS may be null. */
+    public static void save(Seq seq, boolean saveAll, Writer writer, Progress progress) throws IOException, JSONException
+        {
+        save(seq.save(saveAll), writer, progress);
+        }
+
+    /** Saves the given JSONObject, as built by Seq.save(...), to the given Writer.  The Writer is not closed.  
+        PROGRESS may be null. */
+    public static void save(JSONObject obj, Writer writer, Progress progress) throws IOException, JSONException
+        {
+        JSONArray motifs = obj.getJSONArray("motifs");
+
+        // Count the work to do: one unit per motif, plus one per element of any streamed arrays
+        int total = 0;
+        for(int i = 0; i < motifs.length(); i++)
+            {
+            JSONObject motif = motifs.getJSONObject(i);
+            total++;
+            for(String key : motif.keySet())
+                {
+                Object value = motif.get(key);
+                if (value instanceof StreamedArray) total += ((StreamedArray)value).length();
+                }
+            }
+        int[] done = { 0, total };
+
+        writer.write('{');
+        boolean first = true;
+        for(String key : obj.keySet())
+            {
+            if (key.equals("motifs")) continue;
+            if (!first) writer.write(',');
+            first = false;
+            writeKey(writer, key);
+            writeValue(writer, obj.get(key), null, null);
+            }
+
+        // Write the motifs last, so everything else is read first
+        if (!first) writer.write(',');
+        writeKey(writer, "motifs");
+        writer.write('[');
+        for(int i = 0; i < motifs.length(); i++)
+            {
+            if (i > 0) writer.write(',');
+            writeMotif(writer, motifs.getJSONObject(i), progress, done);
+            done[0]++;
+            update(progress, done[0] / (double)total);
+            }
+        writer.write("]}\n");
+        writer.flush();
+        }
+
+    static void writeKey(Writer writer, String key) throws IOException
+        {
+        writer.write(JSONObject.quote(key));
+        writer.write(':');
+        }
+
+    // Writes out a motif's JSONObject, with its type first so the loader knows the type before it reaches any streamed arrays
+    static void writeMotif(Writer writer, JSONObject motif, Progress progress, int[] done) throws IOException, JSONException
+        {
+        writer.write('{');
+        writeKey(writer, "type");
+        writeValue(writer, motif.get("type"), null, null);
+        for(String key : motif.keySet())
+            {
+            if (key.equals("type")) continue;
+            writer.write(',');
+            writeKey(writer, key);
+            writeValue(writer, motif.get(key), progress, done);
+            }
+        writer.write('}');
+        }
+
+    static void writeValue(Writer writer, Object value, Progress progress, int[] done) throws IOException, JSONException
+        {
+        if (value instanceof StreamedArray)
+            {
+            StreamedArray array = (StreamedArray)value;
+            writer.write('[');
+            int len = array.length();
+            for(int i = 0; i < len; i++)
+                {
+                if (i > 0) writer.write(',');
+                writeValue(writer, array.get(i), null, null);
+                if (done != null && ++done[0] % PROGRESS_INTERVAL == 0) update(progress, done[0] / (double)done[1]);
+                }
+            writer.write(']');
+            }
+        else if (value instanceof JSONObject)
+            {
+            ((JSONObject)value).write(writer);
+            }
+        else if (value instanceof JSONArray)
+            {
+            ((JSONArray)value).write(writer);
+            }
+        else
+            {
+            writer.write(JSONObject.valueToString(value));
+            }
+        }
+
+    static void update(Progress progress, double fraction) throws InterruptedIOException
+        {
+        if (progress != null && !progress.update(fraction))
+            {
+            throw new InterruptedIOException("Canceled");
+            }
+        }
+
+
+    ///// LOADING
+
+
+    // Counts the bytes read from the file, for progress
+    static class CountingInputStream extends FilterInputStream
+        {
+        long count = 0;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        public int read() throws IOException
+            {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+            }
+
+        public int read(byte[] b, int off, int len) throws IOException
+            {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+            }
+
+        public long skip(long n) throws IOException
+            {
+            long s = super.skip(n);
+            count += s;
+            return s;
+            }
+        }
+
+    /** Loads a Seq from the given gzipped file, as Seq.load(old, ...) would, and returns it.
+        Files saved by Seq.save(...) and by SeqFile can both be loaded.  PROGRESS may be null. */
+    public static Seq load(Seq old, File file, Progress progress) throws Exception
+        {
+        CountingInputStream counter = null;
+        try
+            {
+            counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            final CountingInputStream _counter = counter;
+            final double length = Math.max(1, file.length());
+            Progress bytes = (progress == null ? null : new Progress()
+                {
+                public boolean update(double fraction) { return progress.update(Math.min(1.0, _counter.count / length)); }
+                });
+            return load(old, new BufferedReader(new InputStreamReader(new GZIPInputStream(counter))), bytes);
+            }
+        finally
+            {
+            if (counter != null) counter.close();
+            }
+        }
+
+    /** Loads a Seq from the given (not gzipped) Reader, as Seq.load(old, ...) would, and returns it.
+        The Reader is not closed.  PROGRESS may be null.  SeqFile can't tell how far along the Reader is,
+        so PROGRESS is always updated with 0.0 until the end, when it's updated with 1.0.  */
+    public static Seq load(Seq old, Reader reader, Progress progress) throws Exception
+        {
+        JSONTokener tokener = new JSONTokener(reader);
+        JSONObject obj = new JSONObject();
+        if (tokener.nextClean() != '{') throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        if (tokener.nextClean() != '}')
+            {
+            tokener.back();
+            while(true)
+                {
+                String key = readKey(tokener);
+                if (key.equals("motifs"))
+                    {
+                    obj.put(key, readMotifs(tokener, progress));
+                    }
+                else
+                    {
+                    obj.put(key, tokener.nextValue());
+                    }
+                char c = tokener.nextClean();
+                if (c == '}') break;
+                if (c != ',') throw tokener.syntaxError("Expected a ',' or '}'");
+                }
+            }
+        update(progress, 1.0);
+        return Seq.load(old, obj);
+        }
+
+    static String readKey(JSONTokener tokener) throws JSONException
+        {
+        char c = tokener.nextClean();
+        if (c != '"' && c != '\'') throw tokener.syntaxError("A JSONObject key must be a string");
+        String key = tokener.nextString(c);
+        if (tokener.nextClean() != ':') throw tokener.syntaxError("Expected a ':' after a key");
+        return key;
+        }
+
+    static JSONArray readMotifs(JSONTokener tokener, Progress progress) throws JSONException, IOException
+        {
+        JSONArray motifs = new JSONArray();
+        if (tokener.nextClean() != '[') throw tokener.syntaxError("A JSONArray text must start with '['");
+        if (tokener.nextClean() == ']') return motifs;
+        tokener.back();
+        while(true)
+            {
+            motifs.put(readMotif(tokener, progress));
+            update(progress, 0.0);
+            char c = tokener.nextClean();
+            if (c == ']') break;
+            if (c != ',') throw tokener.syntaxError("Expected a ',' or ']'");
+            }
+        return motifs;
+        }
+
+    static JSONObject readMotif(JSONTokener tokener, Progress progress) throws JSONException, IOException
+        {
+        JSONObject motif = new JSONObject();
+        String type = null;
+        if (tokener.nextClean() != '{') throw tokener.syntaxError("A JSONObject text must begin with '{'");
+        if (tokener.nextClean() == '}') return motif;
+        tokener.back();
+        while(true)
+            {
+            String key = readKey(tokener);
+            StreamedArray array = (type == null ? null : buildStreamedArray(type, key));
+            char c = tokener.nextClean();
+            tokener.back();
+            if (array != null && c == '[')
+                {
+                readStreamedArray(tokener, array, progress);
+                motif.put(key, array);
+                }
+            else
+                {
+                Object value = tokener.nextValue();
+                motif.put(key, value);
+                if (key.equals("type"))
+                    {
+                    type = value.toString();
+                    initialize(type);
+                    }
+                }
+            c = tokener.nextClean();
+            if (c == '}') break;
+            if (c != ',') throw tokener.syntaxError("Expected a ',' or '}'");
+            }
+        return motif;
+        }
+
+    static void readStreamedArray(JSONTokener tokener, StreamedArray array, Progress progress) throws JSONException, IOException
+        {
+        tokener.nextClean();                    // the '['
+        if (tokener.nextClean() == ']') return;
+        tokener.back();
+        int count = 0;
+        while(true)
+            {
+            array.load(tokener.nextValue());
+            if (++count % PROGRESS_INTERVAL == 0) update(progress, 0.0);
+            char c = tokener.nextClean();
+            if (c == ']') break;
+            if (c != ',') throw tokener.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
@@ -1,224 +1,358 @@
-/* 
+/*
    Copyright 2025 by Sean Luke and George Mason University
    Licensed under Apache 2.0
 */
 
 package seq.engine;
 
+import java.util.*;
+
+/**
+   Follows an external MIDI clock.  Sync is told when each TIMING_CLOCK, START, STOP,
+   CONTINUE, and SONG POSITION POINTER message arrives, and in turn tells Seq how many
+   PPQ ticks ought to have been played by a given time.
+
+   <p>MIDI clock arrives at 24 pulses per quarter note, with a great deal of jitter
+   from the master, the USB stack, and the JVM.  Sync filters the arrival times with a
+   second-order delay-locked loop (a DLL, which is a PLL whose phase is time).  The loop
+   maintains a filtered time for the most recent pulse and an estimate of the period
+   between pulses.  When a pulse arrives, the error between its actual time and its
+   predicted time nudges both the filtered time and the period.  The BANDWIDTH, in Hz,
+   determines how aggressively: low values follow tempo changes slowly but reject more
+   jitter.  If a pulse is wildly off (for example the master dropped out for a while)
+   the loop is resynced to the pulse rather than slewing towards it.
+
+   <p>Between pulses, ticks are spaced evenly at the estimated period, starting at the
+   filtered time of the most recent pulse.  However Sync never allows Seq to get ahead
+   of a pulse which has not arrived yet, nor more than one pulse behind one which has,
+   so phase error is bounded to about one pulse no matter how bad the estimate is.
+
+   <p>All times are in System.nanoTime() nanoseconds, and are passed in by the caller,
+   so Sync can be driven by synthetic clock streams: see main(...).  Sync is threadsafe.
+**/
+
 public class Sync
     {
-    double rate = 0;                        // in ppq per ms
-    boolean startSync = false;
-    boolean rateStarted = false;
-    double lastPrediction = -1;
-    long lastActual = -1;
-    long timeOffset = 0;
-    long tick = -1;
-    long syncs = 0;
-    int ppq;
-    double initialBPM;
-    static final int SYNCS_PER_BEAT = 24;
-    public static final double RATE_ALPHA = 0.03;
-    public static final double PREDICTION_ALPHA = 0.5;
-    public static final double WARMUP = 50;
-    public static final int TICKS_PER_SYNC = 8;
-    public static final int MAX_SANE_RATE = 500;
-    public static final int MIN_SANE_RATE = 20;
-    boolean synced;
-        
+    private static final long serialVersionUID = 1;
+
+    /** MIDI clock pulses per quarter note */
+    public static final int CLOCKS_PER_BEAT = 24;
+    /** MIDI clock pulses per sixteenth note (the unit of a Song Position Pointer) */
+    public static final int CLOCKS_PER_SIXTEENTH = 6;
+    /** The default loop bandwidth in Hz */
+    public static final double DEFAULT_BANDWIDTH = 0.5;
+    /** The loop starts out at this bandwidth in Hz, so it locks quickly */
+    public static final double ACQUISITION_BANDWIDTH = 5.0;
+    /** The bandwidth is halved from ACQUISITION_BANDWIDTH after this many pulses, and so on, until it reaches the loop bandwidth */
+    public static final int ACQUISITION_PULSES = 24;
+    /** If a pulse is off by more than this many periods, we resync rather than filter it */
+    public static final double MAX_ERROR_PERIODS = 4.0;
+    /** Tempo estimates are clamped to this range */
+    public static final double MIN_SANE_BPM = 20;
+    public static final double MAX_SANE_BPM = 500;
+
+    // PPQ ticks per clock pulse
+    int ticksPerClock;
+    // Loop bandwidth in Hz
+    double bandwidth = DEFAULT_BANDWIDTH;
+    // Estimated nanos between pulses
+    double period;
+    // Filtered time of the most recent pulse
+    double filteredTime;
+    // Number of pulses filtered since we locked, used to narrow the bandwidth
+    int acquisition;
+    // Have we received a pulse since we were last reset or resynced?
+    boolean locked = false;
+    // Should the next pulse resync the loop?
+    boolean resync = true;
+    // Have we measured the period from two pulses since we were last reset or resynced?
+    boolean measured = false;
+    // Are we between a START/CONTINUE and a STOP?
+    boolean running = false;
+    // The number of pulses, in song position, at which we started or continued
+    long startClocks = 0;
+    // The song position, in pulses, of the most recent pulse
+    long clocks = 0;
+
+    // Statistics on the error of incoming pulses versus the prediction, in nanos
+    long pulses;
+    long resyncs;
+    long dropped;
+    double errorSum;
+    double errorSquaredSum;
+    double maxError;
+
+    /** Builds a Sync for the given PPQ, which must be a multiple of 24,
+        initially expecting a clock at the given BPM. */
     public Sync(double initialBPM, int ppq)
         {
-        this.initialBPM = initialBPM;
-        this.ppq = ppq;
-        reset();
+        ticksPerClock = ppq / CLOCKS_PER_BEAT;
+        reset(initialBPM);
         }
-        
-    public void reset()
+
+    /** Stops, resets the song position to 0, and forgets the tempo estimate, restarting it at the given BPM.  */
+    public synchronized void reset(double bpm)
         {
-        lastPrediction = -1;
-        lastActual = -1;
-        tick = -1;
-        startSync = false;
-        // ppq/ms = 1.0 / (beat/ppq * min/beat * sec/min * ms/sec)
-        // ppq/ms = ppq/beat * beat/min / min/sec / sec/ms
-        rate = ppq * initialBPM / 60.0 / 1000.0;
-        rateStarted = false;
-        syncs = 0;
+        period = toPeriod(bpm);
+        locked = false;
+        resync = true;
+        running = false;
+        startClocks = 0;
+        clocks = 0;
+        pulses = 0;
+        resyncs = 0;
+        dropped = 0;
+        errorSum = 0;
+        errorSquaredSum = 0;
+        maxError = 0;
         }
-                
-    public void start()
+
+    /** Sets the loop bandwidth in Hz. */
+    public synchronized void setBandwidth(double val) { bandwidth = val; }
+    /** Returns the loop bandwidth in Hz. */
+    public synchronized double getBandwidth() { return bandwidth; }
+
+    /** Called when a START arrives.  The song position is reset to 0, and the next pulse is its first tick. */
+    public synchronized void start()
         {
-        startSync = true;
+        running = true;
+        startClocks = 0;
+        clocks = 0;
         }
-        
-    double rates[] = { -1, -1, -1, -1, -1 };
-        
-    void updateRates(double rate)
+
+    /** Called when a CONTINUE arrives.  The next pulse is the pulse at the current song position. */
+    public synchronized void resume()
         {
-        for(int i = 1; i < rates.length; i++)
-            {
-            rates[i] = rates[i -1];
-            }
-        rates[0] = rate;
+        running = true;
+        startClocks = clocks;
         }
-                
-    double meanRate()
+
+    /** Called when a STOP arrives. */
+    public synchronized void stop()
         {
-        int count = 0;
-        double sum = 0.0;
-        for(int i = 0; i < rates.length; i++)
-            {
-            if (rates[i] != -1)
-                {
-                sum += rates[i];
-                count++;
-                }
-            }
-        return sum / count;
+        running = false;
         }
-                
-    // happens at a rate of SYNCS_PER_BEAT 
-    public void sync()
+
+    /** Returns true if we are between a START or CONTINUE and a STOP. */
+    public synchronized boolean isRunning() { return running; }
+
+    /** Called when a SONG POSITION POINTER arrives, with the position in sixteenth notes.
+        This is ignored if we are running, as required by the MIDI spec. */
+    public synchronized void setSongPosition(int sixteenths)
         {
-        synced = true;
-        long time = System.currentTimeMillis();
+        if (running) return;
+        clocks = sixteenths * (long)CLOCKS_PER_SIXTEENTH;
+        startClocks = clocks;
+        }
 
-        if (!rateStarted)
-            {
-            timeOffset = time;
-            lastPrediction = 0;
-            lastActual = 0;
-            rateStarted = true;
-            rate = ppq * initialBPM / 60.0 / 1000.0;
-            }
-        else
-            {
-            time = time - timeOffset;
-            syncs++;
-
-            // 24 ticks between the current time and the last actual time
-            double actualRate = toRate(time, lastActual);
-            double bpm = toBPM(actualRate);
-            if (bpm > MAX_SANE_RATE || bpm < MIN_SANE_RATE) { System.err.println("WAS " + bpm + " " + (time - lastActual)); actualRate = rate; } // this time...
-            double alpha =  RATE_ALPHA; // Math.max(RATE_ALPHA, 1.0 - (syncs - 1)/WARMUP);
-            //double alpha = 1.0 - ((1.0 - RATE_ALPHA) * Math.min(1.0, syncs / WARMUP));
-            rate = (1.0 - alpha) * rate + alpha * actualRate;                               // this is a P-controller.  Is it enough?  Do I need to go to PD?
-            updateRates(rate);
-            System.err.println("SYNC " + syncs + " " + lastActual + " " + lastPrediction + " " + (time - lastActual) + " " + toBPM(actualRate) + " " + toBPM(rate) + " " + toBPM(meanRate()));
-
-            lastActual = time;
-            // update by 1 sync.  ms/sync = 1.0 / (ppq/ms * beat/ppq * sync/beat)
-            //                    ms/sync = (ms/ppq) / (beat/ppq * sync/beat)
-            //                    ms/sync = ms/ppq * ppq/beat / sync/beat
-            lastPrediction += (1.0 / rate) * ppq / SYNCS_PER_BEAT;
-            lastPrediction += (lastActual - lastPrediction) * PREDICTION_ALPHA;
+    /** Returns the song position, in PPQ ticks, of the most recent pulse. */
+    public synchronized long getSongPosition() { return clocks * ticksPerClock; }
 
+    /** Called when a TIMING_CLOCK arrives at the given time.  The tempo estimate is updated even when we're not running. */
+    public synchronized void clock(long nanos)
+        {
+        if (resync || !locked)
+            {
+            filteredTime = nanos;
+            locked = true;
+            resync = false;
+            measured = false;
+            acquisition = 0;
             }
-                        
-        if (startSync)
+        else if (!measured)
             {
-            startSync = false;
-            tick = 0;
+            // This is the second pulse: take our initial period estimate directly from it
+            double interval = nanos - filteredTime;
+            if (interval > 0 && interval < MAX_ERROR_PERIODS * period)
+                period = clampPeriod(interval);
+            filteredTime = nanos;
+            measured = true;
             }
-        else if (tick >= 0)             // should happen when the rate has started
+        else
             {
-            tick += TICKS_PER_SYNC;
+            // How many periods since the last pulse?  More than one means pulses were lost along the way.
+            // Every pulse is at least one period, no matter how early it is.
+            long elapsed = Math.max(1, Math.round((nanos - filteredTime) / period));
+            if (elapsed > MAX_ERROR_PERIODS)
+                {
+                // The master has stalled or jumped.  Don't slew, just start over from here.
+                filteredTime = nanos;
+                resyncs++;
+                }
+            else
+                {
+                if (elapsed > 1)
+                    {
+                    dropped += elapsed - 1;
+                    if (running) clocks += elapsed - 1;
+                    }
+                double predicted = filteredTime + elapsed * period;
+                double error = nanos - predicted;
+
+                // Second-order DLL: see F. Adriaensen, "Using a DLL to filter time", 2005.
+                // We start with a wide bandwidth to lock on quickly, then narrow it down.
+                double bw = Math.max(bandwidth, ACQUISITION_BANDWIDTH * ACQUISITION_PULSES / (ACQUISITION_PULSES + acquisition));
+                if (acquisition < Integer.MAX_VALUE) acquisition++;
+                double omega = 2 * Math.PI * bw * period / 1000000000.0;
+                filteredTime = predicted + Math.sqrt(2) * omega * error;
+                period = clampPeriod(period + omega * omega * error / elapsed);
+
+                pulses++;
+                errorSum += error;
+                errorSquaredSum += error * error;
+                if (Math.abs(error) > maxError) maxError = Math.abs(error);
+                }
             }
+        if (running) clocks++;
         }
-                
-    /** Returns an estimate of the number of ticks that have transpired. */
-    public long poll()
+
+    /** Returns the total number of PPQ ticks which should have been played since the
+        last START or CONTINUE, as of the given time.  */
+    public synchronized long getTicks(long nanos)
         {
-        // overage on ticks is
-        // ppq / ms * ms
-        return (long)(tick + Math.round(1.0 / rate * (System.currentTimeMillis() - timeOffset - lastPrediction)));
+        if (!running || clocks == startClocks) return 0;
+        long ticks = (clocks - startClocks - 1) * ticksPerClock;
+        double elapsed = nanos - filteredTime;
+        if (elapsed < 0) return ticks;                  // the pulse has arrived early, wait for its filtered time
+        // The tick at the pulse, plus however many ticks into the pulse we are, but no further
+        return ticks + Math.min(ticksPerClock, 1 + (long)(elapsed * ticksPerClock / period));
         }
-        
-    double toRate(long time, long lastTime)
+
+    /** Returns the estimated tempo in beats per minute. */
+    public synchronized double getBPM() { return 60.0 * 1000000000.0 / (period * CLOCKS_PER_BEAT); }
+
+    /** Returns the estimated length of a PPQ tick in nanoseconds. */
+    public synchronized double getNanosPerTick() { return period / ticksPerClock; }
+
+    double toPeriod(double bpm)
         {
-        long diff = time - lastTime;
-        // ppq/ms = 1.0 / (ms/sync * sync/beat) * ppq
-        return ppq * 1.0 / (diff * SYNCS_PER_BEAT);
+        return 60.0 * 1000000000.0 / (bpm * CLOCKS_PER_BEAT);
         }
-                
-    double toBPM(double rate)
+
+    double clampPeriod(double period)
         {
-        // beats/min = ppq/ms * ms/sec * sec/min / ppq
-        return rate * 1000 * 60 / ppq;
+        return Math.max(toPeriod(MAX_SANE_BPM), Math.min(toPeriod(MIN_SANE_BPM), period));
         }
-                
-    /** Returns an estimate of the rate in beats per minute. */
-    public double getBPM()
+
+    /** Returns the mean error, in nanoseconds, of pulse arrival times versus the loop's predictions */
+    public synchronized double getMeanError() { return (pulses == 0 ? 0 : errorSum / pulses); }
+
+    /** Returns the RMS error, in nanoseconds, of pulse arrival times versus the loop's predictions */
+    public synchronized double getRMSError() { return (pulses == 0 ? 0 : Math.sqrt(errorSquaredSum / pulses)); }
+
+    /** Returns the maximum absolute error, in nanoseconds, of pulse arrival times versus the loop's predictions */
+    public synchronized double getMaxError() { return maxError; }
+
+    /** Returns the number of times the loop was resynced because a pulse was far too early or late */
+    public synchronized long getResyncs() { return resyncs; }
+
+    /** Returns the number of pulses which appear to have been lost between the master and us */
+    public synchronized long getDropped() { return dropped; }
+
+    /** Returns a human-readable summary of the loop's state, with times in milliseconds. */
+    public synchronized String getStatistics()
         {
-        return toBPM(rate);
+        return "External Clock" +
+            "\nTempo: " + String.format("%.2f", getBPM()) + " BPM" +
+            "\nPulses: " + pulses +
+            "\nRMS Pulse Error: " + String.format("%.3f", getRMSError() / 1000000.0) + " ms" +
+            "\nMax Pulse Error: " + String.format("%.3f", getMaxError() / 1000000.0) + " ms" +
+            "\nDropped Pulses: " + dropped +
+            "\nResyncs: " + resyncs;
         }
-                
-    public static void main(String[] args)
+
+
+
+    ///// TEST HARNESS
+
+    // Simulates a master sending MIDI clock for the given number of seconds, starting at startBPM and
+    // ramping linearly to endBPM, with Gaussian jitter of the given standard deviation (ms) on each pulse and
+    // the given probability of dropping a pulse.  The slave polls getTicks(...) every pollMS milliseconds,
+    // as Seq does, and we compare the time each tick was played against the time the master intended it.
+    // Everything is driven from the given seed, so a run is exactly replayable.
+    static void testStream(String name, long seed, double seconds, double startBPM, double endBPM,
+        double jitterMS, double dropProbability, double pollMS, double bandwidth)
         {
-        Sync sync = new Sync(120, 192);
-                
-        java.util.TimerTask readTask = new java.util.TimerTask()
+        final int ppq = Seq.PPQ;
+        final int ticksPerClock = ppq / CLOCKS_PER_BEAT;
+        Random random = new Random(seed);
+        Sync sync = new Sync(120, ppq);
+        sync.setBandwidth(bandwidth);
+
+        // Build the master's ideal tick times and its actual (jittered) pulse times
+        ArrayList<Double> idealTicks = new ArrayList<>();
+        ArrayList<Double> pulses = new ArrayList<>();
+        double t = 0;
+        double end = seconds * 1000000000.0;
+        while(t < end)
             {
-            public void run()
+            double bpm = startBPM + (endBPM - startBPM) * (t / end);
+            double tickLength = 60.0 * 1000000000.0 / (bpm * ppq);
+            for(int i = 0; i < ticksPerClock; i++)
                 {
-                long stick = 0;
-                long spoll = 0;
-                double sbpm = 0;
-                boolean synced;
-
-                synchronized(sync)
-                    {
-                    synced = sync.synced;
-                    //if (synced)
-                        {
-                        stick = sync.tick;
-                        spoll = sync.poll();
-                        sbpm = sync.getBPM();
-                        sync.synced = false;
-                        }
-                    }
-                                 
-                if (synced)
-                    {
-                    System.err.println("POLL " + stick + " " + spoll + " " +  sbpm);
-                    }
+                idealTicks.add(t + i * tickLength);
                 }
-            };
-        java.util.Timer readTimer = new java.util.Timer();
-        readTimer.scheduleAtFixedRate(readTask, 0, 1);
-                
-        java.util.TimerTask writeTask = new java.util.TimerTask()
+            if (random.nextDouble() >= dropProbability)
+                {
+                pulses.add(t + Math.max(0, random.nextGaussian() * jitterMS * 1000000.0));
+                }
+            t += tickLength * ticksPerClock;
+            }
+        Collections.sort(pulses);
+
+        // Run the slave
+        long origin = 1000000000L;          // avoid zero
+        sync.start();
+        long played = 0;
+        int nextPulse = 0;
+        double poll = pollMS * 1000000.0;
+        double sum = 0;
+        double sumSquared = 0;
+        double max = 0;
+        long count = 0;
+        long warmup = ppq * 4;                  // ignore the first bar
+        for(double now = 0; now < end + poll; now += poll)
             {
-            double bpm = 120;
-            
-            int count = 0;
-            long lastTime = -1;
-            public void run()
+            while(nextPulse < pulses.size() && pulses.get(nextPulse) <= now)
                 {
-                synchronized(sync)
+                sync.clock(origin + (long)(double)(pulses.get(nextPulse)));
+                nextPulse++;
+                }
+            long target = sync.getTicks(origin + (long)now);
+            while(played < target && played < idealTicks.size())
+                {
+                if (played >= warmup)
                     {
-                    long time = System.currentTimeMillis();
-                    if (count++ > 50)
-                        {
-                        if (lastTime != -1 && lastTime != time)
-                            {
-                            // tick/ms * beat/tick * ms/sec * sec/min -> beat/min
-                            bpm = 0.99 * bpm + 0.01 * 1.0 / (time - lastTime) / 24.0 * 1000.0 * 60.0;
-                            }
-                        
-                        if (lastTime == time) System.err.println("SAME");
-                        else System.err.println("TIME " + " " + time + " " + lastTime + " " + (time - lastTime) + " " + bpm);
-                        }
-                    lastTime = time;
-                        
-//                    if (count++ > 50)
-//                        sync.sync();
+                    double error = now - idealTicks.get((int)played);
+                    sum += error;
+                    sumSquared += error * error;
+                    if (Math.abs(error) > max) max = Math.abs(error);
+                    count++;
                     }
+                played++;
                 }
-            };
-        java.util.Timer writeTimer = new java.util.Timer();
-        writeTimer.scheduleAtFixedRate(writeTask, 0, 500 / 24);
-                
-        sync.start();
+            }
+
+        double mean = (count == 0 ? 0 : sum / count);
+        double sd = (count < 2 ? 0 : Math.sqrt(Math.max(0, (sumSquared - mean * sum) / (count - 1))));
+        System.err.println(name +
+            "\n\tSeed " + seed + " BPM " + startBPM + "->" + endBPM + " Jitter " + jitterMS + " ms Drop " + dropProbability + " Poll " + pollMS + " ms Bandwidth " + bandwidth + " Hz" +
+            "\n\tTicks played " + played + " of " + idealTicks.size() + ", final tempo estimate " + String.format("%.2f", sync.getBPM()) +
+            "\n\tTick phase error: mean " + String.format("%.3f", mean / 1000000.0) + " ms, std. dev. " + String.format("%.3f", sd / 1000000.0) +
+            " ms, max " + String.format("%.3f", max / 1000000.0) + " ms, dropped " + sync.getDropped() + ", resyncs " + sync.getResyncs());
+        }
+
+    /** Runs a set of synthetic clock streams through Sync and reports the phase error of the resulting ticks.
+        Pass a seed as the first argument to replay a different set of streams. */
+    public static void main(String[] args)
+        {
+        long seed = (args.length > 0 ? Long.parseLong(args[0]) : 0);
+        testStream("Steady, no jitter", seed, 30, 120, 120, 0, 0, 0.25, DEFAULT_BANDWIDTH);
+        testStream("Steady, 1 ms jitter", seed, 30, 120, 120, 1, 0, 0.25, DEFAULT_BANDWIDTH);
+        testStream("Steady, 3 ms jitter, 1% dropped", seed, 30, 120, 120, 3, 0.01, 0.25, DEFAULT_BANDWIDTH);
+        testStream("Ramp, 1 ms jitter", seed, 60, 90, 160, 1, 0, 0.25, DEFAULT_BANDWIDTH);
+        testStream("Fast, 1 ms jitter", seed, 30, 240, 240, 1, 0, 0.25, DEFAULT_BANDWIDTH);
+        testStream("Steady, 1 ms jitter, 1 ms polling", seed, 30, 120, 120, 1, 0, 1, DEFAULT_BANDWIDTH);
+        testStream("Mismatched start tempo", seed, 30, 150, 150, 1, 0, 0.25, DEFAULT_BANDWIDTH);
         }
     }
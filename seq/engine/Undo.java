@@ -9,20 +9,62 @@ import java.util.*;
 
 public class Undo<T>
     {
+    /** Undo items may implement Entry if they need to know when they are added to or removed from
+        the undo and redo stacks, for example to keep track of how much memory the history is using. */
+    public interface Entry
+        {
+        /** Called when the item is added to the undo or redo stack. */
+        public void added();
+        /** Called when the item is removed from the undo or redo stack. */
+        public void removed();
+        }
+        
     ArrayList<T> undoStack = new ArrayList<T>();
     ArrayList<T> redoStack = new ArrayList<T>();
+    
+    void add(ArrayList<T> stack, T item)
+        {
+        stack.add(item);
+        if (item instanceof Entry) ((Entry)item).added();
+        }
+        
+    T remove(ArrayList<T> stack, int index)
+        {
+        T item = stack.remove(index);
+        if (item instanceof Entry) ((Entry)item).removed();
+        return item;
+        }
+        
+    void clear(ArrayList<T> stack)
+        {
+        while(!stack.isEmpty()) remove(stack, stack.size() - 1);
+        }
         
     public void clear()
         {
-        undoStack.clear();
-        redoStack.clear();
+        clear(undoStack);
+        clear(redoStack);
         }
                 
     public void push(T current)
         {
-        redoStack.clear();
-        undoStack.add(current);
+        clear(redoStack);
+        add(undoStack, current);
         }
+        
+    /** Removes the oldest item on the undo stack, as long as there is more than one, and returns 
+        true, else returns false.  */
+    public boolean removeOldest()
+        {
+        if (undoStack.size() <= 1) return false;
+        remove(undoStack, 0);
+        return true;
+        }
+        
+    /** Returns the number of items on the undo stack. */
+    public int getNumUndos() { return undoStack.size(); }
+    /** Returns the number of items on the redo stack. */
+    public int getNumRedos() { return redoStack.size(); }
           
     public T onUndo()
         {
@@ -38,8 +80,8 @@ public class Undo<T>
         {
         if (canUndo())
             {
-            redoStack.add(current);
-            return undoStack.remove(undoStack.size() - 1);
+            add(redoStack, current);
+            return remove(undoStack, undoStack.size() - 1);
             }
         else return null;       
         }
@@ -48,8 +90,8 @@ public class Undo<T>
         {
         if (canRedo())
             {
-            undoStack.add(current);
-            return redoStack.remove(redoStack.size() - 1);
+            add(undoStack, current);
+            return remove(redoStack, redoStack.size() - 1);
             }
         else return null;
         }
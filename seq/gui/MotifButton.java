@@ -43,6 +43,8 @@ public class MotifButton extends JToggleButton implements Transferable
     public static final Color REMOVE_COLOR = Theme.isDark()? new Color(255,110,169) : Color.MAGENTA;
 
     protected String lastText = null;
+    // Whether our owner was playing when MotifUI.updateTextIfChanged() last looked
+    boolean ownerWasPlaying = false;
 
     // DRAG COUNT
     // This counter should be increased with successive mouseDragged messages
@@ -60,15 +62,7 @@ public class MotifButton extends JToggleButton implements Transferable
         
         if (motifui != null)
             {
-            Motif motif = motifui.getMotif();
-            ReentrantLock lock = sequi.getSeq().getLock();
-            lock.lock();
-            try 
-                { 
-                name = motif.getDisplayedName();
-                }
-            finally { lock.unlock(); }
-            name = StringUtility.sanitize(name);
+            name = StringUtility.sanitize(getMotifDisplayedName());
             boolean root = (this instanceof MotifListButton && sequi.getMotifList().getRoot() == this);
             String text = 
                 "<html><font color=" + 
@@ -86,6 +80,41 @@ public class MotifButton extends JToggleButton implements Transferable
             }
         }
 
+    /** Returns the displayed name of our motif.  While the Seq is playing, this is read from its Snapshot 
+        rather than under the lock, so as not to contend with step() every time the text is updated. */
+    protected String getMotifDisplayedName()
+        {
+        Motif motif = motifui.getMotif();
+        Seq seq = sequi.getSeq();
+        Seq.Snapshot snapshot = seq.getSnapshot();
+        if (snapshot.isPlaying())
+            {
+            String name = snapshot.getDisplayedName(motif);
+            if (name != null) return name;
+            }
+        ReentrantLock lock = seq.getLock();
+        lock.lock();
+        try { return motif.getDisplayedName(); }
+        finally { lock.unlock(); }
+        }
+
+    /** Returns whether our motif is armed.  While the Seq is playing, this is read from its Snapshot 
+        rather than under the lock. */
+    protected boolean isMotifArmed()
+        {
+        Motif motif = motifui.getMotif();
+        Seq seq = sequi.getSeq();
+        Seq.Snapshot snapshot = seq.getSnapshot();
+        if (snapshot.isPlaying() && snapshot.getDisplayedName(motif) != null)
+            {
+            return snapshot.isArmed(motif);
+            }
+        ReentrantLock lock = seq.getLock();
+        lock.lock();
+        try { return motif.isArmed(); }
+        finally { lock.unlock(); }
+        }
+
     /** Returns whether we should color the primary text to reflect the fact that it is currently playing */
     public boolean shouldHighlight() { return true; }
 
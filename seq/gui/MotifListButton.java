@@ -45,21 +45,14 @@ public class MotifListButton extends MotifButton
                         
         if (motifui != null)
             {
-            Motif motif = motifui.getMotif();
-            ReentrantLock lock = sequi.getSeq().getLock();
-            lock.lock();
-            try 
-                { 
-                name = motif.getDisplayedName();
-                armed = motif.isArmed();
-                }
-            finally { lock.unlock(); }
-            name = StringUtility.sanitize(name);
+            name = StringUtility.sanitize(getMotifDisplayedName());
+            armed = isMotifArmed();
             boolean root = (this instanceof MotifListButton && sequi.getMotifList().getRoot() == this);
+            String text = null;
 
             if (sequi.getMotifList().isCompressed())
                 {
-                setText("<html>" + 
+                text = ("<html>" + 
                     (armed ? "<font color=red>&#x25CF; </font><font color=" : "<font color=") + 
                         (motifui.isPlaying() && shouldHighlight() ? PLAYING_TEXT_COLOR : 
                         (shouldPreHighlight() ? PREHIGHLIGHT_TEXT_COLOR : DEFAULT_TEXT_COLOR)) + ">" +
@@ -69,7 +62,7 @@ public class MotifListButton extends MotifButton
                 }
             else
                 {
-                setText("<html>" +
+                text = ("<html>" +
                     (armed ? "<font color=red>&#x25CF; </font><font color=" : "<font color=") + 
                         (motifui.isPlaying() && shouldHighlight() ? PLAYING_TEXT_COLOR : 
                         (shouldPreHighlight() ? PREHIGHLIGHT_TEXT_COLOR : DEFAULT_TEXT_COLOR)) + ">" +
@@ -78,6 +71,11 @@ public class MotifListButton extends MotifButton
                     (root ? "<br><b>Root</b>" : "") +
                     (owner == null ? "</html>" : ("<br>" + getSubtext() + "</html>")));
                 }
+            if (!text.equals(lastText))
+                {
+                setText(text);
+                lastText = text;
+                }
             }
         }
 
@@ -193,13 +193,7 @@ public abstract class MotifUI extends JPanel
     public void removeButton(MotifButton button) { buttons.remove(button); button.updateList(); }
     public boolean isPlaying() 
         { 
-        ReentrantLock lock = seq.getLock();
-        lock.lock();
-        try 
-            { 
-            return motif.getPlayCount() > 0; 
-            }
-        finally { lock.unlock(); }
+        return seq.getSnapshot().isPlaying(motif);
         }
     
     public Clip getDisplayClip()
@@ -217,6 +211,15 @@ public abstract class MotifUI extends JPanel
         finally { lock.unlock(); }
         }
         
+    /** Returns the playhead (see Clip.getPlayhead()) of my clip which is playing, as of the Seq's most recent
+        Snapshot, or null.  Like getDisplayClip(), it's null if I'm not being displayed right now.  Unlike 
+        getDisplayClip(), this doesn't acquire the lock, so it's what you should use to draw a playhead. */
+    public Object getDisplayPlayhead()
+        {
+        if (sequi.getMotifUI() != this) return null;
+        return seq.getSnapshot().getPlayhead(motif);
+        }
+        
     /** Updates for all buttons */
     public void updateText()
         {
@@ -230,6 +233,58 @@ public abstract class MotifUI extends JPanel
             button.updateText();
             }
         }
+
+    // The motif's name, whether it was playing, and whether it was armed, when updateTextIfChanged() last ran
+    String lastName = null;
+    boolean lastPlaying = false;
+    boolean lastArmed = false;
+    boolean lastValid = false;
+    
+    /** Updates the buttons whose text may have changed since the last time this was called.  If the motif's 
+        name, whether it is playing, or whether it is armed have changed, all the buttons are updated as in updateText().
+        Otherwise only the buttons whose owners are playing, or have just stopped playing, are updated, because their
+        subtext reflects the owner's clip.  This is called every step while playing, so it is much cheaper than updateText():
+        the name, playing, and armed state are read from the Seq's Snapshot rather than under the lock. */
+    public void updateTextIfChanged()
+        {
+        String name = null;
+        boolean playing = false;
+        boolean armed = false;
+        boolean[] ownerPlaying = new boolean[buttons.size()];
+        Seq.Snapshot snapshot = seq.getSnapshot();
+        playing = snapshot.isPlaying(motif);
+        for(int i = 0; i < ownerPlaying.length; i++)
+            {
+            MotifUI owner = buttons.get(i).getOwner();
+            ownerPlaying[i] = (owner != null && snapshot.isPlaying(owner.getMotif()));
+            }
+        name = snapshot.getDisplayedName(motif);
+        armed = snapshot.isArmed(motif);
+        
+        boolean changed = (!lastValid || playing != lastPlaying || armed != lastArmed || !Objects.equals(name, lastName));
+        lastName = name;
+        lastPlaying = playing;
+        lastArmed = armed;
+        lastValid = true;
+
+        if (changed)
+            {
+            updateText();
+            }
+        else
+            {
+            for(int i = 0; i < ownerPlaying.length; i++)
+                {
+                MotifButton button = buttons.get(i);
+                if (ownerPlaying[i] || button.ownerWasPlaying) button.updateText();
+                }
+            }
+
+        for(int i = 0; i < ownerPlaying.length; i++)
+            {
+            buttons.get(i).ownerWasPlaying = ownerPlaying[i];
+            }
+        }
                 
     /** Called by the MotifList when the motif is being removed entirely from the
         sequence.  This is called IMMEDIATELY BEFORE the motif is removed. 
@@ -65,6 +65,14 @@ public class SeqUI extends JPanel
     public static final int PARALLEL_INITIAL = 3; 
     
     public static final int MIN_INITIAL_WIDTH = 800;
+    
+    // Options in the MIDI Lookahead menu, in ms
+    static final int[] LOOKAHEADS = { 0, 5, 10, 20, 50 };
+    // Options in the Undo Memory menu, in MB, where 0 is unlimited
+    static final int[] UNDO_MEMORIES = { 16, 64, 256, 1024, 0 };
+    static final int[] LATENCIES = { 0, 2, 5, 10, 20, 50 };
+    // Options in the Metronome Latency Compensation menu, in ms
+    static final int[] BEEP_LATENCIES = { 0, 5, 10, 20, 50, 100 };
     public static final int MIN_INITIAL_HEIGHT = 600;
     
     // Seq Menu Bar
@@ -280,8 +288,7 @@ public class SeqUI extends JPanel
             seq.resetPlayingClips();        // because this might not happen in stop if we're already stopped
 
             this.seq = seq;
-            for(int i = 0; i < seq.getOuts().length; i++)
-                seq.getOut(i).setSeq(seq);
+            seq.bindInsAndOuts();
         
             // we have to build the lower motifuis first so the higher level ones
             // can add them into themselves.  To do this we get a list sorted
@@ -428,7 +435,13 @@ public class SeqUI extends JPanel
     /* Saves the sequence to an existing file. */
     boolean doSave()
         {
-        if (seq.getFile() == null) { return doSaveAs(); }
+        return doSave(null);
+        }
+        
+    /* Saves the sequence to an existing file in the background, then calls THEN, if non-null, if the save succeeded. */
+    boolean doSave(Runnable then)
+        {
+        if (seq.getFile() == null) { return doSaveAs(then); }
         
         // Inform MotifUIs so they can update stuff to save out
         for(MotifUI ui : list.getMotifUIs())
@@ -436,29 +449,18 @@ public class SeqUI extends JPanel
             ui.isSaving();
             }
 
-        PrintWriter p = null;
-        try
-            {
-            p = new PrintWriter(new GZIPOutputStream(new FileOutputStream(seq.getFile())));
-            //if (seq != null) seq.stop();
-            p.println(seq.save(true));          // we just print the JSONObject
-            p.flush();
-            p.close();
-            }
-        catch (Exception ex)
-            {
-            ex.printStackTrace();
-            showSimpleError("Error Saving File", "An error occurred saving the sequence " + seq.getFile());
-            }
-        finally
-            {
-            try { if (p != null) p.close(); } catch (Exception ex) { }
-            }
+        save(seq.getFile(), true, then);
         return true;
         }
 
     /* Pops up the save dialog. */
     boolean doSaveAs()
+        {
+        return doSaveAs(null);
+        }
+        
+    /* Pops up the save dialog, then saves in the background and calls THEN, if non-null, if the save succeeded. */
+    boolean doSaveAs(Runnable then)
         {
         FileDialog fd = new FileDialog(getFrame(), "Save Sequence As...", FileDialog.SAVE);
                 
@@ -466,8 +468,6 @@ public class SeqUI extends JPanel
         fd.setVisible(true);
         enableMenuBar();
                 
-        File f = null; // make compiler happy
-
         if (fd.getFile() != null)
             {
             // Inform MotifUIs so they can update stuff to save out
@@ -476,56 +476,165 @@ public class SeqUI extends JPanel
                 ui.isSaving();
                 }
 
-            PrintWriter p = null;
-            try
+            File f = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), PATCH_EXTENSION));
+            seq.setFile(new File(fd.getDirectory(), fd.getFile()));
+            frame.setTitle(fd.getFile());
+            save(f, true, then);
+            return true;
+            }
+        else
+            {
+            return false;
+            }
+        }
+        
+    /* Saves the sequence (or if SAVEALL is false, just the rooted part of it) to F in the background,
+       then calls THEN, if non-null, if the save succeeded. */
+    void save(final File f, final boolean saveAll, final Runnable then)
+        {
+        // The sequence may be playing or recording, so we build its JSON while holding the lock,
+        // and only write it out in the background.
+        JSONObject json = null;
+        ReentrantLock lock = seq.getLock();
+        lock.lock();
+        try 
+            { 
+            json = seq.save(saveAll);
+            }
+        catch (JSONException ex)
+            {
+            ex.printStackTrace();
+            showSimpleError("Error Saving File", "An error occurred saving the sequence " + f);
+            return;
+            }
+        finally 
+            { 
+            lock.unlock(); 
+            }
+            
+        final JSONObject obj = json;
+        runInBackground("Saving " + f.getName(), new BackgroundTask()
+            {
+            void run(SeqFile.Progress progress) throws Exception
                 {
-                f = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), PATCH_EXTENSION));
-                seq.setFile(new File(fd.getDirectory(), fd.getFile()));
-                frame.setTitle(fd.getFile());
-                                
-                p = new PrintWriter(new GZIPOutputStream(new FileOutputStream(f)));
-                //if (seq != null) seq.stop();
-                p.println(seq.save(true));          // we just print the JSONObject
-                p.flush();
-                p.close();
+                SeqFile.save(obj, f, progress);
                 }
-            catch (Exception ex)
+                
+            void finished()
                 {
-                ex.printStackTrace();
-                showSimpleError("Error Saving File", "An error occurred saving the sequence " + f);
+                if (then != null) then.run();
                 }
-            finally
+                
+            void failed(Exception ex)
                 {
-                try { if (p != null) p.close(); } catch (Exception ex) { }
+                showSimpleError("Error Saving File", "An error occurred saving the sequence " + f);
                 }
-            return true;
-            }
-        else
+            });
+        }
+        
+    /** Work done in a background thread by runInBackground(...) */
+    abstract class BackgroundTask
+        {
+        /** Does the work in the background thread, updating PROGRESS as it goes. */
+        abstract void run(SeqFile.Progress progress) throws Exception;
+        /** Called in the Swing thread after run(...) has completed. */
+        void finished() throws Exception { }
+        /** Called in the Swing thread if run(...) or finished() threw an exception, unless the task was canceled. */
+        void failed(Exception ex) { }
+        }
+    
+    volatile boolean cancelBackgroundTask = false;
+    static final int BACKGROUND_TASK_PROGRESS = 1000;
+    
+    /** Disables the window and runs TASK in a background thread, showing its progress in a ProgressMonitor,
+        through which the user may cancel it.  Returns immediately. */
+    void runInBackground(String title, final BackgroundTask task)
+        {
+        cancelBackgroundTask = false;
+        
+        // Disable the window 
+        JPanel panel = new JPanel();
+        panel.addMouseListener(new MouseAdapter() { });  // intercept all mouse events
+        panel.addMouseMotionListener(new MouseAdapter() { });  // intercept all mouse events
+        panel.setOpaque(false);
+        getFrame().setGlassPane(panel);
+        panel.setVisible(true);
+        disableMenuBar();
+        
+        // Build the ProgressMonitor
+        final ProgressMonitor pm = new ProgressMonitor(this, title, "", 0, BACKGROUND_TASK_PROGRESS);
+        
+        // Build worker thread
+        Thread thread = new Thread(new Runnable()
             {
-            return false;
-            }
+            public void run()
+                {
+                Exception exception = null;
+                try
+                    {
+                    task.run(new SeqFile.Progress()
+                        {
+                        public boolean update(double fraction)
+                            {
+                            final int _progress = (int)(fraction * BACKGROUND_TASK_PROGRESS);
+                            SwingUtilities.invokeLater(new Runnable()
+                                {
+                                public void run()
+                                    {
+                                    if (pm.isCanceled())            // We have to check the progress monitor in the swing thread and warn the worker thread
+                                        {
+                                        cancelBackgroundTask = true;
+                                        }
+                                    pm.setProgress(_progress);
+                                    }
+                                });
+                            return !cancelBackgroundTask;
+                            }
+                        });
+                    }
+                catch (Exception ex)
+                    {
+                    exception = ex;
+                    }
+                        
+                // Clean up
+                final Exception _exception = exception;
+                SwingUtilities.invokeLater(new Runnable()
+                    {
+                    public void run()
+                        {
+                        pm.close();
+                        panel.setVisible(false);
+                        enableMenuBar();
+                        
+                        Exception ex = _exception;
+                        if (ex == null)
+                            {
+                            try { task.finished(); }
+                            catch (Exception e) { ex = e; }
+                            }
+                        if (ex != null && !(ex instanceof InterruptedIOException))         // InterruptedIOException means we were canceled
+                            {
+                            ex.printStackTrace();
+                            task.failed(ex);
+                            }
+                        }
+                    });
+                }
+            });
+        thread.setName("Seq Background Task");
+        thread.start();
         }
         
-    File logFile = null;
-    Sequence[] logs = null;
+    // The MIDI log, if we're logging
+    MidiLog midiLog = null;
     boolean logToNotes = false;
     
     void doLogMIDI()
         {
-        if (logFile != null || logToNotes)            // currently logging
-            {
-            // clean up
-            logItem.setText("Log MIDI ...");
-            logFile = null;
-            logs = null;
-            logToNotes = false;
-            ReentrantLock lock = seq.getLock();
-            lock.lock();
-            try 
-                { 
-                seq.setTracks(null);
-                }
-            finally { lock.unlock(); }
+        if (midiLog != null)            // currently logging
+            {
+            finishLog();
             }
         else
             {       
@@ -539,119 +648,138 @@ public class SeqUI extends JPanel
                 
             if (seq != null) seq.stop();
             
-            if (result == 0)
+            File logFile = null;
+            if (result == 0)            // Log to a Notes object, by way of temporary files, one per Out
                 {
-                try                     // Log to a Notes object
+                try
                     {
-                    logs = new Sequence[Seq.NUM_OUTS];
-                    Track[] tracks = new Track[Seq.NUM_OUTS];
-                    for(int i = 0; i < tracks.length; i++) 
-                        {
-                        logs[i] = new Sequence(Sequence.PPQ, Seq.PPQ);
-                        tracks[i] = logs[i].createTrack();
-                        }
-                    ReentrantLock lock = seq.getLock();
-                    lock.lock();
-                    try 
-                        {
-                        seq.setTracks(tracks);
-                        }
-                    finally { lock.unlock(); }
-                    logItem.setText("Stop Logging");
-                    logToNotes = true;
-                    logFile = null;
+                    logFile = File.createTempFile("SeqLog", MIDI_EXTENSION);
+                    logFile.delete();                       // we just want the name
                     }
-                catch (Exception ex)            // will never happen
+                catch (IOException ex)
                     {
-                    logItem.setText("Log MIDI ...");
                     ex.printStackTrace();
                     showSimpleError("Error Creating Log", "An error occurred logging MIDI.");
-                                                        
-                    // clean up
-                    logFile = null;
-                    logs = null;
-                    ReentrantLock lock = seq.getLock();
-                    lock.lock();
-                    try 
-                        { 
-                        seq.setTracks(null);
-                        }
-                    finally { lock.unlock(); }
+                    return;
                     }
                 }
             else                                // Log to a File
                 {
-                boolean multi = (result == 2);                  // multi means we broke out to multiple files
-
                 FileDialog fd = new FileDialog(getFrame(), "Log MIDI ...", FileDialog.SAVE);
                                                                 
                 disableMenuBar();
                 fd.setVisible(true);
                 enableMenuBar();
                                                                 
-                if (fd.getFile() != null)
+                if (fd.getFile() == null) return;           // cancelled
+                logFile = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), MIDI_EXTENSION));
+                }
+                
+            try
+                {
+                // multi means we break out to multiple files
+                midiLog = new MidiLog(logFile, result != 1);
+                logToNotes = (result == 0);
+                ReentrantLock lock = seq.getLock();
+                lock.lock();
+                try 
                     {
-                    try
+                    seq.setLog(midiLog);
+                    }
+                finally { lock.unlock(); }
+                logItem.setText("Stop Logging");
+                }
+            catch (IOException ex)
+                {
+                ex.printStackTrace();
+                showSimpleError("Error Creating Log", "An error occurred logging MIDI.");
+                midiLog = null;
+                logToNotes = false;
+                }
+            }
+        }
+
+    // Stops logging and finishes the log files, or builds Notes from them if we're logging to Notes
+    void finishLog()
+        {
+        ReentrantLock lock = seq.getLock();
+        lock.lock();
+        try 
+            { 
+            seq.setLog(null);
+            }
+        finally { lock.unlock(); }
+        
+        MidiLog log = midiLog;
+        boolean toNotes = logToNotes;
+        midiLog = null;
+        logToNotes = false;
+        logItem.setText("Log MIDI ...");
+
+        File[] files = null;
+        try
+            {
+            files = log.close();
+            if (log.getDropped() > 0)
+                {
+                showSimpleError("Incomplete Log", "The disk could not keep up with the MIDI being logged,\nso " + 
+                    log.getDropped() + " MIDI messages were left out of the log.");
+                }
+            if (toNotes)
+                {
+                ArrayList<Motif> allNotes = new ArrayList<>();
+                for(int i = 0; i < files.length; i++)
+                    {
+                    if (files[i] == null) continue;
+                    MidiFileReader reader = new MidiFileReader(java.nio.file.Files.readAllBytes(files[i].toPath()));
+                    Motif motif = reader.build(seq, "Log " + (i + 1));
+                    if (motif instanceof Notes)
                         {
-                        logFile = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), MIDI_EXTENSION));
-                        logs = new Sequence[Seq.NUM_OUTS];
-                        Track[] tracks = new Track[Seq.NUM_OUTS];
-                        if (multi) 
-                            {
-                            for(int i = 0; i < tracks.length; i++) 
-                                {
-                                logs[i] = new Sequence(Sequence.PPQ, Seq.PPQ);
-                                tracks[i] = logs[i].createTrack();
-                                }
-                            }
-                        else
-                            {
-                            logs[0] = new Sequence(Sequence.PPQ, Seq.PPQ);
-                            tracks[0] = logs[0].createTrack();
-                            }
-                        ReentrantLock lock = seq.getLock();
-                        lock.lock();
-                        try 
-                            {
-                            seq.setTracks(tracks);
-                            }
-                        finally { lock.unlock(); }
-                        logItem.setText("Stop Logging");
+                        if (((Notes)motif).getEvents().size() == 0) continue;
+                        ((Notes)motif).setOut(i);
                         }
-                    catch (Exception ex)
+                    else 
                         {
-                        logItem.setText("Log MIDI ...");
-                        ex.printStackTrace();
-                        showSimpleError("Error Creating Log", "An error occurred logging MIDI.");
-                                                                
-                        // clean up
-                        logFile = null;
-                        logs = null;
-                        ReentrantLock lock = seq.getLock();
-                        lock.lock();
-                        try 
-                            { 
-                            seq.setTracks(null);
+                        // An Out can log more than one channel if motifs send to it directly
+                        for(Motif.Child child : motif.getChildren())
+                            {
+                            ((Notes)(child.getMotif())).setOut(i);
+                            list.getOrAddMotifUIFor(child.getMotif(), true, false);
                             }
-                        finally { lock.unlock(); }
                         }
+                    allNotes.add(motif);
+                    list.getOrAddMotifUIFor(motif, true, false);
                     }
-                else
+                if (allNotes.size() > 1)
                     {
-                    // cancelled, clean up
-                    logItem.setText("Log MIDI ...");
-                    logFile = null;
-                    logs = null;
-                    ReentrantLock lock = seq.getLock();
-                    lock.lock();
-                    try 
-                        { 
-                        seq.setTracks(null);
+                    Parallel parallel = new Parallel(seq);
+                    parallel.setName("Logs");
+                    for(Motif notes : allNotes)
+                        {
+                        parallel.add(notes, 0);
                         }
-                    finally { lock.unlock(); }
+                    list.getOrAddMotifUIFor(parallel, true, false);
+                    }
+                else if (allNotes.size() == 0)
+                    {
+                    showSimpleError("Cannot Log Notes", "No Notes were created, because no MIDI data was logged.");
                     }
                 }
             }
+        catch (IOException | InvalidMidiDataException ex)
+            {
+            ex.printStackTrace();
+            showSimpleError("Error Creating Log", "An error occurred logging MIDI.");
+            }
+        finally
+            {
+            // The temporary files aren't needed any more
+            if (toNotes && files != null)
+                {
+                for(int i = 0; i < files.length; i++)
+                    if (files[i] != null) files[i].delete();
+                }
+            }
         }
 
 
@@ -665,8 +793,6 @@ public class SeqUI extends JPanel
         fd.setVisible(true);
         enableMenuBar();
                 
-        File f = null; // make compiler happy
-
         if (fd.getFile() != null)
             {
             // Inform MotifUIs so they can update stuff to save out
@@ -675,28 +801,11 @@ public class SeqUI extends JPanel
                 ui.isSaving();
                 }
 
-            PrintWriter p = null;
-            try
-                {
-                f = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), PATCH_EXTENSION));
-                seq.setFile(new File(fd.getDirectory(), fd.getFile()));
-                frame.setTitle(fd.getFile());
-                                
-                p = new PrintWriter(new GZIPOutputStream(new FileOutputStream(f)));
-                if (seq != null) seq.stop();
-                p.println(seq.save(false));          // we just print the JSONObject
-                p.flush();
-                p.close();
-                }
-            catch (Exception ex)
-                {
-                ex.printStackTrace();
-                showSimpleError("Error Saving File", "An error occurred saving the sequence " + f);
-                }
-            finally
-                {
-                try { if (p != null) p.close(); } catch (Exception ex) { }
-                }
+            File f = new File(fd.getDirectory(), ensureFileEndsWith(fd.getFile(), PATCH_EXTENSION));
+            seq.setFile(new File(fd.getDirectory(), fd.getFile()));
+            frame.setTitle(fd.getFile());
+            seq.stop();
+            save(f, false, null);
             }
         }
                 
@@ -718,49 +827,55 @@ public class SeqUI extends JPanel
                 
         if (fd.getFile() != null)
             {
-            GZIPInputStream stream = null;
-            try
+            clearUndo();
+            final File f = new File(fd.getDirectory(), fd.getFile());
+            final Seq oldSeq = seq;
+            runInBackground("Loading " + fd.getFile(), new BackgroundTask()
                 {
-                clearUndo();
-                Seq newSeq = Seq.load(seq, new JSONObject(new JSONTokener(stream = new GZIPInputStream(new FileInputStream(fd.getDirectory()+fd.getFile())))));
-                newSeq.setFile(new File(fd.getDirectory(), fd.getFile()));
-                frame.setTitle(fd.getFile());
-
-                ReentrantLock lock = seq.getLock();
-                lock.lock();
-                try 
-                    { 
-                    this.seq.stop();
-                    this.seq.shutdown();            // kills timer in old sequence
+                Seq newSeq;
+                
+                void run(SeqFile.Progress progress) throws Exception
+                    {
+                    newSeq = SeqFile.load(oldSeq, f, progress);
                     }
-                finally { lock.unlock(); }
+                        
+                void finished()
+                    {
+                    newSeq.setFile(f);
+                    frame.setTitle(f.getName());
 
-                list.removeAll();  // delete old ones
+                    ReentrantLock lock = oldSeq.getLock();
+                    lock.lock();
+                    try 
+                        { 
+                        oldSeq.stop();
+                        oldSeq.shutdown();            // kills timer in old sequence
+                        }
+                    finally { lock.unlock(); }
 
-                seq = newSeq;                                
-                reset(seq);
-                Seq.incrementDocument();
-                setupMenu(getFrame());          // must be before building the main motifui
+                    list.removeAll();  // delete old ones
 
-                MotifUI motifui = list.getMotifUIFor(seq.getData());
-                list.setRoot(motifui);
-                list.select(list.getRoot());
-                setMotifUI(motifui);
-                revalidate();
+                    seq = newSeq;                                
+                    reset(seq);
+                    Seq.incrementDocument();
+                    setupMenu(getFrame());          // must be before building the main motifui
+
+                    MotifUI motifui = list.getMotifUIFor(seq.getData());
+                    list.setRoot(motifui);
+                    list.select(list.getRoot());
+                    setMotifUI(motifui);
+                    revalidate();
                 
-                // Change the notes split
-                motifui.displayNotes();
-                repaint();
-                }
-            catch (Exception ex)
-                {
-                ex.printStackTrace();
-                showSimpleError("Error Loading Sequence", "An error occurred loading the sequence " + fd.getFile());
-                }
-            finally
-                {
-                try { stream.close(); } catch (Exception ex) { }
-                }
+                    // Change the notes split
+                    motifui.displayNotes();
+                    repaint();
+                    }
+                        
+                void failed(Exception ex)
+                    {
+                    showSimpleError("Error Loading Sequence", "An error occurred loading the sequence " + f.getName());
+                    }
+                });
             }
         }
                 
@@ -782,42 +897,48 @@ public class SeqUI extends JPanel
                 
         if (fd.getFile() != null)
             {
-            GZIPInputStream stream = null;
-            try
+            final File f = new File(fd.getDirectory(), fd.getFile());
+            final Seq oldSeq = seq;
+            runInBackground("Merging " + fd.getFile(), new BackgroundTask()
                 {
-                Seq newSeq = Seq.load(seq, new JSONObject(new JSONTokener(stream = new GZIPInputStream(new FileInputStream(fd.getDirectory()+fd.getFile())))));
-                clearUndo();
-
-                ReentrantLock lock = seq.getLock();
-                lock.lock();
-                try 
-                    { 
-                    seq.stop();
+                Seq newSeq;
+                
+                void run(SeqFile.Progress progress) throws Exception
+                    {
+                    newSeq = SeqFile.load(oldSeq, f, progress);
                     }
-                finally { lock.unlock(); }
+                        
+                void finished()
+                    {
+                    clearUndo();
 
-                list.removeAll();  // delete old ones
+                    ReentrantLock lock = seq.getLock();
+                    lock.lock();
+                    try 
+                        { 
+                        seq.stop();
+                        }
+                    finally { lock.unlock(); }
 
-                // now merge
-                seq.merge(newSeq.getMotifs());
-                reset(seq);
+                    list.removeAll();  // delete old ones
 
-                MotifUI motifui = list.getMotifUIFor(seq.getData());
-                list.setRoot(motifui);
-                list.select(list.getRoot());
-                setMotifUI(motifui);
-                revalidate();
-                repaint();
-                }
-            catch (Exception ex)
-                {
-                ex.printStackTrace();
-                showSimpleError("Error Merging Sequence", "An error occurred merging the sequence " + fd.getFile());
-                }
-            finally
-                {
-                try { stream.close(); } catch (Exception ex) { }
-                }
+                    // now merge
+                    seq.merge(newSeq.getMotifs());
+                    reset(seq);
+
+                    MotifUI motifui = list.getMotifUIFor(seq.getData());
+                    list.setRoot(motifui);
+                    list.select(list.getRoot());
+                    setMotifUI(motifui);
+                    revalidate();
+                    repaint();
+                    }
+                        
+                void failed(Exception ex)
+                    {
+                    showSimpleError("Error Merging Sequence", "An error occurred merging the sequence " + f.getName());
+                    }
+                });
             }
         }
 
@@ -1254,6 +1375,135 @@ public class SeqUI extends JPanel
                 }
             });
 
+        optionsMenu.addSeparator();
+
+        JMenu timerMenu = new JMenu("Sequencer Timer");
+        optionsMenu.add(timerMenu);
+        ButtonGroup timerGroup = new ButtonGroup();
+        for(int i = 0; i < ClockSource.NAMES.length; i++)
+            {
+            final int type = i;
+            JRadioButtonMenuItem timerItem = new JRadioButtonMenuItem(ClockSource.NAMES[i]);
+            timerItem.addActionListener(new ActionListener()
+                {
+                public void actionPerformed(ActionEvent event)
+                    {
+                    seq.setClockSourceType(type);
+                    }
+                });
+            timerGroup.add(timerItem);
+            timerMenu.add(timerItem);
+            if (seq.getClockSourceType() == type) timerItem.setSelected(true);
+            }
+                
+        JMenu lookaheadMenu = new JMenu("MIDI Lookahead");
+        optionsMenu.add(lookaheadMenu);
+        ButtonGroup lookaheadGroup = new ButtonGroup();
+        for(int i = 0; i < LOOKAHEADS.length; i++)
+            {
+            final int lookahead = LOOKAHEADS[i];
+            JRadioButtonMenuItem lookaheadItem = new JRadioButtonMenuItem(lookahead == 0 ? "Off" : (lookahead + " ms"));
+            lookaheadItem.addActionListener(new ActionListener()
+                {
+                public void actionPerformed(ActionEvent event)
+                    {
+                    seq.setLookahead(lookahead);
+                    }
+                });
+            lookaheadGroup.add(lookaheadItem);
+            lookaheadMenu.add(lookaheadItem);
+            if (seq.getLookahead() == lookahead) lookaheadItem.setSelected(true);
+            }
+
+        JMenu beepLatencyMenu = new JMenu("Metronome Latency Compensation");
+        optionsMenu.add(beepLatencyMenu);
+        ButtonGroup beepLatencyGroup = new ButtonGroup();
+        for(int i = 0; i < BEEP_LATENCIES.length; i++)
+            {
+            final int latency = BEEP_LATENCIES[i];
+            JRadioButtonMenuItem beepLatencyItem = new JRadioButtonMenuItem(latency == 0 ? "Off" : (latency + " ms"));
+            beepLatencyItem.addActionListener(new ActionListener()
+                {
+                public void actionPerformed(ActionEvent event)
+                    {
+                    seq.setBeepLatency(latency);
+                    }
+                });
+            beepLatencyGroup.add(beepLatencyItem);
+            beepLatencyMenu.add(beepLatencyItem);
+            if (seq.getBeepLatency() == latency) beepLatencyItem.setSelected(true);
+            }
+
+        JMenu latencyMenu = new JMenu("Input Latency Compensation");
+        optionsMenu.add(latencyMenu);
+        for(int j = 0; j < Seq.NUM_INS; j++)
+            {
+            final In in = seq.getIn(j);
+            JMenu inMenu = new JMenu("In " + (j + 1));
+            latencyMenu.add(inMenu);
+            ButtonGroup latencyGroup = new ButtonGroup();
+            for(int i = 0; i < LATENCIES.length; i++)
+                {
+                final int latency = LATENCIES[i];
+                JRadioButtonMenuItem latencyItem = new JRadioButtonMenuItem(latency == 0 ? "Off" : (latency + " ms"));
+                latencyItem.addActionListener(new ActionListener()
+                    {
+                    public void actionPerformed(ActionEvent event)
+                        {
+                        in.setLatency(latency);
+                        }
+                    });
+                latencyGroup.add(latencyItem);
+                inMenu.add(latencyItem);
+                if (in.getLatency() == latency) latencyItem.setSelected(true);
+                }
+            }
+
+        JMenu undoMemoryMenu = new JMenu("Undo Memory");
+        optionsMenu.add(undoMemoryMenu);
+        ButtonGroup undoMemoryGroup = new ButtonGroup();
+        for(int i = 0; i < UNDO_MEMORIES.length; i++)
+            {
+            final int memory = UNDO_MEMORIES[i];
+            JRadioButtonMenuItem undoMemoryItem = new JRadioButtonMenuItem(memory == 0 ? "Unlimited" : (memory >= 1024 ? (memory / 1024) + " GB" : memory + " MB"));
+            undoMemoryItem.addActionListener(new ActionListener()
+                {
+                public void actionPerformed(ActionEvent event)
+                    {
+                    seq.setUndoMemory(memory);
+                    updateUndoMenus();
+                    }
+                });
+            undoMemoryGroup.add(undoMemoryItem);
+            undoMemoryMenu.add(undoMemoryItem);
+            if (seq.getUndoMemory() == memory) undoMemoryItem.setSelected(true);
+            }
+
+        JCheckBoxMenuItem compactEventsItem = new JCheckBoxMenuItem("Save Notes Compactly");
+        optionsMenu.add(compactEventsItem);
+        compactEventsItem.setSelected(Notes.getCompactEvents());
+        compactEventsItem.addActionListener(new ActionListener()
+            {
+            public void actionPerformed(ActionEvent event)
+                {
+                Notes.setCompactEvents(compactEventsItem.isSelected());
+                }
+            });
+
+        JMenuItem timerStatisticsItem = new JMenuItem("Timer Statistics");
+        optionsMenu.add(timerStatisticsItem);
+        timerStatisticsItem.addActionListener(new ActionListener()
+            {
+            public void actionPerformed(ActionEvent event)
+                {
+                String stats = seq.getClockSource().getStatistics();
+                if (seq.getClock() == Seq.CLOCK_IN) stats = stats + "\n\n" + seq.getSync().getStatistics();
+                showSimpleMessage("Timer Statistics", "<html>" + stats.replace("\n", "<br>") + "</html>");
+                }
+            });
+
+        optionsMenu.addSeparator();
+
         JCheckBoxMenuItem darkThemeItem = new JCheckBoxMenuItem("Dark Theme");
         optionsMenu.add(darkThemeItem);
         darkThemeItem.setSelected(Theme.isDark());
@@ -1295,21 +1545,13 @@ public class SeqUI extends JPanel
             {
             lastUpdate = wallClocktime;
             
-            int time = 0;   
-            ReentrantLock lock = seq.getLock();
-            lock.lock();
-            try
-                {
-                time = seq.getTime();
-                }
-            finally
-                {
-                lock.unlock();
-                }
+            // When stepping, read the time from the Snapshot so as not to contend with step() for the lock
+            int time = (inResponseToStep ? seq.getSnapshot().getTime() : seq.getTime());
                                                 
             for(MotifUI ui : list.getMotifUIs())
                 {
-                ui.updateText();
+                if (inResponseToStep) ui.updateTextIfChanged();
+                else ui.updateText();
                 }
 
             if (motifui != null) 
@@ -1361,6 +1603,16 @@ public class SeqUI extends JPanel
         if (this.motifui != null) this.motifui.uiWasUnset();
         if (this.motifui != null) remove(this.motifui);
         this.motifui = motifui; 
+        ReentrantLock lock = seq.getLock();
+        lock.lock();
+        try 
+            { 
+            seq.touch(motifui.getMotif());              // its inspectors may change it without a push
+            }
+        finally 
+            { 
+            lock.unlock(); 
+            }
         add(motifui, BorderLayout.CENTER);
         MotifListButton button = motifui.getPrimaryButton();
         if (button != null) getMotifList().select(button, updateStacks);
@@ -1476,73 +1728,9 @@ public class SeqUI extends JPanel
             } 
         
         // Write out sequence log
-        if (logs != null)
+        if (midiLog != null)
             {
-            try
-                {
-                Track[] tracks = seq.getTracks();
-                if (tracks == null)
-                    {
-                    System.err.println("SeqUI stopped() ERROR: tracks is null when it should not be.");
-                    }
-                else if (tracks[1] != null) // multi
-                    {
-                    if (logToNotes)
-                        {
-                        ArrayList<Notes> allNotes = new ArrayList<>();
-                        for(int i = 0; i < Seq.NUM_OUTS; i++)
-                            {
-                            if (seq.isValidTrack(i) && tracks[i].size() > 0)
-                                {
-                                Notes notes = new Notes(seq);
-                                allNotes.add(notes);
-                                notes.setOut(i);
-                                notes.setName("Log " + (i + 1));
-                                notes.read(tracks[i], logs[i].getResolution());
-                                list.getOrAddMotifUIFor(notes, true, false);
-                                }
-                            }
-                        if (allNotes.size() > 1)
-                            {
-                            Parallel parallel = new Parallel(seq);
-                            parallel.setName("Logs");
-                            for(Notes notes : allNotes)
-                                {
-                                parallel.add(notes, 0);
-                                }
-                            list.getOrAddMotifUIFor(parallel, true, false);
-                            }
-                        else if (allNotes.size() == 0)
-                            {
-                            showSimpleError("Cannot Log Notes", "No Notes were created, because no MIDI data was logged.");
-                            }
-                        }
-                    else
-                        {
-                        for(int i = 0; i < Seq.NUM_OUTS; i++)
-                            {
-                            if (seq.isValidTrack(i))
-                                {
-                                File file = new File(logFile.getCanonicalPath() + "." + (i + 1) + ".mid");
-                                javax.sound.midi.MidiSystem.write(logs[i], 0, file);
-                                }
-                            }
-                        }
-                    }
-                else
-                    {
-                    javax.sound.midi.MidiSystem.write(logs[0], 0, logFile);
-                    }
-                }
-            catch (IOException ex)
-                {
-                ex.printStackTrace();
-                showSimpleError("Error Creating Log", "An error occurred logging MIDI.");
-                }
-            logs = null;
-            logFile = null;
-            logToNotes = false;
-            logItem.setText("Log MIDI ...");
+            finishLog();
             }
         }
 
@@ -1686,7 +1874,12 @@ public class SeqUI extends JPanel
             }
         else if (choice == 1)   // save
             {
-            return doSave();
+            // The save happens in the background, so we quit when it's done rather than now
+            doSave(new Runnable()
+                {
+                public void run() { System.exit(0); }
+                });
+            return false;
             }
         else                                    // Quit
             {
@@ -2024,28 +2217,6 @@ public class SeqUI extends JPanel
         }
     
     
-    ArrayList[] breakByChannel(Track track)
-        {
-        ArrayList[] tracks = new ArrayList[17];
-        for(int i = 0; i < track.size(); i++)
-            {
-            MidiEvent e = track.get(i);
-            MidiMessage message = e.getMessage();
-            if (message instanceof ShortMessage && Clip.isVoiceMessage(message))
-                {
-                int channel = ((ShortMessage)message).getChannel();
-                if (tracks[channel] == null) tracks[channel] = new ArrayList();
-                tracks[channel].add(e);
-                }
-            else
-                {
-                if (tracks[16] == null) tracks[16] = new ArrayList();
-                tracks[16].add(e);
-                }
-            }
-        return tracks;
-        }
-
     public void doLoadMIDIFile()
         {
         FileDialog fd = new FileDialog((JFrame)getFrame(), "Load MIDI File...", FileDialog.LOAD);
@@ -2066,90 +2237,63 @@ public class SeqUI extends JPanel
             try
                 {
                 File file = new File(fd.getDirectory(), fd.getFile());
-                Sequence sequence = MidiSystem.getSequence(file);
-                if (sequence.getDivisionType() != Sequence.PPQ)
+                MidiFileReader reader = new MidiFileReader(file);
+                if (!reader.isPPQ())
                     {
                     showSimpleError("Invalid Time Measure", "Seq can only read MIDI files which use Parts Per Quarter-Note (PPQ)\n" +
                         "as their division type.  This file cannot be read because it uses SMPTE.");
                     }
+                else if (reader.getNumTracks() == 0)
+                    {
+                    showSimpleError("Empty File", "This MIDI file has no tracks.");
+                    }
                 else
                     {
-                    Track[] tracks = sequence.getTracks();
-                    if (tracks.length == 0)
-                        {
-                        showSimpleError("Empty File", "This MIDI file has no tracks.");
-                        }
-                    else if (tracks.length > 1)
+                    // The motifs aren't in the Seq yet, so we needn't lock
+                    Motif motif = reader.build(seq, file.getName());
+                    if (motif instanceof Parallel)
                         {
-                        if (showSimpleConfirm("Multiple Tracks", "This MIDI file has " + tracks.length + " tracks.\nSeq will create one Notes object per track per channel, and one Parallel as a parent.", "Load"))
-                            {
-                            Parallel parallel = new Parallel(seq);
-                            parallel.setName(file.getName());
-                            ParallelUI parallelui = (ParallelUI)(list.getOrAddMotifUIFor(parallel, true, false));
-                            for(int i = 0; i < tracks.length; i++)
-                                {
-                                ArrayList[] channels = breakByChannel(tracks[i]);
-                                for(int j = 0; j < channels.length; j++)
-                                    {
-                                    // For the time being we're not bothering with non-voice data
-                                    if (j == 16) continue;
-                                    
-                                    if (channels[i] == null) continue;
+                        ArrayList<Motif.Child> children = motif.getChildren();
+                        if (!showSimpleConfirm(reader.getNumTracks() > 1 ? "Multiple Tracks" : "Multiple Channels",
+                                "This MIDI file has " + (reader.getNumTracks() > 1 ? reader.getNumTracks() + " tracks" : children.size() + " channels") + 
+                                ".\nSeq will create " + children.size() + " Notes objects, one per " + (reader.getNumTracks() > 1 ? "track per channel" : "channel") + 
+                                ", and one Parallel as a parent.", "Load"))
+                            return;
                         
-                                    Notes notes = new Notes(seq);
-                                    notes.setName("Tr " + i + (j == 16 ? "Non-Voice Data" : ("Channel " + (j + 1))));
-                                    notes.read((ArrayList<MidiEvent>)channels[j], sequence.getResolution());
-                                    notes.sortEvents();
-                                    NotesUI notesui = (NotesUI)(list.getOrAddMotifUIFor(notes, false, false));
-                                    parallelui.addChild(notesui);
-                                    }
-                                }
-                            setMotifUI(parallelui);         // also forces a rebuilding of the list
-                            }
+                        push();
+                        for(Motif.Child child : children)
+                            list.getOrAddMotifUIFor(child.getMotif(), false, false);
                         }
-                    else
+                    else push();
+                    
+                    // The events were placed for the file's starting tempo and time signature, so they play best
+                    // at them.  But the tempo and time signature aren't part of the undo history, so we ask first.
+                    boolean changeBPM = reader.hasTempo() && reader.getBPM() != seq.getBPM();
+                    boolean changeBar = reader.getBeatsPerBar() > 0 && reader.getBeatsPerBar() != seq.getBar();
+                    if ((changeBPM || changeBar) &&
+                        showSimpleConfirm("Tempo and Time Signature", 
+                            "This MIDI file was written at " + 
+                            (changeBPM ? reader.getBPM() + " BPM" : "") + 
+                            (changeBPM && changeBar ? " and " : "") + 
+                            (changeBar ? reader.getBeatsPerBar() + " beats per bar" : "") +
+                            ".\nChange the sequence to match?  This cannot be undone.", "Change", "Keep"))
                         {
-                        ArrayList[] channels = breakByChannel(tracks[0]);
-                        int count = 0;
-                        for(int i = 0; i < 16; i++)             // Note 16
-                            {
-                            if (channels[i] != null) count++;
-                            }
-                                                
-                        if (count <= 1)
+                        ReentrantLock lock = seq.getLock();
+                        lock.lock();
+                        try
                             {
-                            Notes notes = new Notes(seq);
-                            notes.read(tracks[0], sequence.getResolution());
-                            notes.setName(file.getName());
-                            notes.sortEvents();
-                            NotesUI notesui = (NotesUI)(list.getOrAddMotifUIFor(notes));
-                            setMotifUI(notesui);
+                            if (changeBPM) seq.setBPM(reader.getBPM());
+                            if (changeBar) seq.setBar(reader.getBeatsPerBar());
                             }
-                        else // (count > 1)
+                        finally
                             {
-                            if (showSimpleConfirm("Multiple Channels", "This MIDI file has " + count + " channels.\nSeq will create one Notes object per channel, and one Parallel as a parent.", "Load"))
-                                {
-                                Parallel parallel = new Parallel(seq);
-                                parallel.setName(file.getName());
-                                ParallelUI parallelui = (ParallelUI)(list.getOrAddMotifUIFor(parallel, true, false));
-                                for(int i = 0; i < channels.length; i++)
-                                    {
-                                    // For the time being we're not bothering with non-voice data
-                                    if (i == 16) continue;
-                                    
-                                    if (channels[i] == null) continue;
-                        
-                                    Notes notes = new Notes(seq);
-                                    notes.setName(i == 16 ? "Non-Voice Data" : ("Channel " + (i + 1)));
-                                    notes.read((ArrayList<MidiEvent>)channels[i], sequence.getResolution());
-                                    notes.sortEvents();
-                                    NotesUI notesui = (NotesUI)(list.getOrAddMotifUIFor(notes, false, false));
-                                    parallelui.addChild(notesui);
-                                    }
-                                setMotifUI(parallelui);         // also forces a rebuilding of the list
-                                }
+                            lock.unlock();
                             }
+                        transport.repaint();
                         }
+                    
+                    MotifUI motifui = list.getOrAddMotifUIFor(motif, false, false);
+                    setMotifUI(motifui);            // also forces a rebuilding of the list
                     }
                 }
             catch (InvalidMidiDataException ex) 
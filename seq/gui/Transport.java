@@ -43,7 +43,7 @@ public class Transport extends JPanel implements SeqListener
     boolean wallClockTime = false;
     DisclosurePanel clockOptions;
     
-    public static final String[] CLOCK_STRINGS = { "Internal", "Emit Clock" };          // FIXME: need to add  "External" };
+    public static final String[] CLOCK_STRINGS = { "Internal", "Emit Clock", "External" };
     public static final String[] COUNT_IN_STRINGS = { "None", "Record", "Rec/Play" };
     public static final String[] METRONOME_STRINGS = { "None", "Record", "Rec/Play" };
                 
@@ -390,11 +390,7 @@ public class Transport extends JPanel implements SeqListener
     public void updateClock(int val)
         {
         if (seq == null) return;
-        ReentrantLock lock = seq.getLock();
-        lock.lock();
-        int beatsPerBar = 0;
-        try { beatsPerBar = seq.getBar(); }
-        finally { lock.unlock(); }
+        int beatsPerBar = seq.getSnapshot().getBar();
                 
         if (val <= 0) val = 0;
         int ticks = 1 + val % Seq.PPQ;
@@ -417,17 +413,12 @@ public class Transport extends JPanel implements SeqListener
         boolean _paused;
         boolean _releasing;
                 
-        ReentrantLock lock = seq.getLock();
-        lock.lock();
-        try
-            {
-            _playing = seq.isPlaying();
-            _stopped = seq.isStopped();
-            _recording = seq.isRecording();
-            _paused = seq.isPaused();
-            _releasing = seq.isReleasing();
-            }
-        finally { lock.unlock(); }
+        Seq.Snapshot snapshot = seq.getSnapshot();
+        _playing = snapshot.isPlaying();
+        _stopped = snapshot.isStopped();
+        _recording = snapshot.isRecording();
+        _paused = snapshot.isPaused();
+        _releasing = snapshot.isReleasing();
                 
         recordButton.setIcon(_recording ? recording : notRecording);
         stopButton.setIcon(_releasing ? releasing : (_stopped ? stopped : notStopped));
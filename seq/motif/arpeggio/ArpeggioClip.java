@@ -17,17 +17,13 @@ public class ArpeggioClip extends Clip
     public static final int TRIES = 4;              // number of times we try to get a unique random number
     public static final int RELEASE_VELOCITY = 64;
 
-    // Note is used both to store incoming Note Off messages stored the Heap, and
-    // also to indicated notes being played by the arpeggio.  So not all four
-    // of the variables below (pitch, velocity, id, out) are used 
+    // Note is used to indicate notes being played by the arpeggio.
     static class Note implements Comparable
         {
         int pitch;
         int velocity;
         int id;
-        int out;
         boolean tie;
-        boolean on;
 
         // this version generates its own id
         public Note(int pitch, int velocity)
@@ -44,16 +40,6 @@ public class ArpeggioClip extends Clip
             this.id = id;
             }
         
-        // this version is used for incoming note off messages
-        public Note(int out, int pitch, int velocity, int id, boolean on)
-            {
-            this.out = out;
-            this.pitch = pitch;
-            this.velocity = velocity;
-            this.id = id;
-            this.on = on;
-            }
-            
         public void setID(int val)
             {
             id = val;
@@ -88,8 +74,8 @@ public class ArpeggioClip extends Clip
     Note[] notes = new Note[0];
     // How long to wait until the next arp step
     int countdown = 0;
-    // Our NoteOff Heap, a copy of Seq's heap
-    Heap noteOff = new Heap();
+    // Our scheduled note ons and note offs, a copy of Seq's queue
+    NoteQueue noteQueue = new NoteQueue();
     // Our child, if any
     Clip clip;
     // last note in notes played
@@ -354,7 +340,7 @@ public class ArpeggioClip extends Clip
         Arpeggio arp = (Arpeggio)getMotif();
         if (isActive() && (arp.isOmni() || out == arp.getOut()))                // if we're not active, send the note to our parent
             {
-            noteOff.add(new Note(out, note, (int)vel, id, false), Long.valueOf((time + seq.getTime()) * ((long)Integer.MAX_VALUE) + (noteQueueCounter++)));
+            noteQueue.add(time + seq.getTime(), false, out, note, (int)vel, id);
             }
         else
             {
@@ -368,7 +354,7 @@ public class ArpeggioClip extends Clip
         if (isActive() && (arp.isOmni() || out == arp.getOut()))                // if we're not active, send the note to our parent
             {
             int id = noteID++;
-            noteOff.add(new Note(out, note, (int)vel, id, true), Long.valueOf((time + seq.getTime()) * ((long)Integer.MAX_VALUE) + (noteQueueCounter++)));
+            noteQueue.add(time + seq.getTime(), true, out, note, (int)vel, id);
             return id; 
             }
         else
@@ -378,31 +364,22 @@ public class ArpeggioClip extends Clip
         }        
 
 
-    int noteQueueCounter = 0;
-    Heap noteQueue = new Heap();
-
     // This is a modified copy of the same method in Seq, which removes
     // Note-Off messages and processes them if their time has come up.
     void processNoteOffs(boolean all, boolean noteOffsOnly)
         {
-        int time = seq.getTime();
-        while(true)
+        long due = (all ? Long.MAX_VALUE : seq.getTime());
+        while(noteQueue.isDue(due))
             {
-            Long i = (Long)(noteQueue.getMinKey());
-            if (i == null) return;
-            if (all || time >= (i.longValue() / Integer.MAX_VALUE))
+            noteQueue.extractMin();
+            if (noteQueue.isOn())
                 {
-                Note note = (Note)(noteQueue.extractMin());
-                if (note.on)
-                    {
-                    if (!noteOffsOnly) noteOn(note.out, note.pitch, note.velocity, note.id);
-                    }
-                else 
-                    {
-                    noteOff(note.out, note.pitch, 0x40, note.id);
-                    }
+                if (!noteOffsOnly) noteOn(noteQueue.getOut(), noteQueue.getNote(), noteQueue.getVelocity(), noteQueue.getID());
+                }
+            else 
+                {
+                noteOff(noteQueue.getOut(), noteQueue.getNote(), 0x40, noteQueue.getID());
                 }
-            else break;
             }       
         }
 
@@ -166,9 +166,9 @@ public class FilterClip extends Clip
     /// ChangeNote Node
     public class ChangeNote extends Node
         {
-        HashMap<Integer, Integer> map = new HashMap<>();                // Maps IDs to revised pitches
-        HashMap<Integer, Integer> outs = new HashMap<>();                // Maps IDs to outs
-        HashMap<Integer, Integer> mapScheduled = new HashMap<>();       // Maps IDs to revised pitches
+        IntIntMap map = new IntIntMap();                // Maps IDs to revised pitches
+        IntIntMap outs = new IntIntMap();                // Maps IDs to outs
+        IntIntMap mapScheduled = new IntIntMap();       // Maps IDs to revised pitches
         
         public void release(int index)
             {
@@ -176,11 +176,11 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.ChangeNote.release(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
-                    Integer note = map.get(id);
-                    Integer out = outs.get(id);
-                    super.noteOff(out.intValue(), note.intValue(), 0x40, id.intValue(), index);             // should we send it this way or bypass and go straight to parent?
+                    int note = map.get(id);
+                    int out = outs.get(id);
+                    super.noteOff(out, note, 0x40, id, index);             // should we send it this way or bypass and go straight to parent?
                     }
                 }
                 
@@ -195,11 +195,11 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.ChangeNote.cut(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
-                    Integer note = map.get(id);
-                    Integer out = outs.get(id);
-                    super.noteOff(out.intValue(), note.intValue(), 0x40, id.intValue(), index);             // should we send it this way or bypass and go straight to parent?
+                    int note = map.get(id);
+                    int out = outs.get(id);
+                    super.noteOff(out, note, 0x40, id, index);             // should we send it this way or bypass and go straight to parent?
                     }
                 }
                 
@@ -333,11 +333,11 @@ public class FilterClip extends Clip
                 vel *= val;
                 }
             
-            Integer newNote = map.remove(id);
+            int newNote = map.remove(id);
             outs.remove(id);
-            if (newNote != null)                                                // revise note pitch?
+            if (newNote != IntIntMap.NONE)                                                // revise note pitch?
                 {
-                note = newNote.intValue();
+                note = newNote;
                 if (changeLength && addLength)
                     {
                     super.scheduleNoteOff(out, note, vel, func.getLength(), id, index);
@@ -346,8 +346,8 @@ public class FilterClip extends Clip
                 }
             else
                 {
-                Integer scheduledNote = mapScheduled.remove(id);
-                if (scheduledNote == null)                      // not scheduled already
+                int scheduledNote = mapScheduled.remove(id);
+                if (scheduledNote == IntIntMap.NONE)                      // not scheduled already
                     {
                     if (changeLength && addLength)
                         {
@@ -415,11 +415,11 @@ public class FilterClip extends Clip
             double releaseGainV = getCorrectedValueDouble(func.getReleaseGainVariance(), 1.0);
             vel *= releaseGain;
             
-            Integer newNote = map.remove(id);
+            int newNote = map.remove(id);
             outs.remove(id);
-            if (newNote != null)                            // revise note pitch?
+            if (newNote != IntIntMap.NONE)                            // revise note pitch?
                 {
-                note = newNote.intValue();
+                note = newNote;
                 if (changeLength && addLength)
                     {
                     super.scheduleNoteOff(out, note, vel, time + func.getLength(), id, index);
@@ -428,8 +428,8 @@ public class FilterClip extends Clip
                 }
             else
                 {
-                Integer scheduledNote = mapScheduled.remove(id);
-                if (scheduledNote == null)                      // not scheduled already
+                int scheduledNote = mapScheduled.remove(id);
+                if (scheduledNote == IntIntMap.NONE)                      // not scheduled already
                     {
                     if (changeLength && addLength)
                         {
@@ -446,7 +446,7 @@ public class FilterClip extends Clip
     /// Drop Node
     public class Drop extends Node
         {
-        HashSet<Integer> dropped = new HashSet<>();
+        IntIntMap dropped = new IntIntMap();                           // The IDs of dropped notes (the values are unused)
                 
         public void noteOn(int out, int note, double vel, int id, int index)    
             {
@@ -458,7 +458,7 @@ public class FilterClip extends Clip
             if (func.getCut() || seq.getDeterministicRandom().nextDouble() < probability)
                 {
                 // drop
-                dropped.add(id);
+                dropped.put(id, 0);
                 }
             else
                 {
@@ -471,7 +471,7 @@ public class FilterClip extends Clip
             Filter filter = (Filter)getMotif();
             Filter.Drop func = (Filter.Drop)(filter.getFunction(index));
                         
-            if (dropped.remove(id))
+            if (dropped.remove(id) != IntIntMap.NONE)
                 {
                 // drop
                 }
@@ -492,7 +492,7 @@ public class FilterClip extends Clip
             if (func.getCut() || seq.getDeterministicRandom().nextDouble() < probability)
                 {
                 // drop
-                dropped.add(id);
+                dropped.put(id, 0);
                 }
             else
                 {
@@ -506,7 +506,7 @@ public class FilterClip extends Clip
             Filter filter = (Filter)getMotif();
             Filter.Drop func = (Filter.Drop)(filter.getFunction(index));
                         
-            if (dropped.remove(id))
+            if (dropped.remove(id) != IntIntMap.NONE)
                 {
                 // drop
                 }
@@ -622,18 +622,40 @@ public class FilterClip extends Clip
             public int out;                                         // output of the original note and the delayed notes
             public int note;                                        // pitch of the original note and the delayed notes
             public int originalID = -1;                     // id of the original note
-            public int[] delays;                            // delays of the delayed notes
-            public int[] ids;                                       // id of the delayed notes
+            public int numDelays;                           // number of delayed notes
+            public int[] delays;                            // delays of the delayed notes, which may be longer than numDelays
+            public int[] ids;                                       // id of the delayed notes, which may be longer than numDelays
                 
             public DelayNote(int out, int note, int numDelays, int originalID)
+                {
+                set(out, note, numDelays, originalID);
+                }
+                
+            // Loads the DelayNote, reallocating the arrays only if they're too small, so DelayNotes can be reused
+            void set(int out, int note, int numDelays, int originalID)
                 {
                 this.out = out;
                 this.note = note;
                 this.originalID = originalID;
-                this.ids = new int[numDelays];                          // these will have to be set later
-                this.delays = new int[numDelays];                       // these will have to be set later
+                this.numDelays = numDelays;
+                if (ids == null || ids.length < numDelays)
+                    {
+                    this.ids = new int[numDelays];                          // these will have to be set later
+                    this.delays = new int[numDelays];                       // these will have to be set later
+                    }
                 }
             }
+            
+        // DelayNotes no longer playing, to be reused rather than reallocated for each note
+        ArrayList<DelayNote> spareNotes = new ArrayList<>();
+        
+        DelayNote obtainDelayNote(int out, int note, int numDelays, int originalID)
+            {
+            if (spareNotes.isEmpty()) return new DelayNote(out, note, numDelays, originalID);
+            DelayNote dnote = spareNotes.remove(spareNotes.size() - 1);
+            dnote.set(out, note, numDelays, originalID);
+            return dnote;
+            }
                 
         public void reset(int index)
             {
@@ -652,15 +674,16 @@ public class FilterClip extends Clip
                 
 
         // A map, of originalID -> DelayNote, of currently playing notes
-        HashMap<Integer, DelayNote> notePlaying = new HashMap<Integer, DelayNote>();
+        IntObjectMap<DelayNote> notePlaying = new IntObjectMap<DelayNote>();
         
         // Turn off all playing notes.  We try to turn them off by a large enough delay
         // that the note-off is AFTER the note-on.
         void clearNotes(int index)
             {
-            for(Integer id : notePlaying.keySet())
+            for(int slot = 0; slot < notePlaying.getCapacity(); slot++)
                 {
-                DelayNote note = notePlaying.get(id);
+                if (!notePlaying.isUsed(slot)) continue;
+                DelayNote note = notePlaying.getValueAt(slot);
 
                 // Clear original LENGTH after the onset, which is NOW
                 if (note.originalID >= 0)
@@ -669,10 +692,11 @@ public class FilterClip extends Clip
                     }
                         
                 // Clear the delays LENGTH after their corresponding onsets
-                for(int i = 0; i < note.delays.length; i++)
+                for(int i = 0; i < note.numDelays; i++)
                     {
                     super.scheduleNoteOff(note.out, note.note, 0x40, note.delays[i], note.ids[i], index);
                     }
+                spareNotes.add(note);
                 }
                         
             notePlaying.clear();
@@ -693,7 +717,7 @@ public class FilterClip extends Clip
             boolean random = func.getRandom();
             boolean original = func.getOriginal();
                 
-            DelayNote dnote = new DelayNote(out, note, numTimes, original ? id : -1);
+            DelayNote dnote = obtainDelayNote(out, note, numTimes, original ? id : -1);
                 
             // Send original
             if (func.getOriginal())
@@ -712,6 +736,7 @@ public class FilterClip extends Clip
                 super.scheduleNoteOn(out, note, vel, dnote.delays[i], dnote.ids[i] = noteID++, index);
                 notePlaying.put(id, dnote);
                 }
+            if (numTimes == 0) spareNotes.add(dnote);               // never went into notePlaying
             }
                         
         /** Stop playing the original note if instructed to, then schedule all the delays to be turned off.
@@ -731,10 +756,11 @@ public class FilterClip extends Clip
                     super.noteOff(dnote.out, dnote.note, vel, dnote.originalID, index);
                     }
                                 
-                for(int i = 0; i < dnote.delays.length; i++)
+                for(int i = 0; i < dnote.numDelays; i++)
                     {
                     super.scheduleNoteOff(dnote.out, dnote.note, vel, dnote.delays[i], dnote.ids[i], index);
                     }
+                spareNotes.add(dnote);
                 }
             }      
         }
@@ -1088,9 +1114,9 @@ public class FilterClip extends Clip
     /// Scale Node
     public class Scale extends Node
         {
-        HashMap<Integer, Integer> map = new HashMap<>();                // Maps IDs to revised pitches
-        HashMap<Integer, Integer> outs = new HashMap<>();                // Maps IDs to outs
-        HashMap<Integer, Integer> mapScheduled = new HashMap<>();       // Maps IDs to revised pitches
+        IntIntMap map = new IntIntMap();                // Maps IDs to revised pitches
+        IntIntMap outs = new IntIntMap();                // Maps IDs to outs
+        IntIntMap mapScheduled = new IntIntMap();       // Maps IDs to revised pitches
         
         public void release(int index)
             {
@@ -1098,11 +1124,11 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.Scale.release(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
-                    Integer note = map.get(id);
-                    Integer out = outs.get(id);
-                    super.noteOff(out.intValue(), note.intValue(), 0x40, id.intValue(), index);             // should we send it this way or bypass and go straight to parent?
+                    int note = map.get(id);
+                    int out = outs.get(id);
+                    super.noteOff(out, note, 0x40, id, index);             // should we send it this way or bypass and go straight to parent?
                     }
                 }
                 
@@ -1117,11 +1143,11 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.Scale.cut(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
-                    Integer note = map.get(id);
-                    Integer out = outs.get(id);
-                    super.noteOff(out.intValue(), note.intValue(), 0x40, id.intValue(), index);             // should we send it this way or bypass and go straight to parent?
+                    int note = map.get(id);
+                    int out = outs.get(id);
+                    super.noteOff(out, note, 0x40, id, index);             // should we send it this way or bypass and go straight to parent?
                     }
                 }
                 
@@ -1144,17 +1170,17 @@ public class FilterClip extends Clip
             {
             Filter filter = (Filter)getMotif();
             Filter.Scale func = (Filter.Scale)(filter.getFunction(index));
-            Integer newNote = map.remove(id);
+            int newNote = map.remove(id);
             outs.remove(id);
-            if (newNote != null)
+            if (newNote != IntIntMap.NONE)
                 {
-                note = newNote.intValue();
+                note = newNote;
                 super.noteOff(out, note, vel, id, index);
                 }
             else
                 {
-                Integer scheduledNote = mapScheduled.remove(id);
-                if (scheduledNote == null)                      // not scheduled already
+                int scheduledNote = mapScheduled.remove(id);
+                if (scheduledNote == IntIntMap.NONE)                      // not scheduled already
                     {
                     super.noteOff(out, note, vel, id, index);              // hope for the best
                     }
@@ -1175,17 +1201,17 @@ public class FilterClip extends Clip
             {
             Filter filter = (Filter)getMotif();
             Filter.Scale func = (Filter.Scale)(filter.getFunction(index));
-            Integer newNote = map.remove(id);
+            int newNote = map.remove(id);
             outs.remove(id);
-            if (newNote != null)
+            if (newNote != IntIntMap.NONE)
                 {
-                note = newNote.intValue();
+                note = newNote;
                 super.scheduleNoteOff(out, note, vel, time, id, index);
                 }
             else
                 {
-                Integer scheduledNote = mapScheduled.remove(id);
-                if (scheduledNote == null)                      // not scheduled already
+                int scheduledNote = mapScheduled.remove(id);
+                if (scheduledNote == IntIntMap.NONE)                      // not scheduled already
                     {
                     super.scheduleNoteOff(out, note, vel, time, id, index); // hope for the best
                     }
@@ -1197,20 +1223,36 @@ public class FilterClip extends Clip
     /// Chord Node
     public class Chord extends Node
         {
-        HashMap<Integer, Integer> outs = new HashMap<>();                // Maps IDs to outs
-        HashMap<Integer, Integer> map = new HashMap<>();                        // Maps IDs to notes
-        HashMap<Integer, Object> chords = new HashMap<>();                // Maps IDs to chords
+        IntIntMap outs = new IntIntMap();                // Maps IDs to outs
+        IntIntMap map = new IntIntMap();                        // Maps IDs to notes
+        IntObjectMap<int[]> chords = new IntObjectMap<>();                // Maps IDs to chords
+        ArrayList<int[]> spareChords = new ArrayList<>();       // Chord arrays no longer in use, to be reused rather than reallocated for each note
+        
+        int[] obtainChord(int length)
+            {
+            for(int i = spareChords.size() - 1; i >= 0; i--)
+                {
+                if (spareChords.get(i).length == length)
+                    {
+                    int[] c = spareChords.get(i);
+                    spareChords.set(i, spareChords.get(spareChords.size() - 1));
+                    spareChords.remove(spareChords.size() - 1);
+                    return c;
+                    }
+                }
+            return new int[length];
+            }
         
         void noteOffChord(int id, double vel, int index)
             {
-            int[] chord = (int[])(chords.remove(id));
-            Integer note = map.remove(id);
-            Integer out = outs.remove(id);
+            int[] chord = chords.remove(id);
+            int note = map.remove(id);
+            int out = outs.remove(id);
             if (chord == null) return;
                 
             for(int i = 0; i < chord.length; i++)
                 {
-                if (chord[i] >= 0 && note != null)
+                if (chord[i] >= 0 && note != IntIntMap.NONE)
                     {
                     if (note + i < 128)
                         {
@@ -1218,18 +1260,19 @@ public class FilterClip extends Clip
                         }
                     }
                 }
+            spareChords.add(chord);
             }
 
         void scheduleNoteOffChord(int id, double vel, int time, int index)
             {
-            int[] chord = (int[])(chords.remove(id));
-            Integer note = map.remove(id);
-            Integer out = outs.remove(id);
+            int[] chord = chords.remove(id);
+            int note = map.remove(id);
+            int out = outs.remove(id);
             if (chord == null) return;
                 
             for(int i = 0; i < chord.length; i++)
                 {
-                if (chord[i] >= 0 && note != null)
+                if (chord[i] >= 0 && note != IntIntMap.NONE)
                     {
                     if (note + i < 128)
                         {
@@ -1237,11 +1280,12 @@ public class FilterClip extends Clip
                         }
                     }
                 }
+            spareChords.add(chord);
             }
 
         void scheduleNoteOnChord(int id, int out, int note, double vel, int time, int[] chord, int index)
             {
-            int[] c = new int[chord.length];
+            int[] c = obtainChord(chord.length);
             for(int i = 0; i < chord.length; i++)
                 {
                 if (chord[i] == 1)
@@ -1261,7 +1305,7 @@ public class FilterClip extends Clip
         
         void noteOnChord(int id, int out, int note, double vel, int[] chord, int index)
             {
-            int[] c = new int[chord.length];
+            int[] c = obtainChord(chord.length);
             for(int i = 0; i < chord.length; i++)
                 {
                 if (chord[i] == 1)
@@ -1285,7 +1329,7 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.Chord.release(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
                     noteOffChord(id, 0x40, index);
                     }
@@ -1302,7 +1346,7 @@ public class FilterClip extends Clip
             if (map.size() > 0)
                 {
                 System.err.println("FilterClip.Chord.release(): non-released notes.");
-                for(Integer id : map.keySet())
+                for(int id : map.keys())
                     {
                     noteOffChord(id, 0x40, index);
                     }
@@ -1674,8 +1718,65 @@ public class FilterClip extends Clip
         
         return done;
         }
-    }
-
-
-
 
+    /** Benchmarks the filter chain: plays a long Notes through ChangeNote, Scale, Chord, and Drop, then through
+        a Delay in a second Filter, and reports the best time and the bytes allocated per note after warming up.  
+        The Seq's step() is driven into a silent emitter without building any Sequences, so only the Clips are 
+        measured.  Exits with status 1 if the chain allocates.  Run as java seq.motif.filter.FilterClip [NOTES]  */
+    public static void main(String[] args) throws Exception
+        {
+        int numNotes = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+        Seq seq = new Seq();
+        seq.setupForMIDI();
+        
+        seq.motif.notes.Notes notes = new seq.motif.notes.Notes(seq);
+        ArrayList<seq.motif.notes.Notes.Event> events = new ArrayList<>();
+        for(int i = 0; i < numNotes; i++)
+            events.add(new seq.motif.notes.Notes.Note(40 + (i * 5) % 40, 100, i * 6, 4, 64, 0));
+        notes.setEvents(events);
+        notes.sortEvents();
+
+        Filter filter = new Filter(seq);
+        filter.replaceChild(notes, 0);
+        Filter.ChangeNote changeNote = filter.new ChangeNote();
+        changeNote.setTranspose(Filter.MAX_TRANSPOSE + 2);
+        filter.setFunction(0, changeNote);
+        filter.setFunction(1, filter.new Scale());
+        Filter.Chord chord = filter.new Chord();
+        chord.setChord(1);
+        filter.setFunction(2, chord);
+        Filter.Drop drop = filter.new Drop();
+        drop.setProbability(0.3);
+        filter.setFunction(3, drop);
+        
+        Filter delayFilter = new Filter(seq);
+        delayFilter.replaceChild(filter, 0);
+        Filter.Delay delay = delayFilter.new Delay();
+        delay.setOriginal(true);
+        delay.setNumTimes(2);
+        delay.setCut(0.5);
+        delayFilter.setFunction(0, delay);
+        seq.setData(delayFilter);
+
+        Renderer renderer = new Renderer(seq);
+        renderer.setBuildSequences(false);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for(int i = 0; i < 3; i++) renderer.render();                   // warm up
+        long best = Long.MAX_VALUE;
+        long bytes = Long.MAX_VALUE;
+        for(int rep = 0; rep < 5; rep++)
+            {
+            long b = bean.getThreadAllocatedBytes(thread);
+            long time = System.nanoTime();
+            renderer.render();
+            best = Math.min(best, System.nanoTime() - time);
+            bytes = Math.min(bytes, bean.getThreadAllocatedBytes(thread) - b);
+            }
+        double bytesPerNote = bytes / (double)numNotes;
+        boolean passed = (bytesPerNote < 1.0);          // a render has a small fixed cost of its own
+        System.err.println("Played " + numNotes + " notes, best " + String.format("%.1f", best / 1000000.0) + " ms, " + 
+            String.format("%.2f", bytesPerNote) + " bytes per note (" + bytes + " per render): " + (passed ? "PASSED" : "FAILED"));
+        System.exit(passed ? 0 : 1);
+        }
+    }
@@ -63,6 +63,9 @@ public class ModulationClip extends Clip
         
     public class CC extends Node
         {
+        // Our subscription to incoming messages of our CC
+        InputRouter.Subscription subscription;
+        
         public void reset(int index) 
             { 
             Modulation modulation = (Modulation)getMotif();
@@ -79,17 +82,10 @@ public class ModulationClip extends Clip
             int in = func.getIn() - 1;
             if (in >= 0)
                 {
-                MidiMessage[] messages = seq.getIn(in).getMessages();
-                for(int i = messages.length - 1; i >= 0; i--)
+                subscription = seq.getInputRouter().subscribe(subscription, in, InputRouter.CC, Midi.OMNI, funcCC);
+                if (subscription.size() > 0)            // got it
                     {
-                    if (isCC(messages[i]))
-                        {
-                        int cc = ((ShortMessage)messages[i]).getData1();
-                        if (cc == funcCC)               // got it
-                            {
-                            lastValue = ((ShortMessage)messages[i]).getData2() / 127.0;
-                            }
-                        }
+                    lastValue = ((ShortMessage)subscription.getMessage(subscription.size() - 1)).getData2() / 127.0;
                     }
                 }
             return lastValue;
@@ -0,0 +1,382 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.motif.notes;
+
+import seq.engine.*;
+import java.util.*;
+import org.json.*;
+
+/**
+   A compact encoding of the events in Notes, used when saving instead of a JSONArray holding one
+   JSONObject per event.  The events are stored column by column: first the type of every event,
+   then the time of every event, then the out of every event, then the pitch or parameter of every
+   event which has one, and so on.  Each number is stored as the difference from the previous number
+   in its column, zigzagged so small negative differences are small too, as a variable-length integer
+   of seven bits per byte.  Since events are sorted by time, and neighboring notes tend to have similar
+   pitches, velocities, lengths, and outs, most of these differences fit in a single byte, and the
+   columns compress well when the file is gzipped.  The whole thing is stored as a Base64 string.
+
+   <p>The encoding is:
+
+   <pre>
+   version  count  [length  column] x NUM_COLUMNS
+   </pre>
+
+   <p>... where VERSION, COUNT, and each LENGTH (in bytes) are variable-length integers.  The columns are
+   TYPES (one byte per event), WHENS and OUTS (one per event), PARAMETERS (Note pitch, CC, NRPN, or RPN
+   parameter, or Aftertouch pitch), VALUES (Note velocity, or the value of everything but Sysex), LENGTHS and
+   RELEASES (Notes only), and SYSEX (the length and then the bytes of each Sysex).
+**/
+
+public class CompactEvents
+    {
+    public static final int VERSION = 1;
+
+    // EVENT TYPES
+    static final int NOTE = 0;
+    static final int BEND = 1;
+    static final int CC = 2;
+    static final int AFTERTOUCH = 3;
+    static final int PC = 4;
+    static final int SYSEX = 5;
+    static final int NRPN = 6;
+    static final int RPN = 7;
+
+    // COLUMNS
+    static final int TYPES = 0;
+    static final int WHENS = 1;
+    static final int OUTS = 2;
+    static final int PARAMETERS = 3;
+    static final int VALUES = 4;
+    static final int LENGTHS = 5;
+    static final int RELEASES = 6;
+    static final int SYSEXES = 7;
+    static final int NUM_COLUMNS = 8;
+
+    // A growable column of bytes, written as variable-length integers relative to the last integer written
+    static class Column
+        {
+        byte[] bytes = new byte[64];
+        int size = 0;
+        int last = 0;
+
+        void write(int b)
+            {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte)b;
+            }
+
+        void write(byte[] b)
+            {
+            for(int i = 0; i < b.length; i++) write(b[i]);
+            }
+
+        void writeVarInt(int val)
+            {
+            while((val & ~0x7F) != 0)
+                {
+                write((val & 0x7F) | 0x80);
+                val >>>= 7;
+                }
+            write(val);
+            }
+
+        // Writes VAL as the zigzagged difference from the last value written with add(...)
+        void add(int val)
+            {
+            int delta = val - last;
+            writeVarInt((delta << 1) ^ (delta >> 31));
+            last = val;
+            }
+        }
+
+    // Reads a Column back in
+    static class Reader
+        {
+        byte[] bytes;
+        int pos;
+        int end;
+        int last = 0;
+
+        Reader(byte[] bytes, int pos, int end)
+            {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.end = end;
+            }
+
+        int read() throws JSONException
+            {
+            if (pos >= end) throw new JSONException("CompactEvents: column ended early");
+            return bytes[pos++];
+            }
+
+        byte[] read(int len) throws JSONException
+            {
+            if (len < 0 || len > end - pos) throw new JSONException("CompactEvents: column ended early");
+            byte[] b = Arrays.copyOfRange(bytes, pos, pos + len);
+            pos += len;
+            return b;
+            }
+
+        int readVarInt() throws JSONException
+            {
+            int val = 0;
+            for(int shift = 0; shift < 32; shift += 7)
+                {
+                int b = read();
+                val |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return val;
+                }
+            throw new JSONException("CompactEvents: malformed integer");
+            }
+
+        // Reads the value written with Column.add(...)
+        int next() throws JSONException
+            {
+            int zigzag = readVarInt();
+            last += (zigzag >>> 1) ^ -(zigzag & 1);
+            return last;
+            }
+        }
+
+    /** Encodes the events as a String. */
+    public static String encode(ArrayList<Notes.Event> events)
+        {
+        Column[] columns = new Column[NUM_COLUMNS];
+        for(int i = 0; i < NUM_COLUMNS; i++) columns[i] = new Column();
+        int count = 0;
+
+        for(Notes.Event event : events)
+            {
+            if (event == null) continue;            // unknown type when loaded, see Event.load(...)
+            count++;
+            columns[WHENS].add(event.when);
+            columns[OUTS].add(event.out);
+            if (event instanceof Notes.Note)
+                {
+                Notes.Note note = (Notes.Note)event;
+                columns[TYPES].write(NOTE);
+                columns[PARAMETERS].add(note.pitch);
+                columns[VALUES].add(note.velocity);
+                columns[LENGTHS].add(note.length);
+                columns[RELEASES].add(note.release);
+                }
+            else if (event instanceof Notes.Bend)
+                {
+                columns[TYPES].write(BEND);
+                columns[VALUES].add(((Notes.Bend)event).value);
+                }
+            else if (event instanceof Notes.CC)
+                {
+                columns[TYPES].write(CC);
+                columns[PARAMETERS].add(((Notes.CC)event).parameter);
+                columns[VALUES].add(((Notes.CC)event).value);
+                }
+            else if (event instanceof Notes.Aftertouch)
+                {
+                columns[TYPES].write(AFTERTOUCH);
+                columns[PARAMETERS].add(((Notes.Aftertouch)event).pitch);
+                columns[VALUES].add(((Notes.Aftertouch)event).value);
+                }
+            else if (event instanceof Notes.PC)
+                {
+                columns[TYPES].write(PC);
+                columns[VALUES].add(((Notes.PC)event).value);
+                }
+            else if (event instanceof Notes.Sysex)
+                {
+                byte[] data = ((Notes.Sysex)event).data;
+                columns[TYPES].write(SYSEX);
+                columns[SYSEXES].writeVarInt(data.length);
+                columns[SYSEXES].write(data);
+                }
+            else if (event instanceof Notes.NRPN)
+                {
+                columns[TYPES].write(NRPN);
+                columns[PARAMETERS].add(((Notes.NRPN)event).parameter);
+                columns[VALUES].add(((Notes.NRPN)event).value);
+                }
+            else if (event instanceof Notes.RPN)
+                {
+                columns[TYPES].write(RPN);
+                columns[PARAMETERS].add(((Notes.RPN)event).parameter);
+                columns[VALUES].add(((Notes.RPN)event).value);
+                }
+            else
+                {
+                throw new RuntimeException("CompactEvents.encode: unknown event " + event);
+                }
+            }
+
+        Column out = new Column();
+        out.writeVarInt(VERSION);
+        out.writeVarInt(count);
+        for(int i = 0; i < NUM_COLUMNS; i++)
+            {
+            out.writeVarInt(columns[i].size);
+            for(int j = 0; j < columns[i].size; j++) out.write(columns[i].bytes[j]);
+            }
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(out.bytes, out.size));
+        }
+
+    /** Decodes events encoded with encode(...). */
+    public static ArrayList<Notes.Event> decode(String string) throws JSONException
+        {
+        byte[] bytes;
+        try
+            {
+            bytes = Base64.getDecoder().decode(string);
+            }
+        catch (IllegalArgumentException ex)
+            {
+            throw new JSONException("CompactEvents: not Base64", ex);
+            }
+
+        Reader in = new Reader(bytes, 0, bytes.length);
+        int version = in.readVarInt();
+        if (version != VERSION) throw new JSONException("CompactEvents: unknown version " + version);
+        int count = in.readVarInt();
+        Reader[] columns = new Reader[NUM_COLUMNS];
+        for(int i = 0; i < NUM_COLUMNS; i++)
+            {
+            int len = in.readVarInt();
+            if (len < 0 || len > bytes.length - in.pos) throw new JSONException("CompactEvents: column " + i + " is too long");
+            columns[i] = new Reader(bytes, in.pos, in.pos + len);
+            in.pos += len;
+            }
+
+        ArrayList<Notes.Event> events = new ArrayList<Notes.Event>(count);
+        for(int i = 0; i < count; i++)
+            {
+            int type = columns[TYPES].read();
+            int when = columns[WHENS].next();
+            int out = columns[OUTS].next();
+            switch(type)
+                {
+                case(NOTE):
+                    events.add(new Notes.Note(columns[PARAMETERS].next(), columns[VALUES].next(), when, columns[LENGTHS].next(), columns[RELEASES].next(), out));
+                break;
+                case(BEND):
+                    events.add(new Notes.Bend(columns[VALUES].next(), when, out));
+                break;
+                case(CC):
+                    events.add(new Notes.CC(columns[PARAMETERS].next(), columns[VALUES].next(), when, out));
+                break;
+                case(AFTERTOUCH):
+                    events.add(new Notes.Aftertouch(columns[PARAMETERS].next(), columns[VALUES].next(), when, out));
+                break;
+                case(PC):
+                    events.add(new Notes.PC(columns[VALUES].next(), when, out));
+                break;
+                case(SYSEX):
+                    events.add(new Notes.Sysex(columns[SYSEXES].read(columns[SYSEXES].readVarInt()), when, out));
+                break;
+                case(NRPN):
+                    events.add(new Notes.NRPN(columns[PARAMETERS].next(), columns[VALUES].next(), when, out));
+                break;
+                case(RPN):
+                    events.add(new Notes.RPN(columns[PARAMETERS].next(), columns[VALUES].next(), when, out));
+                break;
+                default:
+                    throw new JSONException("CompactEvents: unknown event type " + type);
+                }
+            }
+        return events;
+        }
+
+
+    // TESTING
+    /** Builds a Notes with the given number of events (by default 100000), mostly notes with some of every
+        other kind, saves it both ways, checks that each loads back to the same events, and prints
+        the size and load time of each.  Exits with status 1 if either round trip fails. */
+    public static void main(String[] args) throws Exception
+        {
+        int count = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        Random random = new Random(0);
+        Seq seq = new Seq();
+
+        ArrayList<Notes.Event> events = new ArrayList<Notes.Event>();
+        int when = 0;
+        int pitch = 60;
+        for(int i = 0; i < count; i++)
+            {
+            when += random.nextInt(48);
+            int out = random.nextInt(16) == 0 ? random.nextInt(Seq.NUM_OUTS) : 0;
+            switch(i % 50)
+                {
+                case(0):
+                    events.add(new Notes.Bend(random.nextInt(16384), when, out));
+                break;
+                case(10):
+                    events.add(new Notes.CC(random.nextInt(128), random.nextInt(128), when, out));
+                break;
+                case(20):
+                    events.add(new Notes.Aftertouch(random.nextBoolean() ? Out.CHANNEL_AFTERTOUCH : pitch, random.nextInt(128), when, out));
+                break;
+                case(30):
+                    events.add(new Notes.PC(random.nextInt(128), when, out));
+                break;
+                case(40):
+                    events.add(new Notes.Sysex(new byte[] { (byte)0xF0, (byte)random.nextInt(128), (byte)0xF7 }, when, out));
+                break;
+                case(45):
+                    events.add(random.nextBoolean() ? new Notes.NRPN(random.nextInt(16384), random.nextInt(16384), when, out) :
+                        new Notes.RPN(random.nextInt(16384), random.nextInt(16384), when, out));
+                break;
+                default:
+                    pitch = Math.max(0, Math.min(127, pitch + random.nextInt(13) - 6));
+                    events.add(new Notes.Note(pitch, 1 + random.nextInt(127), when, 1 + random.nextInt(192), random.nextInt(8) == 0 ? random.nextInt(128) : 64, out));
+                break;
+                }
+            }
+        Notes notes = new Notes(seq);
+        notes.setEvents(events);
+        String expected = new Notes.EventArray(events).toJSONString();
+
+        // Set Notes.compactEvents directly: Notes.setCompactEvents() would also write it to the Prefs
+        boolean compact = Notes.compactEvents;
+        boolean failed = false;
+        try
+            {
+            for(int i = 0; i < 2; i++)
+                {
+                Notes.compactEvents = (i == 1);
+                JSONObject obj = new JSONObject();
+                notes.save(obj);
+                String saved = obj.toString();
+
+                long time = System.nanoTime();
+                Notes loaded = new Notes(seq);
+                loaded.load(new JSONObject(saved));
+                time = System.nanoTime() - time;
+
+                String result = new Notes.EventArray(loaded.getEvents()).toJSONString();
+                if (!result.equals(expected)) failed = true;
+                System.err.println((i == 1 ? "Compact" : "Legacy ") + ": " + count + " events, " + saved.length() + " bytes (" +
+                    deflatedLength(saved) + " compressed), loaded in " +
+                    String.format("%.1f", time / 1000000.0) + " ms, " + (result.equals(expected) ? "round trip OK" : "ROUND TRIP FAILED"));
+                }
+            }
+        finally
+            {
+            Notes.compactEvents = compact;
+            }
+        System.exit(failed ? 1 : 0);
+        }
+
+    static int deflatedLength(String string)
+        {
+        java.util.zip.Deflater deflater = new java.util.zip.Deflater();
+        deflater.setInput(string.getBytes());
+        deflater.finish();
+        byte[] buffer = new byte[65536];
+        int len = 0;
+        while(!deflater.finished()) len += deflater.deflate(buffer);
+        deflater.end();
+        return len;
+        }
+    }
@@ -0,0 +1,569 @@
+/*
+   Copyright 2025 by Sean Luke and George Mason University
+   Licensed under Apache 2.0
+*/
+
+package seq.motif.notes;
+
+import seq.engine.*;
+import seq.motif.parallel.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.sound.midi.*;
+
+/**
+   Reads a Standard MIDI File into Notes, one Notes per channel per track, under a Parallel if there
+   is more than one.  Unlike Notes.read(...), which goes through MidiSystem.getSequence(...), this does not
+   build a MidiEvent for every event in the file: it reads the file's bytes directly, from a memory-mapped
+   buffer, and builds Notes.Events straight away.  The tracks are read in parallel on the common ForkJoinPool.
+
+   <p>Seq plays at a single tempo, so the file's tempo map is applied by moving events rather than by
+   changing the tempo as we play.  Each event's time is converted to real time using the tempo map, then
+   back to Seq ticks at the file's exact starting tempo, which rounded to a whole BPM is available from 
+   getBPM().  Events before the first tempo change keep their position in the measure; events after it 
+   are placed where they would sound at the starting tempo.  The
+   file's first time signature is available from getBeatsPerBar().
+
+   <p>To use: construct a MidiFileReader, which reads the file's header and finds its tracks; check
+   isPPQ(); then call build(...).
+**/
+
+public class MidiFileReader
+    {
+    // The default tempo of a MIDI file, in microseconds per quarter note, if it has no tempo events
+    static final int DEFAULT_TEMPO = 500000;
+    // The Notes.Note.length of a note with no note off, while reading
+    static final int NO_NOTE_OFF = -1;
+
+    ByteBuffer buffer;
+    int format;
+    int division;
+    // The position and length of each MTrk chunk in the buffer
+    int[] trackStart;
+    int[] trackLength;
+
+    // The tempo map, built by build(...).  Tempo i is in effect from tick tempoTick[i] until the next one.
+    long[] tempoTick;
+    int[] tempoValue;                           // microseconds per quarter note
+    double[] tempoMicros;                       // the time of tempoTick[i] in microseconds
+    int bpm = 0;
+    int beatsPerBar = 0;
+    boolean hasTempo = false;
+
+    /** Reads the header of the given MIDI file and finds its tracks.  Throws an InvalidMidiDataException
+        if the file is not a Standard MIDI File. */
+    public MidiFileReader(File file) throws IOException, InvalidMidiDataException
+        {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+            {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        finally
+            {
+            raf.close();
+            }
+        readHeader();
+        }
+
+    /** Reads the MIDI file held in the given bytes. */
+    public MidiFileReader(byte[] data) throws InvalidMidiDataException
+        {
+        buffer = ByteBuffer.wrap(data);
+        readHeader();
+        }
+
+    void readHeader() throws InvalidMidiDataException
+        {
+        int limit = buffer.limit();
+        if (limit < 14 || buffer.getInt(0) != 0x4D546864)               // "MThd"
+            throw new InvalidMidiDataException("Not a Standard MIDI File");
+        int headerLength = buffer.getInt(4);
+        if (headerLength < 6 || 8L + headerLength > limit)
+            throw new InvalidMidiDataException("Bad MIDI file header");
+        format = buffer.getShort(8) & 0xFFFF;
+        int numTracks = buffer.getShort(10) & 0xFFFF;
+        division = buffer.getShort(12) & 0xFFFF;
+        if (format > 2) throw new InvalidMidiDataException("Unknown MIDI file format " + format);
+
+        // Find the MTrk chunks, skipping any other chunks
+        ArrayList<int[]> tracks = new ArrayList<>();
+        int pos = 8 + headerLength;
+        while(tracks.size() < numTracks && pos + 8 <= limit)
+            {
+            int type = buffer.getInt(pos);
+            long length = buffer.getInt(pos + 4) & 0xFFFFFFFFL;
+            if (type == 0x4D54726B)             // "MTrk"
+                {
+                // Some writers get the last track's length wrong, so we stop at the end of the file
+                tracks.add(new int[] { pos + 8, (int)Math.min(length, limit - (pos + 8)) });
+                }
+            pos += 8 + length;
+            if (pos < 0) break;                 // overflow
+            }
+        trackStart = new int[tracks.size()];
+        trackLength = new int[tracks.size()];
+        for(int i = 0; i < trackStart.length; i++)
+            {
+            trackStart[i] = tracks.get(i)[0];
+            trackLength[i] = tracks.get(i)[1];
+            }
+        }
+
+    /** Returns the number of tracks in the file. */
+    public int getNumTracks() { return trackStart.length; }
+
+    /** Returns true if the file measures time in Parts Per Quarter-Note rather than SMPTE.  Only
+        PPQ files can be built. */
+    public boolean isPPQ() { return (division & 0x8000) == 0; }
+
+    /** Returns the file's starting tempo, rounded to the nearest BPM, which Seq should play at.  This is 120
+        if the file has no tempo.  Only valid after build(...). */
+    public int getBPM() { return bpm; }
+
+    /** Returns true if the file has a tempo.  Only valid after build(...). */
+    public boolean hasTempo() { return hasTempo; }
+
+    /** Returns the number of quarter notes per bar in the file's first time signature, or 0 if it has
+        none or if it is not a whole number of quarter notes.  Only valid after build(...). */
+    public int getBeatsPerBar() { return beatsPerBar; }
+
+
+    /// TRACK PARSING
+
+    // Everything read from one track.  Times are in the file's ticks until the tempo map is applied.
+    class TrackData
+        {
+        int index;
+        String name = null;
+        // The events for each of the 16 channels, or null if the channel has none
+        List<ArrayList<Notes.Event>> channels = new ArrayList<>(Collections.nCopies(16, (ArrayList<Notes.Event>)null));
+        ArrayList<Notes.Event> sysex = new ArrayList<>();
+        // Tempo events as pairs of tick and microseconds per quarter note
+        long[] tempos = new long[0];
+        int numTempos = 0;
+        // The first time signature, as tick, numerator, denominator, or null
+        long[] timeSignature = null;
+
+        TrackData(int index) { this.index = index; }
+
+        void addTempo(long tick, int value)
+            {
+            if (numTempos * 2 == tempos.length) tempos = Arrays.copyOf(tempos, Math.max(8, tempos.length * 2));
+            tempos[numTempos * 2] = tick;
+            tempos[numTempos * 2 + 1] = value;
+            numTempos++;
+            }
+
+        ArrayList<Notes.Event> getChannel(int channel)
+            {
+            if (channels.get(channel) == null) channels.set(channel, new ArrayList<>());
+            return channels.get(channel);
+            }
+        }
+
+    // Reads a variable-length quantity at pos[0], advancing pos[0] past it
+    int readVarLen(int[] pos, int end) throws InvalidMidiDataException
+        {
+        int val = 0;
+        for(int i = 0; i < 4; i++)
+            {
+            if (pos[0] >= end) throw new InvalidMidiDataException("Truncated MIDI track");
+            int b = buffer.get(pos[0]++) & 0xFF;
+            val = (val << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) return val;
+            }
+        throw new InvalidMidiDataException("Bad variable-length quantity in MIDI track");
+        }
+
+    // Ends the note sounding at NOTEON[INDEX], if any, at WHEN with the given release velocity
+    void endNote(Notes.Note[] noteOn, int index, int when, int release)
+        {
+        Notes.Note note = noteOn[index];
+        if (note != null)
+            {
+            note.length = when - note.when;
+            note.release = release;
+            noteOn[index] = null;
+            }
+        }
+
+    TrackData readTrack(int index) throws InvalidMidiDataException
+        {
+        TrackData data = new TrackData(index);
+        int[] pos = new int[] { trackStart[index] };
+        int end = trackStart[index] + trackLength[index];
+        long tick = 0;
+        int status = 0;
+        // The note currently sounding for each channel and pitch, or null
+        Notes.Note[] noteOn = new Notes.Note[16 * 128];
+
+        while(pos[0] < end)
+            {
+            tick += readVarLen(pos, end);
+            int when = (int)Math.min(tick, Integer.MAX_VALUE);
+            if (pos[0] >= end) throw new InvalidMidiDataException("Truncated MIDI track");
+            int b = buffer.get(pos[0]) & 0xFF;
+            if (b >= 0x80) { status = b; pos[0]++; }
+            else if (status == 0) throw new InvalidMidiDataException("Running status with no status in MIDI track");
+            // else running status: b is the first data byte
+
+            if (status == 0xFF)                         // meta event
+                {
+                if (pos[0] >= end) throw new InvalidMidiDataException("Truncated MIDI track");
+                int type = buffer.get(pos[0]++) & 0xFF;
+                int length = readVarLen(pos, end);
+                int start = pos[0];
+                if (start + length > end || start + length < 0) throw new InvalidMidiDataException("Truncated MIDI track");
+                pos[0] += length;
+                status = 0;                                     // meta events cancel running status
+                switch(type)
+                    {
+                    case(0x03):                 // track name
+                        if (data.name == null && length > 0)
+                            {
+                            byte[] name = new byte[length];
+                            for(int i = 0; i < length; i++) name[i] = buffer.get(start + i);
+                            data.name = new String(name, java.nio.charset.StandardCharsets.ISO_8859_1).trim();
+                            if (data.name.length() == 0) data.name = null;
+                            }
+                        break;
+                    case(0x51):                 // tempo
+                        if (length == 3)
+                            data.addTempo(tick, ((buffer.get(start) & 0xFF) << 16) | ((buffer.get(start + 1) & 0xFF) << 8) | (buffer.get(start + 2) & 0xFF));
+                        break;
+                    case(0x58):                 // time signature
+                        if (length >= 2 && data.timeSignature == null)
+                            data.timeSignature = new long[] { tick, buffer.get(start) & 0xFF, 1 << (buffer.get(start + 1) & 0x1F) };
+                        break;
+                    case(0x2F):                 // end of track
+                        return data;
+                    default:
+                        break;
+                    }
+                }
+            else if (status == 0xF0 || status == 0xF7)         // sysex, or a sysex continuation or escape
+                {
+                int length = readVarLen(pos, end);
+                int start = pos[0];
+                if (start + length > end || start + length < 0) throw new InvalidMidiDataException("Truncated MIDI track");
+                pos[0] += length;
+                if (status == 0xF0)
+                    {
+                    // Notes.Sysex holds the 0xF0 as well
+                    byte[] sysex = new byte[length + 1];
+                    sysex[0] = (byte)0xF0;
+                    for(int i = 0; i < length; i++) sysex[i + 1] = buffer.get(start + i);
+                    data.sysex.add(new Notes.Sysex(sysex, when, Notes.DEFAULT_OUT));
+                    }
+                // We don't bother with continuations and escapes, which Notes.read(...) would not have either
+                status = 0;
+                }
+            else if (status >= 0xF0)
+                {
+                throw new InvalidMidiDataException("Bad status byte " + status + " in MIDI track");
+                }
+            else                                                                // voice message
+                {
+                int command = status & 0xF0;
+                int channel = status & 0x0F;
+                int twoBytes = (command == 0xC0 || command == 0xD0) ? 0 : 1;
+                if (pos[0] + 1 + twoBytes > end) throw new InvalidMidiDataException("Truncated MIDI track");
+                int data1 = buffer.get(pos[0]++) & 0x7F;
+                int data2 = (twoBytes == 1 ? buffer.get(pos[0]++) & 0x7F : 0);
+
+                switch(command)
+                    {
+                    case(0x90):
+                        if (data2 > 0)
+                            {
+                            Notes.Note previous = noteOn[channel * 128 + data1];
+                            if (previous != null) previous.length = when - previous.when;         // end it here
+                            Notes.Note note = new Notes.Note(data1, data2, when, NO_NOTE_OFF, 64, Notes.DEFAULT_OUT);   // 64 default release velocity
+                            data.getChannel(channel).add(note);
+                            noteOn[channel * 128 + data1] = note;
+                            }
+                        else endNote(noteOn, channel * 128 + data1, when, 64);            // a Note On with velocity 0 is a Note Off
+                        break;
+                    case(0x80):
+                        endNote(noteOn, channel * 128 + data1, when, data2);
+                        break;
+                    case(0xA0):
+                        data.getChannel(channel).add(new Notes.Aftertouch(data1, data2, when, Notes.DEFAULT_OUT));
+                        break;
+                    case(0xB0):
+                        data.getChannel(channel).add(new Notes.CC(data1, data2, when, Notes.DEFAULT_OUT));
+                        break;
+                    case(0xC0):
+                        data.getChannel(channel).add(new Notes.PC(data1, when, Notes.DEFAULT_OUT));
+                        break;
+                    case(0xD0):
+                        data.getChannel(channel).add(new Notes.Aftertouch(data1, when, Notes.DEFAULT_OUT));
+                        break;
+                    case(0xE0):
+                        data.getChannel(channel).add(new Notes.Bend(data2 * 128 + data1, when, Notes.DEFAULT_OUT));
+                        break;
+                    }
+                }
+            }
+        return data;
+        }
+
+
+    /// TEMPO MAP
+
+    // Builds the tempo map from the tempo events of all the tracks, and sets bpm and beatsPerBar
+    void buildTempoMap(TrackData[] tracks)
+        {
+        // Gather the tempo events.  If two happen at the same tick, the one in the later track wins,
+        // as it would if the tracks were merged and played in order.
+        ArrayList<long[]> tempos = new ArrayList<>();
+        long[] timeSignature = null;
+        for(int i = 0; i < tracks.length; i++)
+            {
+            for(int j = 0; j < tracks[i].numTempos; j++)
+                tempos.add(new long[] { tracks[i].tempos[j * 2], tracks[i].tempos[j * 2 + 1], tempos.size() });
+            if (tracks[i].timeSignature != null && (timeSignature == null || tracks[i].timeSignature[0] < timeSignature[0]))
+                timeSignature = tracks[i].timeSignature;
+            }
+        Collections.sort(tempos, new Comparator<long[]>()
+            {
+            public int compare(long[] a, long[] b)
+                {
+                if (a[0] != b[0]) return Long.compare(a[0], b[0]);
+                else return Long.compare(a[2], b[2]);
+                }
+            });
+        hasTempo = (tempos.size() > 0);
+
+        // The tempo in effect from tick 0 is DEFAULT_TEMPO unless there's one at tick 0
+        ArrayList<long[]> map = new ArrayList<>();
+        map.add(new long[] { 0, DEFAULT_TEMPO });
+        for(long[] tempo : tempos)
+            {
+            if (tempo[1] <= 0) continue;
+            long[] last = map.get(map.size() - 1);
+            if (last[0] == tempo[0]) last[1] = tempo[1];
+            else if (last[1] != tempo[1]) map.add(new long[] { tempo[0], tempo[1] });
+            }
+
+        int resolution = division;
+        tempoTick = new long[map.size()];
+        tempoValue = new int[map.size()];
+        tempoMicros = new double[map.size()];
+        for(int i = 0; i < tempoTick.length; i++)
+            {
+            tempoTick[i] = map.get(i)[0];
+            tempoValue[i] = (int)map.get(i)[1];
+            if (i > 0) tempoMicros[i] = tempoMicros[i - 1] + (tempoTick[i] - tempoTick[i - 1]) * (double)tempoValue[i - 1] / resolution;
+            }
+
+        bpm = (int)Math.round(60000000.0 / tempoValue[0]);
+        bpm = Math.max(1, Math.min(Seq.MAX_BPM, bpm));
+
+        beatsPerBar = 0;
+        if (timeSignature != null && timeSignature[2] > 0 && (timeSignature[1] * 4) % timeSignature[2] == 0)
+            {
+            beatsPerBar = (int)((timeSignature[1] * 4) / timeSignature[2]);
+            }
+        }
+
+    // Converts a time in the file's ticks to Seq ticks at the file's exact starting tempo.  We don't use
+    // getBPM(), which is rounded, else a file at 97.5 BPM would drift off the grid.
+    int convert(long tick)
+        {
+        // Binary search for the tempo in effect at the tick
+        int lo = 0;
+        int hi = tempoTick.length - 1;
+        while(lo < hi)
+            {
+            int mid = (lo + hi + 1) >>> 1;
+            if (tempoTick[mid] <= tick) lo = mid;
+            else hi = mid - 1;
+            }
+        double micros = tempoMicros[lo] + (tick - tempoTick[lo]) * (double)tempoValue[lo] / division;
+        double seqTick = micros * Seq.PPQ / tempoValue[0];
+        // Round down, as Notes.read(...) does, but don't let floating-point error push us below a whole tick
+        return (int)Math.min(Math.floor(seqTick + 1.0e-6), Integer.MAX_VALUE);
+        }
+
+    // Converts the events from the file's ticks to Seq ticks, removes the ones the notes doesn't record, and sorts them
+    ArrayList<Notes.Event> convert(ArrayList<Notes.Event> events, Notes notes)
+        {
+        ArrayList<Notes.Event> result = new ArrayList<>(events.size());
+        for(Notes.Event event : events)
+            {
+            if (event instanceof Notes.Note)
+                {
+                Notes.Note note = (Notes.Note)event;
+                int when = convert(note.when);
+                if (note.length == NO_NOTE_OFF) note.length = 1;            // as Notes.read(...) does
+                else note.length = convert((long)note.when + note.length) - when;
+                note.when = when;
+                }
+            else if ((event instanceof Notes.Bend && !notes.getRecordBend()) ||
+                (event instanceof Notes.CC && !notes.getRecordCC()) ||
+                (event instanceof Notes.PC && !notes.getRecordPC()) ||
+                (event instanceof Notes.Aftertouch && !notes.getRecordAftertouch()) ||
+                (event instanceof Notes.Sysex && !notes.getRecordSysex()))
+                {
+                continue;
+                }
+            else event.when = convert(event.when);
+            result.add(event);
+            }
+        notes.sortEvents(result);
+        return result;
+        }
+
+
+    /// BUILDING
+
+    /** Reads all the tracks in parallel and builds the Notes.  If there is only one Notes, it is returned, named
+        with the given name.  Otherwise a Parallel, named with the given name, is returned holding all the Notes
+        as its children.  Notes are built for each channel of each track which has voice messages; Sysex messages
+        are only included if the whole file has a single Notes.  Throws an InvalidMidiDataException if the file is
+        corrupt or is not isPPQ().  The motifs are not added to the Seq.  */
+    public Motif build(final Seq seq, String name) throws InvalidMidiDataException
+        {
+        if (!isPPQ()) throw new InvalidMidiDataException("Seq cannot read SMPTE MIDI files");
+        if (division == 0) throw new InvalidMidiDataException("Bad MIDI file resolution");
+
+        // Read the tracks
+        ArrayList<Callable<TrackData>> readers = new ArrayList<>();
+        for(int i = 0; i < trackStart.length; i++)
+            {
+            final int index = i;
+            readers.add(new Callable<TrackData>()
+                {
+                public TrackData call() throws InvalidMidiDataException { return readTrack(index); }
+                });
+            }
+        List<Future<TrackData>> read = ForkJoinPool.commonPool().invokeAll(readers);
+        final TrackData[] tracks = new TrackData[trackStart.length];
+        for(int i = 0; i < tracks.length; i++)
+            tracks[i] = get(read.get(i));
+
+        buildTempoMap(tracks);
+
+        // Build the Notes, one per channel per track
+        final ArrayList<Notes> notes = new ArrayList<>();
+        final ArrayList<ArrayList<Notes.Event>> events = new ArrayList<>();
+        for(int i = 0; i < tracks.length; i++)
+            {
+            int count = 0;
+            for(int j = 0; j < 16; j++)
+                if (tracks[i].channels.get(j) != null) count++;
+            for(int j = 0; j < 16; j++)
+                {
+                if (tracks[i].channels.get(j) == null) continue;
+                Notes n = new Notes(seq);
+                String trackName = (tracks[i].name != null ? tracks[i].name :
+                    (tracks.length == 1 ? "" : "Track " + (i + 1)));
+                n.setName(count == 1 && tracks.length > 1 ? trackName :
+                    (trackName + (trackName.length() == 0 ? "" : " ") + "Channel " + (j + 1)));
+                notes.add(n);
+                events.add(tracks[i].channels.get(j));
+                }
+            }
+
+        // Include Sysex only if there's a single Notes, since we can't tell which channel it belongs to
+        if (notes.size() <= 1)
+            {
+            if (notes.size() == 0)
+                {
+                notes.add(new Notes(seq));
+                events.add(new ArrayList<Notes.Event>());
+                }
+            for(int i = 0; i < tracks.length; i++)
+                events.get(0).addAll(tracks[i].sysex);
+            }
+
+        // Convert the times, in parallel
+        ArrayList<Callable<ArrayList<Notes.Event>>> converters = new ArrayList<>();
+        for(int i = 0; i < notes.size(); i++)
+            {
+            final int index = i;
+            converters.add(new Callable<ArrayList<Notes.Event>>()
+                {
+                public ArrayList<Notes.Event> call() { return convert(events.get(index), notes.get(index)); }
+                });
+            }
+        List<Future<ArrayList<Notes.Event>>> converted = ForkJoinPool.commonPool().invokeAll(converters);
+        for(int i = 0; i < notes.size(); i++)
+            notes.get(i).setEvents(get(converted.get(i)));
+
+        if (notes.size() == 1)
+            {
+            notes.get(0).setName(name);
+            return notes.get(0);
+            }
+        else
+            {
+            Parallel parallel = new Parallel(seq);
+            parallel.setName(name);
+            for(Notes n : notes)
+                parallel.add(n, 0);
+            return parallel;
+            }
+        }
+
+    // Returns the result of the future, rethrowing an InvalidMidiDataException it threw
+    static <T> T get(Future<T> future) throws InvalidMidiDataException
+        {
+        try
+            {
+            return future.get();
+            }
+        catch (InterruptedException ex)
+            {
+            Thread.currentThread().interrupt();
+            throw new InvalidMidiDataException("Interrupted");
+            }
+        catch (ExecutionException ex)
+            {
+            if (ex.getCause() instanceof InvalidMidiDataException) throw (InvalidMidiDataException)(ex.getCause());
+            if (ex.getCause() instanceof IndexOutOfBoundsException) throw new InvalidMidiDataException("Truncated MIDI file");
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException)(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+            }
+        }
+
+    /** Checks that a file whose tempo isn't a whole BPM keeps its notes on the grid.  Builds a file at 97.5 BPM,
+        with one note per quarter note, reads it, and checks each note.  Exits with status 1 if the check fails.  */
+    public static void main(String[] args) throws Exception
+        {
+        final int resolution = 192;
+        final int numNotes = 400;
+        
+        Sequence sequence = new Sequence(Sequence.PPQ, resolution);
+        Track track = sequence.createTrack();
+        int tempo = (int)Math.round(60000000.0 / 97.5);
+        track.add(new MidiEvent(new MetaMessage(0x51, new byte[] { (byte)(tempo >>> 16), (byte)(tempo >>> 8), (byte)tempo }, 3), 0));
+        for(int i = 0; i < numNotes; i++)
+            {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, 60, 100), i * resolution));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, 60, 64), i * resolution + resolution / 2));
+            }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiSystem.write(sequence, 0, out);
+        
+        MidiFileReader reader = new MidiFileReader(out.toByteArray());
+        Notes notes = (Notes)(reader.build(new Seq(), "Test"));
+        ArrayList<Notes.Event> events = notes.getEvents();
+        int wrong = 0;
+        for(int i = 0; i < events.size(); i++)
+            {
+            Notes.Event event = events.get(i);
+            if (event.when != i * Seq.PPQ || event.getLength() != Seq.PPQ / 2) wrong++;
+            }
+        boolean passed = (events.size() == numNotes && wrong == 0);
+        System.err.println("BPM " + reader.getBPM() + ", " + events.size() + " notes, " + wrong + " off the grid: " + (passed ? "PASSED" : "FAILED"));
+        System.exit(passed ? 0 : 1);
+        }
+    }
@@ -32,6 +32,15 @@ public class Notes extends Motif
 
     public static final int DEFAULT_OUT = -1;
 
+    // Let SeqFile stream our events
+    static { SeqFile.registerStreamedArray(Notes.class, "events", EventArray.class); }
+
+    // Do we save events with CompactEvents rather than as a JSONArray?
+    static boolean compactEvents = Prefs.getLastBoolean("seq.motif.notes.Notes.compactevents", false);
+    /** Returns whether events are saved in the compact encoding (see CompactEvents), which older versions of Seq cannot load. */
+    public static boolean getCompactEvents() { return compactEvents; }
+    /** Sets whether events are saved in the compact encoding (see CompactEvents), which older versions of Seq cannot load. */
+    public static void setCompactEvents(boolean val) { compactEvents = val; Prefs.setLastBoolean("seq.motif.notes.Notes.compactevents", val); }
 
 
 
@@ -1086,12 +1095,15 @@ public class Notes extends Motif
         
 
     /** Copies the Notes */
+    public long getApproximateSize() { return super.getApproximateSize() + events.size() * 80L; }
+    
     public Motif copy()
         {
         Notes other = (Notes)(super.copy());
         other.events = new ArrayList();
         for(Event event : events)
             other.events.add(event.copy());
+        other.invalidateIndex();
         System.arraycopy(eventParameterType, 0, other.eventParameterType, 0, eventParameterType.length);
         System.arraycopy(eventParameterMSB, 0, other.eventParameterMSB, 0, eventParameterMSB.length);
         System.arraycopy(eventParameterLSB, 0, other.eventParameterLSB, 0, eventParameterLSB.length);
@@ -1285,6 +1297,7 @@ public class Notes extends Motif
     /** Recomputes and stores the maxNoteOnPosition, maxNoteOffPosition, and maxEventPosition */
     public void computeMaxTime()
         {
+        invalidateIndex();
         maxNoteOnPosition = 0;
         maxNoteOffPosition = 0;
         maxEventPosition = 0;
@@ -1355,6 +1368,7 @@ public class Notes extends Motif
                 public int compare(Event o1, Event o2) { return o1.when - o2.when; }
                 public boolean equals(Comparator<Event> other) { return (this == other); }
             });
+        if (events == this.events) invalidateIndex();
         }
     
 
@@ -1771,6 +1785,7 @@ public class Notes extends Motif
                     }
                 }
             }
+        invalidateIndex();
         }
               
 
@@ -1944,6 +1959,7 @@ public class Notes extends Motif
                 note.velocity = val;
                 }
             }
+        invalidateIndex();
         }
 
     // Provide a random velocity delta
@@ -2005,6 +2021,7 @@ public class Notes extends Motif
                     }
                 }
             }
+        invalidateIndex();
         }
 
 
@@ -2147,10 +2164,63 @@ public class Notes extends Motif
         return sequence;
         }
 
-    /** Writes notes to a MIDI File */
+    /** Writes notes to a MIDI File.  Rather than building a Sequence as write() does, this writes
+        the file as it goes, so only the notes still waiting for their note offs are held in memory. */
     public void write(File out) throws IOException, InvalidMidiDataException
         {
-        MidiSystem.write(write(), 0, out);
+        ArrayList<Event> evts = events;
+        for(int i = 1; i < evts.size(); i++)
+            {
+            if (evts.get(i).when < evts.get(i - 1).when)            // not sorted
+                {
+                evts = new ArrayList<Event>(events);
+                sortEvents(evts);
+                break;
+                }
+            }
+
+        // Each Event writes its messages to a Track, so we give it a scratch Track, then write out the messages
+        // at the Event's time and hold back later ones (the note offs) until we get to them.
+        Track scratch = new javax.sound.midi.Sequence(javax.sound.midi.Sequence.PPQ, Seq.PPQ).createTrack();
+        ArrayList<MidiEvent> pending = new ArrayList<>();         // sorted by tick, earliest first
+        seq.engine.MidiFileWriter writer = new seq.engine.MidiFileWriter(out, Seq.PPQ);
+        try
+            {
+            lastNRPN = -1;
+            wasRPN = false;
+            for(Event event : evts)
+                {
+                // Write out held-back messages up to now.  They go before this event's messages, as they would in a Track.
+                while(pending.size() > 0 && pending.get(0).getTick() <= event.when)
+                    {
+                    MidiEvent e = pending.remove(0);
+                    writer.write(e.getTick(), e.getMessage());
+                    }
+                                
+                event.write(scratch, this);
+                for(int i = 0; i < scratch.size(); i++)
+                    {
+                    MidiEvent e = scratch.get(i);
+                    MidiMessage message = e.getMessage();
+                    if (message instanceof MetaMessage && ((MetaMessage)message).getType() == 0x2F) continue;       // End of Track
+                    if (e.getTick() <= event.when) writer.write(event.when, message);
+                    else
+                        {
+                        // Insert after everything at or before its tick
+                        int at = pending.size();
+                        while(at > 0 && pending.get(at - 1).getTick() > e.getTick()) at--;
+                        pending.add(at, e);
+                        }
+                    }
+                while(scratch.size() > 1) scratch.remove(scratch.get(0));             // leave the End of Track
+                }
+            for(MidiEvent e : pending)
+                writer.write(e.getTick(), e.getMessage());
+            }
+        finally
+            {
+            writer.close();
+            }
         }
 
     /** Writes notes to an Output Stream */
@@ -2159,6 +2229,29 @@ public class Notes extends Motif
         MidiSystem.write(write(), 0, out);
         }
 
+    /** The events as saved to and loaded from JSON.  This lets SeqFile save and load them one at a time
+        rather than building a JSONArray holding all of them.  */
+    public static class EventArray implements SeqFile.StreamedArray
+        {
+        ArrayList<Event> events;
+        
+        public EventArray() { this(new ArrayList<Event>()); }
+        public EventArray(ArrayList<Event> events) { this.events = events; }
+        
+        public int length() { return events.size(); }
+        public Object get(int index) throws JSONException { return events.get(index).save(); }
+        public void load(Object element) throws JSONException { events.add(Event.load((JSONObject)element)); }
+        public String toJSONString()
+            {
+            JSONArray array = new JSONArray();
+            for(Event event : events)
+                {
+                array.put(event.save());
+                }
+            return array.toString();
+            }
+        }
+
     /** Loads the Notes object from JSON */
     public void load(JSONObject obj) throws JSONException
         {
@@ -2188,12 +2281,24 @@ public class Notes extends Motif
                 }
             }
             
-        JSONArray eventsArray = obj.getJSONArray("events");
-        events = new ArrayList<Event>();
-        for(int i = 0; i < eventsArray.length(); i++)
+        Object eventsValue = obj.get("events");
+        if (eventsValue instanceof EventArray)           // already loaded by SeqFile
             {
-            Event event = Event.load(eventsArray.getJSONObject(i));
-            events.add(event);
+            events = ((EventArray)eventsValue).events;
+            }
+        else if (eventsValue instanceof String)         // compact encoding
+            {
+            events = CompactEvents.decode((String)eventsValue);
+            }
+        else
+            {
+            JSONArray eventsArray = obj.getJSONArray("events");
+            events = new ArrayList<Event>();
+            for(int i = 0; i < eventsArray.length(); i++)
+                {
+                Event event = Event.load(eventsArray.getJSONObject(i));
+                events.add(event);
+                }
             }
         computeMaxTime();               // computs maxNoteOnPosition and maxNoteOffPosition
         }
@@ -2229,13 +2334,21 @@ public class Notes extends Motif
         obj.put("elsb", elsbArray);
 
 
-        // All Events and Notes
-        JSONArray eventsArray = new JSONArray();
-        for(Event event : events)
+        // All Events and Notes.  Unless they're compact, these aren't saved until the EventArray is written out,
+        // perhaps in another thread, so it gets copies which recording etc. can't change in the meantime.
+        if (compactEvents)
             {
-            eventsArray.put(event.save());
+            obj.put("events", CompactEvents.encode(events));
+            }
+        else
+            {
+            ArrayList<Event> copy = new ArrayList<>(events.size());
+            for(Event event : events)
+                {
+                copy.add(event.copy());
+                }
+            obj.put("events", new EventArray(copy));
             }
-        obj.put("events", eventsArray);
         }
 
 
@@ -2255,129 +2368,219 @@ public class Notes extends Motif
 
 
 
-    ////// UNTESTED
-    ////// BINARY SEARCH METHODS
-
-
-
-
-    // FIXME: UNTESTED
-    // Finds the index of the given event using binary search
-    public int indexOf(Event event)
-        {
-        if (events.size() == 0) return -1;
-        
-        int low = 0;
-        int high = events.size() - 1;
-        Event mid = null;
-        while(low <= high)
-            {
-            int middle = (low + high) / 2;
-            mid = events.get(middle);
-            if (mid.when == event.when)
-                {
-                return middle;
-                }
-            else if (mid.when < event.when)
-                {
-                low = middle + 1;
-                }
-            else
+    ////// PLAYBACK AND TIME INDEX
+    
+    /** An immutable compiled copy of the events, used by NotesClip to play them and by Notes to
+        search them.  Rather than a list of Event objects scattered about the heap, each of which 
+        has to be dispatched on with instanceof, a Playback stores the events in parallel primitive 
+        arrays, one entry per event in the same order as the events.  Sysex data is kept in a side
+        table, indexed by DATA1.  Playback is rebuilt from the events whenever they have been edited.  */
+    public static final class Playback
+        {
+        // Kinds of events
+        public static final byte NOTE = 0;
+        public static final byte BEND = 1;
+        public static final byte CC = 2;
+        public static final byte PC = 3;
+        public static final byte AFTERTOUCH = 4;
+        public static final byte NRPN = 5;
+        public static final byte RPN = 6;
+        public static final byte SYSEX = 7;
+
+        // Number of events
+        final int size;
+        // Onset of each event
+        final int[] whens;
+        // Maximum end time (onset plus length for notes, else onset) of all events up to and including each event
+        final int[] maxEnds;
+        // Kind of each event
+        final byte[] kinds;
+        // Out of each event, possibly DEFAULT_OUT
+        final int[] outs;
+        // NOTE: pitch, BEND/PC: value, CC/NRPN/RPN: parameter, AFTERTOUCH: pitch or Out.CHANNEL_AFTERTOUCH, SYSEX: index into sysex
+        final int[] data1;
+        // NOTE: velocity, CC/NRPN/RPN/AFTERTOUCH: value
+        final int[] data2;
+        // NOTE: release velocity
+        final int[] data3;
+        // NOTE: length
+        final int[] lengths;
+        // Sysex data
+        final byte[][] sysex;
+        
+        Playback(ArrayList<Event> events)
+            {
+            size = events.size();
+            whens = new int[size];
+            maxEnds = new int[size];
+            kinds = new byte[size];
+            outs = new int[size];
+            data1 = new int[size];
+            data2 = new int[size];
+            data3 = new int[size];
+            lengths = new int[size];
+            
+            int numSysex = 0;
+            for(int i = 0; i < size; i++)
+                if (events.get(i) instanceof Sysex) numSysex++;
+            sysex = new byte[numSysex][];
+            numSysex = 0;
+                
+            int maxEnd = 0;
+            for(int i = 0; i < size; i++)
                 {
-                high = middle - 1;
+                Event event = events.get(i);
+                whens[i] = event.when;
+                outs[i] = event.out;
+                int end = event.when;
+                if (event instanceof Note)
+                    {
+                    Note note = (Note) event;
+                    kinds[i] = NOTE;
+                    data1[i] = note.pitch;
+                    data2[i] = note.velocity;
+                    data3[i] = note.release;
+                    lengths[i] = note.length;
+                    end += note.length;
+                    }
+                else if (event instanceof Bend)
+                    {
+                    kinds[i] = BEND;
+                    data1[i] = ((Bend)event).value;
+                    }
+                else if (event instanceof CC)
+                    {
+                    kinds[i] = CC;
+                    data1[i] = ((CC)event).parameter;
+                    data2[i] = ((CC)event).value;
+                    }
+                else if (event instanceof PC)
+                    {
+                    kinds[i] = PC;
+                    data1[i] = ((PC)event).value;
+                    }
+                else if (event instanceof Aftertouch)
+                    {
+                    kinds[i] = AFTERTOUCH;
+                    data1[i] = ((Aftertouch)event).pitch;
+                    data2[i] = ((Aftertouch)event).value;
+                    }
+                else if (event instanceof NRPN)
+                    {
+                    kinds[i] = NRPN;
+                    data1[i] = ((NRPN)event).parameter;
+                    data2[i] = ((NRPN)event).value;
+                    }
+                else if (event instanceof RPN)
+                    {
+                    kinds[i] = RPN;
+                    data1[i] = ((RPN)event).parameter;
+                    data2[i] = ((RPN)event).value;
+                    }
+                else // if (event instanceof Sysex)
+                    {
+                    kinds[i] = SYSEX;
+                    data1[i] = numSysex;
+                    sysex[numSysex++] = ((Sysex)event).getData();
+                    }
+                if (end > maxEnd) maxEnd = end;
+                maxEnds[i] = maxEnd;
                 }
             }
-        return -1;              // FAILURE
+            
+        /** Returns the number of events. */
+        public int size() { return size; }
+        /** Returns the onset of event i. */
+        public int getWhen(int i) { return whens[i]; }
+        /** Returns the kind of event i. */
+        public byte getKind(int i) { return kinds[i]; }
         }
-
-    // FIXME: UNTESTED
-    // Finds the first event whose onset is at or after the given time, using binary search
-    public int firstEventStartingAtOrAfter(int time)
+    
+    // The compiled events, or null if they have not been compiled yet.  We recompile eagerly, in
+    // invalidateIndex(), when an edit is committed -- that is, when the events have been sorted or
+    // had computeMaxTime() called on them (as every editing operation does when it's done), or when
+    // the editor has changed them directly.  That way NotesClip never has to recompile them in step().
+    Playback playback = null;
+    // The events the playback was built for
+    ArrayList<Event> playbackEvents = null;
+    
+    /** Rebuilds the Playback from the events.  Call this, holding the Seq lock, when you have 
+        finished changing events directly.  sortEvents() and computeMaxTime() call it for you. */
+    public void invalidateIndex() 
+        { 
+        playback = new Playback(events); 
+        playbackEvents = events;
+        }
+    
+    /** Returns the compiled Playback of the events.  This is normally just the Playback built when
+        the events were last edited, but if the events have since been replaced or resized without
+        invalidateIndex() being called, it is rebuilt here as a fallback.
+        If you are holding onto indices into the events, and this is no longer the same Playback
+        as you had before, then your indices may be stale. */
+    public Playback getPlayback()
         {
-        if (events.size() == 0) return -1;
-        if (events.get(events.size() - 1).when > time) return -1;
-        
-        // First find an event at 
-        int low = 0;
-        int high = events.size() - 1;
-        Event mid = null;
-        while(low <= high)
+        if (playback == null || playbackEvents != events || playback.size != events.size())
             {
-            int middle = (low + high) / 2;
-            mid = events.get(middle);
-            if (mid.when == time)
-                {
-                break;
-                }
-            else if (mid.when < time)
-                {
-                low = middle + 1;
-                }
-            else
-                {
-                high = middle - 1;
-                }
-            }
-                
-        while (low < events.size() - 1 && events.get(low).when < time)
-            {
-            low++;
+            playback = new Playback(events);
+            playbackEvents = events;
             }
-                
-        while (low > 0 && events.get(low).when > time)
+        return playback;
+        }
+    
+    // Returns the index of the first event whose onset is at or after the given time, or events.size() if there is none.
+    // This searches the (sorted) events themselves rather than the Playback, so the editor never needs one built.
+    int lowerBound(int time)
+        {
+        int low = 0;
+        int high = events.size();
+        while(low < high)
             {
-            low--;
+            int middle = (low + high) >>> 1;
+            if (events.get(middle).when < time) low = middle + 1;
+            else high = middle;
             }
-                
-        while (low > 0 && events.get(low).when == time)
+        return low;
+        }
+
+    /** Returns the index of the given event, or -1 if it is not among the events.  O(lg n) plus
+        the number of events with the same onset. */
+    public int indexOf(Event event)
+        {
+        int size = events.size();
+        for(int i = lowerBound(event.when); i < size && events.get(i).when == event.when; i++)
             {
-            if (events.get(low).when == time) low--;
+            if (events.get(i) == event) return i;
             }
-                
-        return low;
+        return -1;              // FAILURE
         }
 
-    // FIXME: UNTESTED
-    // Finds the last event whose onset is before the given time, using binary search
-    public int lastEventEndingLessThan(int time)
+    /** Returns the index of the first event whose onset is at or after the given time, or -1 if there is none.  O(lg n). */
+    public int firstEventStartingAtOrAfter(int time)
         {
-        if (events.size() == 0) return -1;
+        int index = lowerBound(time);
+        return (index == events.size() ? -1 : index);
+        }
         
-        // First find an event at 
+    /** Returns the index of the last event whose onset is before the given time, or -1 if there is none.  O(lg n). */
+    public int lastEventStartingBefore(int time)
+        {
+        return lowerBound(time) - 1;
+        }
+
+    /** Returns the index of the last event such that it, and all the events before it, end (onset plus length 
+        for notes, else just onset) before the given time, or -1 if there is none.  O(lg n). */
+    public int lastEventEndingLessThan(int time)
+        {
+        int[] maxEnds = getPlayback().maxEnds;
         int low = 0;
-        int high = events.size() - 1;
-        Event mid = null;
-        while(low <= high)
-            {
-            int middle = (low + high) / 2;
-            mid = events.get(middle);
-            int point = mid.when + (mid instanceof Note ? ((Note)mid).length : 0);
-            if (point == time)
-                {
-                break;
-                }
-            else if (point < time)
-                {
-                low = middle + 1;
-                }
-            else
-                {
-                high = middle - 1;
-                }
-            }
-                
-        while (low > 0 && events.get(low).when + (mid instanceof Note ? ((Note)mid).length : 0) > time)
-            {
-            low--;
-            }
-                
-        while (low < events.size() - 1 && events.get(low).when + (mid instanceof Note ? ((Note)mid).length : 0) < time)
+        int high = maxEnds.length;
+        while(low < high)
             {
-            if (events.get(low).when + (mid instanceof Note ? ((Note)mid).length : 0) >= time) break;
-            low++;
+            int middle = (low + high) >>> 1;
+            if (maxEnds[middle] < time) low = middle + 1;
+            else high = middle;
             }
-                
-        return low;
+        return low - 1;
         }
 
     
@@ -21,9 +21,16 @@ public class NotesClip extends Clip
     // When notes are recorded, they are stored here when receiving a NOTE ON
     // and then completed and removed when receiving a NOTE OFF
     Notes.Note[] recordedNoteOn = new Notes.Note[128];
+    // The messages we record
+    static final int RECORDED_TYPES = InputRouter.NOTES | InputRouter.PITCH_BEND | InputRouter.CC | InputRouter.PC | 
+        InputRouter.CHANNEL_AFTERTOUCH | InputRouter.POLY_AFTERTOUCH | InputRouter.SYSEX;
+    // Our subscription to incoming messages while recording
+    InputRouter.Subscription recordSubscription;
     
     // Where in notes.events was my LAST EVENT.  If I have NO EVENTS, then this value is -1  
     int index = -1;  
+    // The Notes' Playback when we last computed index.  If it changes, the events have been edited and we must recompute index.
+    Notes.Playback playback = null;
     // Did we just record notes?
     boolean didRecord;
 
@@ -63,17 +70,8 @@ public class NotesClip extends Clip
     void updateIndex()
         {
         Notes notes = (Notes) getMotif();
-
-        index = -1;
-        int pos = getPosition();
-        for(int i = 0; i < notes.events.size(); i++)
-            {
-            if (notes.events.get(i).when < pos)
-                {
-                index = i;
-                }
-            else break;
-            }
+        index = notes.lastEventStartingBefore(getPosition());
+        playback = notes.getPlayback();
         }
 
     /** Updates the index */
@@ -107,6 +105,9 @@ public class NotesClip extends Clip
             {
             if (!recording.isEmpty())
                 {
+                // Events were recorded at their sub-step times, which can be slightly out of order
+                notes.sortEvents(recording);
+                
                 if (Prefs.getLastBoolean("QuantizeOnRecord", false))
                     {
                     notes.quantize(recording,   
@@ -155,6 +156,7 @@ public class NotesClip extends Clip
                     }
 
                 notes.clearRecording();
+                notes.incrementEdits();                                             // so the next undo snapshot has the recording
 //                updateIndex();
                 setDidRecord(true);
                 }
@@ -258,6 +260,16 @@ public class NotesClip extends Clip
         else return noteOut;
         }
     
+    // Returns the position at which message i from the given In should be recorded, which may be earlier
+    // than the current position pos, because the message may have been played some time before we got to it.
+    int getRecordedPosition(In in, int i, int pos)
+        {
+        long ticksBefore = Math.round(seq.getTicksBefore(in.getEventTime(i)));
+        if (ticksBefore <= 0) return pos;
+        if (ticksBefore >= pos) return 0;
+        return pos - (int)ticksBefore;
+        }
+    
     public boolean process()
         {
         Notes notes = (Notes) getMotif();
@@ -282,10 +294,12 @@ public class NotesClip extends Clip
                 {
                 ArrayList<Notes.Event> recording = notes.getRecording();
                 int channel = in.getChannel();
-                MidiMessage[] messages = in.getMessages();
-                for(int i = 0; i < messages.length; i++)
+                recordSubscription = seq.getInputRouter().subscribe(recordSubscription, notes.getIn(), RECORDED_TYPES, channel, InputRouter.ANY_CC);
+                int numMessages = recordSubscription.size();
+                for(int i = 0; i < numMessages; i++)
                     {
-                    MidiMessage message = messages[i];
+                    MidiMessage message = recordSubscription.getMessage(i);
+                    int when = getRecordedPosition(in, recordSubscription.getIndex(i), pos);
                     if (message instanceof ShortMessage)
                         {
                         ShortMessage shortmessage = (ShortMessage)message;
@@ -295,7 +309,7 @@ public class NotesClip extends Clip
                                 {
                                 int pitch = shortmessage.getData1();
        		 		            int vel = shortmessage.getData2();
-                                Notes.Note noteOn = new Notes.Note(pitch, shortmessage.getData2(), pos, 1, vel, Notes.DEFAULT_OUT);             // gotta have something for length, 64 default release velocity for the moment
+                                Notes.Note noteOn = new Notes.Note(pitch, shortmessage.getData2(), when, 1, vel, Notes.DEFAULT_OUT);             // gotta have something for length, 64 default release velocity for the moment
                                 recording.add(noteOn);
                                 //if (notes.getEcho()) noteOn(out, pitch, noteOn.velocity, NO_NOTE_ID);
                                 recordedNoteOn[pitch] = noteOn;
@@ -307,7 +321,7 @@ public class NotesClip extends Clip
                                 int release = 64;
                                 if (noteOn != null)
                                     {
-                                    noteOn.length = pos - noteOn.when;
+                                    noteOn.length = when - noteOn.when;
                                     noteOn.release = shortmessage.getData2();
                                     release = noteOn.release;
                                     recordedNoteOn[pitch] = null;
@@ -320,7 +334,7 @@ public class NotesClip extends Clip
                                 int lsb = shortmessage.getData1();
                                 int msb = shortmessage.getData2();
 
-                                Notes.Bend bend = new Notes.Bend(msb * 128 + lsb - 8192, pos, Notes.DEFAULT_OUT);
+                                Notes.Bend bend = new Notes.Bend(msb * 128 + lsb - 8192, when, Notes.DEFAULT_OUT);
                                 recording.add(bend);
                                 //if (notes.getEcho()) bend(out, bend.value);
                                 }
@@ -329,7 +343,7 @@ public class NotesClip extends Clip
                                 int parameter = shortmessage.getData1();
                                 int value = shortmessage.getData2();
 
-                                Notes.CC cc = new Notes.CC(parameter, value, pos, Notes.DEFAULT_OUT);
+                                Notes.CC cc = new Notes.CC(parameter, value, when, Notes.DEFAULT_OUT);
                                 recording.add(cc);
                                 //if (notes.getEcho()) cc(out, parameter, value);
                                 }
@@ -337,7 +351,7 @@ public class NotesClip extends Clip
                                 {
                                 int value = shortmessage.getData1();
 
-                                Notes.PC pc = new Notes.PC(value, pos, Notes.DEFAULT_OUT);
+                                Notes.PC pc = new Notes.PC(value, when, Notes.DEFAULT_OUT);
                                 recording.add(pc);
                                 //if (notes.getEcho()) pc(out, value);
                                 }
@@ -345,7 +359,7 @@ public class NotesClip extends Clip
                                 {
                                 int value = shortmessage.getData1();
 
-                                Notes.Aftertouch aftertouch = new Notes.Aftertouch(value, pos, Notes.DEFAULT_OUT);
+                                Notes.Aftertouch aftertouch = new Notes.Aftertouch(value, when, Notes.DEFAULT_OUT);
                                 recording.add(aftertouch);
                                 //if (notes.getEcho()) aftertouch(out, Out.CHANNEL_AFTERTOUCH, value);
                                 }
@@ -354,7 +368,7 @@ public class NotesClip extends Clip
                                 int pitch = shortmessage.getData1();
                                 int value = shortmessage.getData2();
 
-                                Notes.Aftertouch aftertouch = new Notes.Aftertouch(pitch, value, pos, Notes.DEFAULT_OUT);
+                                Notes.Aftertouch aftertouch = new Notes.Aftertouch(pitch, value, when, Notes.DEFAULT_OUT);
                                 recording.add(aftertouch);
                                 //if (notes.getEcho()) aftertouch(out, pitch, value);
                                 }
@@ -362,7 +376,7 @@ public class NotesClip extends Clip
                         }
                     else if (message instanceof SysexMessage && notes.getRecordSysex())
                         {
-                        Notes.Sysex sysex = new Notes.Sysex(message.getMessage(), pos, Notes.DEFAULT_OUT);
+                        Notes.Sysex sysex = new Notes.Sysex(message.getMessage(), when, Notes.DEFAULT_OUT);
                         recording.add(sysex);
                         }
                     }
@@ -371,66 +385,60 @@ public class NotesClip extends Clip
             }
         else
             {
-            ArrayList<Notes.Event> playing = notes.events;
+            // If the events were edited since we last looked, find our place again
+            if (playback != notes.getPlayback()) updateIndex();
+            Notes.Playback playing = playback;
+            int[] whens = playing.whens;
+            int size = playing.size;
 
             // At present, index is where I LAST had an event, or -1            
-            while (playing.size() > (index + 1) && playing.get(index + 1).when <= pos)            // is there another event, and is it time for it?
+            while (size > (index + 1) && whens[index + 1] <= pos)            // is there another event, and is it time for it?
                 {
                 index++;                                                                                                                        // advance to that event
                 // Now emit it
-                Notes.Event event = playing.get(index);
-                if (event instanceof Notes.Note)
+                int eventOut = determineOut(playing.outs[index], out);
+                switch(playing.kinds[index])
                     {
-                    Notes.Note note = (Notes.Note)event;
-                    int velocity = getCorrectedValueInt(note.velocity, 126);            // 0 .. 126 representing 1...127 because we can't have 0 velocity, that is a note off
-                    int release = getCorrectedValueInt(note.release, 127);
-                    // at present we're not doing pitch because we'd have to move the note
-                    // at present we're also not doing the length for the same reason
-                    if (velocity > 0)
+                    case(Notes.Playback.NOTE):
                         {
-                        int id = noteOn(determineOut(note.out, out), note.pitch, velocity);
-                        // NOTE: We have to schedule the note off, rather than turn it off at a later time,
-                        // because the musician could change the transpose before the note was turned off
-                        // and then the note to turn off would be a different note and we'd be in a whole,
-                        // um, HEAP of trouble
+                        int velocity = getCorrectedValueInt(playing.data2[index], 126);            // 0 .. 126 representing 1...127 because we can't have 0 velocity, that is a note off
+                        int release = getCorrectedValueInt(playing.data3[index], 127);
+                        // at present we're not doing pitch because we'd have to move the note
+                        // at present we're also not doing the length for the same reason
+                        if (velocity > 0)
+                            {
+                            int pitch = playing.data1[index];
+                            int id = noteOn(eventOut, pitch, velocity);
+                            // NOTE: We have to schedule the note off, rather than turn it off at a later time,
+                            // because the musician could change the transpose before the note was turned off
+                            // and then the note to turn off would be a different note and we'd be in a whole,
+                            // um, HEAP of trouble
                         
-                        if (id >= 0) scheduleNoteOff(determineOut(note.out, out), note.pitch, release, note.length, id);
+                            if (id >= 0) scheduleNoteOff(eventOut, pitch, release, playing.lengths[index], id);
+                            }
+                        break;
                         }
-                    }
-                else if (event instanceof Notes.Bend)
-                    {
-                    Notes.Bend bend = (Notes.Bend)event;
-                    bend(determineOut(bend.out, out), bend.value);
-                    }
-                else if (event instanceof Notes.CC)
-                    {
-                    Notes.CC cc = (Notes.CC)event;
-                    cc(determineOut(cc.out, out), cc.parameter, cc.value);
-                    }
-                else if (event instanceof Notes.PC)
-                    {
-                    Notes.PC pc = (Notes.PC)event;
-                    pc(determineOut(pc.out, out), pc.value);
-                    }
-                else if (event instanceof Notes.Aftertouch)
-                    {
-                    Notes.Aftertouch aftertouch = (Notes.Aftertouch)event;
-                    aftertouch(determineOut(aftertouch.out, out), aftertouch.pitch, aftertouch.value);
-                    }
-                else if (event instanceof Notes.NRPN)
-                    {
-                    Notes.NRPN nrpn = (Notes.NRPN)event;
-                    nrpn(determineOut(nrpn.out, out), nrpn.parameter, nrpn.value);
-                    }
-                else if (event instanceof Notes.RPN)
-                    {
-                    Notes.RPN rpn = (Notes.RPN)event;
-                    rpn(determineOut(rpn.out, out), rpn.parameter, rpn.value);
-                    }
-                else if (event instanceof Notes.Sysex)
-                    {
-                    Notes.Sysex sysex = (Notes.Sysex)event;
-                    sysex(determineOut(sysex.out, out), sysex.getData());
+                    case(Notes.Playback.BEND):
+                        bend(eventOut, playing.data1[index]);
+                        break;
+                    case(Notes.Playback.CC):
+                        cc(eventOut, playing.data1[index], playing.data2[index]);
+                        break;
+                    case(Notes.Playback.PC):
+                        pc(eventOut, playing.data1[index]);
+                        break;
+                    case(Notes.Playback.AFTERTOUCH):
+                        aftertouch(eventOut, playing.data1[index], playing.data2[index]);
+                        break;
+                    case(Notes.Playback.NRPN):
+                        nrpn(eventOut, playing.data1[index], playing.data2[index]);
+                        break;
+                    case(Notes.Playback.RPN):
+                        rpn(eventOut, playing.data1[index], playing.data2[index]);
+                        break;
+                    case(Notes.Playback.SYSEX):
+                        sysex(eventOut, playing.sysex[playing.data1[index]]);
+                        break;
                     }
                 }
                                  
@@ -243,7 +243,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { note.pitch = (int)(val * 127.0); }
+                            try { note.pitch = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             notesui.getGridUI().reloadSelected();
@@ -266,7 +266,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { note.velocity = (int)(val * 126.0) + 1;  }
+                            try { note.velocity = (int)(val * 126.0) + 1; notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             notesui.getGridUI().reloadSelected();
@@ -275,7 +275,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) note.velocity = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) note.velocity = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             notesui.getGridUI().reloadSelected();
@@ -305,7 +305,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { note.release = (int)(val * 127.0);  }
+                            try { note.release = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             notesui.getGridUI().reloadSelected();               // Maybe not necessary?
@@ -314,7 +314,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) note.release = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) note.release = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             notesui.getGridUI().reloadSelected();
@@ -359,7 +359,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { bend.value = (int)(val * 16383.0);  }
+                            try { bend.value = (int)(val * 16383.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -369,7 +369,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) bend.value = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) bend.value = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable(); 
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -393,7 +393,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { bend.value = BEND_VALUES[val]; }
+                            try { bend.value = BEND_VALUES[val]; notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             value.redraw();
                             updateTable();
@@ -438,7 +438,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { cc.parameter = (int)(val * 127.0); }
+                            try { cc.parameter = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
 //                            notesui.getEventsUI().rebuild();
@@ -461,7 +461,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { cc.value = (int)(val * 127.0); }
+                            try { cc.value = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -471,7 +471,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) cc.value = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) cc.value = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -520,7 +520,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int param;
-                            try { param = nrpn.parameter = (((int)(val * 127.0)) << 7) + (nrpn.parameter & 127); }
+                            try { param = nrpn.parameter = (((int)(val * 127.0)) << 7) + (nrpn.parameter & 127); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             parameterResult.setText(" " + param);
                             updateTable();  
@@ -545,7 +545,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int param;
-                            try { param = nrpn.parameter = ((nrpn.parameter >>> 7) << 7) + ((int)(val * 127.0)); }
+                            try { param = nrpn.parameter = ((nrpn.parameter >>> 7) << 7) + ((int)(val * 127.0)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             parameterResult.setText(" " + param);
                             updateTable();  
@@ -571,7 +571,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int value;
-                            try { value = nrpn.value = (((int)(val * 127.0)) << 7) + (nrpn.value & 127); }
+                            try { value = nrpn.value = (((int)(val * 127.0)) << 7) + (nrpn.value & 127); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             valueResult.setText(" " + value);
                             updateTable();  
@@ -597,7 +597,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int value;
-                            try { value = nrpn.value = ((nrpn.value >>> 7) << 7) + ((int)(val * 127.0)); }
+                            try { value = nrpn.value = ((nrpn.value >>> 7) << 7) + ((int)(val * 127.0)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             valueResult.setText(" " + value);
                             updateTable();  
@@ -665,7 +665,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int param;
-                            try { param = rpn.parameter = (((int)(val * 127.0)) << 7) + (rpn.parameter & 127); }
+                            try { param = rpn.parameter = (((int)(val * 127.0)) << 7) + (rpn.parameter & 127); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             parameterResult.setText(" " + param);
                             updateTable();
@@ -690,7 +690,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int param;
-                            try { param = rpn.parameter = ((rpn.parameter >>> 7) << 7) + ((int)(val * 127.0)); }
+                            try { param = rpn.parameter = ((rpn.parameter >>> 7) << 7) + ((int)(val * 127.0)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             parameterResult.setText(" " + param);
                             updateTable();  
@@ -715,7 +715,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int value;
-                            try { value = rpn.value = (((int)(val * 127.0)) << 7) + (rpn.value & 127); }
+                            try { value = rpn.value = (((int)(val * 127.0)) << 7) + (rpn.value & 127); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             valueResult.setText(" " + value);
                             updateTable();  
@@ -741,7 +741,7 @@ public class EventInspector extends WidgetList
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
                             int value;
-                            try { value = rpn.value = ((rpn.value >>> 7) << 7) + ((int)(val * 127.0)); }
+                            try { value = rpn.value = ((rpn.value >>> 7) << 7) + ((int)(val * 127.0)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             valueResult.setText(" " + value);
                             updateTable();  
@@ -809,7 +809,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { aftertouch.pitch = (int)((val * 128.0) - 1); }
+                            try { aftertouch.pitch = (int)((val * 128.0) - 1); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
                             if (eventui != null) eventui.reload();
@@ -834,7 +834,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { aftertouch.value = (int)(val * 127.0); }
+                            try { aftertouch.value = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -844,7 +844,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) aftertouch.value = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) aftertouch.value = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -902,7 +902,7 @@ public class EventInspector extends WidgetList
                             if (seq == null) return;
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { pc.value = (int)(val * 127.0); }
+                            try { pc.value = (int)(val * 127.0); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -912,7 +912,7 @@ public class EventInspector extends WidgetList
                             { 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { if (val != SmallDial.NO_DEFAULT) pc.value = (-(val + 1)); }
+                            try { if (val != SmallDial.NO_DEFAULT) pc.value = (-(val + 1)); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                             updateTable();  
                             EventUI eventui = notesui.getEventsUI().getEventUIFor(event, event.getType());
@@ -1041,7 +1041,7 @@ public class EventInspector extends WidgetList
 
                             ReentrantLock lock = seq.getLock();
                             lock.lock();
-                            try { sysex.setData(v); }
+                            try { sysex.setData(v); notes.invalidateIndex(); }
                             finally { lock.unlock(); }
                                                         
                             return getValue();
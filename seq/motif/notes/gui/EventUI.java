@@ -343,6 +343,7 @@ public class EventUI extends JComponent
                                 {
                                 (eventui.event).setNormalizedValue(newValue);
                                 }
+                            parameterui.getNotesUI().getNotes().invalidateIndex();
                             }
                         finally
                             {
@@ -444,6 +445,7 @@ public class EventUI extends JComponent
             {
             oldTime = event.when;
             event.when = newTime;
+            parameterui.getNotesUI().getNotes().invalidateIndex();
             }
         finally
             {
@@ -481,6 +483,7 @@ public class EventUI extends JComponent
                 {
                 event.setNormalizedValue(newValue);
                 }
+            parameterui.getNotesUI().getNotes().invalidateIndex();
             }
         finally
             {
@@ -74,6 +74,8 @@ public class GridUI extends JComponent
     boolean dragging;
     // Is the user holding down the SHIFT key during selection?
     boolean shifted;
+    // The NoteUI built for a painted note the user pressed on, which receives the drag
+    NoteUI forwardTo = null;
     
     // rubber band pitches -- we use these to determine whether to erase the rubber band in the old PitchUI
     int oldMinPitch = -1;
@@ -135,6 +137,7 @@ public class GridUI extends JComponent
             {   
             public void mouseClicked(MouseEvent e)
                 {
+                if (getNoteAt(e) != null) return;              // clicked on a painted note, not the background
                 if (e.getClickCount() == 2)
                     {
                     int pitch = getPitch(e);
@@ -191,6 +194,20 @@ public class GridUI extends JComponent
             
             public void mousePressed(MouseEvent e)
                 {
+                // Notes without NoteUIs are painted by the PitchUIs, so we must hit-test them ourselves.
+                // If we've hit one, build its NoteUI and hand it this press, and the drag which may follow.
+                Notes.Note note = getNoteAt(e);
+                if (note != null)
+                    {
+                    NoteUI noteui = getNoteUIFor(note, getPitch(e));
+                    if (noteui != null)
+                        {
+                        forwardTo = noteui;
+                        noteui.dispatchEvent(SwingUtilities.convertMouseEvent(GridUI.this, e, noteui));
+                        return;
+                        }
+                    }
+                    
                 // This gunk fixes a BAD MISFEATURE in Java: mouseReleased isn't sent to the
                 // same component that received mouseClicked.  What the ... ? Asinine.
                 // So we create a global event listener which checks for mouseReleased and
@@ -234,6 +251,7 @@ public class GridUI extends JComponent
                 
             public void mouseReleased(MouseEvent e)
                 {
+                forwardTo = null;                                       // the NoteUI receives its own release
                 if (!mouseDown) return;                                 // not released on me
                 
                 if (releaseListener != null)
@@ -278,6 +296,12 @@ public class GridUI extends JComponent
             {
             public void mouseDragged(MouseEvent e)
                 {
+                if (forwardTo != null)
+                    {
+                    forwardTo.dispatchEvent(SwingUtilities.convertMouseEvent(GridUI.this, e, forwardTo));
+                    return;
+                    }
+                    
                 dragging = true;
                                 
                 // this will be costly
@@ -296,33 +320,21 @@ public class GridUI extends JComponent
                     addEventToSelected(eventui, SELECTED_SOURCE_NOTES);
                     }
 
-                ReentrantLock lock = seq.getLock();
-                for(PitchUI pitchui : pitchuis)
+                // Only the pitches inside the rubber band are searched, using each PitchUI's index
+                for(int p = Math.max(lowPitch, 0); p <= Math.min(highPitch, 127); p++)
                     {
-                    for(NoteUI noteui : pitchui.getNoteUIs())
+                    PitchUI pitchui = pitchuis.get(p);
+                    for(Notes.Note note : pitchui.getNotes(lowTime, highTime))
                         {
-                        lock.lock();
-                        try 
+                        NoteUI noteui = pitchui.getNoteUIFor(note);
+                        if (noteui == null) continue;
+                        if (backupSelected.contains(noteui))
                             {
-                            Notes.Note note = noteui.getNote();
-                            if (note.pitch >= lowPitch &&
-                                note.pitch <= highPitch &&
-                                note.when + note.length >= lowTime &&
-                                note.when <= highTime)
-                                {
-                                if (backupSelected.contains(noteui))
-                                    {
-                                    removeFromSelected(noteui);
-                                    }
-                                else
-                                    {
-                                    addEventToSelected(noteui, SELECTED_SOURCE_NOTES);
-                                    }
-                                }
+                            removeFromSelected(noteui);
                             }
-                        finally
+                        else
                             {
-                            lock.unlock();
+                            addEventToSelected(noteui, SELECTED_SOURCE_NOTES);
                             }
                         }
                     }
@@ -466,6 +478,15 @@ public class GridUI extends JComponent
         return (127 - evt.getY() / PitchUI.getPitchHeight());
         }
 
+    /** Returns the note without a NoteUI drawn under the given event, or null if there is none. */
+    public Notes.Note getNoteAt(MouseEvent evt)
+        {
+        int pitch = getPitch(evt);
+        if (pitch < 0 || pitch > 127) return null;
+        PitchUI pitchui = pitchuis.get(pitch);
+        return pitchui.getNoteAt(SwingUtilities.convertPoint(this, evt.getPoint(), pitchui).x);
+        }
+
     /** Returns pitch corresponding to the given pixel */
     public int getPitch(int y)
         {
@@ -583,6 +604,7 @@ public class GridUI extends JComponent
                             {
                             Notes.Note note = eventui.getNote();
                             note.length = len;
+                            notesui.getNotes().invalidateIndex();
                             // should this be outside the lock?
                             ((NoteUI)eventui).reload(note.when, note.length);
                             }
@@ -738,6 +760,7 @@ public class GridUI extends JComponent
                 if (note.pitch < 0) note.pitch = 0;
                 if (note.pitch > 127) note.pitch = 127;
                 newPitch = note.pitch;
+                notesui.getNotes().invalidateIndex();
                         
                 if (note.pitch != oldPitch)
                     {
@@ -902,12 +925,21 @@ public class GridUI extends JComponent
         int maxx = -1;
         int maxy = -1;
         ReentrantLock lock = seq.getLock();
-        for(EventUI eventui : (selectedEvents && selected.size() > 0 ? selected : getAllNoteUIs()))
+        // Most notes have no NoteUIs, so we gather the events themselves
+        ArrayList<Notes.Event> events = new ArrayList<>();
+        if (selectedEvents && selected.size() > 0)
+            {
+            for(EventUI eventui : selected) events.add(eventui.event);
+            }
+        else
+            {
+            for(PitchUI pitchui : pitchuis) events.addAll(pitchui.getNotes());
+            }
+        for(Notes.Event event : events)
             {
             lock.lock();
             try 
                 {
-                Notes.Event event = eventui.event;
                 if (event instanceof Notes.Note)
                     {
                     Notes.Note note = (Notes.Note)event;
@@ -1017,20 +1049,18 @@ public class GridUI extends JComponent
             }
         }
         
-    /** Finds the NoteUIs for the given note, then adds them to selected and selects them. */
+    /** Finds (or builds) the NoteUIs for the given notes, then adds them to selected and selects them. */
     public void addNotesToSelected(HashSet<Notes.Event> notes)
         {
         HashSet<NoteUI> move = new HashSet<>();
-        for(PitchUI pitchui : pitchuis)
+        for(Notes.Event event : notes)
             {
-            move.clear();
-            for(NoteUI noteui : pitchui.getNoteUIs())
+            if (!(event instanceof Notes.Note)) continue;
+            NoteUI noteui = getNoteUIFor((Notes.Note)event, ((Notes.Note)event).pitch);
+            if (noteui != null)
                 {
-                if (notes.contains(noteui.event))
-                    {
-                    addEventToSelected(noteui, SELECTED_SOURCE_NOTES);
-                    move.add(noteui);
-                    }
+                addEventToSelected(noteui, SELECTED_SOURCE_NOTES);
+                move.add(noteui);
                 }
             }
         moveToTop(move);                // I think this is SLIGHTLY more efficent than moveSelectedToTop?
@@ -1217,12 +1247,17 @@ public class GridUI extends JComponent
         return (min == -1 ? 0 : min);
         }
     
-    /** Builds and returns a list of all NoteUIs */
+    /** Builds and returns a list of all NoteUIs.  This builds NoteUIs for every note which
+        doesn't have one yet, so it's costly: only use it if you really need them all (for Select All, say). */
     public ArrayList<NoteUI> getAllNoteUIs()
         {
         ArrayList<NoteUI> all = new ArrayList<>();
         for(PitchUI pitchui : pitchuis)
             {
+            for(Notes.Note note : new ArrayList<>(pitchui.getNotes()))
+                {
+                pitchui.getNoteUIFor(note);
+                }
             all.addAll(pitchui.getNoteUIs());
             }
         return all;
@@ -82,6 +82,7 @@ public class NoteUI extends EventUI implements Comparable
         int width = (int)(length / getGridUI().getScale());
         if (width < MINIMUM_WIDTH) width = MINIMUM_WIDTH;
         setBounds((int)(when / getGridUI().getScale()), 0, width, pitchui.getPitchHeight());
+        if (!recorded) pitchui.invalidateIndex();
         }
         
     /** Reloads the NoteUI to a new time, pitch, and length, using the provided values.  This
@@ -383,6 +384,13 @@ public class NoteUI extends EventUI implements Comparable
         Rectangle bounds = getBounds();
         bounds.x = 0;
         bounds.y = 0;
+        paintNote(g, bounds, value, altOut, selected, recorded);
+        }
+
+    /** Paints a note with the given VALUE (velocity), filling the given bounds.  This is used both by NoteUI and
+        by PitchUI to paint notes which don't have NoteUIs. The bounds are modified. */
+    public static void paintNote(Graphics2D g, Rectangle bounds, double value, boolean altOut, boolean selected, boolean recorded)
+        {
         if (bounds.width < MINIMUM_WIDTH) 
             {
             bounds.width = MINIMUM_WIDTH;
@@ -578,6 +578,7 @@ public class NotesUI extends MotifUI
                     event.setNormalizedValue(val);
                     }
                 }
+            notes.invalidateIndex();
             }
         finally 
             {
@@ -615,6 +616,7 @@ public class NotesUI extends MotifUI
                     event.setNormalizedValue(val);
                     }
                 }
+            notes.invalidateIndex();
             }
         finally 
             {
@@ -2219,8 +2221,8 @@ public class NotesUI extends MotifUI
             if (event instanceof Notes.Note)
                 {
                 PitchUI pitchui = gridui.getPitchUIs().get(((Notes.Note)event).pitch);
-                NoteUI noteui = new NoteUI(pitchui, (Notes.Note)event);
-                pitchui.addNoteUI(noteui);
+                pitchui.addNote((Notes.Note)event);             // its NoteUI is built if it's selected below
+                pitchui.repaint();
                 }
             else
                 {
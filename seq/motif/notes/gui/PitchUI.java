@@ -46,8 +46,20 @@ public class PitchUI extends JLayeredPane
     int pitch;
     // Is this PitchUI a black note?
     boolean black;
-    // All noteuis in the PitchUI.  Note that these may not be in any order.
+    // All notes in the PitchUI, whether or not they have been given NoteUIs
+    HashSet<Notes.Note> notes = new HashSet<>();
+    // All noteuis in the PitchUI.  Note that these may not be in any order.  
+    // NoteUIs are only built (materialized) for notes which are selected, or which the user
+    // has clicked on or otherwise manipulated.  All other notes are painted directly by the PitchUI.
     ArrayList<NoteUI> noteuis = new ArrayList<>();
+    // The materialized NoteUIs, by note
+    HashMap<Notes.Note, NoteUI> noteuisByNote = new HashMap<>();
+    // The spatial index of all the notes, sorted by onset, or null if it must be rebuilt
+    Notes.Note[] sortedNotes = null;
+    // The onset of each note in sortedNotes
+    int[] sortedWhens;
+    // The maximum end (onset plus length) of each note in sortedNotes and all notes before it
+    int[] sortedMaxEnds;
     // All recorded noteuis in the PitchUI.  Note that these may not be in any order.
     ArrayList<NoteUI> recordeduis = new ArrayList<>();
 
@@ -123,26 +135,55 @@ public class PitchUI extends JLayeredPane
         this.black = BLACK_KEYS[pitch % 12];
         }
 
-    /** Rebuilds the PitchUI entirely.  This discards all the NoteUIs and creates new ones. */
+    /** Rebuilds the PitchUI entirely.  This discards all the NoteUIs and loads the given notes.
+        NoteUIs are created only for the notes which are selected. */
     public void rebuild(ArrayList<Notes.Note> notes)
         {
+        this.notes.clear();
         this.noteuis.clear();
+        this.noteuisByNote.clear();
         this.recordeduis.clear();
+        invalidateIndex();
         removeAll();
+        this.notes.addAll(notes);
         for(Notes.Note note : notes)
             {
-            addNoteUI(new NoteUI(this, note));
+            if (note.selected) materialize(note);
             }
+        repaint();
         }
         
-    /** Returns the NoteUIs. Note that these may not be in any order. */
+    /** Returns the NoteUIs built so far. Note that these may not be in any order, 
+        and that most notes may not have NoteUIs: see getNoteUIFor(...) */
     public ArrayList<NoteUI> getNoteUIs() { return noteuis; }
     
-    /** Removes the NoteUI from the PitchUI */
+    /** Returns the number of notes in the PitchUI, whether or not they have NoteUIs. */
+    public int getNumNotes() { return notes.size(); }
+    
+    /** Returns all the notes in the PitchUI, whether or not they have NoteUIs.  Don't modify this. */
+    public Set<Notes.Note> getNotes() { return notes; }
+    
+    /** Adds a note to the PitchUI without building a NoteUI for it. */
+    public void addNote(Notes.Note note)
+        {
+        if (notes.add(note)) invalidateIndex();
+        }
+    
+    // Builds a NoteUI for a note and adds it.  The NoteUI may wind up in a different PitchUI if the note has changed pitch.
+    NoteUI materialize(Notes.Note note)
+        {
+        NoteUI noteui = new NoteUI(this, note);
+        if (noteui.getPitchUI() == this) addNoteUI(noteui);
+        return noteui;
+        }
+    
+    /** Removes the NoteUI, and its note, from the PitchUI */
     public void removeNoteUI(NoteUI noteui)
         {
         remove(noteui);
         noteuis.remove(noteui);
+        noteuisByNote.remove(noteui.getNote());
+        if (notes.remove(noteui.getNote())) invalidateIndex();
         }
                 
     /** Adds the NoteUI to the PitchUI. The NoteUI must already
@@ -181,28 +222,30 @@ public class PitchUI extends JLayeredPane
             }
         }
         
-    /** Adds the NoteUI to the PitchUI */
+    /** Adds the NoteUI, and its note, to the PitchUI */
     public void addNoteUI(NoteUI noteui)
         {
         add(noteui, 0);
         noteuis.add(noteui);
+        noteuisByNote.put(noteui.getNote(), noteui);
+        if (notes.add(noteui.getNote())) invalidateIndex();
         noteui.setPitchUI(this);
         }
                 
-    /** Finds and returns the NoteUI for the given Note.  This is O(n) */
+    /** Finds and returns the NoteUI for the given Note, building it if need be.  
+        Returns null if the note isn't in this PitchUI. */
     public NoteUI getNoteUIFor(Notes.Note note)
         {
-        for(NoteUI noteui : noteuis)
+        NoteUI noteui = noteuisByNote.get(note);
+        if (noteui == null && notes.contains(note))
             {
-            if (noteui.getNote() == note)
-                {
-                return noteui;
-                }
+            noteui = materialize(note);
             }
-        return null;
+        return noteui;
         } 
 
-    /** Recaches note information in all the underlying NoteUIs */
+    /** Recaches note information in all the underlying NoteUIs, and moves notes without
+        NoteUIs whose pitches have changed to their proper PitchUIs. */
     public void reload()
         {
         // We need to copy the noteuis since they could wind up in a new PitchUI and that changes noteuis so it breaks the iterator
@@ -216,9 +259,11 @@ public class PitchUI extends JLayeredPane
             {
             recordedui.reload();
             }
+        reloadNotes(null);
         }
 
-    /** Recaches note information in all the underlying NoteUIs */
+    /** Recaches note information in all the underlying NoteUIs for the given events, and moves 
+        such notes without NoteUIs whose pitches have changed to their proper PitchUIs. */
     public void reload(HashSet<Notes.Event> events)
         {
         // We need to copy the noteuis since they could wind up in a new PitchUI and that changes noteuis so it breaks the iterator
@@ -231,6 +276,154 @@ public class PitchUI extends JLayeredPane
                 noteui.reload();
                 } 
             }
+        reloadNotes(events);
+        }
+    
+    // Moves notes without NoteUIs (among the given events, or all of them if events is null)
+    // to their proper PitchUIs if their pitches have changed, and marks the index as invalid. 
+    void reloadNotes(HashSet<Notes.Event> events)
+        {
+        ArrayList<Notes.Note> moved = new ArrayList<>();
+        ReentrantLock lock = getSeq().getLock();
+        lock.lock();
+        try
+            {
+            for(Notes.Note note : notes)
+                {
+                if (note.pitch != pitch && !noteuisByNote.containsKey(note) && (events == null || events.contains(note)))
+                    {
+                    moved.add(note);
+                    }
+                }
+            }
+        finally
+            {
+            lock.unlock();
+            }
+            
+        for(Notes.Note note : moved)
+            {
+            notes.remove(note);
+            gridui.getPitchUIs().get(note.pitch).addNote(note);
+            gridui.getPitchUIs().get(note.pitch).repaint();
+            }
+        invalidateIndex();
+        repaint();
+        }
+        
+        
+    ///// SPATIAL INDEX
+    
+    /** Marks the spatial index as invalid, so it will be rebuilt the next time it's needed.  
+        This must be called whenever a note in the PitchUI changes its onset or length. */
+    public void invalidateIndex() { sortedNotes = null; }
+    
+    // Rebuilds the spatial index if necessary.  This assumes you hold the lock.
+    void updateIndex()
+        {
+        if (sortedNotes != null) return;
+        Notes.Note[] sorted = notes.toArray(new Notes.Note[notes.size()]);
+        Arrays.sort(sorted, new Comparator<Notes.Note>()
+            {
+            public int compare(Notes.Note o1, Notes.Note o2) { return Integer.compare(o1.when, o2.when); }
+            });
+        sortedWhens = new int[sorted.length];
+        sortedMaxEnds = new int[sorted.length];
+        int maxEnd = Integer.MIN_VALUE;
+        for(int i = 0; i < sorted.length; i++)
+            {
+            sortedWhens[i] = sorted[i].when;
+            maxEnd = Math.max(maxEnd, sorted[i].when + sorted[i].length);
+            sortedMaxEnds[i] = maxEnd;
+            }
+        sortedNotes = sorted;
+        }
+    
+    // Returns the index in sortedNotes of the first note which, or any note before it, ends at or after the given time.
+    // This assumes you hold the lock and have called updateIndex().
+    int firstIndexEndingAtOrAfter(int time)
+        {
+        int low = 0;
+        int high = sortedNotes.length;
+        while(low < high)
+            {
+            int middle = (low + high) >>> 1;
+            if (sortedMaxEnds[middle] < time) low = middle + 1;
+            else high = middle;
+            }
+        return low;
+        }
+        
+    /** Returns all notes which overlap the time range from start to end inclusive, in order of onset. 
+        This is O(lg n) plus the number of notes which start before end but end before start. */
+    public ArrayList<Notes.Note> getNotes(int start, int end)
+        {
+        ArrayList<Notes.Note> found = new ArrayList<>();
+        ReentrantLock lock = getSeq().getLock();
+        lock.lock();
+        try
+            {
+            updateIndex();
+            for(int i = firstIndexEndingAtOrAfter(start); i < sortedNotes.length && sortedWhens[i] <= end; i++)
+                {
+                Notes.Note note = sortedNotes[i];
+                if (note.when + note.length >= start) found.add(note);
+                }
+            }
+        finally
+            {
+            lock.unlock();
+            }
+        return found;
+        }
+        
+    /** Returns the topmost note drawn at the given X pixel position, or null if there is none.  
+        NoteUIs are not considered: if there is a NoteUI at that position it'll receive its own mouse events. */
+    public Notes.Note getNoteAt(int x)
+        {
+        double scale = gridui.getScale();
+        int time = gridui.getTime(x);
+        Notes.Note found = null;
+        ReentrantLock lock = getSeq().getLock();
+        lock.lock();
+        try
+            {
+            updateIndex();
+            // Notes are at least NoteUI.MINIMUM_WIDTH pixels wide, so look a bit further back
+            int start = time - (int)Math.ceil(NoteUI.MINIMUM_WIDTH * scale);
+            for(int i = firstIndexEndingAtOrAfter(start); i < sortedNotes.length && sortedWhens[i] <= time; i++)
+                {
+                Notes.Note note = sortedNotes[i];
+                int noteX = (int)(note.when / scale);
+                int width = Math.max((int)(note.length / scale), NoteUI.MINIMUM_WIDTH);
+                if (x >= noteX && x < noteX + width && !noteuisByNote.containsKey(note))
+                    {
+                    found = note;           // later notes are drawn on top
+                    }
+                }
+            }
+        finally
+            {
+            lock.unlock();
+            }
+        return found;
+        }
+    
+    // Paints all notes without NoteUIs which overlap the time range from start to end.  This assumes you hold the lock.
+    void paintNotes(Graphics2D g, int start, int end)
+        {
+        updateIndex();
+        double scale = gridui.getScale();
+        int height = getPitchHeight();
+        Rectangle bounds = new Rectangle();
+        start -= (int)Math.ceil(NoteUI.MINIMUM_WIDTH * scale);
+        for(int i = firstIndexEndingAtOrAfter(start); i < sortedNotes.length && sortedWhens[i] <= end; i++)
+            {
+            Notes.Note note = sortedNotes[i];
+            if (noteuisByNote.containsKey(note)) continue;          // it'll draw itself
+            bounds.setBounds((int)(note.when / scale), 0, (int)(note.length / scale), height);
+            NoteUI.paintNote(g, bounds, note.velocity, note.out != Notes.DEFAULT_OUT, note.selected, false);
+            }
         }
     
     public Dimension getPreferredSize()
@@ -429,6 +622,17 @@ public class PitchUI extends JLayeredPane
             vertical.setLine(endX, 0, endX, getPitchHeight());
             g.draw(vertical);
             }
+            
+        // draw notes which don't have NoteUIs.  The NoteUIs will be drawn on top as our children.
+        lock.lock();
+        try
+            {
+            paintNotes(g, startWhen, endWhen);
+            }
+        finally
+            {
+            lock.unlock();
+            }
         }
 
 
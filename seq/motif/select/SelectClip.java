@@ -184,6 +184,8 @@ public class SelectClip extends Clip
 
         int numChildren = children.size();
         int device = motif.getGridDevice();
+        // Pad only sends the pads which have changed, and gathers them into a single message if it can
+        Pad.beginFrame(seq, out);
         for(int i = 0; i < Select.MAX_CHILDREN; i++)
             {
             if (i >= numChildren)               // I don't think this ever happens any more
@@ -205,6 +207,7 @@ public class SelectClip extends Clip
                 }
             }
         clearCommands();
+        Pad.endFrame(seq, out);
         }
 
 
@@ -229,12 +232,14 @@ public class SelectClip extends Clip
         int out = motif.getOut() - 1;
         if (out < 0) return;
 
+        Pad.beginFrame(seq, out);
         for(int i = 0; i < Pad.PAD_INDICES.length - 2; i++)
             {
             Pad.setPad(seq, out, device, Pad.PAD_INDICES[i], Pad.PAD_STATE_UNUSED);
             }
         Pad.setPad(seq, out, device, Pad.PAD_INDEX_C, Pad.PAD_STATE_OFF, 0);
         Pad.setPad(seq, out, device, Pad.PAD_INDEX_D, Pad.PAD_STATE_OFF, 1);
+        Pad.endFrame(seq, out);
         }
 
     // Extracts an OUT and NOTE from a given NODE, sets the node to the given state,
@@ -344,14 +349,14 @@ public class SelectClip extends Clip
         current = node.index;
         loadParameterValues(node.clip, node.getChild(this));
 
-        if (rate == 1.0) return node.clip.advance();
+        if (rate == 1.0) return advanceBatched(node.clip);
         else
             {
             boolean result = false;
             node.cumulativeRate += rate;
             for( /* Empty */ ; node.lastPos + 1.0 < node.cumulativeRate; node.lastPos++)
                 {
-                result = result || node.clip.advance();
+                result = result || advanceBatched(node.clip);
                 }
             return result;
             }
@@ -450,6 +455,11 @@ public class SelectClip extends Clip
             }
         }
 
+    // Our subscription to incoming pad presses
+    InputRouter.Subscription padSubscription;
+    // Our subscription to incoming parameter CCs
+    InputRouter.Subscription ccSubscription;
+    
     // given current MIDI messages, extracts pads and either adds their nodes to PUTPLAYINGHERE or PUTSTOPPINGHERE.
     // PUTSTOPPINGHERE may be null, in which case nodes to be added to it are just dropped.
     void getChildrenFromMIDI(ArrayList<Node> putPlayingHere, ArrayList<Node> putStoppingHere)
@@ -460,15 +470,16 @@ public class SelectClip extends Clip
         int in = select.getIn() - 1;
         if (in < 0) return;
         
-        MidiMessage[] messages = seq.getIn(in).getMessages();
         int out = select.getOut() - 1;
         int device = select.getGridDevice();
-        for(int i = 0; i < messages.length; i++)                // int i = messages.length - 1; i >= 0; i--)
+        padSubscription = seq.getInputRouter().subscribe(padSubscription, in, InputRouter.CC | InputRouter.NOTE_ON, Midi.OMNI, InputRouter.ANY_CC);
+        for(int i = 0; i < padSubscription.size(); i++)
             {
-            if (isCC(messages[i]))
+            MidiMessage message = padSubscription.getMessage(i);
+            if (isCC(message))
                 {
-                int cc = ((ShortMessage)messages[i]).getData1();
-                int val = ((ShortMessage)messages[i]).getData2();
+                int cc = ((ShortMessage)message).getData1();
+                int val = ((ShortMessage)message).getData2();
                 int c = Pad.getIndexForCC(select.gridDevice, cc);
                 
                 if (c == Pad.PAD_INDEX_C)  // Finish
@@ -496,12 +507,16 @@ public class SelectClip extends Clip
                         }
                     }
                 }
-            else if (isNoteOn(messages[i]))
+            else if (isNoteOn(message))
                 {
-                int velocity = ((ShortMessage)messages[i]).getData2();
+                int velocity = ((ShortMessage)message).getData2();
                 if (velocity > 0)       // otherwise it's actually a NOTE OFF
                     {
-                    int c = Pad.getIndexForNote(select.getGridDevice(), ((ShortMessage)messages[i]).getData1());
+                    int c = Pad.getIndexForNote(select.getGridDevice(), ((ShortMessage)message).getData1());
+                    if (device == Pad.DEVICE_AKAI_APC && out >= 0)
+                        {
+                        Pad.invalidate(out, c);                 // the APC has lit the pad on its own, so we no longer know its color
+                        }
                     if (c >= 0 && c < select.getChildren().size()) // we have a child
                         {
                         Node child = getChild(c);
@@ -549,10 +564,10 @@ public class SelectClip extends Clip
                     }
                 }
 /*
-  else if (isNoteOff(messages[i]))
+  else if (isNoteOff(message))
   {
-  int velocity = ((ShortMessage)messages[i]).getData2();
-  int c = Pad.getIndexForNote(select.getGridDevice(), ((ShortMessage)messages[i]).getData1());
+  int velocity = ((ShortMessage)message).getData2();
+  int c = Pad.getIndexForNote(select.getGridDevice(), ((ShortMessage)message).getData1());
   if (c < 0 && c != Pad.PAD_INDEX_C && c != Pad.PAD_INDEX_D)
   {
   System.err.println("Set Pad OFF " + device + " " + c + " " + Pad.PAD_STATE_UNUSED);
@@ -565,13 +580,14 @@ public class SelectClip extends Clip
         in = select.getCCIn() - 1;
         if (in >= 0)
             {
-            messages = seq.getIn(in).getMessages();
-            for(int i = messages.length - 1; i >= 0; i--)
+            ccSubscription = seq.getInputRouter().subscribe(ccSubscription, in, InputRouter.CC, Midi.OMNI, InputRouter.ANY_CC);
+            for(int i = ccSubscription.size() - 1; i >= 0; i--)
                 {
-                if (isCC(messages[i]))
+                MidiMessage message = ccSubscription.getMessage(i);
+                if (isCC(message))
                     {
-                    int cc = ((ShortMessage)messages[i]).getData1();
-                    int val = ((ShortMessage)messages[i]).getData2();
+                    int cc = ((ShortMessage)message).getData1();
+                    int val = ((ShortMessage)message).getData2();
                     for(int j = 0; j < Motif.NUM_PARAMETERS; j++)
                         {
                         if (select.getCC(j) == cc)
@@ -960,6 +976,20 @@ public class SelectClip extends Clip
         }
   
 
+    /** Does to the events in the batch what noteOn(...), noteOff(...), and scheduleNoteOff(...) do to them one at a time. */
+    public void transformBatch(EventBatch batch, int start, int end)
+        {
+        if (current >= 0)
+            {
+            Select.Data data = ((Select.Data)(getMotif().getChildren().get(current).getData()));
+            batch.transformNotes(start, end, 
+                data.getOut() != Select.Data.DISABLED ? data.getOut() : -1,
+                getCorrectedValueInt(data.getTranspose(), Select.Data.MAX_TRANSPOSE * 2) - Select.Data.MAX_TRANSPOSE,
+                getCorrectedValueDouble(data.getGain(), Select.Data.MAX_GAIN),
+                getCorrectedValueDouble(data.getRate()));
+            }
+        }
+
     public void noteOn(int out, int note, double vel, int id) 
         {
         if (current >= 0)
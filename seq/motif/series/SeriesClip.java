@@ -268,14 +268,14 @@ public class SeriesClip extends Clip
         {
         loadParameterValues(node.clip, node.child);                                     // this is done every time it's advanced
                    
-        if (rate == 1.0) return node.clip.advance();
+        if (rate == 1.0) return advanceBatched(node.clip);
         else
             {
             boolean result = false;
             node.cumulativeRate += rate;
             for( /* Empty */ ; node.lastPos + 1.0 < node.cumulativeRate; node.lastPos++)
                 {
-                result = result || node.clip.advance();
+                result = result || advanceBatched(node.clip);
                 }
             return result;
             }
@@ -329,7 +329,7 @@ public class SeriesClip extends Clip
         {
         ordering = new int[kids.size()];
         for(int i = 0; i < ordering.length; i++) ordering[i] = i;
-        shuffle(ordering, ThreadLocalRandom.current());
+        shuffle(ordering, seq.getRandom());
         orderingIndex = 0;
         playingIndex = ordering[orderingIndex];
         }
@@ -367,7 +367,7 @@ public class SeriesClip extends Clip
                 }
             else if (mode == Series.MODE_RANDOM || mode == Series.MODE_MARKOV)
                 {
-                playingIndex = ThreadLocalRandom.current().nextInt(kids.size());
+                playingIndex = seq.getRandom().nextInt(kids.size());
                 }
             else if (mode == Series.MODE_ROUND_ROBIN)
                 {
@@ -464,7 +464,7 @@ public class SeriesClip extends Clip
             playingRepeat++;
             boolean repeatUntilTrigger = data.getRepeatUntilTrigger();
         
-            java.util.Random random = ThreadLocalRandom.current();
+            java.util.Random random = seq.getRandom();
             if ((repeatUntilTrigger && checkAndResetTrigger(TRIGGER_PARAMETER)) ||
                     (!repeatUntilTrigger && (playingRepeat > getCorrectedValueInt(data.getRepeatAtLeast(), Series.Data.MAX_REPEAT_VALUE)) && 
                     (random.nextDouble() >= getCorrectedValueDouble(data.getRepeatProbability()))))
@@ -563,6 +563,20 @@ public class SeriesClip extends Clip
         else return false;
         }
    
+    /** Does to the events in the batch what noteOn(...), noteOff(...), and scheduleNoteOff(...) do to them one at a time. */
+    public void transformBatch(EventBatch batch, int start, int end)
+        {
+        if (playingIndex >= 0)
+            {
+            Series.Data data = getNode(playingIndex).getData();
+            batch.transformNotes(start, end, 
+                data.getOut() != Series.Data.DISABLED ? data.getOut() : -1,
+                getCorrectedValueInt(data.getTranspose(), Series.Data.MAX_TRANSPOSE * 2) - Series.Data.MAX_TRANSPOSE,
+                getCorrectedValueDouble(data.getGain(), Series.Data.MAX_GAIN),
+                getCorrectedValueDouble(data.getRate()));
+            }
+        }
+
     public void noteOn(int out, int note, double vel, int id) 
         {
         if (playingIndex >= 0)
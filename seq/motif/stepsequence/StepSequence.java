@@ -315,6 +315,14 @@ public class StepSequence extends Motif
         trackValueLSBs[to] = trackValueLSBs[from];
         }
 
+    public long getApproximateSize() 
+        { 
+        long size = super.getApproximateSize();
+        for(int i = 0; i < getNumTracks(); i++)
+            size += 256 + getNumSteps(i) * 40L;             // on, notes, velocities, flams, when, LSBs...
+        return size;
+        }
+    
     public Motif copy()
         {
         StepSequence other = (StepSequence)(super.copy());
@@ -769,9 +777,9 @@ public class StepSequence extends Motif
         {
         int w = getFinalWhen(track, step);
         if (w == ALWAYS) return true;
-        else if (w < PROB_TRACK) return (ThreadLocalRandom.current().nextDouble(10.0) < w); //w is integer between 1 and 9 hence the bound
-        else if (w == PROB_TRACK) return (ThreadLocalRandom.current().nextDouble() < invNumTracks);
-        else if (w == PROB_OFF_TRACK) return !(ThreadLocalRandom.current().nextDouble() < invNumTracks);
+        else if (w < PROB_TRACK) return (seq.getRandom().nextDouble() * 10.0 < w); //w is integer between 1 and 9 hence the bound
+        else if (w == PROB_TRACK) return (seq.getRandom().nextDouble() < invNumTracks);
+        else if (w == PROB_OFF_TRACK) return !(seq.getRandom().nextDouble() < invNumTracks);
         else return WHEN[w - A1_2][iteration % WHEN[w - A1_2].length];
         }
           
@@ -68,8 +68,6 @@ public class StepSequenceClip extends Clip
             {
             if (dSeq.getType() == StepSequence.TYPE_NOTE)
                 {
-                //if (playingStep[track] == 15) 
-                System.err.println("Note off 16 at " + getPosition());
                 noteOff(dSeq.getFinalOut(track), trackNoteOn[track], 0x40, trackNoteID[track]);
                 }
             trackNoteOn[track] = OFF;
@@ -102,7 +100,6 @@ public class StepSequenceClip extends Clip
             int stepLen = len / numStepsInTrack;
             int step = pos * numStepsInTrack / len;
             int remainder = (pos - step * stepLen);     // compute remainder without swing
-            System.err.println("remainder " + remainder);
             int releaseTime = /*seq.getTime() +*/ remainder;        // absolute time, not relative
             
             
@@ -120,8 +117,6 @@ public class StepSequenceClip extends Clip
             
             if (dSeq.getType() == StepSequence.TYPE_NOTE)
                 {
-                //if (playingStep[track] == 15) 
-                System.err.println("Schedule Note off on 16 at " + getPosition() + " for " + releaseTime);
                 scheduleNoteOff(dSeq.getFinalOut(track), trackNoteOn[track], 0x40, releaseTime, trackNoteID[track]);
                 }
             trackNoteOn[track] = OFF;                                                                       // not sure if we should do this...
@@ -170,6 +165,28 @@ public class StepSequenceClip extends Clip
 
         
     public double getCurrentPos(int track) { return currentPos[track]; }
+
+    /** Where a StepSequenceClip is playing, as stored in a Seq.Snapshot. */
+    public static final class Playhead
+        {
+        final int[] currentStep;
+        final double[] currentPos;
+        
+        Playhead(int[] currentStep, double[] currentPos)
+            {
+            this.currentStep = currentStep;
+            this.currentPos = currentPos;
+            }
+            
+        /** Returns the number of tracks. */
+        public int getNumTracks() { return currentStep.length; }
+        /** Returns the currently playing step in the track, else -1 */
+        public int getCurrentStep(int track) { return (track < currentStep.length ? currentStep[track] : -1); }
+        /** Returns how far through the track we are, from 0.0 to 1.0. */
+        public double getCurrentPos(int track) { return (track < currentPos.length ? currentPos[track] : 0.0); }
+        }
+        
+    public Object getPlayhead() { return new Playhead(currentStep.clone(), currentPos.clone()); }
         
     final static int[] EMPTY = new int[0];
     int numExclusiveTracks = 0;
@@ -187,11 +204,10 @@ In in = seq.getIn(((StepSequence)getMotif()).getIn());
 if (in == null) return;
 int channel = in.getChannel();
         
-MidiMessage[] messages = in.getMessages();
 // Find last NOTE ON or NOTE OFF of the right channel
-for(int i = messages.length - 1; i >= 0; i--)
+for(int i = in.getNumMessages() - 1; i >= 0; i--)
 {
-MidiMessage message = messages[i];
+MidiMessage message = in.getMessage(i);
 if (message instanceof ShortMessage)
 {
 ShortMessage shortmessage = (ShortMessage)message;
@@ -230,18 +246,21 @@ return;
 }
 */
         
+    // Our subscription to incoming NOTE ON messages while learning
+    InputRouter.Subscription learnSubscription;
+    
     // called if we're doing learning for the track
     void doLearning(final int track)
         {
         In in = seq.getIn(((StepSequence)getMotif()).getIn());
         if (in == null) return;
         int channel = in.getChannel();
+        learnSubscription = seq.getInputRouter().subscribe(learnSubscription, ((StepSequence)getMotif()).getIn(), InputRouter.NOTE_ON, channel, InputRouter.ANY_CC);
         
-        MidiMessage[] messages = in.getMessages();
         // Find last NOTE ON of the right channel
-        for(int i = messages.length - 1; i >= 0; i--)
+        for(int i = learnSubscription.size() - 1; i >= 0; i--)
             {
-            MidiMessage message = messages[i];
+            MidiMessage message = learnSubscription.getMessage(i);
             if (message instanceof ShortMessage)
                 {
                 ShortMessage shortmessage = (ShortMessage)message;
@@ -252,6 +271,7 @@ return;
                     dSeq.setTrackNote(track, shortmessage.getData1());
                     // turn off learning
                     dSeq.setTrackLearning(track, false);
+                    dSeq.incrementEdits();
                     seq.issueRunnable(new Runnable()
                         {
                         public void run() 
@@ -300,7 +320,8 @@ return;
             // A track is exclusive if (1) no tracks are soloed (2) the track isn't muted (3) the track is declared exclusive
             if (!dSeq.isATrackSoloed())
                 {
-                exclusive = new int[numTracks];         // should we not allocate this each time FIXME
+                if (exclusive.length != numTracks) exclusive = new int[numTracks];
+                numExclusiveTracks = 0;
                 for(int track = 0; track < numTracks; track++)
                     {
                     if (dSeq.isTrackExclusive(track) && dSeq.isTrackMuted(track))
@@ -311,7 +332,7 @@ return;
                 // pick an exclusive track
                 if (numExclusiveTracks > 0)
                     {
-                    exclusiveTrack = exclusive[ThreadLocalRandom.current().nextInt(numExclusiveTracks)];
+                    exclusiveTrack = exclusive[seq.getRandom().nextInt(numExclusiveTracks)];
                     }
                 }
             invNumTracks = 1.0 / numTracks;                 // For now we're just computing this at pos=0, which is suboptimal but it avoids a division every time, it's just used for random computation
@@ -412,8 +433,6 @@ return;
                             {
                             case(StepSequence.TYPE_NOTE):        
                                 if (velocity == 0) velocity = 1;                        
-                                //if (playingStep[track] == 15) 
-                                System.err.println("Note on 16 at " + getPosition());
                                 id = noteOn(dSeq.getFinalOut(track), note, velocity);
                                 notes = true;
                                 break;
@@ -491,8 +510,62 @@ return;
 
 
     // TESTING
+    // Plays a dense StepSequence faster than real time into an emitter and reports how
+    // many bytes the sequencer thread allocates per step.  Run as 
+    //      java seq.motif.stepsequence.StepSequenceClip -allocation
+    static void testAllocation() throws Exception
+        {
+        final int NUM_TRACKS = 16;
+        final int WARMUP_STEPS = 100000;
+        final int STEPS = 1000000;
+        
+        Seq seq = new Seq();
+        seq.setupForMIDI();                     // all outs go nowhere
+        final long[] messages = new long[1];
+        seq.setEmitter(new Receiver()
+            {
+            public void send(MidiMessage message, long timestamp) { messages[0]++; }
+            public void close() { }
+            });
+        seq.setLooping(true);
+        
+        StepSequence dSeq = new StepSequence(seq, NUM_TRACKS, 16);
+        for(int track = 0; track < NUM_TRACKS; track++)
+            {
+            dSeq.setTrackNote(track, 36 + track);
+            dSeq.setTrackOut(track, track % Seq.NUM_OUTS);
+            for(int step = 0; step < 16; step++)
+                dSeq.setVelocity(track, step, 100, true);
+            }
+        seq.setData(dSeq);
+        seq.reset();
+        seq.play();
+        seq.getClockSource().stop();            // we'll drive it ourselves
+        
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)(java.lang.management.ManagementFactory.getThreadMXBean());
+        long id = Thread.currentThread().getId();
+        
+        for(int i = 0; i < WARMUP_STEPS; i++) seq.step();
+        messages[0] = 0;
+        long bytes = bean.getThreadAllocatedBytes(id);
+        long nanos = System.nanoTime();
+        for(int i = 0; i < STEPS; i++) seq.step();
+        nanos = System.nanoTime() - nanos;
+        bytes = bean.getThreadAllocatedBytes(id) - bytes;
+        seq.stop();
+        
+        System.err.println("Steps:            " + STEPS);
+        System.err.println("Messages:         " + messages[0]);
+        System.err.println("Bytes per step:   " + String.format("%.2f", bytes / (double)STEPS));
+        System.err.println("Bytes per message: " + String.format("%.2f", bytes / (double)Math.max(1, messages[0])));
+        System.err.println("Nanos per step:   " + String.format("%.1f", nanos / (double)STEPS));
+        System.exit(0);
+        }
+
     public static void main(String[] args) throws Exception
         {
+        if (args.length > 0 && args[0].equals("-allocation")) { testAllocation(); return; }
+        
         // Set up Seq
         Seq seq = new Seq();            // starts timer running
         seq.setupForMIDI(StepSequenceClip.class, args, 0, 2);   // sets up MIDI in and out
@@ -12,7 +12,6 @@ import java.awt.*;
 import java.awt.geom.*;
 import java.awt.event.*;
 import javax.swing.*;
-import java.util.concurrent.locks.*;
 import java.util.*;
 
 public class Ruler extends JPanel
@@ -33,6 +32,26 @@ public class Ruler extends JPanel
         setToolTipText(TOOLTIP);
         }
 
+    // Where the playhead was last drawn, or -1 if it wasn't
+    int lastPlayheadX = -1;
+    // How far either side of the playhead line we repaint
+    static final int PLAYHEAD_SLOP = 3;
+
+    /** Repaints just the strips where the playhead was drawn last and where it is now, if it has moved. */
+    public void repaintPlayhead()
+        {
+        int x = -1;
+        StepSequenceClip.Playhead playhead = ssui.getPlayhead();
+        if (playhead != null)
+            {
+            x = (int)(ssui.getTrackWidth() * playhead.getCurrentPos(0) - ssui.getTrackX());
+            }
+        if (x == lastPlayheadX) return;
+        int height = getBounds().height;
+        if (lastPlayheadX >= 0) repaint(lastPlayheadX - PLAYHEAD_SLOP, 0, PLAYHEAD_SLOP * 2 + 1, height);
+        if (x >= 0) repaint(x - PLAYHEAD_SLOP, 0, PLAYHEAD_SLOP * 2 + 1, height);
+        }
+
     public Dimension getMinimumSize()
         {
         return minSize;
@@ -44,25 +63,18 @@ public class Ruler extends JPanel
         int width = ssui.getTrackWidth();
         int x = ssui.getTrackX();
         double pos = 0;
+        lastPlayheadX = -1;
         
-        StepSequenceClip clip = (StepSequenceClip)(ssui.getDisplayClip());
-        if (clip != null)
+        StepSequenceClip.Playhead playhead = ssui.getPlayhead();
+        if (playhead != null)
             {
-            ReentrantLock lock = seq.getLock();
-            lock.lock();
-            try
-                {
-                pos = clip.getCurrentPos(0);
-                }
-            finally
-                {
-                lock.unlock();
-                }
+            pos = playhead.getCurrentPos(0);
 
             Graphics2D g = (Graphics2D) _g;
             g.setPaint(PLAY_COLOR);
             g.setStroke(PLAY_STROKE);
             double gpos = width * pos - x;
+            lastPlayheadX = (int)gpos;
             g.draw(new Line2D.Double(gpos, 0, gpos, getBounds().height));
             }
         }
@@ -58,8 +58,9 @@ public class StepSequenceUI extends MotifUI
     public boolean isAllDirty() { return allDirty; }
     public void setDirty(int track, int step, boolean val) 
         { 
+        if (track < 0 || track >= tracks.size()) return;
         TrackUI trackui = getTrack(track);
-        if (trackui != null)
+        if (trackui != null && step >= 0 && step < trackui.getSteps().size())
             {
             StepUI stepui = trackui.getStep(step);
             if (stepui != null) stepui.setDirty(true); 
@@ -352,63 +353,66 @@ public class StepSequenceUI extends MotifUI
     
     
           
+    /** Returns where the displayed clip is playing, as of the Seq's most recent Snapshot, or null if it isn't
+        playing or we're not being displayed.  This doesn't acquire the lock. */
+    public StepSequenceClip.Playhead getPlayhead()
+        {
+        Object playhead = getDisplayPlayhead();
+        return (playhead instanceof StepSequenceClip.Playhead ? (StepSequenceClip.Playhead)playhead : null);
+        }
+          
     public void updateDirty()
         {
         //updating = true;
-        StepSequenceClip clip = ((StepSequenceClip)(getDisplayClip()));
-        if (clip != null)
+        StepSequenceClip.Playhead playhead = getPlayhead();
+        if (playhead != null)
             {
-            int numTracks = 0;
-            ReentrantLock lock = seq.getLock();
-            lock.lock();
-            try 
+            // Determine the current and previous steps
+            int numTracks = playhead.getNumTracks();
+            if (currentSteps == null || currentSteps.length != numTracks)
                 {
-                // Determine the current and previous steps
-                numTracks = ss.getNumTracks();
-                if (currentSteps == null || currentSteps.length != numTracks)
+                // Gotta rebuild current steps, there are no last steps
+                currentSteps = new int[numTracks];
+                for(int i = 0; i < numTracks; i++)
                     {
-                    // Gotta rebuild current steps, there are no last steps
-                    currentSteps = new int[numTracks];
-                    for(int i = 0; i < numTracks; i++)
-                        {
-                        currentSteps[i] = clip.getCurrentStep(i);
-                        }
-                    lastSteps = null;               // they're invalid
+                    currentSteps[i] = playhead.getCurrentStep(i);
                     }
-                else
+                lastSteps = null;               // they're invalid
+                }
+            else
+                {
+                // move over the current steps to last steps and reload
+                if (lastSteps == null || lastSteps.length != numTracks)
                     {
-                    // move over the current steps to last steps and reload
-                    if (lastSteps == null || lastSteps.length != numTracks)
-                        {
-                        lastSteps = new int[numTracks];
-                        }
-                    for(int i = 0; i < numTracks; i++)
-                        {
-                        lastSteps[i] = currentSteps[i];
-                        currentSteps[i] = clip.getCurrentStep(i);
-                        }
+                    lastSteps = new int[numTracks];
+                    }
+                for(int i = 0; i < numTracks; i++)
+                    {
+                    lastSteps[i] = currentSteps[i];
+                    currentSteps[i] = playhead.getCurrentStep(i);
                     }
+                }
                                 
-                // Now, who's dirty?
-                if (lastSteps == null)
-                    setAllDirty(true);
-                else
+            // Now, who's dirty?
+            if (lastSteps == null)
+                setAllDirty(true);
+            else
+                {
+                for(int i = 0; i < numTracks; i++)
                     {
-                    for(int i = 0; i < numTracks; i++)
+                    if (lastSteps[i] != currentSteps[i]) // it's changed
                         {
-                        if (lastSteps[i] != currentSteps[i]) // it's changed
-                            {
-                            setDirty(i, lastSteps[i], true);
-                            setDirty(i, currentSteps[i], true);
-                            }
+                        setDirty(i, lastSteps[i], true);
+                        setDirty(i, currentSteps[i], true);
                         }
                     }
                 }
-            finally { lock.unlock(); }
             }
-        else
+        else if (currentSteps != null)
             {
-            // uhm, invalid clip I guess, mark us as fully dirty
+            // The clip went away, so the playhead has to be erased everywhere, once
+            currentSteps = null;
+            lastSteps = null;
             allDirty = true;
             }
         }
@@ -419,7 +423,6 @@ public class StepSequenceUI extends MotifUI
             {
             public void paint(Graphics _g)
                 {
-                updateDirty();
                 Graphics2D g = (Graphics2D) _g;
                 RenderingHints oldHints = g.getRenderingHints();
                 // g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -987,8 +990,11 @@ public class StepSequenceUI extends MotifUI
         { 
         if (inResponseToStep)
             {
-            primaryScroll.getViewport().repaint();                  // just repaint the viewport, not the scroll view
-            if (ruler != null) ruler.repaint();
+            // Only the steps which the playhead has left or arrived at are repainted (updateDirty() does this),
+            // unless we don't know where the playhead was, and then we repaint the viewport, not the scroll view
+            updateDirty();
+            if (isAllDirty()) primaryScroll.getViewport().repaint();
+            if (ruler != null) ruler.repaintPlayhead();
             }
         else 
             {
@@ -180,10 +180,11 @@ public class StepUI extends JComponent
                 }
             on = ss.isOn(trackNum, stepNum);
             finalVelocity = ss.getFinalVelocity(trackNum, stepNum);
-            StepSequenceClip clip = (StepSequenceClip)(ssui.getDisplayClip());              // already locks :-(
-            iAmCurrentStep = (clip != null && clip.getCurrentStep(trackNum) == stepNum);
             }
         finally { lock.unlock(); }
+        
+        StepSequenceClip.Playhead playhead = ssui.getPlayhead();
+        iAmCurrentStep = (playhead != null && playhead.getCurrentStep(trackNum) == stepNum);
 
         Graphics2D g = (Graphics2D) _g;
         
@@ -6,6 +6,21 @@
 package seq.util;
 
 import javax.sound.sampled.*;
+import java.util.*;
+
+/**
+   Beep plays a tone, and metronome clicks, through the default audio output.  The tone is turned on and off,
+   and its frequency changed, with setFrequencyAndAmplitude(...) and friends, and so starts and stops whenever
+   the audio thread gets around to it.  Clicks are instead scheduled ahead of time with click(...) for a given
+   System.nanoTime(), and Beep starts each one at the sample which will be heard at that time.  Each click is
+   played from a wavetable computed once per frequency.
+
+   <p>To know which sample will be heard when, Beep keeps track of how much audio is buffered in the audio line,
+   and maps sample positions to System.nanoTime(), smoothing out jitter in the line's reported position.
+   Audio hardware and drivers may add latency of their own which the line doesn't report: setLatency(...)
+   tells Beep to start clicks that much earlier to compensate.  A click scheduled too late to start on time
+   is started as soon as possible.
+**/
 
 public class Beep
     {
@@ -22,6 +37,121 @@ public class Beep
     double frequency = DEFAULT_FREQUENCY;
     double amplitude = 0.0;
     double ramp = 0;
+
+    /** How long a click lasts, in seconds */
+    public static final double CLICK_LENGTH = 0.06;
+    /** The most clicks which may be scheduled or playing at one time.  More are dropped. */
+    public static final int MAX_CLICKS = 8;
+    /** Clicks scheduled closer together than this, in nanoseconds, are treated as the same click */
+    public static final long SAME_CLICK_NANOS = 20000000L;
+    // How much of the difference between the measured and predicted time of the next sample we correct each chunk
+    static final double SMOOTHING = 0.05;
+    // If the measured and predicted time of the next sample are further apart than this, we start over, as the line probably underran
+    static final long MAX_DRIFT_NANOS = 20000000L;
+    static final double NANOS_PER_FRAME = 1000000000.0 / SAMPLING_RATE;
+
+    // A scheduled or playing click
+    static class Click
+        {
+        long nanos;                     // when it should be heard
+        float[] table;
+        double amplitude;
+        int position = -1;              // the next sample in table to play, or -1 if not started
+        }
+        
+    // The clicks, guarded by frequencyLock.  Only the first numClicks are valid.
+    Click[] clicks = new Click[MAX_CLICKS];
+    int numClicks = 0;
+    // Output latency compensation in nanoseconds, guarded by frequencyLock
+    long latency = 0;
+
+    // Click wavetables by frequency
+    static HashMap<Double, float[]> clickTables = new HashMap<>();
+    
+    // Returns the wavetable for a click at the given frequency: a sine with RAMP fade-in and fade-out
+    static float[] getClickTable(double frequency)
+        {
+        synchronized(clickTables)
+            {
+            float[] table = clickTables.get(frequency);
+            if (table == null)
+                {
+                table = new float[(int)(CLICK_LENGTH * SAMPLING_RATE)];
+                double convertedFrequency = 2 * Math.PI / SAMPLING_RATE * frequency;
+                for(int i = 0; i < table.length; i++)
+                    {
+                    double envelope = Math.min(1.0, Math.min(i, table.length - 1 - i) * RAMP);
+                    table[i] = (float)(Math.sin(i * convertedFrequency) * envelope);
+                    }
+                clickTables.put(frequency, table);
+                }
+            return table;
+            }
+        }
+
+    /** Schedules a click at the given frequency and amplitude (0.0 ... 1.0) to be heard at the given 
+        System.nanoTime().  If a click not yet started is already scheduled within SAME_CLICK_NANOS of this one,
+        it is replaced by this one; if one has already started, this one is ignored.  Clicks are only played
+        while Beep is running.  */
+    public void click(long nanos, double frequency, double amplitude)
+        {
+        if (frequency <= 0 || frequency > SAMPLING_RATE / 2.0) 
+            frequency = DEFAULT_FREQUENCY;
+        if (amplitude < 0) amplitude = 0;
+        if (amplitude > 1) amplitude = 1;
+        float[] table = getClickTable(frequency);
+        synchronized(frequencyLock)
+            {
+            for(int i = 0; i < numClicks; i++)
+                {
+                Click click = clicks[i];
+                if (Math.abs(click.nanos - nanos) < SAME_CLICK_NANOS)
+                    {
+                    if (click.position < 0)
+                        {
+                        click.nanos = nanos;
+                        click.table = table;
+                        click.amplitude = amplitude;
+                        }
+                    return;
+                    }
+                }
+            if (numClicks == MAX_CLICKS) return;
+            Click click = new Click();
+            click.nanos = nanos;
+            click.table = table;
+            click.amplitude = amplitude;
+            clicks[numClicks++] = click;
+            }
+        }
+        
+    /** Cancels all scheduled clicks, and stops any which are playing. */
+    public void cancelClicks()
+        {
+        synchronized(frequencyLock)
+            {
+            for(int i = 0; i < numClicks; i++) clicks[i] = null;
+            numClicks = 0;
+            }
+        }
+        
+    /** Sets the output latency compensation in milliseconds.  Clicks will be started this much earlier. */
+    public void setLatency(int ms)
+        {
+        synchronized(frequencyLock)
+            {
+            latency = Math.max(0, ms) * 1000000L;
+            }
+        }
+
+    /** Returns the output latency compensation in milliseconds. */
+    public int getLatency()
+        {
+        synchronized(frequencyLock)
+            {
+            return (int)(latency / 1000000L);
+            }
+        }
         
     /** Sets the Beep Frequency.  Default Frequency is 440.
         Frequency must be a value > 0 and &lt;= SAMPLING_RATE / 2.0, else it will be set to the Default Frequency.
@@ -174,11 +304,19 @@ public class Beep
                 try
                     {
                     byte[] chunk = new byte[CHUNK_SIZE];
+                    double[] samples = new double[CHUNK_SIZE / 2];
                     int pos = 0;
                     double freq = 0;
                     double amp = 0;
                     double oldfreq = 0;
                     double oldamp = 0;
+                    long lat = 0;
+                    
+                    // Frames written to the line so far
+                    long framesWritten = 0;
+                    // When the next frame we write will be heard, in System.nanoTime() nanoseconds
+                    double nextFrameNanos = 0;
+                    boolean anchored = false;
                                         
                     audioFormat = new AudioFormat( SAMPLING_RATE, 16, 1, true, false );
                     sdl = AudioSystem.getSourceDataLine( audioFormat );
@@ -193,10 +331,12 @@ public class Beep
                             amp = amplitude;
                             oldfreq = oldFrequency;
                             oldamp = oldAmplitude;
+                            lat = latency;
  
                             if (!running)
                                 {
                                 try { frequencyLock.wait(); } catch (InterruptedException ex) { return; }
+                                anchored = false;               // the line has probably run dry while we waited
                                 }
                             }
                                                         
@@ -205,20 +345,18 @@ public class Beep
                             if (amp == 0)
                                 {
                                 pos = 0; // Integer.MIN_VALUE;                // might as well reset
-                                for(int i = 0; i < chunk.length; i++)
+                                for(int i = 0; i < samples.length; i++)
                                     {
-                                    chunk[i] = 0;
+                                    samples[i] = 0;
                                     }
                                 }
                             else
                                 {
                                 double convertedFrequency = 2 * Math.PI / SAMPLING_RATE * frequency;
-                                for(int i = 0; i < chunk.length; i+=2)
+                                for(int i = 0; i < samples.length; i++)
                                     {
-                                    int val = (int)(Math.sin(pos * convertedFrequency) * Short.MAX_VALUE * amp);
+                                    samples[i] = Math.sin(pos * convertedFrequency) * amp;
                                     pos++;
-                                    chunk[i] = (byte)(val & 255);
-                                    chunk[i+1] = (byte)((val >> 8) & 255);
                                     }
                                 }
                             }
@@ -226,19 +364,65 @@ public class Beep
                             {
                             double convertedFrequency = 2 * Math.PI / SAMPLING_RATE * frequency;
                             double convertedOldFrequency = 2 * Math.PI / SAMPLING_RATE * oldFrequency;
-                            for(int i = 0; i < chunk.length; i+=2)
+                            for(int i = 0; i < samples.length; i++)
                                 {
-                                int val = ((int)(Math.sin(pos * convertedFrequency) * Short.MAX_VALUE * amp * ramp)) +
-                                    ((int)(Math.sin(pos * convertedOldFrequency) * Short.MAX_VALUE * oldamp * (1.0 - ramp)));
+                                samples[i] = Math.sin(pos * convertedFrequency) * amp * ramp +
+                                    Math.sin(pos * convertedOldFrequency) * oldamp * (1.0 - ramp);
                                 pos++;
-                                chunk[i] = (byte)(val & 255);
-                                chunk[i+1] = (byte)((val >> 8) & 255);
                                 ramp += RAMP;
                                 if (ramp > 1) ramp = 1;
                                 }
                             }
+                        
+                        // When will this chunk be heard?  The line will play everything buffered first.
+                        long buffered = Math.max(0, framesWritten - sdl.getLongFramePosition());
+                        double measured = System.nanoTime() + buffered * NANOS_PER_FRAME + lat;
+                        if (!anchored || Math.abs(measured - nextFrameNanos) > MAX_DRIFT_NANOS)
+                            {
+                            nextFrameNanos = measured;
+                            anchored = true;
+                            }
+                        else nextFrameNanos += (measured - nextFrameNanos) * SMOOTHING;
+                        
+                        // Mix in the clicks
+                        synchronized(frequencyLock)
+                            {
+                            int j = 0;
+                            for(int c = 0; c < numClicks; c++)
+                                {
+                                Click click = clicks[c];
+                                int start = 0;
+                                if (click.position < 0)
+                                    {
+                                    double offset = (click.nanos - nextFrameNanos) / NANOS_PER_FRAME;
+                                    if (offset >= samples.length) { clicks[j++] = click; continue; }          // not yet
+                                    if (offset <= -click.table.length) continue;             // it would be over by now, so drop it
+                                    start = Math.max(0, (int)Math.round(offset));         // if we're late, start right away
+                                    click.position = 0;
+                                    }
+                                float[] table = click.table;
+                                for(int i = start; i < samples.length && click.position < table.length; i++)
+                                    {
+                                    samples[i] += table[click.position++] * click.amplitude;
+                                    }
+                                if (click.position < table.length) clicks[j++] = click;
+                                }
+                            for(int c = j; c < numClicks; c++) clicks[c] = null;
+                            numClicks = j;
+                            }
+                        
+                        for(int i = 0; i < samples.length; i++)
+                            {
+                            int val = (int)(samples[i] * Short.MAX_VALUE);
+                            if (val > Short.MAX_VALUE) val = Short.MAX_VALUE;
+                            if (val < Short.MIN_VALUE) val = Short.MIN_VALUE;
+                            chunk[i * 2] = (byte)(val & 255);
+                            chunk[i * 2 + 1] = (byte)((val >> 8) & 255);
+                            }
                                                         
                         sdl.write(chunk, 0, chunk.length);
+                        framesWritten += samples.length;
+                        nextFrameNanos += samples.length * NANOS_PER_FRAME;
                         }
                     }
                 catch (LineUnavailableException ex)
@@ -0,0 +1,261 @@
+/*
+  Copyright 2025 by Sean Luke and George Mason University
+  Licensed under Apache 2.0
+*/
+
+package seq.util;
+
+/**
+   A hash map from int keys to int values which, unlike HashMap&lt;Integer, Integer&gt;, does
+   not box its keys or values, and so does not allocate anything once it has grown to its working
+   size.  It is meant for bookkeeping keyed on note IDs in the real-time path.
+
+   <p>IntIntMap uses open addressing with linear probing, and removes by shifting later entries
+   back rather than leaving tombstones, so a map which sees many puts and removes does not degrade.
+   clear() empties the map without reallocating it.
+
+   <p>get(...) and remove(...) return NONE if the key is not in the map, so NONE should not
+   be stored as a value.  To iterate, you may do:
+
+   <pre>
+   for(int i = 0; i &lt; map.getCapacity(); i++)
+   {
+   if (map.isUsed(i)) ... map.getKeyAt(i) ... map.getValueAt(i) ...
+   }
+   </pre>
+
+   <p>... but you may not put or remove during such an iteration.  If you need to, iterate over keys() instead.
+
+   <p>IntIntMap is not synchronized.
+**/
+
+public class IntIntMap implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    /** Returned by get(...) and remove(...) when the key is not in the map. */
+    public static final int NONE = Integer.MIN_VALUE;
+    public static final int DEFAULT_CAPACITY = 16;
+
+    int[] keys;
+    int[] values;
+    boolean[] used;
+    int size = 0;
+    // keys.length - 1.  keys.length is always a power of two.
+    int mask;
+
+    public IntIntMap() { this(DEFAULT_CAPACITY); }
+
+    /** Builds an IntIntMap which can hold at least the given number of entries before it has to grow. */
+    public IntIntMap(int capacity)
+        {
+        int len = 2;
+        while(len < capacity * 2) len *= 2;               // keep the load factor at or under 1/2
+        keys = new int[len];
+        values = new int[len];
+        used = new boolean[len];
+        mask = len - 1;
+        }
+
+    // Spreads the bits of sequential keys, such as note IDs, across the table
+    static int hash(int key)
+        {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+        }
+
+    /** Returns the number of entries in the map. */
+    public int size() { return size; }
+
+    /** Returns true if the map has no entries. */
+    public boolean isEmpty() { return size == 0; }
+
+    /** Removes all entries from the map, without reallocating it. */
+    public void clear()
+        {
+        if (size == 0) return;
+        java.util.Arrays.fill(used, false);
+        size = 0;
+        }
+
+    // Returns the slot holding the key, or -1
+    int find(int key)
+        {
+        int i = hash(key) & mask;
+        while(used[i])
+            {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+            }
+        return -1;
+        }
+
+    /** Returns true if the key is in the map. */
+    public boolean containsKey(int key) { return find(key) >= 0; }
+
+    /** Returns the value for the given key, or NONE if the key is not in the map. */
+    public int get(int key)
+        {
+        int i = find(key);
+        return (i < 0 ? NONE : values[i]);
+        }
+
+    /** Maps the key to the value, and returns the previous value, or NONE if there was none. */
+    public int put(int key, int value)
+        {
+        int i = hash(key) & mask;
+        while(used[i])
+            {
+            if (keys[i] == key)
+                {
+                int old = values[i];
+                values[i] = value;
+                return old;
+                }
+            i = (i + 1) & mask;
+            }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) resize(keys.length * 2);
+        return NONE;
+        }
+
+    /** Removes the key and returns its value, or NONE if the key was not in the map. */
+    public int remove(int key)
+        {
+        int i = find(key);
+        if (i < 0) return NONE;
+        int old = values[i];
+
+        // Shift later entries in the run back into the hole, so lookups never stop early
+        int hole = i;
+        i = (i + 1) & mask;
+        while(used[i])
+            {
+            int home = hash(keys[i]) & mask;
+            // can the entry at i move back to the hole?  Only if its home isn't cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask))
+                {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+                }
+            i = (i + 1) & mask;
+            }
+        used[hole] = false;
+        size--;
+        return old;
+        }
+
+    /** Returns a new array holding the keys in the map, in no particular order. */
+    public int[] keys()
+        {
+        int[] k = new int[size];
+        int j = 0;
+        for(int i = 0; i < keys.length; i++)
+            if (used[i]) k[j++] = keys[i];
+        return k;
+        }
+
+    /** Returns the number of slots in the map, for iteration with isUsed(...), getKeyAt(...), and getValueAt(...). */
+    public int getCapacity() { return keys.length; }
+    /** Returns true if the given slot holds an entry. */
+    public boolean isUsed(int slot) { return used[slot]; }
+    /** Returns the key at the given slot, which must be used. */
+    public int getKeyAt(int slot) { return keys[slot]; }
+    /** Returns the value at the given slot, which must be used. */
+    public int getValueAt(int slot) { return values[slot]; }
+
+    void resize(int len)
+        {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[len];
+        values = new int[len];
+        used = new boolean[len];
+        mask = len - 1;
+        for(int j = 0; j < oldKeys.length; j++)
+            {
+            if (!oldUsed[j]) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while(used[i]) i = (i + 1) & mask;
+            used[i] = true;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+            }
+        }
+
+    /** Benchmarks IntIntMap against HashMap&lt;Integer, Integer&gt; with the pattern FilterClip sees, where a
+        fixed number of note IDs are live at a time, each put when its note starts and removed when it ends.  
+        Reports the time and bytes allocated per operation, then checks that IntIntMap agrees with HashMap 
+        over a long run of random puts, gets, and removes.  Run as java seq.util.IntIntMap [OPS [LIVE]]  */
+    public static void main(String[] args)
+        {
+        int ops = (args.length > 0 ? Integer.parseInt(args[0]) : 5000000);
+        int live = (args.length > 1 ? Integer.parseInt(args[1]) : 64);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long sum = 0;
+
+        for(int rep = 0; rep < 3; rep++)                // the first rep or two are warm-up
+            {
+            java.util.HashMap<Integer, Integer> hashMap = new java.util.HashMap<>();
+            long bytes = bean.getThreadAllocatedBytes(thread);
+            long time = System.nanoTime();
+            for(int id = 0; id < ops; id++)
+                {
+                hashMap.put(id, id & 127);
+                if (id >= live) sum += hashMap.remove(id - live);
+                }
+            long hashMapTime = System.nanoTime() - time;
+            long hashMapBytes = bean.getThreadAllocatedBytes(thread) - bytes;
+
+            IntIntMap map = new IntIntMap();
+            bytes = bean.getThreadAllocatedBytes(thread);
+            time = System.nanoTime();
+            for(int id = 0; id < ops; id++)
+                {
+                map.put(id, id & 127);
+                if (id >= live) sum += map.remove(id - live);
+                }
+            long mapTime = System.nanoTime() - time;
+            long mapBytes = bean.getThreadAllocatedBytes(thread) - bytes;
+
+            System.err.println("HashMap " + String.format("%.1f", hashMapTime / (double)ops) + " ns/op " + 
+                String.format("%.1f", hashMapBytes / (double)ops) + " B/op    IntIntMap " + 
+                String.format("%.1f", mapTime / (double)ops) + " ns/op " + 
+                String.format("%.2f", mapBytes / (double)ops) + " B/op");
+            }
+
+        java.util.Random random = new java.util.Random(1);
+        IntIntMap map = new IntIntMap();
+        java.util.HashMap<Integer, Integer> hashMap = new java.util.HashMap<>();
+        for(int i = 0; i < 2000000; i++)
+            {
+            int key = random.nextInt(300) - 100;
+            Integer expected;
+            int result;
+            switch(random.nextInt(3))
+                {
+                case(0):
+                    expected = hashMap.put(key, i);
+                    result = map.put(key, i);
+                break;
+                case(1):
+                    expected = hashMap.remove(key);
+                    result = map.remove(key);
+                break;
+                default:
+                    expected = hashMap.get(key);
+                    result = map.get(key);
+                break;
+                }
+            if ((expected == null ? NONE : expected.intValue()) != result || hashMap.size() != map.size())
+                throw new RuntimeException("IntIntMap disagrees with HashMap at operation " + i);
+            if (i % 500000 == 0) { map.clear(); hashMap.clear(); }
+            }
+        System.err.println("IntIntMap agrees with HashMap (" + sum + ")");
+        }
+    }
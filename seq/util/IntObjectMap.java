@@ -0,0 +1,259 @@
+/*
+  Copyright 2025 by Sean Luke and George Mason University
+  Licensed under Apache 2.0
+*/
+
+package seq.util;
+
+/**
+   A hash map from int keys to Object values which, unlike HashMap&lt;Integer, V&gt;, does
+   not box its keys, and so does not allocate anything once it has grown to its working
+   size.  It is the Object counterpart of IntIntMap.
+
+   <p>Like IntIntMap, IntObjectMap uses open addressing with linear probing and backward-shift removal,
+   and clear() empties the map without reallocating it.
+
+   <p>get(...) and remove(...) return null if the key is not in the map, so null should not
+   be stored as a value.  To iterate, you may do:
+
+   <pre>
+   for(int i = 0; i &lt; map.getCapacity(); i++)
+   {
+   if (map.isUsed(i)) ... map.getKeyAt(i) ... map.getValueAt(i) ...
+   }
+   </pre>
+
+   <p>... but you may not put or remove during such an iteration.  If you need to, iterate over keys() instead.
+
+   <p>IntObjectMap is not synchronized.
+**/
+
+@SuppressWarnings("unchecked")
+public class IntObjectMap<V> implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    int[] keys;
+    Object[] values;
+    boolean[] used;
+    int size = 0;
+    // keys.length - 1.  keys.length is always a power of two.
+    int mask;
+
+    public IntObjectMap() { this(DEFAULT_CAPACITY); }
+
+    /** Builds an IntObjectMap which can hold at least the given number of entries before it has to grow. */
+    public IntObjectMap(int capacity)
+        {
+        int len = 2;
+        while(len < capacity * 2) len *= 2;               // keep the load factor at or under 1/2
+        keys = new int[len];
+        values = new Object[len];
+        used = new boolean[len];
+        mask = len - 1;
+        }
+
+    // Spreads the bits of sequential keys, such as note IDs, across the table
+    static int hash(int key) { return IntIntMap.hash(key); }
+
+    /** Returns the number of entries in the map. */
+    public int size() { return size; }
+
+    /** Returns true if the map has no entries. */
+    public boolean isEmpty() { return size == 0; }
+
+    /** Removes all entries from the map, without reallocating it. */
+    public void clear()
+        {
+        if (size == 0) return;
+        java.util.Arrays.fill(used, false);
+        java.util.Arrays.fill(values, null);            // let them GC
+        size = 0;
+        }
+
+    // Returns the slot holding the key, or -1
+    int find(int key)
+        {
+        int i = hash(key) & mask;
+        while(used[i])
+            {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+            }
+        return -1;
+        }
+
+    /** Returns true if the key is in the map. */
+    public boolean containsKey(int key) { return find(key) >= 0; }
+
+    /** Returns the value for the given key, or null if the key is not in the map. */
+    public V get(int key)
+        {
+        int i = find(key);
+        return (i < 0 ? null : (V)values[i]);
+        }
+
+    /** Maps the key to the value, and returns the previous value, or null if there was none. */
+    public V put(int key, V value)
+        {
+        int i = hash(key) & mask;
+        while(used[i])
+            {
+            if (keys[i] == key)
+                {
+                V old = (V)values[i];
+                values[i] = value;
+                return old;
+                }
+            i = (i + 1) & mask;
+            }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) resize(keys.length * 2);
+        return null;
+        }
+
+    /** Removes the key and returns its value, or null if the key was not in the map. */
+    public V remove(int key)
+        {
+        int i = find(key);
+        if (i < 0) return null;
+        V old = (V)values[i];
+
+        // Shift later entries in the run back into the hole, so lookups never stop early
+        int hole = i;
+        i = (i + 1) & mask;
+        while(used[i])
+            {
+            int home = hash(keys[i]) & mask;
+            // can the entry at i move back to the hole?  Only if its home isn't cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask))
+                {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+                }
+            i = (i + 1) & mask;
+            }
+        used[hole] = false;
+        values[hole] = null;            // let it GC
+        size--;
+        return old;
+        }
+
+    /** Returns a new array holding the keys in the map, in no particular order. */
+    public int[] keys()
+        {
+        int[] k = new int[size];
+        int j = 0;
+        for(int i = 0; i < keys.length; i++)
+            if (used[i]) k[j++] = keys[i];
+        return k;
+        }
+
+    /** Returns the number of slots in the map, for iteration with isUsed(...), getKeyAt(...), and getValueAt(...). */
+    public int getCapacity() { return keys.length; }
+    /** Returns true if the given slot holds an entry. */
+    public boolean isUsed(int slot) { return used[slot]; }
+    /** Returns the key at the given slot, which must be used. */
+    public int getKeyAt(int slot) { return keys[slot]; }
+    /** Returns the value at the given slot, which must be used. */
+    public V getValueAt(int slot) { return (V)values[slot]; }
+
+    void resize(int len)
+        {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[len];
+        values = new Object[len];
+        used = new boolean[len];
+        mask = len - 1;
+        for(int j = 0; j < oldKeys.length; j++)
+            {
+            if (!oldUsed[j]) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while(used[i]) i = (i + 1) & mask;
+            used[i] = true;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+            }
+        }
+
+    /** Benchmarks IntObjectMap against HashMap&lt;Integer, Object&gt; with the pattern FilterClip sees, where a
+        fixed number of note IDs are live at a time, each put when its note starts and removed when it ends.  
+        Reports the time and bytes allocated per operation, then checks that IntObjectMap agrees with HashMap 
+        over a long run of random puts, gets, and removes.  Run as java seq.util.IntObjectMap [OPS [LIVE]]  */
+    public static void main(String[] args)
+        {
+        int ops = (args.length > 0 ? Integer.parseInt(args[0]) : 5000000);
+        int live = (args.length > 1 ? Integer.parseInt(args[1]) : 64);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Object[] values = new Object[128];
+        for(int i = 0; i < values.length; i++) values[i] = new int[] { i };
+        long sum = 0;
+
+        for(int rep = 0; rep < 3; rep++)                // the first rep or two are warm-up
+            {
+            java.util.HashMap<Integer, Object> hashMap = new java.util.HashMap<>();
+            long bytes = bean.getThreadAllocatedBytes(thread);
+            long time = System.nanoTime();
+            for(int id = 0; id < ops; id++)
+                {
+                hashMap.put(id, values[id & 127]);
+                if (id >= live && hashMap.remove(id - live) != null) sum++;
+                }
+            long hashMapTime = System.nanoTime() - time;
+            long hashMapBytes = bean.getThreadAllocatedBytes(thread) - bytes;
+
+            IntObjectMap<Object> map = new IntObjectMap<>();
+            bytes = bean.getThreadAllocatedBytes(thread);
+            time = System.nanoTime();
+            for(int id = 0; id < ops; id++)
+                {
+                map.put(id, values[id & 127]);
+                if (id >= live && map.remove(id - live) != null) sum++;
+                }
+            long mapTime = System.nanoTime() - time;
+            long mapBytes = bean.getThreadAllocatedBytes(thread) - bytes;
+
+            System.err.println("HashMap " + String.format("%.1f", hashMapTime / (double)ops) + " ns/op " + 
+                String.format("%.1f", hashMapBytes / (double)ops) + " B/op    IntObjectMap " + 
+                String.format("%.1f", mapTime / (double)ops) + " ns/op " + 
+                String.format("%.2f", mapBytes / (double)ops) + " B/op");
+            }
+
+        java.util.Random random = new java.util.Random(1);
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        java.util.HashMap<Integer, Integer> hashMap = new java.util.HashMap<>();
+        for(int i = 0; i < 2000000; i++)
+            {
+            int key = random.nextInt(300) - 100;
+            Integer expected;
+            Integer result;
+            switch(random.nextInt(3))
+                {
+                case(0):
+                    expected = hashMap.put(key, i);
+                    result = map.put(key, i);
+                break;
+                case(1):
+                    expected = hashMap.remove(key);
+                    result = map.remove(key);
+                break;
+                default:
+                    expected = hashMap.get(key);
+                    result = map.get(key);
+                break;
+                }
+            if (!java.util.Objects.equals(expected, result) || hashMap.size() != map.size())
+                throw new RuntimeException("IntObjectMap disagrees with HashMap at operation " + i);
+            if (i % 500000 == 0) { map.clear(); hashMap.clear(); }
+            }
+        System.err.println("IntObjectMap agrees with HashMap (" + sum + ")");
+        }
+    }
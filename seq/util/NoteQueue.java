@@ -0,0 +1,179 @@
+/*
+  Copyright 2025 by Sean Luke and George Mason University
+  Licensed under Apache 2.0
+*/
+
+package seq.util;
+
+/**
+   A priority queue of scheduled note ons and note offs, ordered by time and then by the
+   order in which they were added.  Unlike Heap, NoteQueue stores its notes in parallel
+   primitive arrays (a "struct of arrays") and so does not allocate anything, nor box
+   any keys, once it has grown to its working size.
+
+   <p>Checking whether anything is due is O(1), and adding and extracting are O(lg n).
+   To avoid allocation, extractMin() does not return the note it removes: instead it
+   loads it into the queue's <i>current</i> note, which you then read with getOut(),
+   getNote(), getVelocity(), getID(), and isOn().  For example:
+
+   <pre>
+   while(queue.isDue(time))
+   {
+   queue.extractMin();
+   if (queue.isOn()) ... else ...
+   }
+   </pre>
+
+   <p>NoteQueue is not synchronized.
+**/
+
+public class NoteQueue implements java.io.Serializable
+    {
+    private static final long serialVersionUID = 1;
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // The heap, stored as parallel arrays.  Element 0 is the minimum.
+    long[] times;
+    long[] orders;
+    int[] outs;
+    int[] notes;
+    double[] velocities;
+    int[] ids;
+    boolean[] ons;
+    int numElem = 0;
+    // Incremented each time a note is added, so notes at the same time come out in the order they went in
+    long counter = 0;
+
+    // The current note, loaded by extractMin()
+    long currentTime;
+    int currentOut;
+    int currentNote;
+    double currentVelocity;
+    int currentID;
+    boolean currentOn;
+
+    public NoteQueue() { this(DEFAULT_CAPACITY); }
+
+    public NoteQueue(int capacity)
+        {
+        if (capacity < 1) capacity = 1;
+        times = new long[capacity];
+        orders = new long[capacity];
+        outs = new int[capacity];
+        notes = new int[capacity];
+        velocities = new double[capacity];
+        ids = new int[capacity];
+        ons = new boolean[capacity];
+        }
+
+    /** Returns the number of notes in the queue. */
+    public int size() { return numElem; }
+
+    /** Returns true if the queue has no notes. */
+    public boolean isEmpty() { return numElem == 0; }
+
+    /** Removes all notes from the queue.  */
+    public void clear() { numElem = 0; }
+
+    /** Returns true if the queue has a note scheduled at or before the given time.  O(1). */
+    public boolean isDue(long time) { return numElem > 0 && times[0] <= time; }
+
+    /** Returns the time of the earliest note, or Long.MAX_VALUE if the queue is empty. */
+    public long getMinTime() { return (numElem == 0 ? Long.MAX_VALUE : times[0]); }
+
+    /** Adds a note on (if ON is true) or note off (if ON is false), scheduled at the given time.  */
+    public void add(long time, boolean on, int out, int note, double velocity, int id)
+        {
+        if (numElem == times.length) resize(numElem * 2);
+        long order = counter++;
+
+        // sift up
+        int i = numElem++;
+        while(i > 0)
+            {
+            int parent = (i - 1) >>> 1;
+            if (times[parent] < time || (times[parent] == time && orders[parent] < order)) break;
+            move(parent, i);
+            i = parent;
+            }
+        times[i] = time;
+        orders[i] = order;
+        outs[i] = out;
+        notes[i] = note;
+        velocities[i] = velocity;
+        ids[i] = id;
+        ons[i] = on;
+        }
+
+    /** Removes the earliest note and loads it as the current note.  Returns false,
+        and does nothing, if the queue is empty. */
+    public boolean extractMin()
+        {
+        if (numElem == 0) return false;
+        currentTime = times[0];
+        currentOut = outs[0];
+        currentNote = notes[0];
+        currentVelocity = velocities[0];
+        currentID = ids[0];
+        currentOn = ons[0];
+
+        numElem--;
+        if (numElem > 0)
+            {
+            // sift the last element down from the top
+            int last = numElem;
+            long time = times[last];
+            long order = orders[last];
+            int i = 0;
+            while(true)
+                {
+                int child = 2 * i + 1;
+                if (child >= numElem) break;
+                int right = child + 1;
+                if (right < numElem && (times[right] < times[child] || (times[right] == times[child] && orders[right] < orders[child])))
+                    child = right;
+                if (time < times[child] || (time == times[child] && order < orders[child])) break;
+                move(child, i);
+                i = child;
+                }
+            move(last, i);
+            }
+        return true;
+        }
+
+    /** Returns the time of the current note. */
+    public long getTime() { return currentTime; }
+    /** Returns the out of the current note. */
+    public int getOut() { return currentOut; }
+    /** Returns the pitch of the current note. */
+    public int getNote() { return currentNote; }
+    /** Returns the velocity of the current note. */
+    public double getVelocity() { return currentVelocity; }
+    /** Returns the id of the current note. */
+    public int getID() { return currentID; }
+    /** Returns true if the current note is a note on, false if it is a note off. */
+    public boolean isOn() { return currentOn; }
+
+    void move(int from, int to)
+        {
+        times[to] = times[from];
+        orders[to] = orders[from];
+        outs[to] = outs[from];
+        notes[to] = notes[from];
+        velocities[to] = velocities[from];
+        ids[to] = ids[from];
+        ons[to] = ons[from];
+        }
+
+    void resize(int capacity)
+        {
+        times = java.util.Arrays.copyOf(times, capacity);
+        orders = java.util.Arrays.copyOf(orders, capacity);
+        outs = java.util.Arrays.copyOf(outs, capacity);
+        notes = java.util.Arrays.copyOf(notes, capacity);
+        velocities = java.util.Arrays.copyOf(velocities, capacity);
+        ids = java.util.Arrays.copyOf(ids, capacity);
+        ons = java.util.Arrays.copyOf(ons, capacity);
+        }
+    }